@@ -0,0 +1,56 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH suites once per thread count, writing one JSON result file
+ * per thread count so results can be archived and compared run-over-run.
+ * JMH itself takes a single {@code -t}; this adds a thread sweep.
+ *
+ * <pre>
+ *   java -jar target/benchmarks.jar -threads 1,2,4,8,16 [JMH options] [regexp]
+ * </pre>
+ *
+ * Each run writes {@code jmh-result-t<threads>.json} unless a result file is
+ * given with the usual JMH {@code -rff} option.  Without {@code -threads}
+ * this behaves exactly like {@code org.openjdk.jmh.Main}.
+ *
+ * @since 1.1.5
+ */
+public class BenchmarkRunner {
+  public static void main( String[] args ) throws Exception {
+    List<String> jmh = new ArrayList<String>();
+    int[] threads = null;
+    for( int i=0; i<args.length; i++ ) {
+      if( args[i].equals("-threads") && i+1 < args.length ) {
+        String[] ts = args[++i].split(",");
+        threads = new int[ts.length];
+        for( int j=0; j<ts.length; j++ )
+          threads[j] = Integer.parseInt(ts[j].trim());
+      } else {
+        jmh.add(args[i]);
+      }
+    }
+    CommandLineOptions cmd = new CommandLineOptions(jmh.toArray(new String[jmh.size()]));
+    if( threads == null ) {     // No sweep: plain JMH
+      new Runner(cmd).run();
+      return;
+    }
+    for( int t : threads ) {
+      OptionsBuilder opt = new OptionsBuilder();
+      opt.parent(cmd).threads(t);
+      if( !cmd.getResult().hasValue() )
+        opt.resultFormat(ResultFormatType.JSON).result("jmh-result-t"+t+".json");
+      new Runner(opt.build()).run();
+    }
+  }
+}
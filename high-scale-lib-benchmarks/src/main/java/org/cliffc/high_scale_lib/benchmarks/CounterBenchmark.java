@@ -0,0 +1,88 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.cliffc.high_scale_lib.Counter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Throughput of the striped {@link Counter} (a {@link
+ * org.cliffc.high_scale_lib.ConcurrentAutoTable}) against {@link LongAdder}
+ * and {@link AtomicLong} baselines.  {@code readRatio} is the percentage of
+ * operations that read the counter; the rest are increments and decrements.
+ * This is the JMH replacement for {@code CAT_Tester/Harness}.
+ *
+ * @since 1.1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CounterBenchmark {
+
+  @Param({"Counter", "LongAdder", "AtomicLong"})
+  public String impl;
+
+  @Param({"0", "1", "10"})
+  public int readRatio;
+
+  Counter    _cnt;
+  LongAdder  _adder;
+  AtomicLong _atomic;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    if(      impl.equals("Counter"   ) ) _cnt    = new Counter();
+    else if( impl.equals("LongAdder" ) ) _adder  = new LongAdder();
+    else if( impl.equals("AtomicLong") ) _atomic = new AtomicLong();
+    else throw new IllegalArgumentException(impl);
+  }
+
+  @State(Scope.Thread)
+  public static class Ops {
+    OpStream _ops;
+    @Setup(Level.Trial)
+    public void setup( CounterBenchmark b, ThreadParams t ) {
+      _ops = new OpStream(b.readRatio,KeyDistribution.UNIFORM,1,t.getThreadIndex());
+    }
+  }
+
+  @Benchmark
+  public long mixed( Ops ops ) {
+    final OpStream s = ops._ops;
+    final byte op = s.op(s.next());
+    if( _cnt != null ) {
+      switch( op ) {
+      case OpStream.GET: return _cnt.get();
+      case OpStream.PUT: _cnt.increment(); return 0;
+      default:           _cnt.decrement(); return 0;
+      }
+    }
+    if( _adder != null ) {
+      switch( op ) {
+      case OpStream.GET: return _adder.sum();
+      case OpStream.PUT: _adder.increment(); return 0;
+      default:           _adder.decrement(); return 0;
+      }
+    }
+    switch( op ) {
+    case OpStream.GET: return _atomic.get();
+    case OpStream.PUT: return _atomic.incrementAndGet();
+    default:           return _atomic.decrementAndGet();
+    }
+  }
+
+  /** Counter's cheap, once-per-millisecond read; no baseline equivalent. */
+  @Benchmark
+  public long estimateGet() {
+    return _cnt != null ? _cnt.estimate_get() : _adder != null ? _adder.sum() : _atomic.get();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.Random;
+
+/**
+ * Key-access distributions used by the benchmarks.  Each distribution
+ * produces a stream of key indices in {@code [0,keySpace)}.  Streams are
+ * generated up-front (outside the measured region) from a seeded {@link
+ * Random}, so two runs with the same parameters touch exactly the same keys
+ * in the same order.
+ *
+ * <p>The hot keys of the skewed distributions are scattered over the key
+ * space with an odd multiplicative permutation, so that "hot" does not also
+ * mean "adjacent in the table" (which would flatter maps indexing directly
+ * by key, such as {@link org.cliffc.high_scale_lib.NonBlockingHashMapLong}).
+ *
+ * @since 1.1.5
+ */
+public enum KeyDistribution {
+
+  /** Every key equally likely. */
+  UNIFORM {
+    int next( Random R, int keySpace, Zipf zipf ) { return R.nextInt(keySpace); }
+  },
+
+  /** Zipfian with theta 0.99, the YCSB default: a few keys get most hits. */
+  ZIPFIAN {
+    int next( Random R, int keySpace, Zipf zipf ) { return zipf.next(R); }
+  },
+
+  /** 90% of the accesses go to 10% of the keys. */
+  HOTSPOT {
+    int next( Random R, int keySpace, Zipf zipf ) {
+      int hot = Math.max(1,keySpace/10);
+      return R.nextInt(100) < 90 ? R.nextInt(hot) : hot + R.nextInt(Math.max(1,keySpace-hot));
+    }
+  };
+
+  abstract int next( Random R, int keySpace, Zipf zipf );
+
+  /**
+   * Fill an array with {@code count} key indices drawn from this
+   * distribution.  {@code keySpace} must be a power of 2.
+   */
+  public int[] indices( final int keySpace, final int count, final long seed ) {
+    if( Integer.bitCount(keySpace) != 1 ) throw new IllegalArgumentException("keySpace must be a power of 2: "+keySpace);
+    final Random R = new Random(seed);
+    final Zipf zipf = this == ZIPFIAN ? new Zipf(keySpace) : null;
+    final int[] idx = new int[count];
+    for( int i=0; i<count; i++ )
+      idx[i] = (next(R,keySpace,zipf)*0x9E3779B1) & (keySpace-1); // Scatter hot keys
+    return idx;
+  }
+
+  // --- Zipf ----------------------------------------------------------------
+  // Gray et al, "Quickly Generating Billion-Record Synthetic Databases".
+  // Same algorithm (and theta) as the YCSB ZipfianGenerator.
+  static final class Zipf {
+    static final double THETA = 0.99;
+    final int _n;
+    final double _zetan, _alpha, _eta, _half_pow_theta;
+    Zipf( int n ) {
+      _n = n;
+      double zetan = 0;
+      for( int i=1; i<=n; i++ )
+        zetan += 1.0/Math.pow(i,THETA);
+      double zeta2 = 1.0 + 1.0/Math.pow(2,THETA);
+      _zetan = zetan;
+      _alpha = 1.0/(1.0-THETA);
+      _eta = (1.0 - Math.pow(2.0/n,1.0-THETA)) / (1.0 - zeta2/zetan);
+      _half_pow_theta = 1.0 + Math.pow(0.5,THETA);
+    }
+    int next( Random R ) {
+      double u = R.nextDouble();
+      double uz = u*_zetan;
+      if( uz < 1.0 ) return 0;
+      if( uz < _half_pow_theta ) return 1;
+      int x = (int)(_n * Math.pow(_eta*u - _eta + 1.0, _alpha));
+      return x >= _n ? _n-1 : x;
+    }
+  }
+}
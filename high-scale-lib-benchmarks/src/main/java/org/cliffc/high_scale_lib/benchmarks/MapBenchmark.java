@@ -0,0 +1,82 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.cliffc.high_scale_lib.NonBlockingIdentityHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Mixed get/put/remove throughput of the {@code Object}-keyed maps, against
+ * a {@link ConcurrentHashMap} baseline.  This is the JMH replacement for the
+ * {@code NBHM_Tester/perf_hash_test} driver.
+ *
+ * @since 1.1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapBenchmark {
+
+  @Param({"NonBlockingHashMap", "NonBlockingIdentityHashMap", "ConcurrentHashMap"})
+  public String impl;
+
+  /** Percentage of operations that are gets; the rest are half puts, half removes. */
+  @Param({"50", "90", "100"})
+  public int readRatio;
+
+  @Param({"1024", "1048576"})
+  public int keySpace;
+
+  @Param({"UNIFORM", "ZIPFIAN", "HOTSPOT"})
+  public KeyDistribution distribution;
+
+  ConcurrentMap<String,String> _map;
+  String[] _keys;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    if(      impl.equals("NonBlockingHashMap"        ) ) _map = new NonBlockingHashMap<String,String>();
+    else if( impl.equals("NonBlockingIdentityHashMap") ) _map = new NonBlockingIdentityHashMap<String,String>();
+    else if( impl.equals("ConcurrentHashMap"         ) ) _map = new ConcurrentHashMap<String,String>();
+    else throw new IllegalArgumentException(impl);
+    // Keys are built once and shared, so the identity map sees the same
+    // instances as everybody else.
+    _keys = new String[OpStream.pow2(keySpace)];
+    for( int i=0; i<_keys.length; i++ )
+      _keys[i] = String.valueOf(i) + "abc" + String.valueOf(i*17+123);
+    // Start half full, the steady state of an even put/remove mix.
+    for( int i=0; i<_keys.length; i+=2 )
+      _map.put(_keys[i],_keys[i]);
+  }
+
+  @State(Scope.Thread)
+  public static class Ops {
+    OpStream _ops;
+    @Setup(Level.Trial)
+    public void setup( MapBenchmark b, ThreadParams t ) {
+      _ops = new OpStream(b.readRatio,b.distribution,OpStream.pow2(b.keySpace),t.getThreadIndex());
+    }
+  }
+
+  @Benchmark
+  public String mixed( Ops ops ) {
+    final OpStream s = ops._ops;
+    final int i = s.next();
+    final String k = _keys[s.key(i)];
+    switch( s.op(i) ) {
+    case OpStream.GET: return _map.get(k);
+    case OpStream.PUT: return _map.put(k,k);
+    default:           return _map.remove(k);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Mixed get/put/remove throughput of {@link NonBlockingHashMapLong}, against
+ * a {@link ConcurrentHashMap} of {@link Long} baseline.  The baseline keys
+ * are boxed up-front so the comparison is of the tables, not of the boxing.
+ * This is the JMH replacement for {@code NBHM_Tester/perf_hashlong_test}.
+ *
+ * @since 1.1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapLongBenchmark {
+
+  @Param({"NonBlockingHashMapLong", "ConcurrentHashMap"})
+  public String impl;
+
+  @Param({"50", "90", "100"})
+  public int readRatio;
+
+  @Param({"1024", "1048576"})
+  public int keySpace;
+
+  @Param({"UNIFORM", "ZIPFIAN", "HOTSPOT"})
+  public KeyDistribution distribution;
+
+  NonBlockingHashMapLong<String> _nbhml;
+  ConcurrentHashMap<Long,String> _chm;
+  long[] _keys;
+  Long[] _boxed;
+  static final String V = "v";
+
+  @Setup(Level.Trial)
+  public void setup() {
+    int len = OpStream.pow2(keySpace);
+    _keys  = new long[len];
+    _boxed = new Long[len];
+    for( int i=0; i<len; i++ ) {
+      _keys [i] = i+1;          // Dense ids, skipping the special zero key
+      _boxed[i] = _keys[i];
+    }
+    if(      impl.equals("NonBlockingHashMapLong") ) _nbhml = new NonBlockingHashMapLong<String>();
+    else if( impl.equals("ConcurrentHashMap"     ) ) _chm   = new ConcurrentHashMap<Long,String>();
+    else throw new IllegalArgumentException(impl);
+    for( int i=0; i<len; i+=2 )
+      if( _nbhml != null ) _nbhml.put(_keys[i],V); else _chm.put(_boxed[i],V);
+  }
+
+  @State(Scope.Thread)
+  public static class Ops {
+    OpStream _ops;
+    @Setup(Level.Trial)
+    public void setup( MapLongBenchmark b, ThreadParams t ) {
+      _ops = new OpStream(b.readRatio,b.distribution,OpStream.pow2(b.keySpace),t.getThreadIndex());
+    }
+  }
+
+  @Benchmark
+  public String mixed( Ops ops ) {
+    final OpStream s = ops._ops;
+    final int i = s.next();
+    final int k = s.key(i);
+    final NonBlockingHashMapLong<String> nbhml = _nbhml;
+    if( nbhml != null ) {
+      switch( s.op(i) ) {
+      case OpStream.GET: return nbhml.get   (_keys[k]);
+      case OpStream.PUT: return nbhml.put   (_keys[k],V);
+      default:           return nbhml.remove(_keys[k]);
+      }
+    }
+    switch( s.op(i) ) {
+    case OpStream.GET: return _chm.get   (_boxed[k]);
+    case OpStream.PUT: return _chm.put   (_boxed[k],V);
+    default:           return _chm.remove(_boxed[k]);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.Random;
+
+/**
+ * A pre-computed, per-thread stream of operations and key indices.  The
+ * stream is built outside the measured region, so the benchmark loop is a
+ * pair of array loads and a table operation - no {@link Random} calls and no
+ * allocation.  Reads make up {@code readRatio} percent of the stream; the
+ * remainder is split evenly between inserts and removes, as in the old
+ * {@code perf_hash_test} driver, so table occupancy stays roughly constant.
+ *
+ * @since 1.1.5
+ */
+public final class OpStream {
+  public static final byte GET    = 0;
+  public static final byte PUT    = 1;
+  public static final byte REMOVE = 2;
+
+  // Power-of-2 length, so wrapping the cursor is a mask.  64K ops is large
+  // enough that the pattern does not fit in the branch predictor.
+  private static final int LEN = 1<<16;
+
+  private final int [] _keys;
+  private final byte[] _ops;
+  private int _i;
+
+  public OpStream( final int readRatio, final KeyDistribution dist, final int keySpace, final long seed ) {
+    if( readRatio < 0 || readRatio > 100 ) throw new IllegalArgumentException("readRatio must be from 0 to 100: "+readRatio);
+    _keys = dist.indices(keySpace,LEN,seed);
+    _ops = new byte[LEN];
+    final Random R = new Random(~seed);
+    for( int i=0; i<LEN; i++ )
+      _ops[i] = R.nextInt(100) < readRatio ? GET : (R.nextBoolean() ? PUT : REMOVE);
+  }
+
+  /** Advance the cursor; returns the position to hand to {@link #op} and {@link #key}. */
+  public int  next()        { return _i = (_i+1)&(LEN-1); }
+  /** The operation at position {@code i}. */
+  public byte op ( int i )  { return _ops [i]; }
+  /** The key index at position {@code i}. */
+  public int  key( int i )  { return _keys[i]; }
+
+  /** Round up to the next power of 2, as {@link KeyDistribution} requires. */
+  public static int pow2( final int x ) {
+    int p = 1;
+    while( p < x ) p <<= 1;
+    return p;
+  }
+}
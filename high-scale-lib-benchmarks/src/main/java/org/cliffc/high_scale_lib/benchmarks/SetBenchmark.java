@@ -0,0 +1,76 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.cliffc.high_scale_lib.NonBlockingHashSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Mixed contains/add/remove throughput of {@link NonBlockingHashSet},
+ * against a {@link ConcurrentHashMap#newKeySet} baseline.  This is the JMH
+ * replacement for {@code NBHS_Tester/perf_set_test}.
+ *
+ * @since 1.1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SetBenchmark {
+
+  @Param({"NonBlockingHashSet", "ConcurrentHashMap"})
+  public String impl;
+
+  @Param({"50", "90", "100"})
+  public int readRatio;
+
+  @Param({"1024", "1048576"})
+  public int keySpace;
+
+  @Param({"UNIFORM", "ZIPFIAN", "HOTSPOT"})
+  public KeyDistribution distribution;
+
+  Set<String> _set;
+  String[] _keys;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    if(      impl.equals("NonBlockingHashSet") ) _set = new NonBlockingHashSet<String>();
+    else if( impl.equals("ConcurrentHashMap" ) ) _set = ConcurrentHashMap.<String>newKeySet();
+    else throw new IllegalArgumentException(impl);
+    _keys = new String[OpStream.pow2(keySpace)];
+    for( int i=0; i<_keys.length; i++ )
+      _keys[i] = String.valueOf(i) + "abc" + String.valueOf(i*17+123);
+    for( int i=0; i<_keys.length; i+=2 )
+      _set.add(_keys[i]);
+  }
+
+  @State(Scope.Thread)
+  public static class Ops {
+    OpStream _ops;
+    @Setup(Level.Trial)
+    public void setup( SetBenchmark b, ThreadParams t ) {
+      _ops = new OpStream(b.readRatio,b.distribution,OpStream.pow2(b.keySpace),t.getThreadIndex());
+    }
+  }
+
+  @Benchmark
+  public boolean mixed( Ops ops ) {
+    final OpStream s = ops._ops;
+    final int i = s.next();
+    final String k = _keys[s.key(i)];
+    switch( s.op(i) ) {
+    case OpStream.GET: return _set.contains(k);
+    case OpStream.PUT: return _set.add     (k);
+    default:           return _set.remove  (k);
+    }
+  }
+}
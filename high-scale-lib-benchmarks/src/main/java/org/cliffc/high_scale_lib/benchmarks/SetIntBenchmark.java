@@ -0,0 +1,86 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.benchmarks;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.cliffc.high_scale_lib.NonBlockingSetInt;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Mixed contains/add/remove throughput of the {@link NonBlockingSetInt}
+ * bit-vector using its primitive {@code int} API, against a {@link
+ * ConcurrentHashMap#newKeySet} of pre-boxed {@link Integer} baseline.
+ *
+ * @since 1.1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SetIntBenchmark {
+
+  @Param({"NonBlockingSetInt", "ConcurrentHashMap"})
+  public String impl;
+
+  @Param({"50", "90", "100"})
+  public int readRatio;
+
+  @Param({"1024", "1048576"})
+  public int keySpace;
+
+  @Param({"UNIFORM", "ZIPFIAN", "HOTSPOT"})
+  public KeyDistribution distribution;
+
+  NonBlockingSetInt _nbsi;
+  Set<Integer> _chm;
+  Integer[] _boxed;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    int len = OpStream.pow2(keySpace);
+    _boxed = new Integer[len];
+    for( int i=0; i<len; i++ )
+      _boxed[i] = i;
+    if(      impl.equals("NonBlockingSetInt") ) _nbsi = new NonBlockingSetInt();
+    else if( impl.equals("ConcurrentHashMap") ) _chm  = ConcurrentHashMap.<Integer>newKeySet();
+    else throw new IllegalArgumentException(impl);
+    for( int i=0; i<len; i+=2 )
+      if( _nbsi != null ) _nbsi.add(i); else _chm.add(_boxed[i]);
+  }
+
+  @State(Scope.Thread)
+  public static class Ops {
+    OpStream _ops;
+    @Setup(Level.Trial)
+    public void setup( SetIntBenchmark b, ThreadParams t ) {
+      _ops = new OpStream(b.readRatio,b.distribution,OpStream.pow2(b.keySpace),t.getThreadIndex());
+    }
+  }
+
+  @Benchmark
+  public boolean mixed( Ops ops ) {
+    final OpStream s = ops._ops;
+    final int i = s.next();
+    final int k = s.key(i);
+    final NonBlockingSetInt nbsi = _nbsi;
+    if( nbsi != null ) {
+      switch( s.op(i) ) {
+      case OpStream.GET: return nbsi.contains(k);
+      case OpStream.PUT: return nbsi.add     (k);
+      default:           return nbsi.remove  (k);
+      }
+    }
+    switch( s.op(i) ) {
+    case OpStream.GET: return _chm.contains(_boxed[k]);
+    case OpStream.PUT: return _chm.add     (_boxed[k]);
+    default:           return _chm.remove  (_boxed[k]);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.Serializable;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * An auto-resizing table of {@code longs} folded together with any
+ * associative, commutative operator: the {@link ConcurrentAutoTable} for
+ * reductions other than sum.  Each update CAS's the operator's result into
+ * one stripe of the table; a read folds all the stripes together.  Stripes
+ * are picked and grown exactly as in {@link ConcurrentAutoTable}.
+ *
+ * <p>An update that would not change its stripe (a value below the current
+ * maximum, say) does no write at all, so once a high-water mark settles the
+ * table is read-only and does not contend even on one stripe.
+ *
+ * <p>The operator must be associative and commutative, and the identity must
+ * really be its identity: {@code op(identity,x) == x}.  Like a {@link
+ * Counter}, the folded value is only approximate while other threads update
+ * furiously, but includes all updates made by the current thread.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public class ConcurrentAccumulatorTable implements Serializable {
+
+  private static final long serialVersionUID = 1234123412341234128L;
+
+  private final LongBinaryOperator _op;
+  private final long _identity;
+
+  /**
+   * Create a table folding updates with {@code op}.
+   * @param op an associative and commutative operator; should be {@link
+   * Serializable} if the table is to be
+   * @param identity the operator's identity, and the table's initial value
+   * @throws NullPointerException if the operator is null
+   */
+  public ConcurrentAccumulatorTable( LongBinaryOperator op, long identity ) {
+    if( op == null ) throw new NullPointerException();
+    _op = op;
+    _identity = identity;
+    _tab = new Table(null,1,identity);
+  }
+
+  // --- public interface ---
+
+  /** Fold {@code x} into the table.  Concurrent updates will not be lost.
+   *  @param x the value to fold in */
+  public void accumulate( long x ) { _tab.accumulate(x,StripedTable.probe(),this); }
+
+  /** Current value: every update folded together, or the identity if none.
+   *  Requires a pass over the internally striped values.
+   *  @return the folded value */
+  public long get() { return _tab.fold(0,_op,_identity); }
+
+  /** Return the current value and reset the table to the identity, as for
+   *  the peak of each interval.  Each stripe is drained atomically, so every
+   *  concurrent update is counted exactly once: in this value or the next.
+   *  @return the folded value before the reset */
+  public long getThenReset() { return _tab.drain(0,_identity,_op,_identity); }
+
+  /** Reset the table to the identity.  Updates racing with the reset may be
+   *  lost; see {@link #getThenReset} for a reset that keeps them. */
+  public void reset() {
+    Table newtab = new Table(null,1,_identity);
+    // Spin until CAS works
+    while( !CAS_tab(_tab,newtab) );
+  }
+
+  /** @return the current value as a string */
+  public String toString() { return Long.toString(get()); }
+
+  /** Return the internal striping factor.  Useful for diagnosing
+   *  performance problems.
+   *  @return the count of stripes */
+  public int internal_size() { return _tab._mask+1; }
+
+  // The underlying array of concurrently updated longs
+  private volatile Table _tab;
+  private static final AtomicReferenceFieldUpdater<ConcurrentAccumulatorTable,Table> _tabUpdater =
+    AtomicReferenceFieldUpdater.newUpdater(ConcurrentAccumulatorTable.class,Table.class, "_tab");
+  private boolean CAS_tab( Table oldtab, Table newtab ) { return _tabUpdater.compareAndSet(this,oldtab,newtab); }
+
+  // --- Table ---------------------------------------------------------------
+  // One column of a StripedTable, every stripe starting at the identity.  A
+  // resize chains the old table behind the new one; both are folded on a
+  // read.
+  private static class Table extends StripedTable<Table> {
+    private final long _identity;
+
+    Table( Table next, int stripes, long identity ) {
+      super(next,stripes,1);
+      _identity = identity;
+      for( int i=_base; i<_t.length; i+=_stride )
+        _t[i] = identity;
+    }
+    Table twice() { return new Table(this,(_mask+1)<<1,_identity); }
+
+    // Fold x into some stripe.  A lost CAS moves the thread to another
+    // stripe; too many and the table doubles.
+    void accumulate( long x, int probe, ConcurrentAccumulatorTable master ) {
+      final LongBinaryOperator op = master._op;
+      final long[] t = _t;
+      int idx = idx(probe);
+      int cnt=0;
+      while( true ) {
+        final long old = t[idx];
+        final long nnn = op.applyAsLong(old,x);
+        if( nnn == old || CAS( t, idx, old, nnn ) ) break; // No change, or got it!
+        probe = advance_probe(probe);
+        idx = idx(probe);
+        cnt++;
+      }
+      if( cnt >= MAX_SPIN ) resize(master,_tabUpdater);
+    }
+  }
+}
@@ -6,7 +6,6 @@
 package org.cliffc.high_scale_lib;
 import java.io.Serializable;
 import java.util.concurrent.atomic.*;
-import sun.misc.Unsafe;
 
 /**
  * An auto-resizing table of {@code longs}, supporting low-contention CAS
@@ -32,7 +31,8 @@ public class ConcurrentAutoTable implements Serializable {
   /**
    * Add the given value to current counter value.  Concurrent updates will
    * not be lost, but addAndGet or getAndAdd are not implemented because the
-   * total counter value (i.e., {@link #get}) is not atomically updated.
+   * total counter value (i.e., {@link #get}) is not atomically updated; see
+   * {@link Counter#getAndAdd} for unique values handed out from leases.
    * Updates are striped across an array of counters to avoid cache contention
    * and has been tested with performance scaling linearly up to 768 CPUs.
    */
@@ -46,7 +46,7 @@ public class ConcurrentAutoTable implements Serializable {
    *  Rather more expensive than a simple store, in order to remain atomic.
    */
   public void set( long x ) { 
-    CAT newcat = new CAT(null,4,x);
+    CAT newcat = new CAT(null,1,x);
     // Spin until CAS works
     while( !CAS_cat(_cat,newcat) );
   }
@@ -62,6 +62,16 @@ public class ConcurrentAutoTable implements Serializable {
   /** Same as {@link #get}, included for completeness. */
   public long longValue() { return      _cat.sum(0); }
 
+  /**
+   * Return the current value and reset it to zero, for per-interval rate
+   * counters.  Each stripe is drained atomically, so every concurrent update
+   * is counted exactly once: either in this sum or in the next.  Requires a
+   * pass over the internally striped counters.
+   * @return the sum before the reset
+   * @since 1.1.5
+   */
+  public long sumThenReset() { return _cat.drain(); }
+
   /**
    * A cheaper {@link #get}.  Updated only once/millisecond, but as fast as a
    * simple load instruction when not updating.
@@ -83,7 +93,7 @@ public class ConcurrentAutoTable implements Serializable {
    * Return the internal counter striping factor.  Useful for diagnosing
    * performance problems.
    */
-  public int internal_size() { return _cat._t.length; }
+  public int internal_size() { return _cat._mask+1; }
 
   // Only add 'x' to some slot in table, hinted at by 'hash', if bits under
   // the mask are all zero.  The sum can overflow or 'x' can contain bits in
@@ -91,107 +101,46 @@ public class ConcurrentAutoTable implements Serializable {
   // it succeeds or bits are found under the mask.  Returned value is the old
   // value - which WILL have zero under the mask on success and WILL NOT have
   // zero under the mask for failure.
-  private long add_if_mask( long x, long mask ) { return _cat.add_if_mask(x,mask,hash(),this); }
+  long add_if_mask( long x, long mask ) { return _cat.add_if_mask(x,mask,StripedTable.probe(),this); }
+
+  // --- Masked updates ------------------------------------------------------
+  // Package-private hooks for ScalableReadWriteLock, which keeps a writer bit
+  // in every slot.  A resize installs a fresh table without the bit, so
+  // callers compare table() before and after to catch one.
+  void all_or ( long mask ) { _cat.all_or (mask); }
+  void all_and( long mask ) { _cat.all_and(mask); }
+  Object table() { return _cat; }
+  // Sum with mask stripped, reading every slot afresh and skipping the
+  // cached sum: a thread spinning on the sum must see each racing add.
+  long sum_live( long mask ) { return _cat.sum_live(mask); }
 
   // The underlying array of concurrently updated long counters
-  private volatile CAT _cat = new CAT(null,4/*Start Small, Think Big!*/,0L);
+  private volatile CAT _cat = new CAT(null,1/*Start Small, Think Big!*/,0L);
   private static final AtomicReferenceFieldUpdater<ConcurrentAutoTable,CAT> _catUpdater =
     AtomicReferenceFieldUpdater.newUpdater(ConcurrentAutoTable.class,CAT.class, "_cat");
   private boolean CAS_cat( CAT oldcat, CAT newcat ) { return _catUpdater.compareAndSet(this,oldcat,newcat); }
 
-  // Hash spreader
-  private static final int hash() {
-    int h = System.identityHashCode(Thread.currentThread());
-    // You would think that System.identityHashCode on the current thread
-    // would be a good hash fcn, but actually on SunOS 5.8 it is pretty lousy
-    // in the low bits.
-    h ^= (h>>>20) ^ (h>>>12);   // Bit spreader, borrowed from Doug Lea
-    h ^= (h>>> 7) ^ (h>>> 4);
-    return h<<2;                // Pad out cache lines.  The goal is to avoid cache-line contention
-  }
-
   // --- CAT -----------------------------------------------------------------
-  private static class CAT implements Serializable {
-    
-    // Unsafe crud: get a function which will CAS arrays
-    private static final Unsafe _unsafe = UtilUnsafe.getUnsafe();
-    private static final int _Lbase  = _unsafe.arrayBaseOffset(long[].class);
-    private static final int _Lscale = _unsafe.arrayIndexScale(long[].class);
-    private static long rawIndex(long[] ary, int i) {
-      assert i >= 0 && i < ary.length;
-      return _Lbase + i * _Lscale;
-    }
-    private final static boolean CAS( long[] A, int idx, long old, long nnn ) {
-      return _unsafe.compareAndSwapLong( A, rawIndex(A,idx), old, nnn );
-    }
-   
-    volatile long _resizers;    // count of threads attempting a resize
-    static private final AtomicLongFieldUpdater<CAT> _resizerUpdater =
-      AtomicLongFieldUpdater.newUpdater(CAT.class, "_resizers");
-
-    private final CAT _next;
+  private static class CAT extends StripedTable<CAT> {
     private volatile long _sum_cache;
     private volatile long _fuzzy_sum_cache;
     private volatile long _fuzzy_time;
-    private static final int MAX_SPIN=2;
-    private long[] _t;            // Power-of-2 array of longs
 
-    CAT( CAT next, int sz, long init ) {
-      _next = next;
+    CAT( CAT next, int stripes, long init ) {
+      super(next,stripes,1);
       _sum_cache = Long.MIN_VALUE;
-      _t = new long[sz];
-      _t[0] = init;
+      _t[_base] = init;
     }
-    
-    // Only add 'x' to some slot in table, hinted at by 'hash', if bits under
-    // the mask are all zero.  The sum can overflow or 'x' can contain bits in
-    // the mask.  Value is CAS'd so no counts are lost.  The CAS is attempted
-    // ONCE.
-    public long add_if_mask( long x, long mask, int hash, ConcurrentAutoTable master ) {
-      long[] t = _t;
-      int idx = hash & (t.length-1);
-      // Peel loop; try once fast
-      long old = t[idx];
-      boolean ok = CAS( t, idx, old&~mask, old+x );
+    CAT twice() { return new CAT(this,(_mask+1)<<1,0); }
+
+    // Masked add to some stripe, hinted at by 'probe'; see add_if_mask in
+    // StripedTable.  Resizes by CAS'ing a wider CAT into master.
+    public long add_if_mask( long x, long mask, int probe, ConcurrentAutoTable master ) {
+      final long old = add_if_mask(0,x,mask,probe,master,_catUpdater);
       if( _sum_cache != Long.MIN_VALUE )
         _sum_cache = Long.MIN_VALUE; // Blow out cache
-      if( ok ) return old;      // Got it
-      if( (old&mask) != 0 ) return old; // Failed for bit-set under mask
-      // Try harder
-      int cnt=0;
-      while( true ) {
-        old = t[idx];
-        if( (old&mask) != 0 ) return old; // Failed for bit-set under mask
-        if( CAS( t, idx, old, old+x ) ) break; // Got it!
-        cnt++;
-      }
-      if( cnt < MAX_SPIN ) return old; // Allowable spin loop count
-      if( t.length >= 1024*1024 ) return old; // too big already
-
-      // Too much contention; double array size in an effort to reduce contention
-      long r = _resizers;
-      int newbytes = (t.length<<1)<<3/*word to bytes*/;
-      while( !_resizerUpdater.compareAndSet(this,r,r+newbytes) )
-        r = _resizers;
-      r += newbytes;
-      if( master._cat != this ) return old; // Already doubled, don't bother
-      if( (r>>17) != 0 ) {      // Already too much allocation attempts?
-        // TODO - use a wait with timeout, so we'll wakeup as soon as the new
-        // table is ready, or after the timeout in any case.  Annoyingly, this
-        // breaks the non-blocking property - so for now we just briefly sleep.
-        //synchronized( this ) { wait(8*megs); }         // Timeout - we always wakeup
-        try { Thread.sleep(r>>17); } catch( InterruptedException e ) { }
-        if( master._cat != this ) return old;
-      }
-
-      CAT newcat = new CAT(this,t.length*2,0);
-      // Take 1 stab at updating the CAT with the new larger size.  If this
-      // fails, we assume some other thread already expanded the CAT - so we
-      // do not need to retry until it succeeds.
-      master.CAS_cat(this,newcat);
       return old;
     }
-    
 
     // Return the current sum of all things in the table, stripping off mask
     // before the add.  Writers can be updating the table furiously, so the
@@ -201,17 +150,35 @@ public class ConcurrentAutoTable implements Serializable {
       if( sum != Long.MIN_VALUE ) return sum;
       sum = _next == null ? 0 : _next.sum(mask); // Recursively get cached sum
       long[] t = _t;
-      for( int i=0; i<t.length; i++ )
+      for( int i=_base; i<t.length; i+=_stride )
         sum += t[i]&(~mask);
       _sum_cache = sum;         // Cache includes recursive counts
       return sum;
     }
 
+    // As sum, but with volatile reads and no cache
+    long sum_live( long mask ) {
+      long sum = _next == null ? 0 : _next.sum_live(mask);
+      long[] t = _t;
+      for( int i=_base; i<t.length; i+=_stride )
+        sum += get_volatile(i)&(~mask);
+      return sum;
+    }
+
+    // Atomically zero each slot, returning the sum of what was there.  Stale
+    // tables may still take updates from threads that read _cat before a
+    // resize, so drain them too.
+    public long drain() {
+      final long sum = drain(0,0,SUM,0);
+      _sum_cache = Long.MIN_VALUE; // Blow out cache
+      return sum;
+    }
+
     // Fast fuzzy version.  Used a cached value until it gets old, then re-up
     // the cache.
     public long estimate_sum( long mask ) {
       // For short tables, just do the work
-      if( _t.length <= 64 ) return sum(mask);
+      if( _mask < 64 ) return sum(mask);
       // For bigger tables, periodically freshen a cached value
       long millis = System.currentTimeMillis();
       if( _fuzzy_time != millis ) { // Time marches on?
@@ -224,7 +191,7 @@ public class ConcurrentAutoTable implements Serializable {
     // Update all table slots with CAS.
     public void all_or ( long mask ) {
       long[] t = _t;
-      for( int i=0; i<t.length; i++ ) {
+      for( int i=_base; i<t.length; i+=_stride ) {
         boolean done = false;
         while( !done ) {
           long old = t[i];
@@ -238,7 +205,7 @@ public class ConcurrentAutoTable implements Serializable {
     
     public void all_and( long mask ) {
       long[] t = _t;
-      for( int i=0; i<t.length; i++ ) {
+      for( int i=_base; i<t.length; i+=_stride ) {
         boolean done = false;
         while( !done ) {
           long old = t[i];
@@ -253,7 +220,7 @@ public class ConcurrentAutoTable implements Serializable {
     // Set/stomp all table slots.  No CAS.
     public void all_set( long val ) {
       long[] t = _t;
-      for( int i=0; i<t.length; i++ ) 
+      for( int i=_base; i<t.length; i+=_stride ) 
         t[i] = val;
       if( _next != null ) _next.all_set(val);
       if( _sum_cache != Long.MIN_VALUE )
@@ -264,8 +231,8 @@ public class ConcurrentAutoTable implements Serializable {
     
     public void print() { 
       long[] t = _t;
-      System.out.print("[sum="+_sum_cache+","+t[0]);
-      for( int i=1; i<t.length; i++ ) 
+      System.out.print("[sum="+_sum_cache+","+t[_base]);
+      for( int i=_base+_stride; i<t.length; i+=_stride ) 
         System.out.print(","+t[i]);
       System.out.print("]");
       if( _next != null ) _next.print();
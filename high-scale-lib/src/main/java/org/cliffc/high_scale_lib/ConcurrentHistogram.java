@@ -0,0 +1,255 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.Serializable;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of non-negative {@code long} values, such as latencies,
+ * recorded from many threads at once.  Recording is one CAS on a bucket
+ * count, with no locks and no allocation; reading takes a {@link Snapshot}.
+ *
+ * <p>Buckets are log-linear, as in HdrHistogram: each power of 2 is split
+ * into <tt>2<sup>bits</sup></tt> equal sub-buckets, so a recorded value is
+ * known to within a relative error of <tt>2<sup>-bits</sup></tt> over the
+ * whole range of {@code long}.  The default of 5 bits (about 3%) takes 1888
+ * buckets.
+ *
+ * <p>The bucket array is striped like a {@link ConcurrentAutoTable}: one copy
+ * per stripe, picked by a per-thread probe that moves on a lost CAS, and
+ * doubled when contention persists.  A histogram starts with a single copy;
+ * the doubling is the only allocation a recorder ever does.  Snapshots sum
+ * the copies.  {@link #snapshotThenReset} drains each count atomically, so
+ * every concurrent record lands in exactly one interval.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public class ConcurrentHistogram implements Serializable {
+
+  private static final long serialVersionUID = 1234123412341234131L;
+
+  private final int _bits;      // 1<<_bits sub-buckets per power of 2
+  private final int _nbuckets;
+
+  /** Create a histogram with a relative error of about 3%. */
+  public ConcurrentHistogram() { this(5); }
+
+  /**
+   * Create a histogram with a relative error of <tt>2<sup>-bits</sup></tt>,
+   * in <tt>(64-bits)*2<sup>bits</sup></tt> buckets.
+   * @param bits the precision, from 1 to 10
+   * @throws IllegalArgumentException if the precision is out of range
+   */
+  public ConcurrentHistogram( int bits ) {
+    if( bits < 1 || bits > 10 ) throw new IllegalArgumentException("bits="+bits);
+    _bits = bits;
+    _nbuckets = (64-bits)<<bits;
+    _tab = new Table(null,1,_nbuckets);
+  }
+
+  // --- public interface ---
+
+  /** Record one value.
+   *  @param v the value
+   *  @throws IllegalArgumentException if the value is negative */
+  public void record( long v ) { recordN(v,1); }
+
+  /** Record a value {@code n} times.
+   *  @param v the value
+   *  @param n the count of times
+   *  @throws IllegalArgumentException if the value or count is negative */
+  public void recordN( long v, long n ) {
+    if( v < 0 || n < 0 ) throw new IllegalArgumentException();
+    _tab.add(bucket(v,_bits),n,StripedTable.probe(),this);
+  }
+
+  /** Sum of the counts recorded so far.  The counts are read one at a time
+   *  while other threads record, so the snapshot is only approximate, but
+   *  includes all values recorded by the current thread.
+   *  @return a snapshot of the histogram */
+  public Snapshot snapshot() {
+    final long[] counts = new long[_nbuckets];
+    _tab.sum(counts);
+    return new Snapshot(_bits,counts);
+  }
+
+  /** Take a snapshot and reset the histogram, without blocking recorders.
+   *  Each count is drained atomically, so each concurrent record is in
+   *  either this snapshot or the next.
+   *  @return a snapshot of the histogram before the reset */
+  public Snapshot snapshotThenReset() {
+    final long[] counts = new long[_nbuckets];
+    _tab.drain(counts);
+    return new Snapshot(_bits,counts);
+  }
+
+  /** Reset the histogram, without blocking recorders. */
+  public void reset() { _tab.drain(new long[_nbuckets]); }
+
+  /** Return the internal striping factor.  Useful for diagnosing
+   *  performance problems.
+   *  @return the count of copies of the bucket array */
+  public int internal_size() { return _tab._mask+1; }
+
+  // --- Buckets -------------------------------------------------------------
+  // Values below 1<<bits get a bucket each.  Above that, a value whose top
+  // bit is bit m lands in sub-bucket 'the next bits below m' of group m-bits+1.
+  static int bucket( long v, int bits ) {
+    final int m = 63-Long.numberOfLeadingZeros(v); // -1 for zero
+    if( m < bits ) return (int)v;
+    return ((m-bits+1)<<bits) | (int)((v >>> (m-bits)) & ((1<<bits)-1));
+  }
+  static long lowest( int idx, int bits ) {
+    if( idx < (1<<bits) ) return idx;
+    return ((long)((1<<bits) | (idx & ((1<<bits)-1)))) << ((idx>>>bits)-1);
+  }
+  static long highest( int idx, int bits ) {
+    if( idx < (1<<bits) ) return idx;
+    return lowest(idx,bits) + (1L << ((idx>>>bits)-1)) - 1;
+  }
+
+  // The underlying striped bucket arrays
+  private volatile Table _tab;
+  private static final AtomicReferenceFieldUpdater<ConcurrentHistogram,Table> _tabUpdater =
+    AtomicReferenceFieldUpdater.newUpdater(ConcurrentHistogram.class,Table.class, "_tab");
+
+  // --- Table ---------------------------------------------------------------
+  // A StripedTable with one bucket array per stripe.  A resize chains the old
+  // table behind the new one; both are summed.
+  private static class Table extends StripedTable<Table> {
+    private final int _nbuckets;
+    Table( Table next, int stripes, int nbuckets ) { super(next,stripes,nbuckets); _nbuckets = nbuckets; }
+    Table twice() { return new Table(this,(_mask+1)<<1,_nbuckets); }
+
+    // Add n to bucket idx of some stripe.  A lost CAS moves the thread to
+    // another stripe; too many and the table doubles.
+    void add( int idx, long n, int probe, ConcurrentHistogram master ) {
+      add_if_mask(idx,n,0,probe,master,_tabUpdater);
+    }
+
+    // Sum every stripe of this and older tables into counts, a stripe at a
+    // time so each bucket array is read in order
+    void sum( long[] counts ) {
+      if( _next != null ) _next.sum(counts);
+      final long[] t = _t;
+      for( int s=0; s<=_mask; s++ ) {
+        final int off = _base + s*_stride;
+        for( int i=0; i<counts.length; i++ )
+          counts[i] += t[off+i];
+      }
+    }
+
+    // As sum, but atomically zeroing each count taken
+    void drain( long[] counts ) {
+      if( _next != null ) _next.drain(counts);
+      final long[] t = _t;
+      for( int s=0; s<=_mask; s++ ) {
+        final int off = _base + s*_stride;
+        for( int i=0; i<counts.length; i++ )
+          if( t[off+i] != 0 )
+            counts[i] += swap(off+i,0);
+      }
+    }
+  }
+
+  // --- Snapshot ------------------------------------------------------------
+  /**
+   * An immutable copy of the bucket counts of a {@link ConcurrentHistogram}.
+   * Snapshots of histograms with the same precision can be merged, as from
+   * many histograms or many intervals.
+   */
+  public static final class Snapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int _bits;
+    private final long[] _counts;
+    private final long _total;
+
+    Snapshot( int bits, long[] counts ) {
+      _bits = bits;
+      _counts = counts;
+      long total = 0;
+      for( long c : counts ) total += c;
+      _total = total;
+    }
+
+    /** @return the count of values recorded */
+    public long count() { return _total; }
+
+    /** Merge two snapshots.
+     *  @param s a snapshot of a histogram with the same precision
+     *  @return a snapshot holding the values of both
+     *  @throws IllegalArgumentException if the precisions differ */
+    public Snapshot merge( Snapshot s ) {
+      if( s._bits != _bits ) throw new IllegalArgumentException("precision "+s._bits+" != "+_bits);
+      final long[] counts = _counts.clone();
+      for( int i=0; i<counts.length; i++ )
+        counts[i] += s._counts[i];
+      return new Snapshot(_bits,counts);
+    }
+
+    /** The value below which the given percentage of values fall, rounded
+     *  up to the highest value of its bucket.
+     *  @param pct a percentage, from 0 to 100
+     *  @return the value at the percentile, or 0 if there are no values
+     *  @throws IllegalArgumentException if the percentage is out of range */
+    public long valueAtPercentile( double pct ) {
+      if( !(pct >= 0 && pct <= 100) ) throw new IllegalArgumentException("pct="+pct);
+      if( _total == 0 ) return 0;
+      final long target = Math.max(1,(long)Math.ceil(pct/100.0*_total));
+      long sum = 0;
+      for( int i=0; i<_counts.length; i++ )
+        if( (sum += _counts[i]) >= target )
+          return highest(i,_bits);
+      throw new Error("unreachable");
+    }
+
+    /** @return the lowest value of the lowest bucket holding a value, or 0
+     *  if there are no values */
+    public long min() {
+      for( int i=0; i<_counts.length; i++ )
+        if( _counts[i] != 0 ) return lowest(i,_bits);
+      return 0;
+    }
+
+    /** @return the highest value of the highest bucket holding a value, or 0
+     *  if there are no values */
+    public long max() {
+      for( int i=_counts.length-1; i>=0; i-- )
+        if( _counts[i] != 0 ) return highest(i,_bits);
+      return 0;
+    }
+
+    /** @return the mean of the values, each taken as the middle of its
+     *  bucket, or 0 if there are no values */
+    public double mean() {
+      if( _total == 0 ) return 0;
+      double sum = 0;
+      for( int i=0; i<_counts.length; i++ )
+        if( _counts[i] != 0 )
+          sum += _counts[i] * ((double)lowest(i,_bits) + (double)highest(i,_bits)) / 2;
+      return sum/_total;
+    }
+
+    /** @return the count of buckets */
+    public int buckets() { return _counts.length; }
+    /** @param i a bucket index
+     *  @return the count of values in the bucket */
+    public long bucketCount( int i ) { return _counts[i]; }
+    /** @param i a bucket index
+     *  @return the lowest value in the bucket */
+    public long bucketLowest( int i ) { return lowest(i,_bits); }
+    /** @param i a bucket index
+     *  @return the highest value in the bucket */
+    public long bucketHighest( int i ) { return highest(i,_bits); }
+
+    /** @return the count and some percentiles, for debugging */
+    public String toString() {
+      return "[count="+_total+", min="+min()+", p50="+valueAtPercentile(50)+
+        ", p99="+valueAtPercentile(99)+", max="+max()+"]";
+    }
+  }
+}
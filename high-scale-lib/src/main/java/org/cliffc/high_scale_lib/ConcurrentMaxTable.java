@@ -0,0 +1,33 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.Serializable;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A scalable high-water mark, such as the peak latency or deepest queue seen.
+ * Updates below the current maximum of their stripe do not write at all.
+ * See {@link ConcurrentAccumulatorTable}.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public class ConcurrentMaxTable extends ConcurrentAccumulatorTable {
+
+  private static final long serialVersionUID = 1234123412341234129L;
+
+  /** Create a table with no values yet, reading as {@link Long#MIN_VALUE}. */
+  public ConcurrentMaxTable() { super(new Max(),Long.MIN_VALUE); }
+
+  /** Raise the maximum to at least {@code x}.
+   *  @param x the value to fold in */
+  public void update( long x ) { accumulate(x); }
+
+  private static final class Max implements LongBinaryOperator, Serializable {
+    private static final long serialVersionUID = 1L;
+    public long applyAsLong( long a, long b ) { return Math.max(a,b); }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.Serializable;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A scalable low-water mark, such as the least latency or free space seen.
+ * Updates above the current minimum of their stripe do not write at all.
+ * See {@link ConcurrentAccumulatorTable}.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public class ConcurrentMinTable extends ConcurrentAccumulatorTable {
+
+  private static final long serialVersionUID = 1234123412341234130L;
+
+  /** Create a table with no values yet, reading as {@link Long#MAX_VALUE}. */
+  public ConcurrentMinTable() { super(new Min(),Long.MAX_VALUE); }
+
+  /** Lower the minimum to at most {@code x}.
+   *  @param x the value to fold in */
+  public void update( long x ) { accumulate(x); }
+
+  private static final class Min implements LongBinaryOperator, Serializable {
+    private static final long serialVersionUID = 1L;
+    public long applyAsLong( long a, long b ) { return Math.min(a,b); }
+  }
+}
@@ -4,6 +4,9 @@
  */
 
 package org.cliffc.high_scale_lib;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A simple high-performance counter.  Merely renames the extended {@link
@@ -11,6 +14,14 @@ package org.cliffc.high_scale_lib;
  * {@link org.cliffc.high_scale_lib.ConcurrentAutoTable} already has a decent
  * counting API.
  *
+ * <p>A Counter can also hand out unique values, for id or quota allocation,
+ * with {@link #getAndAdd} and {@link #getAndIncrement}.  Where an {@link
+ * AtomicLong} CAS's one word from every CPU, here each stripe leases a block
+ * of values from a central sequence and hands them out locally; the central
+ * sequence is only touched once per block.  The values are unique but not
+ * ordered across threads, and not dense: the unused part of a lease may be
+ * skipped.
+ *
  * @since 1.5
  * @author Cliff Click
  */
@@ -35,5 +46,68 @@ public class Counter extends ConcurrentAutoTable {
   // load instruction when not updating.
   //public long estimate_get( );
 
+  // --- Reservations --------------------------------------------------------
+  // Values are leased from _seq in aligned blocks of BLOCK.  Each stripe of
+  // _leases holds the next free value of its lease; an aligned value means
+  // the lease is used up (or was never taken).  A reservation CAS's the
+  // stripe forward, and only a used-up or too-small lease goes back to _seq.
+  private static final long BLOCK = 1024;
+  private final AtomicLong _seq = new AtomicLong();
+  private volatile AtomicLongArray _leases; // Lazily made: most Counters never reserve
+  private static final AtomicReferenceFieldUpdater<Counter,AtomicLongArray> _leasesUpdater =
+    AtomicReferenceFieldUpdater.newUpdater(Counter.class,AtomicLongArray.class,"_leases");
+
+  /**
+   * Atomically reserve {@code n} values: returns a value {@code v} such that
+   * no other reservation on this counter overlaps {@code [v,v+n)}.  Also adds
+   * {@code n} to the counter, so {@link #get} counts every value reserved.
+   * Reserved values start from 0 and are independent of {@link #add} and
+   * {@link #set}.  Scales like {@link #add}, with one trip to a central
+   * sequence per 1024 values per stripe.
+   * @param n the count of values to reserve
+   * @return the first of the reserved values
+   * @throws IllegalArgumentException if {@code n} is negative
+   * @since 1.1.5
+   */
+  public long getAndAdd( long n ) {
+    if( n < 0 ) throw new IllegalArgumentException();
+    if( n == 0 ) return _seq.get(); // Any value will do
+    add(n);
+    return reserve(n);
+  }
+  /** {@link #getAndAdd} with +1.
+   *  @return the reserved value
+   *  @since 1.1.5 */
+  public long getAndIncrement() { return getAndAdd(1); }
+  /** {@link #getAndAdd}, returning the end of the reserved range.
+   *  @param n the count of values to reserve
+   *  @return one past the last of the reserved values
+   *  @since 1.1.5 */
+  public long addAndGet( long n ) { return getAndAdd(n)+n; }
+
+  private long reserve( final long n ) {
+    AtomicLongArray ls = _leases;
+    if( ls == null ) {
+      _leasesUpdater.compareAndSet(this,null,new AtomicLongArray((StripedTable.MAX_STRIPES+1)*StripedTable.PAD));
+      ls = _leases;
+    }
+    int probe = StripedTable.probe();
+    while( true ) {
+      final int idx = ((probe & (StripedTable.MAX_STRIPES-1))+1)*StripedTable.PAD;
+      final long v = ls.get(idx);
+      if( (v & (BLOCK-1)) != 0 &&     // Holding a lease?
+          n <= ((v+BLOCK-1) & ~(BLOCK-1))-v ) { // With room for n?
+        if( ls.compareAndSet(idx,v,v+n) ) return v;
+        probe = StripedTable.advance_probe(probe); // Lost to another thread; move stripes
+        continue;
+      }
+      // Lease enough fresh blocks for n, at least one
+      final long blocks = Math.max((n+BLOCK-1)/BLOCK,1);
+      final long base = _seq.getAndAdd(blocks*BLOCK);
+      // Keep the leftover, unless the stripe changed under us
+      if( ((base+n) & (BLOCK-1)) != 0 ) ls.compareAndSet(idx,v,base+n);
+      return base;
+    }
+  }
 }
 
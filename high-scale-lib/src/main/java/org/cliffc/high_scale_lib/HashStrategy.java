@@ -0,0 +1,251 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * How a {@link NonBlockingHashMap} hashes and compares its keys.  Given to
+ * the map's constructor and fixed for the life of the map.
+ *
+ * <p>The default, {@link #SPREAD}, runs <tt>key.hashCode()</tt> through a
+ * Wang/Jenkins bit-spreader, so that lousy hashCodes still spread well over
+ * the power-of-2 table.  Keys whose hashCodes are already well mixed (UUIDs,
+ * pre-hashed keys) can skip the spreader with {@link #PASS_THROUGH}.  Keys
+ * from untrusted sources can use a {@link #randomized} strategy, so an
+ * attacker cannot pick a set of keys in advance that all land in one probe
+ * sequence.
+ *
+ * <p>Arrays have no useful <tt>hashCode</tt> or <tt>equals</tt> of their
+ * own; {@link #BYTES} and {@link #CHARS} let raw <tt>byte[]</tt> and
+ * <tt>char[]</tt> keys be compared by contents, with no wrapper object per
+ * key.  {@link #CHAR_SEQUENCE} does the same for Strings, StringBuilders
+ * and other CharSequences, which then all match each other.  These three
+ * also let a map be probed with a range of a larger buffer, as in {@link
+ * NonBlockingHashMap#get(byte[],int,int)}, without copying the range out.
+ *
+ * <p>Other keys get a strategy of their own by overriding both {@link
+ * #hash} and {@link #equal}.  The two must agree: keys that are {@link #equal} must have the same
+ * {@link #hash}.  Both are called with no locks held, from any thread, and
+ * must be thread-safe.  A strategy is serialized along with its map, so it
+ * should be {@link Serializable} in fact and not just in name.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public abstract class HashStrategy implements Serializable {
+
+  private static final long serialVersionUID = 1234123412341234127L;
+
+  /** Hash a key.  The map takes the low bits of the result as the first
+   *  slot to probe, so they must be well mixed.
+   *  @param key a non-null key
+   *  @return the key's hash */
+  public abstract int hash( Object key );
+
+  /** Key equality.  Defaults to <tt>key.equals(K)</tt>.
+   *  @param key the key being looked up; never null
+   *  @param K a key already in the map; never null
+   *  @return true if the two keys are the same key */
+  public boolean equal( final Object key, final Object K ) { return key.equals(K); }
+
+  // --- Range probes --------------------------------------------------------
+  // Lookups keyed by a range of a byte[] or char[].  A strategy supporting
+  // them must hash a range exactly as it hashes the equal whole key.
+
+  /** Hash the key held in <tt>buf[off,off+len)</tt>, exactly as {@link
+   *  #hash(Object)} hashes the equal key.  Unsupported by default.
+   *  @return the key's hash
+   *  @throws UnsupportedOperationException if this strategy has no
+   *  <tt>byte[]</tt> range probes */
+  public int hash( final byte[] buf, final int off, final int len ) { throw new UnsupportedOperationException(); }
+  /** Compare the key held in <tt>buf[off,off+len)</tt> against a key in the
+   *  map.  Unsupported by default.
+   *  @return true if the two keys are the same key
+   *  @throws UnsupportedOperationException if this strategy has no
+   *  <tt>byte[]</tt> range probes */
+  public boolean equal( final byte[] buf, final int off, final int len, final Object K ) { throw new UnsupportedOperationException(); }
+  /** Hash the key held in <tt>buf[off,off+len)</tt>, exactly as {@link
+   *  #hash(Object)} hashes the equal key.  Unsupported by default.
+   *  @return the key's hash
+   *  @throws UnsupportedOperationException if this strategy has no
+   *  <tt>char[]</tt> range probes */
+  public int hash( final char[] buf, final int off, final int len ) { throw new UnsupportedOperationException(); }
+  /** Compare the key held in <tt>buf[off,off+len)</tt> against a key in the
+   *  map.  Unsupported by default.
+   *  @return true if the two keys are the same key
+   *  @throws UnsupportedOperationException if this strategy has no
+   *  <tt>char[]</tt> range probes */
+  public boolean equal( final char[] buf, final int off, final int len, final Object K ) { throw new UnsupportedOperationException(); }
+
+  /** The Wang/Jenkins bit-spreader of the default strategy, for use by
+   *  strategies with a poorly mixed hash of their own.
+   *  @param h a hash
+   *  @return the hash with its bits spread */
+  public static int spread( int h ) {
+    // Spread bits to regularize both segment and index locations,
+    // using variant of single-word Wang/Jenkins hash.
+    h += (h <<  15) ^ 0xffffcd7d;
+    h ^= (h >>> 10);
+    h += (h <<   3);
+    h ^= (h >>>  6);
+    h += (h <<   2) + (h << 14);
+    return h ^ (h >>> 16);
+  }
+
+  // --- SPREAD --------------------------------------------------------------
+  /** The default: <tt>key.hashCode()</tt>, then {@link #spread}. */
+  public static final HashStrategy SPREAD = new Spread();
+  private static final class Spread extends HashStrategy {
+    private static final long serialVersionUID = 1L;
+    public int hash( final Object key ) { return spread(key.hashCode()); }
+    private Object readResolve() { return SPREAD; }
+  }
+
+  // --- PASS_THROUGH --------------------------------------------------------
+  /** <tt>key.hashCode()</tt> as-is, saving the spreader on every lookup.
+   *  Only for keys whose hashCodes are already well mixed in the low bits:
+   *  small Integers, for instance, will fill a run of adjacent slots. */
+  public static final HashStrategy PASS_THROUGH = new PassThrough();
+  private static final class PassThrough extends HashStrategy {
+    private static final long serialVersionUID = 1L;
+    public int hash( final Object key ) { return key.hashCode(); }
+    private Object readResolve() { return PASS_THROUGH; }
+  }
+
+  // --- BYTES ---------------------------------------------------------------
+  /** <tt>byte[]</tt> keys, compared by contents.  Supports <tt>byte[]</tt>
+   *  range probes.  Keys must not be changed while in a map. */
+  public static final HashStrategy BYTES = new Bytes();
+  private static final class Bytes extends HashStrategy {
+    private static final long serialVersionUID = 1L;
+    public int hash( final Object key ) { final byte[] b = (byte[])key; return hash(b,0,b.length); }
+    public boolean equal( final Object key, final Object K ) {
+      final byte[] b = (byte[])key;
+      return equal(b,0,b.length,K);
+    }
+    public int hash( final byte[] buf, final int off, final int len ) {
+      int h = 0;
+      for( int i=off; i<off+len; i++ )
+        h = 31*h + buf[i];
+      return spread(h);
+    }
+    public boolean equal( final byte[] buf, final int off, final int len, final Object K ) {
+      final byte[] k = (byte[])K;
+      if( k.length != len ) return false;
+      for( int i=0; i<len; i++ )
+        if( k[i] != buf[off+i] ) return false;
+      return true;
+    }
+    private Object readResolve() { return BYTES; }
+  }
+
+  // --- CHARS ---------------------------------------------------------------
+  /** <tt>char[]</tt> keys, compared by contents.  Supports <tt>char[]</tt>
+   *  range probes.  Keys must not be changed while in a map. */
+  public static final HashStrategy CHARS = new Chars();
+  private static final class Chars extends HashStrategy {
+    private static final long serialVersionUID = 1L;
+    public int hash( final Object key ) { final char[] c = (char[])key; return hash(c,0,c.length); }
+    public boolean equal( final Object key, final Object K ) {
+      final char[] c = (char[])key;
+      return equal(c,0,c.length,K);
+    }
+    public int hash( final char[] buf, final int off, final int len ) { return hashChars(buf,off,len); }
+    public boolean equal( final char[] buf, final int off, final int len, final Object K ) {
+      final char[] k = (char[])K;
+      if( k.length != len ) return false;
+      for( int i=0; i<len; i++ )
+        if( k[i] != buf[off+i] ) return false;
+      return true;
+    }
+    private Object readResolve() { return CHARS; }
+  }
+  // String's hashCode over a char range, spread
+  private static int hashChars( final char[] buf, final int off, final int len ) {
+    int h = 0;
+    for( int i=off; i<off+len; i++ )
+      h = 31*h + buf[i];
+    return spread(h);
+  }
+
+  // --- CHAR_SEQUENCE -------------------------------------------------------
+  /** {@link CharSequence} keys, compared by their chars whatever their
+   *  class, so a StringBuilder finds a String key.  Supports <tt>char[]</tt>
+   *  range probes.  Hashes as {@link #SPREAD} does for Strings, using the
+   *  String's cached hashCode.  Keys must not be changed while in a map. */
+  public static final HashStrategy CHAR_SEQUENCE = new CharSeq();
+  private static final class CharSeq extends HashStrategy {
+    private static final long serialVersionUID = 1L;
+    public int hash( final Object key ) {
+      if( key instanceof String ) return spread(key.hashCode());
+      final CharSequence cs = (CharSequence)key;
+      int h = 0;
+      for( int i=0; i<cs.length(); i++ )
+        h = 31*h + cs.charAt(i);
+      return spread(h);
+    }
+    public boolean equal( final Object key, final Object K ) {
+      if( key instanceof String && K instanceof String ) return key.equals(K);
+      final CharSequence a = (CharSequence)key, b = (CharSequence)K;
+      final int len = a.length();
+      if( b.length() != len ) return false;
+      for( int i=0; i<len; i++ )
+        if( a.charAt(i) != b.charAt(i) ) return false;
+      return true;
+    }
+    public int hash( final char[] buf, final int off, final int len ) { return hashChars(buf,off,len); }
+    public boolean equal( final char[] buf, final int off, final int len, final Object K ) {
+      final CharSequence k = (CharSequence)K;
+      if( k.length() != len ) return false;
+      for( int i=0; i<len; i++ )
+        if( k.charAt(i) != buf[off+i] ) return false;
+      return true;
+    }
+    private Object readResolve() { return CHAR_SEQUENCE; }
+  }
+
+  // --- Seeded --------------------------------------------------------------
+  /** A strategy keyed by a secret seed, for maps filled from untrusted keys.
+   *  {@link CharSequence} keys (Strings included) are hashed from their
+   *  chars with the seed mixed in at every step, so two Strings with the
+   *  same <tt>hashCode</tt> still hash apart.  Other keys mix the seed into
+   *  their <tt>hashCode</tt>; that scatters probe sequences, but keys with
+   *  equal hashCodes still collide.  This is not a cryptographic hash, only
+   *  a much harder target than the fixed spreader.
+   *  @param seed the secret
+   *  @return a strategy hashing with the seed */
+  public static HashStrategy seeded( final long seed ) { return new Seeded(seed); }
+
+  /** A {@link #seeded} strategy with a fresh random seed.
+   *  @return a strategy hashing with a random seed */
+  public static HashStrategy randomized() { return new Seeded(new Random().nextLong()); }
+
+  private static final class Seeded extends HashStrategy {
+    private static final long serialVersionUID = 1L;
+    private final long _seed;
+    Seeded( long seed ) { _seed = seed; }
+    public int hash( final Object key ) {
+      long h = _seed;
+      if( key instanceof CharSequence ) {
+        final CharSequence cs = (CharSequence)key;
+        final int len = cs.length();
+        for( int i=0; i<len; i++ )
+          h = (h ^ cs.charAt(i)) * 0x9E3779B97F4A7C15L + (h >>> 29);
+        h ^= len;
+      } else {
+        h ^= key.hashCode();
+      }
+      // 64-bit finalizer (MurmurHash3 fmix64), then fold to an int
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return (int)h;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map for reference data: built once, then only read.
+ * Usually made from a live map via {@link NonBlockingHashMap#toImmutable}.
+ *
+ * <p>Where a {@link NonBlockingHashMap} keeps its table at most 1/4 full of
+ * keys - and more of them dead - so that concurrent updates rarely reprobe,
+ * this map packs its entries into a table 7/8 full.  The table is sized to
+ * the entry count, not to a power of 2.  Probe sequences stay short because
+ * entries are placed Robin Hood style: an inserting key takes the slot of any
+ * key closer to its home slot, so every key ends up near home, and a miss
+ * stops as soon as it passes a key closer to home than itself.  Probing only
+ * reads a side array of full hashes until a hash matches; keys and values are
+ * interleaved so a hit then touches one more cache line.
+ *
+ * <p>Space is about 14 bytes per entry with compressed pointers, against
+ * about 48 for a {@link NonBlockingHashMap} (not counting the keys and values
+ * themselves).
+ *
+ * <p>All the read-only {@link Map} methods are supported; mutators throw
+ * {@link UnsupportedOperationException}.  Like {@link NonBlockingHashMap},
+ * this map does <em>not</em> allow <tt>null</tt> to be used as a key or value.
+ * Immutable maps are thread-safe.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ * @param <TypeK> the type of keys maintained by this map
+ * @param <TypeV> the type of mapped values
+ */
+public final class ImmutableHashMap<TypeK, TypeV>
+  extends AbstractMap<TypeK, TypeV>
+  implements Serializable {
+
+  private static final long serialVersionUID = 1234123412341234125L;
+
+  private final ReadOnlyTable _t; // Robin Hood table of {Key,Value} pairs
+
+  // --- ImmutableHashMap ----------------------------------------------------
+
+  /** Create an immutable copy of a map.  The map is read once, through its
+   *  {@link Map#entrySet}; a concurrent map may be updated meanwhile, and the
+   *  copy then holds some state that the entry set iteration saw.
+   *  @param m the mappings to copy
+   *  @throws NullPointerException if any key or value is null */
+  public ImmutableHashMap( final Map<? extends TypeK, ? extends TypeV> m ) {
+    this(new ReadOnlyTable(pairs(m),null,HashStrategy.SPREAD));
+  }
+
+  /** Create an immutable copy of a map, hashing and comparing keys with the
+   *  given strategy; keys equal under the strategy must be distinct in the
+   *  map.  See {@link #ImmutableHashMap(Map)}.
+   *  @param m the mappings to copy
+   *  @param hs the key strategy
+   *  @throws NullPointerException if the strategy, or any key or value, is null */
+  public ImmutableHashMap( final Map<? extends TypeK, ? extends TypeV> m, final HashStrategy hs ) {
+    this(new ReadOnlyTable(pairs(m),null,hs));
+  }
+
+  // Gather the pairs first: a concurrent map's size is only a hint
+  private static Object[] pairs( final Map<?,?> m ) {
+    Object[] kv = new Object[Math.max(m.size(),1)<<1];
+    int n = 0;
+    for( Map.Entry<?,?> e : m.entrySet() ) {
+      final Object K = e.getKey(), V = e.getValue();
+      if( K == null || V == null ) throw new NullPointerException();
+      if( n == kv.length ) kv = Arrays.copyOf(kv,n<<1);
+      kv[n++] = K;
+      kv[n++] = V;
+    }
+    return n == kv.length ? kv : Arrays.copyOf(kv,n);
+  }
+
+  // Wrap a table; shared with a frozen NonBlockingHashMap by toImmutable
+  ImmutableHashMap( final ReadOnlyTable t ) { _t = t; }
+
+  // --- Map -----------------------------------------------------------------
+
+  /** Returns the value to which the specified key is mapped, or {@code null}
+   *  if this map contains no mapping for the key.
+   *  @throws NullPointerException if the specified key is null */
+  @Override
+  @SuppressWarnings("unchecked")
+  public TypeV get( final Object key ) {
+    final int idx = _t.slot(key);
+    return idx < 0 ? null : (TypeV)_t._kv[(idx<<1)+1];
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public TypeV getOrDefault( final Object key, final TypeV defaultValue ) {
+    final int idx = _t.slot(key);
+    return idx < 0 ? defaultValue : (TypeV)_t._kv[(idx<<1)+1];
+  }
+
+  /** @throws NullPointerException if the specified key is null */
+  @Override
+  public boolean containsKey( final Object key ) { return _t.slot(key) >= 0; }
+
+  @Override
+  public boolean containsValue( final Object val ) {
+    if( val == null ) throw new NullPointerException();
+    for( int i=0; i<_t._hashes.length; i++ )
+      if( _t._hashes[i] != 0 && val.equals(_t._kv[(i<<1)+1]) )
+        return true;
+    return false;
+  }
+
+  @Override public int size() { return _t._size; }
+  @Override public boolean isEmpty() { return _t._size == 0; }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void forEach( final BiConsumer<? super TypeK, ? super TypeV> action ) {
+    if( action == null ) throw new NullPointerException();
+    for( int i=0; i<_t._hashes.length; i++ )
+      if( _t._hashes[i] != 0 )
+        action.accept((TypeK)_t._kv[i<<1],(TypeV)_t._kv[(i<<1)+1]);
+  }
+
+  // --- entrySet ------------------------------------------------------------
+  // Walks the table in slot order, for all three views.
+  private class Iter<T> implements Iterator<T> {
+    final int _what;            // 0 keys, 1 values, 2 entries
+    int _idx = -1;              // Slot of the next element
+    Iter( int what ) { _what = what; advance(); }
+    private void advance() { while( ++_idx < _t._hashes.length && _t._hashes[_idx] == 0 ) ; }
+    public boolean hasNext() { return _idx < _t._hashes.length; }
+    @SuppressWarnings("unchecked")
+    public T next() {
+      if( _idx >= _t._hashes.length ) throw new NoSuchElementException();
+      final int i = _idx;
+      advance();
+      switch( _what ) {
+      case 0:  return (T)_t._kv[i<<1];
+      case 1:  return (T)_t._kv[(i<<1)+1];
+      default: return (T)new AbstractMap.SimpleImmutableEntry<Object,Object>(_t._kv[i<<1],_t._kv[(i<<1)+1]);
+      }
+    }
+    public void remove() { throw new UnsupportedOperationException(); }
+  }
+
+  private transient Set<Map.Entry<TypeK,TypeV>> _entrySet;
+  private transient Set<TypeK> _keySet;
+  private transient Collection<TypeV> _values;
+
+  @Override
+  public Set<Map.Entry<TypeK,TypeV>> entrySet() {
+    Set<Map.Entry<TypeK,TypeV>> es = _entrySet;
+    if( es != null ) return es;
+    return _entrySet = new AbstractSet<Map.Entry<TypeK,TypeV>>() {
+      @Override public int size() { return _t._size; }
+      @Override public boolean contains( final Object o ) {
+        if( !(o instanceof Map.Entry) ) return false;
+        final Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+        if( e.getKey() == null ) return false;
+        final Object V = get(e.getKey());
+        return V != null && V.equals(e.getValue());
+      }
+      @Override public Iterator<Map.Entry<TypeK,TypeV>> iterator() { return new Iter<Map.Entry<TypeK,TypeV>>(2); }
+    };
+  }
+
+  @Override
+  public Set<TypeK> keySet() {
+    Set<TypeK> ks = _keySet;
+    if( ks != null ) return ks;
+    return _keySet = new AbstractSet<TypeK>() {
+      @Override public int size() { return _t._size; }
+      @Override public boolean contains( final Object k ) { return k != null && containsKey(k); }
+      @Override public Iterator<TypeK> iterator() { return new Iter<TypeK>(0); }
+    };
+  }
+
+  @Override
+  public Collection<TypeV> values() {
+    Collection<TypeV> vs = _values;
+    if( vs != null ) return vs;
+    return _values = new AbstractCollection<TypeV>() {
+      @Override public int size() { return _t._size; }
+      @Override public boolean contains( final Object v ) { return v != null && containsValue(v); }
+      @Override public Iterator<TypeV> iterator() { return new Iter<TypeV>(1); }
+    };
+  }
+
+  // --- Serialization -------------------------------------------------------
+  // Hashes can differ between JVMs, so write the pairs and rebuild the table
+  // on the way in, via a proxy so that every field stays final.
+  private Object writeReplace() {
+    final Object[] pairs = new Object[_t._size<<1];
+    int n = 0;
+    for( int i=0; i<_t._hashes.length; i++ )
+      if( _t._hashes[i] != 0 ) {
+        pairs[n++] = _t._kv[i<<1];
+        pairs[n++] = _t._kv[(i<<1)+1];
+      }
+    return new Ser(pairs,_t._hs);
+  }
+  private void readObject( ObjectInputStream s ) throws InvalidObjectException {
+    throw new InvalidObjectException("proxy required");
+  }
+  private static final class Ser implements Serializable {
+    private static final long serialVersionUID = 1234123412341234126L;
+    private final Object[] _pairs;
+    private final HashStrategy _hs;
+    Ser( Object[] pairs, HashStrategy hs ) { _pairs = pairs; _hs = hs; }
+    private Object readResolve() { return new ImmutableHashMap<Object,Object>(new ReadOnlyTable(_pairs,null,_hs)); }
+  }
+}
@@ -0,0 +1,6 @@
+package org.cliffc.high_scale_lib;
+
+public interface LongIterator {
+	public long next();
+	public boolean hasNext();
+}
@@ -0,0 +1,334 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A bounded, lock-free cache: a {@link NonBlockingHashMap} index plus CLOCK
+ * eviction.  Every entry holds a reference bit which a read hit sets with a
+ * plain store (and only if it is not already set), so a hit costs an NBHM
+ * {@code get} plus at most one store - no locks, no CAS, no list splicing.
+ * Entries also occupy one frame in a fixed ring of {@code maxEntries}
+ * frames.  Inserting sweeps a shared clock hand around the ring: a free
+ * frame is taken, a referenced entry has its bit cleared (its second
+ * chance), and the first unreferenced entry is evicted to make room.
+ *
+ * <p>Optionally the cache is also bounded by total weight, as computed by a
+ * weigher function; entries are then evicted the same way until the
+ * (estimated) total weight is back under the bound.  Bounds are approximate
+ * under concurrent inserts: each racing insert may briefly overshoot by one
+ * entry.
+ *
+ * <p>{@link #get(Object,Function)} loads missing values with single-flight
+ * semantics: the first thread to miss claims the key with a {@code
+ * putIfAbsent} of a loading placeholder and runs the loader; other threads
+ * missing on the same key wait for that result instead of loading again.
+ *
+ * <p>Hit, miss, load and eviction counts are kept in {@link Counter}s if
+ * asked for at construction; otherwise they cost nothing.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ */
+public class NonBlockingCache<K,V> {
+
+  // --- Node ----------------------------------------------------------------
+  // One cached value.  Nodes are immutable except for the CLOCK bits; a put
+  // installs a fresh Node.  A loading placeholder has a non-null _loading
+  // and no value, weight or ring frame.
+  private static final class Node<K,V> {
+    final K _key;
+    final V _val;
+    final long _weight;
+    final CompletableFuture<V> _loading;
+    boolean _ref;               // CLOCK reference bit: plain, racy stores
+    volatile boolean _dead;     // Out of the index; its frame is free
+    volatile int _frame = -1;   // Ring frame, once admitted
+    Node( K key, V val, long weight ) { _key = key; _val = val; _weight = weight; _loading = null; }
+    Node( K key ) { _key = key; _val = null; _weight = 0; _loading = new CompletableFuture<V>(); }
+  }
+
+  private final NonBlockingHashMap<K,Node<K,V>> _map = new NonBlockingHashMap<K,Node<K,V>>();
+  private final AtomicReferenceArray<Node<K,V>> _ring; // The CLOCK frames
+  private final AtomicLong _hand = new AtomicLong(); // Clock hand; ever increasing
+  private final int _cap;       // Frame count == max entries
+  private final long _maxWeight;
+  private final ToLongBiFunction<? super K,? super V> _weigher;
+  private final Counter _weight; // Total weight, only if bounded by weight
+  private final Counter _hits, _misses, _loads, _evictions; // Null if no stats
+
+  /** Create a cache holding at most {@code maxEntries} entries, without
+   *  statistics.
+   *  @param maxEntries maximum number of entries, at least 1 */
+  public NonBlockingCache( int maxEntries ) { this(maxEntries,Long.MAX_VALUE,null,false); }
+
+  /** Create a cache bounded by entry count and, optionally, total weight.
+   *  @param maxEntries maximum number of entries, at least 1
+   *  @param maxWeight maximum total weight; ignored if {@code weigher} is null
+   *  @param weigher computes the (non-negative) weight of an entry, or null
+   *  for no weight bound
+   *  @param recordStats true to count hits, misses, loads and evictions */
+  public NonBlockingCache( int maxEntries, long maxWeight, ToLongBiFunction<? super K,? super V> weigher, boolean recordStats ) {
+    if( maxEntries < 1 || (weigher != null && maxWeight < 0) ) throw new IllegalArgumentException();
+    _cap = maxEntries;
+    _ring = new AtomicReferenceArray<Node<K,V>>(maxEntries);
+    _weigher = weigher;
+    _maxWeight = weigher == null ? Long.MAX_VALUE : maxWeight;
+    _weight = weigher == null ? null : new Counter();
+    _hits      = recordStats ? new Counter() : null;
+    _misses    = recordStats ? new Counter() : null;
+    _loads     = recordStats ? new Counter() : null;
+    _evictions = recordStats ? new Counter() : null;
+  }
+
+  // --- Reads ---------------------------------------------------------------
+
+  /** Returns the cached value for a key, or null if there is none (or it is
+   *  still being loaded).  A hit marks the entry recently used.
+   *  @param key the key, not null
+   *  @return the cached value, or null */
+  public V get( Object key ) {
+    final Node<K,V> n = _map.get(key);
+    if( n == null || n._loading != null ) {
+      if( _misses != null ) _misses.increment();
+      return null;
+    }
+    if( !n._ref ) n._ref = true; // Only store if needed: keep the line shared
+    if( _hits != null ) _hits.increment();
+    return n._val;
+  }
+
+  /** Returns the cached value for a key, loading it on a miss.  Only one
+   *  thread runs the loader for a given key at a time; other threads missing
+   *  on that key wait for its result.  If the loader returns null nothing is
+   *  cached and null is returned; if it throws, nothing is cached and the
+   *  exception is propagated to all waiting threads.
+   *  @param key the key, not null
+   *  @param loader computes the value for a missing key
+   *  @return the cached or loaded value, or null */
+  public V get( K key, Function<? super K,? extends V> loader ) {
+    if( loader == null ) throw new NullPointerException();
+    Node<K,V> n = _map.get(key);
+    if( n == null ) {           // Miss: try to become the loader
+      final Node<K,V> ph = new Node<K,V>(key);
+      n = _map.putIfAbsent(key,ph);
+      if( n == null ) {
+        if( _misses != null ) _misses.increment();
+        return load(ph,loader);
+      }
+    }
+    if( n._loading == null ) {  // Hit
+      if( !n._ref ) n._ref = true;
+      if( _hits != null ) _hits.increment();
+      return n._val;
+    }
+    if( _misses != null ) _misses.increment();
+    try {                       // Another thread is loading: wait for it
+      return n._loading.join();
+    } catch( CompletionException e ) {
+      final Throwable t = e.getCause();
+      if( t instanceof RuntimeException ) throw (RuntimeException)t;
+      if( t instanceof Error ) throw (Error)t;
+      throw e;
+    }
+  }
+
+  // Run the loader for a claimed placeholder, then swap the placeholder for
+  // the real entry.  A racing put or remove of the key wins over the load;
+  // the loaded value is still handed to the waiters.
+  private V load( Node<K,V> ph, Function<? super K,? extends V> loader ) {
+    final V val;
+    final Node<K,V> n;
+    try {                       // Weigh here too: a throwing weigher must not strand the waiters
+      val = loader.apply(ph._key);
+      n = val == null ? null : new Node<K,V>(ph._key,val,weigh(ph._key,val));
+    } catch( RuntimeException e ) {
+      _map.remove(ph._key,ph);
+      ph._loading.completeExceptionally(e);
+      throw e;
+    } catch( Error e ) {
+      _map.remove(ph._key,ph);
+      ph._loading.completeExceptionally(e);
+      throw e;
+    }
+    if( _loads != null ) _loads.increment();
+    if( n == null ) {
+      _map.remove(ph._key,ph);
+    } else {
+      charge(n);
+      if( _map.replace(ph._key,ph,n) ) admit(n);
+      else uncharge(n);
+    }
+    ph._loading.complete(val);
+    return val;
+  }
+
+  // --- Writes --------------------------------------------------------------
+
+  /** Caches a value for a key, replacing any current value.
+   *  @param key the key, not null
+   *  @param val the value, not null
+   *  @return the previously cached value, or null */
+  public V put( K key, V val ) {
+    if( val == null ) throw new NullPointerException();
+    final Node<K,V> n = charge(new Node<K,V>(key,val,weigh(key,val)));
+    final V oldval = unlink(_map.put(key,n));
+    admit(n);
+    return oldval;
+  }
+
+  /** Caches a value for a key, unless a value is already cached.  Like
+   *  {@link #put}, this wins over a load in progress for the key.
+   *  @param key the key, not null
+   *  @param val the value, not null
+   *  @return the currently cached value, or null if {@code val} was cached */
+  public V putIfAbsent( K key, V val ) {
+    if( val == null ) throw new NullPointerException();
+    final Node<K,V> n = charge(new Node<K,V>(key,val,weigh(key,val)));
+    while( true ) {
+      final Node<K,V> old = _map.putIfAbsent(key,n);
+      if( old == null || (old._loading != null && _map.replace(key,old,n)) ) {
+        admit(n);
+        return null;
+      }
+      if( old._loading == null ) {
+        uncharge(n);
+        return old._val;
+      }
+    }
+  }
+
+  /** Removes the cached value for a key.
+   *  @param key the key
+   *  @return the previously cached value, or null */
+  public V remove( Object key ) { return unlink(_map.remove(key)); }
+
+  /** Removes all cached values. */
+  public void clear() {
+    for( K key : _map.keySet() )
+      remove(key);
+  }
+
+  // Weight is charged before a Node enters the index, and refunded when it
+  // leaves (or fails to enter), so racing removes never leak weight.
+  private Node<K,V> charge( Node<K,V> n ) {
+    if( _weight != null ) _weight.add(n._weight);
+    return n;
+  }
+  private void uncharge( Node<K,V> n ) {
+    if( _weight != null ) _weight.add(-n._weight);
+  }
+
+  // Account for a Node leaving the index, and free its ring frame so the
+  // frame does not keep the value reachable.
+  private V unlink( Node<K,V> old ) {
+    if( old == null || old._loading != null ) return null;
+    old._dead = true;
+    uncharge(old);
+    final int frame = old._frame;
+    if( frame >= 0 ) _ring.compareAndSet(frame,old,null);
+    return old._val;
+  }
+
+  private long weigh( K key, V val ) {
+    if( _weigher == null ) return 0;
+    final long w = _weigher.applyAsLong(key,val);
+    if( w < 0 ) throw new IllegalArgumentException("negative weight");
+    return w;
+  }
+
+  // --- CLOCK ---------------------------------------------------------------
+  // Give a freshly indexed Node a ring frame, evicting as needed, then evict
+  // more until back under the weight bound.  After two full revolutions of
+  // the hand the reference bits are ignored, so a ring kept hot by racing
+  // readers cannot stall an insert.
+  //
+  // A racing put or remove can unlink n before it is admitted.  A dead n
+  // takes no frame, and above all evicts no live entry.  If n dies after
+  // taking its frame, unlink may have looked before _frame was set; both
+  // fields are volatile, so at least one of unlink and the re-check below
+  // sees the other and frees the frame.
+  private void admit( Node<K,V> n ) {
+    for( long i=0; ; i++ ) {
+      if( n._dead ) return;               // Unlinked already: needs no frame
+      final int idx = (int)(_hand.getAndIncrement() % _cap);
+      final Node<K,V> f = _ring.get(idx);
+      if( f == null || f._dead ) {        // Free frame
+        if( _ring.compareAndSet(idx,f,n) ) { n._frame = idx; break; }
+        continue;
+      }
+      if( f._ref && i < (_cap<<1) ) { f._ref = false; continue; } // Second chance
+      if( _ring.compareAndSet(idx,f,n) ) {
+        n._frame = idx;
+        // Died meanwhile?  Hand the victim its frame back, unevicted
+        if( n._dead && _ring.compareAndSet(idx,n,f) ) return;
+        evict(f);
+        break;
+      }
+    }
+    if( n._dead ) _ring.compareAndSet(n._frame,n,null); // Died meanwhile: free the frame
+    if( _weight == null ) return;
+    for( long i=0; i < (_cap<<1) && _weight.estimate_get() > _maxWeight; i++ ) {
+      final int idx = (int)(_hand.getAndIncrement() % _cap);
+      final Node<K,V> f = _ring.get(idx);
+      if( f == null ) continue;
+      if( f._dead ) { _ring.compareAndSet(idx,f,null); continue; }
+      if( f._ref && i < _cap ) { f._ref = false; continue; }
+      if( _ring.compareAndSet(idx,f,null) ) evict(f);
+    }
+  }
+
+  // Remove an evicted Node from the index, unless it was already replaced.
+  private void evict( Node<K,V> f ) {
+    if( !f._dead && _map.remove(f._key,f) ) {
+      unlink(f);
+      if( _evictions != null ) _evictions.increment();
+    }
+    f._dead = true;
+  }
+
+  // --- Sizes and statistics ------------------------------------------------
+
+  /** @return the number of cached entries, including any being loaded */
+  public int size() { return _map.size(); }
+
+  /** @return the maximum number of entries */
+  public int maxEntries() { return _cap; }
+
+  /** @return the total weight of the cached entries, or 0 if the cache is
+   *  not bounded by weight */
+  public long weight() { return _weight == null ? 0 : _weight.get(); }
+
+  /** @return the number of lookups that found a cached value, or 0 if no
+   *  statistics are recorded */
+  public long hitCount() { return _hits == null ? 0 : _hits.get(); }
+
+  /** @return the number of lookups that found no cached value, or 0 if no
+   *  statistics are recorded */
+  public long missCount() { return _misses == null ? 0 : _misses.get(); }
+
+  /** @return the number of loader calls that completed, or 0 if no
+   *  statistics are recorded */
+  public long loadCount() { return _loads == null ? 0 : _loads.get(); }
+
+  /** @return the number of entries evicted to stay within the bounds, or 0
+   *  if no statistics are recorded */
+  public long evictionCount() { return _evictions == null ? 0 : _evictions.get(); }
+
+  /** @return a short description of this cache's size and statistics */
+  @Override public String toString() {
+    return "NonBlockingCache[size="+size()+"/"+_cap+", weight="+weight()+
+      ", hits="+hitCount()+", misses="+missCount()+", loads="+loadCount()+
+      ", evictions="+evictionCount()+"]";
+  }
+}
@@ -0,0 +1,506 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.IntConsumer;
+
+/**
+ * A multi-threaded compressed set of non-negative {@code ints}.  All
+ * operations are non-blocking and multi-threaded safe.
+ *
+ * <p>Where {@link NonBlockingSetInt} is one dense bit-vector sized to the
+ * largest element, this set splits the {@code int} space into chunks of 64K
+ * elements in the style of a roaring bitmap.  Each chunk present gets its own
+ * container, picked by density:
+ * <ul>
+ * <li>a sorted {@code char} array for sparse chunks (2 bytes per element),
+ * <li>a list of runs for contiguous chunks (4 bytes per run),
+ * <li>a bitmap for dense chunks (8K bytes).
+ * </ul>
+ * Containers are found via a {@link NonBlockingHashMapLong} keyed by the
+ * high 16 bits of the element.  Space is used in proportion to the number of
+ * elements, not to the largest one: a set holding just {@code 2000000000}
+ * takes a few dozen bytes.
+ *
+ * <p>Array and run containers are immutable and are updated by a CAS on the
+ * index to a fresh copy.  Bitmap containers are updated in place with a CAS
+ * per word.  A bitmap that thins out is frozen word-by-word, using the sign
+ * bit like {@link NonBlockingSetInt} does during a resize, and replaced by a
+ * smaller container.  Writers that hit a frozen word help finish the job.
+ *
+ * <p>Iteration is in increasing order and weakly consistent.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public class NonBlockingCompressedSetInt extends AbstractSet<Integer> {
+
+  private static final int ARRAY_MAX  = 4096; // Largest array; 8K bytes, same as a bitmap
+  private static final int RUN_MAX    = 2048; // Most runs; 8K bytes, same as a bitmap
+  private static final int BITMAP_MIN = 2048; // Shrink a bitmap below this
+
+  // Chunk index, keyed by (element>>>16)+1.  Never key 0: the map keeps
+  // that key outside its table, where updates are not atomic CAS's.
+  private final NonBlockingHashMapLong<Container> _map = new NonBlockingHashMapLong<Container>();
+  private static long key ( final int i  ) { return (i>>>16)+1; }
+  private static int  base( final long k ) { return (int)(k-1)<<16; }
+  // Used to count elements: a high-performance counter.
+  private final Counter _size = new Counter();
+
+  /** Create a new empty set */
+  public NonBlockingCompressedSetInt( ) { }
+
+  /**
+   * Add {@code i} to the set.  Uppercase {@link Integer} version of add,
+   * requires auto-unboxing.
+   * @throws IllegalArgumentException if i is negative.
+   * @return <tt>true</tt> if i was added to the set.
+   */
+  public boolean add( final Integer i ) { return add(i.intValue()); }
+  /**
+   * Test if {@code o} is in the set.  Uppercase {@link Integer} version.
+   * @return <tt>true</tt> if o was in the set.
+   */
+  public boolean contains( final Object o ) {
+    return o instanceof Integer ? contains(((Integer)o).intValue()) : false;
+  }
+  /**
+   * Remove {@code o} from the set.  Uppercase {@link Integer} version.
+   * @return <tt>true</tt> if o was removed from the set.
+   */
+  public boolean remove( final Object o ) {
+    return o instanceof Integer ? remove(((Integer)o).intValue()) : false;
+  }
+
+  /**
+   * Add {@code i} to the set - no autoboxing.
+   * @throws IllegalArgumentException if i is negative.
+   * @return <tt>true</tt> if i was added to the set.
+   */
+  public boolean add( final int i ) {
+    if( i < 0 ) throw new IllegalArgumentException(""+i);
+    final long hi = key(i);
+    final int  lo = i&0xFFFF;
+    while( true ) {
+      final Container c = _map.get(hi);
+      if( c == null ) {         // New chunk
+        if( _map.putIfAbsent(hi,new ArrayC(new char[]{(char)lo})) == null ) {
+          _size.add(1);
+          return true;
+        }
+      } else if( c instanceof BitmapC ) {
+        final BitmapC b = (BitmapC)c;
+        final int x = b.add(lo);
+        if( x >= 0 ) {          // Not frozen: done
+          if( x == 1 ) _size.add(1);
+          return x == 1;
+        }
+        shrink(hi,b);           // Frozen: help finish the shrink and retry
+      } else {
+        if( c.contains(lo) ) return false;
+        if( _map.replace(hi,c,((Immutable)c).with(lo)) ) {
+          _size.add(1);
+          return true;
+        }
+      }                         // Lost a race: retry
+    }
+  }
+
+  /**
+   * Test if {@code i} is in the set - no autoboxing.
+   * @return <tt>true</tt> if i was in the set.
+   */
+  public boolean contains( final int i ) {
+    if( i < 0 ) return false;
+    final Container c = _map.get(key(i));
+    return c != null && c.contains(i&0xFFFF);
+  }
+
+  /**
+   * Remove {@code i} from the set - no autoboxing.
+   * @return <tt>true</tt> if i was removed from the set.
+   */
+  public boolean remove( final int i ) {
+    if( i < 0 ) return false;
+    final long hi = key(i);
+    final int  lo = i&0xFFFF;
+    while( true ) {
+      final Container c = _map.get(hi);
+      if( c == null ) return false;
+      if( c instanceof BitmapC ) {
+        final BitmapC b = (BitmapC)c;
+        final int x = b.remove(lo);
+        if( x >= 0 ) {          // Not frozen: done
+          if( x == 1 ) {
+            _size.add(-1);
+            if( b._card.get() < BITMAP_MIN ) shrink(hi,b);
+          }
+          return x == 1;
+        }
+        shrink(hi,b);           // Frozen: help finish the shrink and retry
+      } else {
+        if( !c.contains(lo) ) return false;
+        final Container n = ((Immutable)c).without(lo);
+        if( n == null ? _map.remove(hi,c) : _map.replace(hi,c,n) ) {
+          _size.add(-1);
+          return true;
+        }
+      }                         // Lost a race: retry
+    }
+  }
+
+  // Freeze a bitmap and swap in the repacked contents.  Any number of
+  // threads may race here; all compute the same contents from the frozen
+  // words and only the first CAS on the index wins.
+  private void shrink( final long hi, final BitmapC b ) {
+    b.freeze();
+    final Container n = b.thaw();
+    if( n == null ) _map.remove(hi,b);
+    else _map.replace(hi,b,n);
+  }
+
+  /**
+   * Current count of elements in the set.  Due to concurrent racing updates,
+   * the size is only ever approximate.
+   * @return count of elements.
+   */
+  public int size( ) { return (int)_size.get(); }
+
+  /** Empty the set. */
+  public void clear( ) {
+    final NonBlockingHashMapLong<Container>.Cursor cur = _map.cursor();
+    while( cur.advance() ) {
+      final Container c = cur.value();
+      // Freeze bitmaps first, so no racing writer updates one after it
+      // leaves the index; they find it frozen and retry on the index.
+      if( c instanceof BitmapC ) ((BitmapC)c).freeze();
+      if( cur.remove() )
+        _size.add(-c.card());
+    }
+  }
+
+  /** @return approximate number of bytes used by the containers */
+  public int sizeInBytes( ) {
+    int sz = 0;
+    final NonBlockingHashMapLong<Container>.Cursor cur = _map.cursor();
+    while( cur.advance() )
+      sz += cur.value().bytes();
+    return sz;
+  }
+
+  // Snapshot of the chunk keys, sorted
+  private long[] chunks( ) {
+    long[] ks = new long[8];
+    int n = 0;
+    final NonBlockingHashMapLong<Container>.Cursor cur = _map.cursor();
+    while( cur.advance() ) {
+      if( n == ks.length ) ks = Arrays.copyOf(ks,n<<1);
+      ks[n++] = cur.key();
+    }
+    ks = Arrays.copyOf(ks,n);
+    Arrays.sort(ks);
+    return ks;
+  }
+
+  /**
+   * Apply {@code action} to every element, in increasing order, without
+   * autoboxing.  Elements added or removed concurrently may or may not be
+   * seen.  With a lambda, give the parameter an explicit type - {@code (int
+   * i) -> ...} - since {@link Iterable#forEach} also applies.
+   * @param action the action to apply to each element
+   */
+  public void forEach( final IntConsumer action ) {
+    for( long hi : chunks() ) {
+      final Container c = _map.get(hi);
+      if( c == null ) continue;
+      final int base = base(hi);
+      for( int lo = c.next(0); lo >= 0; lo = lo == 0xFFFF ? -1 : c.next(lo+1) )
+        action.accept(base|lo);
+    }
+  }
+
+  /**
+   * Standard Java {@link Iterator}.  Not very efficient because it
+   * auto-boxes the returned values.
+   */
+  public Iterator<Integer> iterator( ) {
+    final NBCSIIntIterator it = new NBCSIIntIterator();
+    return new Iterator<Integer>() {
+      public boolean hasNext() { return it.hasNext(); }
+      public Integer next() { return it.next(); }
+      public void remove() { it.remove(); }
+    };
+  }
+
+  /** @return an iterator over the elements in increasing order, without
+   *  autoboxing */
+  public IntIterator intIterator( ) { return new NBCSIIntIterator(); }
+
+  private class NBCSIIntIterator implements IntIterator {
+    final long[] _chunks = chunks();
+    int _ci = -1;               // Index into _chunks
+    Container _c;               // Container for _chunks[_ci]
+    int _next = -1;             // Next element, or -1 when done
+    int _prev = -1;             // Last element returned, for remove()
+    NBCSIIntIterator() { advance(0); }
+    // Find the first element at or after 'lo' in the current chunk, moving
+    // on to later chunks as needed
+    private void advance( int lo ) {
+      while( true ) {
+        if( _c != null && lo <= 0xFFFF ) {
+          final int x = _c.next(lo);
+          if( x >= 0 ) { _next = base(_chunks[_ci])|x; return; }
+        }
+        if( ++_ci >= _chunks.length ) { _next = -1; return; }
+        _c = _map.get(_chunks[_ci]);
+        lo = 0;
+      }
+    }
+    public boolean hasNext() { return _next >= 0; }
+    public int next() {
+      if( _next < 0 ) throw new NoSuchElementException();
+      _prev = _next;
+      advance((_prev&0xFFFF)+1);
+      return _prev;
+    }
+    public void remove() {
+      if( _prev == -1 ) throw new IllegalStateException();
+      NonBlockingCompressedSetInt.this.remove(_prev);
+      _prev = -1;
+    }
+  }
+
+  // --- Containers ----------------------------------------------------------
+  // Each holds the low 16 bits of the elements of one chunk.
+  private static abstract class Container {
+    abstract boolean contains( int lo );
+    abstract int next( int lo ); // Smallest element >= lo, or -1
+    abstract int card();         // Element count
+    abstract int bytes();        // Approximate footprint
+  }
+
+  // Copy-on-write containers: an update builds a new container, or returns
+  // null for an empty one.
+  private static abstract class Immutable extends Container {
+    abstract Container with( int lo );
+    abstract Container without( int lo );
+  }
+
+  // Pick the smallest container for the first 'n' sorted elements
+  private static Container pack( final char[] es, final int n ) {
+    if( n == 0 ) return null;
+    int r = 1;                  // Count runs
+    for( int k=1; k<n; k++ )
+      if( es[k] != es[k-1]+1 ) r++;
+    if( r <= RUN_MAX && 2*r < n ) { // Runs beat an array
+      final char[] rs = new char[r<<1];
+      int j = 0;
+      rs[0] = es[0];
+      for( int k=1; k<n; k++ )
+        if( es[k] != es[k-1]+1 ) {
+          rs[j+1] = es[k-1];
+          j += 2;
+          rs[j] = es[k];
+        }
+      rs[j+1] = es[n-1];
+      return new RunC(rs);
+    }
+    if( n <= ARRAY_MAX )
+      return new ArrayC(n == es.length ? es : Arrays.copyOf(es,n));
+    final long[] bits = new long[BitmapC.WORDS];
+    for( int k=0; k<n; k++ )
+      bits[es[k]/63] |= BitmapC.mask(es[k]);
+    return new BitmapC(bits,n);
+  }
+
+  // --- ArrayC: sorted elements
+  private static final class ArrayC extends Immutable {
+    final char[] _es;
+    ArrayC( char[] es ) { _es = es; }
+    boolean contains( int lo ) { return Arrays.binarySearch(_es,(char)lo) >= 0; }
+    int next( int lo ) {
+      int idx = Arrays.binarySearch(_es,(char)lo);
+      if( idx < 0 ) idx = -idx-1;
+      return idx < _es.length ? _es[idx] : -1;
+    }
+    int card() { return _es.length; }
+    int bytes() { return 16+(_es.length<<1); }
+    Container with( int lo ) {
+      final int idx = -Arrays.binarySearch(_es,(char)lo)-1;
+      final char[] es = new char[_es.length+1];
+      System.arraycopy(_es,0,es,0,idx);
+      es[idx] = (char)lo;
+      System.arraycopy(_es,idx,es,idx+1,_es.length-idx);
+      return pack(es,es.length);
+    }
+    Container without( int lo ) {
+      final int idx = Arrays.binarySearch(_es,(char)lo);
+      final char[] es = new char[_es.length-1];
+      System.arraycopy(_es,0,es,0,idx);
+      System.arraycopy(_es,idx+1,es,idx,es.length-idx);
+      return pack(es,es.length);
+    }
+  }
+
+  // --- RunC: sorted, disjoint, non-adjacent runs as {first,last} pairs
+  private static final class RunC extends Immutable {
+    final char[] _rs;
+    RunC( char[] rs ) { _rs = rs; }
+    // Index of the last run starting at or before lo, or -1
+    private int find( int lo ) {
+      int l = 0, h = (_rs.length>>1)-1;
+      while( l <= h ) {
+        final int m = (l+h)>>>1;
+        if( _rs[m<<1] <= lo ) l = m+1; else h = m-1;
+      }
+      return h;
+    }
+    boolean contains( int lo ) {
+      final int r = find(lo);
+      return r >= 0 && lo <= _rs[(r<<1)+1];
+    }
+    int next( int lo ) {
+      final int r = find(lo);
+      if( r >= 0 && lo <= _rs[(r<<1)+1] ) return lo;
+      return (r+1)<<1 < _rs.length ? _rs[(r+1)<<1] : -1;
+    }
+    int card() {
+      int n = 0;
+      for( int k=0; k<_rs.length; k+=2 )
+        n += _rs[k+1]-_rs[k]+1;
+      return n;
+    }
+    int bytes() { return 16+(_rs.length<<1); }
+    Container with( int lo ) {  // lo is known absent
+      final int r = find(lo), nr = _rs.length>>1;
+      final boolean joinL = r >= 0 && _rs[(r<<1)+1]+1 == lo;
+      final boolean joinR = r+1 < nr && _rs[(r+1)<<1]-1 == lo;
+      final char[] rs;
+      if( joinL && joinR ) {    // Fills the gap: merge runs r and r+1
+        rs = new char[_rs.length-2];
+        System.arraycopy(_rs,0,rs,0,(r<<1)+1);
+        System.arraycopy(_rs,(r<<1)+3,rs,(r<<1)+1,rs.length-(r<<1)-1);
+      } else if( joinL ) {
+        rs = _rs.clone();
+        rs[(r<<1)+1] = (char)lo;
+      } else if( joinR ) {
+        rs = _rs.clone();
+        rs[(r+1)<<1] = (char)lo;
+      } else {                  // New run of 1 after run r
+        rs = new char[_rs.length+2];
+        System.arraycopy(_rs,0,rs,0,(r+1)<<1);
+        rs[(r+1)<<1] = rs[((r+1)<<1)+1] = (char)lo;
+        System.arraycopy(_rs,(r+1)<<1,rs,(r+2)<<1,_rs.length-((r+1)<<1));
+      }
+      return runs(rs);
+    }
+    Container without( int lo ) { // lo is known present in run r
+      final int r = find(lo), k = r<<1;
+      final char[] rs;
+      if( _rs[k] == lo && _rs[k+1] == lo ) { // Run of 1: drop it
+        if( _rs.length == 2 ) return null;
+        rs = new char[_rs.length-2];
+        System.arraycopy(_rs,0,rs,0,k);
+        System.arraycopy(_rs,k+2,rs,k,rs.length-k);
+      } else if( _rs[k] == lo ) {
+        rs = _rs.clone();
+        rs[k] = (char)(lo+1);
+      } else if( _rs[k+1] == lo ) {
+        rs = _rs.clone();
+        rs[k+1] = (char)(lo-1);
+      } else {                  // Split the run
+        rs = new char[_rs.length+2];
+        System.arraycopy(_rs,0,rs,0,k+1);
+        rs[k+1] = (char)(lo-1);
+        rs[k+2] = (char)(lo+1);
+        System.arraycopy(_rs,k+1,rs,k+3,_rs.length-k-1);
+      }
+      return runs(rs);
+    }
+    // Keep runs unless there are too many, or an array would be smaller
+    private static Container runs( char[] rs ) {
+      final RunC c = new RunC(rs);
+      final int nr = rs.length>>1;
+      if( nr <= RUN_MAX && 2*nr < c.card() ) return c;
+      final char[] es = new char[c.card()];
+      int n = 0;
+      for( int k=0; k<rs.length; k+=2 )
+        for( int x=rs[k]; x<=rs[k+1]; x++ )
+          es[n++] = (char)x;
+      return pack(es,n);
+    }
+  }
+
+  // --- BitmapC: one bit per element, 63 per word.  The sign bit of each
+  // word marks it frozen (immutable) during a shrink.
+  private static final class BitmapC extends Container {
+    static final int WORDS = (65536+62)/63;
+    static long mask( int lo ) { return 1L<<(lo%63); }
+    final AtomicLongArray _bits;
+    final AtomicInteger _card;  // Approximate; only used to trigger a shrink
+    BitmapC( long[] bits, int card ) { _bits = new AtomicLongArray(bits); _card = new AtomicInteger(card); }
+    boolean contains( int lo ) { return (_bits.get(lo/63) & mask(lo)) != 0; }
+    int next( int lo ) {
+      int w = lo/63;
+      long bits = _bits.get(w) & Long.MAX_VALUE & (-1L<<(lo%63));
+      while( bits == 0 ) {
+        if( ++w >= WORDS ) return -1;
+        bits = _bits.get(w) & Long.MAX_VALUE;
+      }
+      return w*63+Long.numberOfTrailingZeros(bits);
+    }
+    int card() {
+      int n = 0;
+      for( int w=0; w<WORDS; w++ )
+        n += Long.bitCount(_bits.get(w) & Long.MAX_VALUE);
+      return n;
+    }
+    int bytes() { return 16+(WORDS<<3); }
+    // 1 if added, 0 if already present, -1 if frozen
+    int add( int lo ) {
+      final int w = lo/63;
+      final long mask = mask(lo);
+      long old;
+      do {
+        old = _bits.get(w);
+        if( old < 0 ) return -1; // Not mutable?
+        if( (old & mask) != 0 ) return 0; // Bit is already set?
+      } while( !_bits.compareAndSet(w,old,old|mask) );
+      _card.incrementAndGet();
+      return 1;
+    }
+    // 1 if removed, 0 if already absent, -1 if frozen
+    int remove( int lo ) {
+      final int w = lo/63;
+      final long mask = mask(lo);
+      long old;
+      do {
+        old = _bits.get(w);
+        if( old < 0 ) return -1; // Not mutable?
+        if( (old & mask) == 0 ) return 0; // Bit is already clear?
+      } while( !_bits.compareAndSet(w,old,old&~mask) );
+      _card.decrementAndGet();
+      return 1;
+    }
+    // Set the sign bit in every word; afterwards the bits never change
+    void freeze() {
+      for( int w=0; w<WORDS; w++ ) {
+        long old = _bits.get(w);
+        while( old >= 0 && !_bits.compareAndSet(w,old,old|Long.MIN_VALUE) )
+          old = _bits.get(w);
+      }
+    }
+    // Repack frozen contents
+    Container thaw() {
+      final char[] es = new char[card()];
+      int n = 0;
+      for( int lo = next(0); lo >= 0; lo = lo == 0xFFFF ? -1 : next(lo+1) )
+        es[n++] = (char)lo;
+      return pack(es,n);
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map whose entries expire a fixed time after they are written, or
+ * optionally after they were last read.  Built on a {@link
+ * NonBlockingHashMap} index with the expiry deadline stored alongside each
+ * value; all operations are non-blocking.
+ *
+ * <p>Reads never return an expired value: {@link #get} checks the deadline.
+ * Reclaiming expired entries is done by a lock-free hierarchical timing
+ * wheel - 4 levels of 64 buckets, each bucket a lock-free stack of entries -
+ * which is advanced a little by every write, much as table-copy work is
+ * spread over the callers of {@link NonBlockingHashMap}.  Each write advances
+ * the wheel by a bounded number of ticks and looks at a bounded number of
+ * entries; a bucket too full to finish is left on a backlog for the writes
+ * after it, so there is never an O(n) sweep.  The wheel's tick is 1/64th of the default time-to-live, so
+ * a default entry is reclaimed at most a tick or so after it expires.  A map
+ * that sees no writes keeps its expired entries (unreachable by {@link #get})
+ * until the next write or {@link #cleanUp}.
+ *
+ * <p>{@link #size} counts expired entries not yet reclaimed.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class NonBlockingExpiringMap<K,V> {
+
+  // --- Node ----------------------------------------------------------------
+  // One mapping.  A write installs a fresh Node; a read in access mode just
+  // pushes the deadline out.  Each Node sits in exactly one wheel bucket at
+  // a time: the writer pushes it once, and the thread draining a bucket
+  // either drops it or pushes it into a later bucket.
+  private static final class Node<K,V> {
+    final K _key;
+    final V _val;
+    final long _ttl;            // Nanos; per-node so put(k,v,ttl) can override
+    volatile long _deadline;    // System.nanoTime() after which it is expired
+    Node<K,V> _next;            // Wheel bucket stack link
+    Node( K key, V val, long ttl, long now ) { _key = key; _val = val; _ttl = ttl; _deadline = now+ttl; }
+  }
+
+  private static final int LEVEL_LOG = 6;           // 64 buckets per level
+  private static final int LEVEL_SZ  = 1<<LEVEL_LOG;
+  private static final int LEVELS    = 4;           // 64^4 ticks before re-cascading
+  private static final int MAX_TICKS = LEVEL_SZ;    // Per-write wheel work limits
+  private static final int MAX_NODES = 32;
+
+  private final NonBlockingHashMap<K,Node<K,V>> _map = new NonBlockingHashMap<K,Node<K,V>>();
+  private final AtomicReferenceArray<Node<K,V>> _wheel = new AtomicReferenceArray<Node<K,V>>(LEVELS*LEVEL_SZ);
+  private final AtomicLong _tick = new AtomicLong(); // Last wheel tick processed
+  private final AtomicReference<Chain<K,V>> _backlog = new AtomicReference<Chain<K,V>>();
+  private final long _origin;    // nanoTime of tick 0
+  private final long _tickNanos;
+  private final long _ttl;       // Default time-to-live, nanos
+  private final boolean _access; // Reads extend the deadline
+
+  /** Create a map whose entries expire {@code ttl} after being written.
+   *  @param ttl the time-to-live, positive
+   *  @param unit the unit of {@code ttl} */
+  public NonBlockingExpiringMap( long ttl, TimeUnit unit ) { this(ttl,unit,false); }
+
+  /** Create a map whose entries expire {@code ttl} after being written or,
+   *  if {@code expireAfterAccess}, after last being read or written.
+   *  @param ttl the time-to-live, positive
+   *  @param unit the unit of {@code ttl}
+   *  @param expireAfterAccess true if a {@link #get} hit restarts the
+   *  time-to-live */
+  public NonBlockingExpiringMap( long ttl, TimeUnit unit, boolean expireAfterAccess ) {
+    _ttl = unit.toNanos(ttl);
+    if( _ttl <= 0 ) throw new IllegalArgumentException();
+    _tickNanos = Math.max(_ttl>>LEVEL_LOG,100000L); // 1/64th of a TTL, at least 0.1ms
+    _access = expireAfterAccess;
+    _origin = System.nanoTime();
+  }
+
+  // --- Reads ---------------------------------------------------------------
+
+  /** Returns the value mapped for a key, or null if there is none or it has
+   *  expired.  In expire-after-access mode a hit restarts the time-to-live.
+   *  @param key the key, not null
+   *  @return the current value, or null */
+  public V get( Object key ) {
+    final Node<K,V> n = _map.get(key);
+    if( n == null ) return null;
+    final long now = System.nanoTime();
+    if( now - n._deadline >= 0 ) return null; // Expired; the wheel will reclaim it
+    if( _access ) {
+      final long d = now+n._ttl;
+      if( d - n._deadline > _tickNanos ) // Skip the volatile store within a tick
+        n._deadline = d;
+    }
+    return n._val;
+  }
+
+  /** @param key the key, not null
+   *  @return true if the key maps to an unexpired value */
+  public boolean containsKey( Object key ) { return get(key) != null; }
+
+  /** Returns the remaining time-to-live of a mapping.
+   *  @param key the key, not null
+   *  @param unit the unit of the result
+   *  @return the time until the mapping expires, or -1 if there is none */
+  public long getExpiry( Object key, TimeUnit unit ) {
+    final Node<K,V> n = _map.get(key);
+    if( n == null ) return -1;
+    final long left = n._deadline - System.nanoTime();
+    return left <= 0 ? -1 : unit.convert(left,TimeUnit.NANOSECONDS);
+  }
+
+  // --- Writes --------------------------------------------------------------
+
+  /** Maps a key to a value with the default time-to-live.
+   *  @param key the key, not null
+   *  @param val the value, not null
+   *  @return the previous unexpired value, or null */
+  public V put( K key, V val ) { return put(key,val,_ttl,TimeUnit.NANOSECONDS); }
+
+  /** Maps a key to a value with the given time-to-live.
+   *  @param key the key, not null
+   *  @param val the value, not null
+   *  @param ttl the time-to-live for this mapping, positive
+   *  @param unit the unit of {@code ttl}
+   *  @return the previous unexpired value, or null */
+  public V put( K key, V val, long ttl, TimeUnit unit ) {
+    if( val == null ) throw new NullPointerException();
+    final long t = unit.toNanos(ttl);
+    if( t <= 0 ) throw new IllegalArgumentException();
+    final long now = System.nanoTime();
+    final Node<K,V> n = new Node<K,V>(key,val,t,now);
+    final Node<K,V> old = _map.put(key,n);
+    schedule(n,_tick.get());
+    expire(MAX_TICKS,MAX_NODES);
+    return live(old,now);
+  }
+
+  /** Maps a key to a value with the default time-to-live, unless it is
+   *  already mapped to an unexpired value.
+   *  @param key the key, not null
+   *  @param val the value, not null
+   *  @return the current unexpired value, or null if {@code val} was mapped */
+  public V putIfAbsent( K key, V val ) {
+    if( val == null ) throw new NullPointerException();
+    final long now = System.nanoTime();
+    final Node<K,V> n = new Node<K,V>(key,val,_ttl,now);
+    try {
+      while( true ) {
+        final Node<K,V> old = _map.putIfAbsent(key,n);
+        if( old == null || (live(old,now) == null && _map.replace(key,old,n)) ) {
+          schedule(n,_tick.get());
+          return null;
+        }
+        if( live(old,now) != null ) return old._val;
+      }
+    } finally {
+      expire(MAX_TICKS,MAX_NODES);
+    }
+  }
+
+  /** Removes the mapping for a key.
+   *  @param key the key
+   *  @return the previous unexpired value, or null */
+  public V remove( Object key ) {
+    final V v = live(_map.remove(key),System.nanoTime());
+    expire(MAX_TICKS,MAX_NODES);
+    return v;
+  }
+
+  /** Removes all mappings. */
+  public void clear() { _map.clear(); }
+
+  private static <K,V> V live( Node<K,V> n, long now ) {
+    return n == null || now - n._deadline >= 0 ? null : n._val;
+  }
+
+  /** @return the number of mappings, including expired ones not yet
+   *  reclaimed */
+  public int size() { return _map.size(); }
+
+  /** Reclaims every entry that has expired as of now.  This is never needed
+   *  for correctness; writes reclaim expired entries incrementally. */
+  public void cleanUp() { expire(Integer.MAX_VALUE,Integer.MAX_VALUE); }
+
+  // --- Timing wheel --------------------------------------------------------
+  // Level L buckets are LEVEL_SZ^L ticks wide.  A Node due at tick d goes in
+  // the lowest level whose bucket for d is less than a full revolution past
+  // the current one; when the wheel reaches that bucket, its Nodes cascade
+  // down a level (or expire, at level 0).
+
+  private long tick_of( long nanos ) { return (nanos - _origin)/_tickNanos; }
+
+  // Push a Node into the bucket for its deadline, relative to the last
+  // processed tick 'cur'.
+  private void schedule( Node<K,V> n, long cur ) {
+    long d = tick_of(n._deadline);
+    if( d <= cur ) d = cur+1;   // Overdue: the very next tick
+    int lvl = 0;
+    while( lvl < LEVELS-1 && (d>>(LEVEL_LOG*lvl)) - (cur>>(LEVEL_LOG*lvl)) >= LEVEL_SZ )
+      lvl++;
+    if( lvl == LEVELS-1 )       // Far future: park at the top level's last bucket
+      d = Math.min(d,((cur>>(LEVEL_LOG*lvl))+LEVEL_SZ-1)<<(LEVEL_LOG*lvl));
+    final int idx = lvl*LEVEL_SZ + (int)((d>>(LEVEL_LOG*lvl))&(LEVEL_SZ-1));
+    Node<K,V> h;
+    do {
+      h = _wheel.get(idx);
+      n._next = h;
+    } while( !_wheel.compareAndSet(idx,h,n) );
+    // The wheel may have raced past this bucket while we computed it, in
+    // which case nobody will look at it for a whole revolution.  Hand it to
+    // the backlog; the Nodes in it just get re-scheduled further on.
+    final long due = (d>>(LEVEL_LOG*lvl))<<(LEVEL_LOG*lvl);
+    if( due <= _tick.get() && _wheel.get(idx) != null )
+      defer(_wheel.getAndSet(idx,null));
+  }
+
+  // Advance the wheel towards now by at most maxTicks ticks and (roughly)
+  // maxNodes Nodes of work.  Ticks are claimed by CAS, so racing threads
+  // process different ticks in parallel and never block each other.
+  private void expire( int maxTicks, int maxNodes ) {
+    final long now = System.nanoTime();
+    final long target = tick_of(now);
+    int work = 0;
+    // Finish the chains earlier writes left part-done, oldest work first
+    while( work < maxNodes ) {
+      final Chain<K,V> c = _backlog.get();
+      if( c == null ) break;
+      if( !_backlog.compareAndSet(c,c._next) ) continue;
+      work += walk(c._head,_tick.get(),now,maxNodes-work);
+    }
+    for( int i=0; i<maxTicks && work < maxNodes; i++ ) {
+      final long t = _tick.get();
+      if( t >= target ) return;
+      if( !_tick.compareAndSet(t,t+1) ) continue; // Another thread has it
+      final long tk = t+1;
+      // Cascade the higher levels whose bucket boundary we just crossed
+      for( int lvl=LEVELS-1; lvl>0; lvl-- )
+        if( (tk & ((1L<<(LEVEL_LOG*lvl))-1)) == 0 )
+          work += drain(lvl*LEVEL_SZ + (int)((tk>>(LEVEL_LOG*lvl))&(LEVEL_SZ-1)),tk,now,maxNodes-work);
+      work += drain((int)(tk&(LEVEL_SZ-1)),tk,now,maxNodes-work);
+    }
+  }
+
+  // Empty one bucket, looking at no more than 'budget' of its Nodes.
+  // Returns the number of Nodes looked at.
+  private int drain( int idx, long tk, long now, int budget ) {
+    if( _wheel.get(idx) == null ) return 0; // Cheap check first
+    return walk(_wheel.getAndSet(idx,null),tk,now,budget);
+  }
+
+  // Walk a chain of Nodes: drop Nodes no longer mapped, reclaim expired
+  // ones, and re-schedule the rest.  Past 'budget' Nodes, the remainder of
+  // the chain goes to the backlog.  Returns the number of Nodes looked at.
+  private int walk( Node<K,V> n, long tk, long now, int budget ) {
+    int cnt = 0;
+    for( ; n != null && cnt < budget; cnt++ ) {
+      final Node<K,V> next = n._next; // Read before re-scheduling overwrites it
+      if( _map.get(n._key) == n ) {   // Still the live mapping?
+        if( now - n._deadline >= 0 ) _map.remove(n._key,n);
+        else schedule(n,tk);
+      }
+      n = next;
+    }
+    defer(n);
+    return cnt;
+  }
+
+  // --- Backlog -------------------------------------------------------------
+  // Chains of Nodes taken out of the wheel but not yet looked at.  A
+  // lock-free stack of whole chains, so putting back the unwalked part of a
+  // bucket is one CAS however long it is.  Nodes wait here no more than a
+  // few writes; the wheel only decides when Nodes are looked at, and get()
+  // checks deadlines itself.
+  private static final class Chain<K,V> {
+    final Node<K,V> _head;
+    Chain<K,V> _next;
+    Chain( Node<K,V> head ) { _head = head; }
+  }
+  private void defer( Node<K,V> n ) {
+    if( n == null ) return;
+    final Chain<K,V> c = new Chain<K,V>(n);
+    do c._next = _backlog.get();
+    while( !_backlog.compareAndSet(c._next,c) );
+  }
+}
@@ -9,7 +9,13 @@ import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.*;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import sun.misc.Unsafe;
 
 /**
@@ -108,17 +114,18 @@ public class NonBlockingHashMap<TypeK, TypeV>
   }
 
   // --- hash ----------------------------------------------------------------
-  // Helper function to spread lousy hashCodes
-  private static final int hash(final Object key) {
-    int h = key.hashCode();     // The real hashCode call
-    // Spread bits to regularize both segment and index locations,
-    // using variant of single-word Wang/Jenkins hash.
-    h += (h <<  15) ^ 0xffffcd7d;
-    h ^= (h >>> 10);
-    h += (h <<   3);
-    h ^= (h >>>  6);
-    h += (h <<   2) + (h << 14);
-    return h ^ (h >>> 16);
+  // How keys are hashed and compared; see HashStrategy.  Fixed at
+  // construction; not final only so readObject can default it for streams
+  // written before there was a strategy.
+  private HashStrategy _hs;
+
+  // Helper function to spread lousy hashCodes.  The default strategy is
+  // inlined here, sparing the common case a v-call per lookup.
+  private final int hash(final Object key) {
+    final HashStrategy hs = _hs;
+    return hs == HashStrategy.SPREAD
+      ? HashStrategy.spread(key.hashCode()) // The real hashCode call
+      : hs.hash(key);
   }
 
   // --- The Hash Table --------------------
@@ -162,6 +169,11 @@ public class NonBlockingHashMap<TypeK, TypeV>
   // updates can happen to the old table (and since the K/V pair was deleted
   // nothing was copied to the new table).
   private static final Prime TOMBPRIME = new Prime(TOMBSTONE);
+  // The 'new table' of a frozen map: a table copy that never completes.
+  // Every Value in the table is Prime'd by freeze(), so writers always end
+  // up trying to copy a slot into FROZEN, and throw instead.  Readers just
+  // unbox.
+  private static final Object[] FROZEN = new Object[0];
 
   // --- key,val -------------------------------------------------------------
   // Access K,V for a given idx
@@ -201,7 +213,7 @@ public class NonBlockingHashMap<TypeK, TypeV>
       }
     }
     Object[] newkvs = chm(kvs)._newkvs; // New table, if any
-    if( newkvs != null ) {
+    if( newkvs != null && newkvs != FROZEN ) {
       System.out.println("----");
       print(newkvs);
     }
@@ -219,7 +231,7 @@ public class NonBlockingHashMap<TypeK, TypeV>
       }
     }
     Object[] newkvs = chm(kvs)._newkvs; // New table, if any
-    if( newkvs != null ) {
+    if( newkvs != null && newkvs != FROZEN ) {
       System.out.println("----");
       print2(newkvs);
     }
@@ -251,12 +263,31 @@ public class NonBlockingHashMap<TypeK, TypeV>
    *  to 8 K/V pairs or roughly 84 bytes on a standard 32-bit JVM). */
   public NonBlockingHashMap( ) { this(MIN_SIZE); }
 
+  /** Create a new NonBlockingHashMap with default minimum size, hashing and
+   *  comparing keys with the given strategy.
+   *  @param hs the key strategy
+   *  @throws NullPointerException if the strategy is null
+   *  @since 1.1.5 */
+  public NonBlockingHashMap( final HashStrategy hs ) { this(MIN_SIZE,hs); }
+
   /** Create a new NonBlockingHashMap with initial room for the given number of
    *  elements, thus avoiding internal resizing operations to reach an
    *  appropriate size.  Large numbers here when used with a small count of
    *  elements will sacrifice space for a small amount of time gained.  The
    *  initial size will be rounded up internally to the next larger power of 2. */
-  public NonBlockingHashMap( final int initial_sz ) { initialize(initial_sz); }
+  public NonBlockingHashMap( final int initial_sz ) { this(initial_sz,HashStrategy.SPREAD); }
+
+  /** Create a new NonBlockingHashMap with initial room for the given number of
+   *  elements, hashing and comparing keys with the given strategy.
+   *  @param initial_sz the initial room
+   *  @param hs the key strategy
+   *  @throws NullPointerException if the strategy is null
+   *  @since 1.1.5 */
+  public NonBlockingHashMap( final int initial_sz, final HashStrategy hs ) {
+    if( hs == null ) throw new NullPointerException();
+    _hs = hs;
+    initialize(initial_sz);
+  }
   private final void initialize( int initial_sz ) {
     if( initial_sz < 0 ) throw new IllegalArgumentException();
     int i;                      // Convert to next largest power-of-2
@@ -355,6 +386,66 @@ public class NonBlockingHashMap<TypeK, TypeV>
     return res == TOMBSTONE ? null : (TypeV)res;
   }
 
+  /** Atomically compute a new mapping for the key from its current value
+   *  (or {@code null} if unmapped).  If the function returns {@code null}
+   *  the mapping is removed (or stays absent).  The key is hashed and probed
+   *  once; under contention only the Value CAS is retried, and the function
+   *  is re-applied only if the value it was applied to has been changed by
+   *  another thread in the meantime - so it should be free of side-effects.
+   *  @return the new value associated with the key, or <tt>null</tt> if none
+   *  @throws NullPointerException if the specified key or function is null */
+  @Override
+  public TypeV compute( TypeK key, BiFunction<? super TypeK,? super TypeV,? extends TypeV> remappingFunction ) {
+    if( remappingFunction == null ) throw new NullPointerException();
+    return compute(key,new Remap(Remap.COMPUTE,remappingFunction,null,null));
+  }
+
+  /** Atomically, if the key is not mapped, compute a value with the given
+   *  function and insert it unless it is {@code null}.  The function is
+   *  called at most once per call; if another thread inserts a value first
+   *  that value is returned instead.
+   *  @return the current (existing or computed) value associated with the
+   *         key, or <tt>null</tt> if the computed value is null
+   *  @throws NullPointerException if the specified key or function is null */
+  @Override
+  public TypeV computeIfAbsent( TypeK key, Function<? super TypeK,? extends TypeV> mappingFunction ) {
+    if( mappingFunction == null ) throw new NullPointerException();
+    return compute(key,new Remap(Remap.IF_ABSENT,null,mappingFunction,null));
+  }
+
+  /** Atomically, if the key is mapped, compute a new mapping from the key and
+   *  its current value.  If the function returns {@code null} the mapping is
+   *  removed.  As with {@link #compute}, the function may be re-applied if
+   *  the value changes under contention.
+   *  @return the new value associated with the key, or <tt>null</tt> if none
+   *  @throws NullPointerException if the specified key or function is null */
+  @Override
+  public TypeV computeIfPresent( TypeK key, BiFunction<? super TypeK,? super TypeV,? extends TypeV> remappingFunction ) {
+    if( remappingFunction == null ) throw new NullPointerException();
+    return compute(key,new Remap(Remap.IF_PRESENT,remappingFunction,null,null));
+  }
+
+  /** Atomically, if the key is not mapped, map it to the given value;
+   *  otherwise replace the current value with the result of the function
+   *  applied to the current and given values, removing the mapping if that
+   *  is {@code null}.  As with {@link #compute}, the function may be
+   *  re-applied if the value changes under contention.
+   *  @return the new value associated with the key, or <tt>null</tt> if none
+   *  @throws NullPointerException if the specified key, value or function is null */
+  @Override
+  public TypeV merge( TypeK key, TypeV value, BiFunction<? super TypeV,? super TypeV,? extends TypeV> remappingFunction ) {
+    if( value == null || remappingFunction == null ) throw new NullPointerException();
+    return compute(key,new Remap(Remap.MERGE,remappingFunction,null,value));
+  }
+
+  private final TypeV compute( Object key, Remap remap ) {
+    final int fullhash = hash(key); // throws NullPointerException if key is null
+    final Object res = compute_impl( this, _kvs, key, fullhash, remap );
+    assert !(res instanceof Prime);
+    assert res != null;
+    return res == TOMBSTONE ? null : (TypeV)res;
+  }
+
 
   /** Copies all of the mappings from the specified map to this one, replacing
    *  any existing mappings.
@@ -369,8 +460,29 @@ public class NonBlockingHashMap<TypeK, TypeV>
   @Override
   public void clear() {         // Smack a new empty table down
     Object[] newkvs = new NonBlockingHashMap(MIN_SIZE)._kvs;
-    while( !CAS_kvs(_kvs,newkvs) ) // Spin until the clear works
-      ;
+    Object[] kvs;
+    do {
+      kvs = _kvs;
+      if( chm(kvs)._newkvs == FROZEN ) throw new IllegalStateException("frozen");
+    } while( !CAS_kvs(kvs,newkvs) ) ; // Spin until the clear works
+  }
+
+  /** Copy the mappings into a fresh table sized for the current {@link
+   *  #size} - shrinking it if it was sized for many more keys - and drop
+   *  the slots of removed keys.  Call after a burst of removals to give the
+   *  memory back.  The map stays fully usable while the copy runs; other
+   *  threads help it along just as with a growing resize.  The copy is
+   *  complete when this call returns, unless a concurrent resize got there
+   *  first, in which case that resize is completed instead.
+   *  @since 1.1.5 */
+  public void compact() {
+    final Object[] kvs = snapshot_kvs(); // Finish any copy in progress
+    final CHM chm = chm(kvs);
+    if( chm._newkvs == FROZEN ) throw new IllegalStateException("frozen");
+    int log2;                   // Same sizing as a fresh table
+    for( log2=MIN_SIZE_LOG; (1L<<log2) < ((long)size()<<2); log2++ ) ;
+    chm.resize_to(this,log2);   // Start the copy, unless another thread did
+    chm.help_copy_impl(this,kvs,true); // And drive it to completion
   }
 
   /** Returns <tt>true</tt> if this Map maps one or more keys to the specified
@@ -411,8 +523,10 @@ public class NonBlockingHashMap<TypeK, TypeV>
       // structure is undergoing rapid change.  If I just clone the _kvs
       // field, the CHM in _kvs[0] won't be in sync.
       //
-      // Wipe out the cloned array (it was shallow anyways).
-      t.clear();
+      // Wipe out the cloned array (it was shallow anyways).  A clone of a
+      // frozen map is not frozen.
+      t.initialize(MIN_SIZE);
+      t._frozen = null;
       // Now copy sanely
       for( TypeK K : keySet() ) {
         final TypeV V = get(K);  // Do an official 'get'
@@ -462,7 +576,7 @@ public class NonBlockingHashMap<TypeK, TypeV>
   // Check for key equality.  Try direct pointer compare first, then see if
   // the hashes are unequal (fast negative test) and finally do the full-on
   // 'equals' v-call.
-  private static boolean keyeq( Object K, Object key, int[] hashes, int hash, int fullhash ) {
+  private static boolean keyeq( Object K, Object key, int[] hashes, int hash, int fullhash, HashStrategy hs ) {
     return
       K==key ||                 // Either keys match exactly OR
       // hash exists and matches?  hash can be zero during the install of a
@@ -477,7 +591,7 @@ public class NonBlockingHashMap<TypeK, TypeV>
        // operands (since equals is commutative), but I'm making mega-morphic
        // v-calls in a reprobing loop and nailing down the 'this' argument
        // gives both the JIT and the hardware a chance to prefetch the call target.
-       key.equals(K));          // Finally do the hard match
+       (hs == HashStrategy.SPREAD ? key.equals(K) : hs.equal(key,K))); // Finally do the hard match
   }
 
   // --- get -----------------------------------------------------------------
@@ -492,6 +606,8 @@ public class NonBlockingHashMap<TypeK, TypeV>
   @Override
   public TypeV get( Object key ) {
     final int fullhash= hash (key); // throws NullPointerException if key is null
+    final ReadOnlyTable f = _frozen; // Frozen?  Then use the compact read-only table
+    if( f != null ) return (TypeV)f.get(key,fullhash);
     final Object V = get_impl(this,_kvs,key,fullhash);
     assert !(V instanceof Prime); // Never return a Prime
     return (TypeV)V;
@@ -525,10 +641,14 @@ public class NonBlockingHashMap<TypeK, TypeV>
       final Object[] newkvs = chm._newkvs; // VOLATILE READ before key compare
 
       // Key-compare
-      if( keyeq(K,key,hashes,idx,fullhash) ) {
+      if( keyeq(K,key,hashes,idx,fullhash,topmap._hs) ) {
         // Key hit!  Check for no table-copy-in-progress
         if( !(V instanceof Prime) ) // No copy?
           return (V == TOMBSTONE) ? null : V; // Return the value
+        if( newkvs == FROZEN ) { // Frozen: the boxed Value is final
+          final Object U = ((Prime)V)._V;
+          return U == TOMBSTONE ? null : U;
+        }
         // Key hit - but slot is (possibly partially) copied to the new table.
         // Finish the copy & retry in the new table.
         return get_impl(topmap,chm.copy_slot_and_check(topmap,kvs,idx,key),key,fullhash); // Retry in the new table
@@ -538,7 +658,78 @@ public class NonBlockingHashMap<TypeK, TypeV>
       // Check for too-many-reprobes on get - and flip to the new table.
       if( ++reprobe_cnt >= reprobe_limit(len) || // too many probes
           key == TOMBSTONE ) // found a TOMBSTONE key, means no more keys in this table
-        return newkvs == null ? null : get_impl(topmap,topmap.help_copy(newkvs),key,fullhash); // Retry in the new table
+        return newkvs == null || newkvs == FROZEN ? null : get_impl(topmap,topmap.help_copy(newkvs),key,fullhash); // Retry in the new table
+
+      idx = (idx+1)&(len-1);    // Reprobe by 1!  (could now prefetch)
+    }
+  }
+
+  // --- get, by range ------------------------------------------------------
+  /** Returns the value mapped to the key held in <tt>buf[off,off+len)</tt>,
+   *  or {@code null} if none.  Nothing is copied or allocated: the range is
+   *  hashed and compared in place by the map's {@link HashStrategy}, such as
+   *  {@link HashStrategy#BYTES}.
+   *  @param buf the buffer holding the key
+   *  @param off the key's offset in the buffer
+   *  @param len the key's length
+   *  @throws IndexOutOfBoundsException if the range is not within the buffer
+   *  @throws UnsupportedOperationException if the strategy has no
+   *  <tt>byte[]</tt> range probes
+   *  @since 1.1.5 */
+  public TypeV get( final byte[] buf, final int off, final int len ) {
+    if( off < 0 || len < 0 || len > buf.length-off ) throw new IndexOutOfBoundsException();
+    return (TypeV)get_range(this,_kvs,buf,off,len,_hs.hash(buf,off,len));
+  }
+
+  /** Returns the value mapped to the key held in <tt>buf[off,off+len)</tt>,
+   *  or {@code null} if none.  Nothing is copied or allocated: the range is
+   *  hashed and compared in place by the map's {@link HashStrategy}, such as
+   *  {@link HashStrategy#CHARS} or {@link HashStrategy#CHAR_SEQUENCE}.
+   *  @param buf the buffer holding the key
+   *  @param off the key's offset in the buffer
+   *  @param len the key's length
+   *  @throws IndexOutOfBoundsException if the range is not within the buffer
+   *  @throws UnsupportedOperationException if the strategy has no
+   *  <tt>char[]</tt> range probes
+   *  @since 1.1.5 */
+  public TypeV get( final char[] buf, final int off, final int len ) {
+    if( off < 0 || len < 0 || len > buf.length-off ) throw new IndexOutOfBoundsException();
+    return (TypeV)get_range(this,_kvs,buf,off,len,_hs.hash(buf,off,len));
+  }
+
+  // Same as get_impl, but the key is a range of a byte[] or char[] compared
+  // by the strategy against the keys in the table.  The frozen table is not
+  // used; a frozen _kvs still reads correctly.
+  private static final Object get_range( final NonBlockingHashMap topmap, final Object[] kvs, final Object buf, final int off, final int klen, final int fullhash ) {
+    final int len     = len  (kvs); // Count of key/value pairs, reads kvs.length
+    final CHM chm     = chm  (kvs); // The CHM, for a volatile read below; reads slot 0 of kvs
+    final int[] hashes=hashes(kvs); // The memoized hashes; reads slot 1 of kvs
+    final HashStrategy hs = topmap._hs;
+
+    int idx = fullhash & (len-1); // First key hash
+
+    // Main spin/reprobe loop, looking for a Key hit
+    int reprobe_cnt=0;
+    while( true ) {
+      final Object K = key(kvs,idx); // Get key   before volatile read, could be null
+      final Object V = val(kvs,idx); // Get value before volatile read, could be null or Tombstone or Prime
+      if( K == null ) return null;   // A clear miss
+      final Object[] newkvs = chm._newkvs; // VOLATILE READ before key compare
+
+      // Key-compare, as keyeq but against the range
+      if( K != TOMBSTONE && (hashes[idx] == 0 || hashes[idx] == fullhash) &&
+          (buf instanceof byte[] ? hs.equal((byte[])buf,off,klen,K) : hs.equal((char[])buf,off,klen,K)) ) {
+        if( !(V instanceof Prime) ) // No copy?
+          return (V == TOMBSTONE) ? null : V; // Return the value
+        if( newkvs == FROZEN ) { // Frozen: the boxed Value is final
+          final Object U = ((Prime)V)._V;
+          return U == TOMBSTONE ? null : U;
+        }
+        // Finish the copy & retry in the new table
+        return get_range(topmap,chm.copy_slot_and_check(topmap,kvs,idx,K),buf,off,klen,fullhash);
+      }
+      if( ++reprobe_cnt >= reprobe_limit(len) ) // too many probes
+        return newkvs == null || newkvs == FROZEN ? null : get_range(topmap,topmap.help_copy(newkvs),buf,off,klen,fullhash); // Retry in the new table
 
       idx = (idx+1)&(len-1);    // Reprobe by 1!  (could now prefetch)
     }
@@ -551,10 +742,11 @@ public class NonBlockingHashMap<TypeK, TypeV>
   // the path through copy_slot passes in an expected value of null, and
   // putIfMatch only returns a null if passed in an expected null.
   private static final Object putIfMatch( final NonBlockingHashMap topmap, final Object[] kvs, final Object key, final Object putval, final Object expVal ) {
+    if( kvs == FROZEN ) throw new IllegalStateException("frozen");
     assert putval != null;
     assert !(putval instanceof Prime);
     assert !(expVal instanceof Prime);
-    final int fullhash = hash  (key); // throws NullPointerException if key null
+    final int fullhash = topmap.hash(key); // throws NullPointerException if key null
     final int len      = len   (kvs); // Count of key/value pairs, reads kvs.length
     final CHM chm      = chm   (kvs); // Reads kvs[0]
     final int[] hashes = hashes(kvs); // Reads kvs[1], read before kvs[0]
@@ -602,7 +794,7 @@ public class NonBlockingHashMap<TypeK, TypeV>
       // Annoyingly this means we have to volatile-read before EACH key compare.
       newkvs = chm._newkvs;     // VOLATILE READ before key compare
 
-      if( keyeq(K,key,hashes,idx,fullhash) )
+      if( keyeq(K,key,hashes,idx,fullhash,topmap._hs) )
         break;                  // Got it!
 
       // get and put must have the same key lookup logic!  Lest 'get' give
@@ -689,6 +881,124 @@ public class NonBlockingHashMap<TypeK, TypeV>
     }
   }
 
+  // --- Remap ---------------------------------------------------------------
+  // The remapping state for compute, computeIfAbsent, computeIfPresent and
+  // merge.  The last computed result is cached along with the Value it was
+  // computed from, and the cache survives retries and table copies: the
+  // user function is only re-run if the Value really changed underneath us.
+  private static final class Remap {
+    static final int COMPUTE=0, IF_ABSENT=1, IF_PRESENT=2, MERGE=3;
+    final int _kind;
+    final BiFunction<Object,Object,Object> _fcn; // COMPUTE, IF_PRESENT, MERGE
+    final Function<Object,Object> _absent;       // IF_ABSENT
+    final Object _merge;        // MERGE: the value to merge in
+    Object _basis = NO_MATCH_OLD; // Value the cached result was computed from
+    Object _result;             // Cached result; TOMBSTONE means no mapping
+    // The user functions are typed by the map's K/V, but the table holds
+    // plain Objects; erase them once here.
+    @SuppressWarnings("unchecked")
+    Remap( int kind, BiFunction<?,?,?> fcn, Function<?,?> absent, Object merge ) {
+      _kind = kind; _merge = merge;
+      _fcn = (BiFunction<Object,Object,Object>)fcn;
+      _absent = (Function<Object,Object>)absent;
+    }
+    // Desired new Value given the current Value V, which may be null or
+    // TOMBSTONE for "absent" but never Prime.  Returns TOMBSTONE to mean the
+    // key should end up unmapped.
+    Object apply( Object key, Object V ) {
+      final boolean absent = (V == null || V == TOMBSTONE);
+      final Object basis = absent ? TOMBSTONE : V;
+      if( basis == _basis ) return _result; // Cache hit: V is unchanged
+      Object res;
+      switch( _kind ) {
+      case COMPUTE:    res = _fcn.apply(key, absent ? null : V); break;
+      case IF_ABSENT:  res = absent ? _absent.apply(key) : V;    break;
+      case IF_PRESENT: res = absent ? null : _fcn.apply(key,V);  break;
+      default:         res = absent ? _merge : _fcn.apply(V,_merge); break;
+      }
+      _basis = basis;
+      return _result = (res == null ? TOMBSTONE : res);
+    }
+  }
+
+  // --- compute_impl --------------------------------------------------------
+  // Same Key-Claim stanza and table-copy protocol as putIfMatch, but the new
+  // Value is computed from the old one found in the slot.  Returns the new
+  // Value, or TOMBSTONE if the key ends up unmapped.  Once the Key slot is
+  // found only the Value CAS is retried - we never re-hash or re-probe.
+  private static final Object compute_impl( final NonBlockingHashMap topmap, final Object[] kvs, final Object key, final int fullhash, final Remap remap ) {
+    if( kvs == FROZEN ) throw new IllegalStateException("frozen");
+    final int len      = len   (kvs); // Count of key/value pairs, reads kvs.length
+    final CHM chm      = chm   (kvs); // Reads kvs[0]
+    final int[] hashes = hashes(kvs); // Reads kvs[1], read before kvs[0]
+    int idx = fullhash & (len-1);
+
+    // ---
+    // Key-Claim stanza: spin till we can claim a Key (or force a resizing).
+    int reprobe_cnt=0;
+    Object K=null, V=null;
+    Object[] newkvs=null;
+    while( true ) {             // Spin till we get a Key slot
+      V = val(kvs,idx);         // Get old value (before volatile read below!)
+      K = key(kvs,idx);         // Get current key
+      if( K == null ) {         // Slot is free?
+        // Found an empty Key slot - which means this Key has never been in
+        // this table.  Compute before claiming the slot, so that a null
+        // result does not burn a Key slot for nothing.
+        if( remap.apply(key,null) == TOMBSTONE ) return TOMBSTONE;
+        if( CAS_key(kvs,idx, null, key ) ) { // Claim slot for Key
+          chm._slots.add(1);      // Raise key-slots-used count
+          hashes[idx] = fullhash; // Memoize fullhash
+          break;                  // Got it!
+        }
+        K = key(kvs,idx);       // CAS failed, get updated value
+        assert K != null;       // If keys[idx] is null, CAS shoulda worked
+      }
+      newkvs = chm._newkvs;     // VOLATILE READ before key compare
+      if( keyeq(K,key,hashes,idx,fullhash,topmap._hs) )
+        break;                  // Got it!
+      // get and put must have the same key lookup logic!  Lest 'get' give
+      // up looking too soon.
+      if( ++reprobe_cnt >= reprobe_limit(len) ) { // too many probes
+        newkvs = chm.resize(topmap,kvs);
+        topmap.help_copy(newkvs); // help along an existing copy
+        return compute_impl(topmap,newkvs,key,fullhash,remap);
+      }
+      idx = (idx+1)&(len-1);    // Reprobe!
+    } // End of spinning till we get a Key slot
+
+    // ---
+    // Found the proper Key slot.  Same move-to-new-table checks as putIfMatch.
+    if( newkvs == null &&       // New table-copy already spotted?
+        ((V == null && chm.tableFull(reprobe_cnt,len)) ||
+         V instanceof Prime) )
+      newkvs = chm.resize(topmap,kvs); // Force the new table copy to start
+    if( newkvs != null )
+      return compute_impl(topmap,chm.copy_slot_and_check(topmap,kvs,idx,remap),key,fullhash,remap);
+
+    // ---
+    // Compute and CAS the Value slot until it sticks
+    while( true ) {
+      assert !(V instanceof Prime);
+      final Object putval = remap.apply(key,V);
+      if( putval == V || (putval == TOMBSTONE && V == null) )
+        return putval;          // No change
+      if( CAS_val(kvs, idx, V, putval ) ) {
+        // Adjust sizes - a striped counter
+        if(  (V == null || V == TOMBSTONE) && putval != TOMBSTONE ) chm._size.add( 1);
+        if( !(V == null || V == TOMBSTONE) && putval == TOMBSTONE ) chm._size.add(-1);
+        return putval;
+      }
+      // Else CAS failed
+      V = val(kvs,idx);         // Get new value
+      // If a Prime'd value got installed, we need to re-run the compute on
+      // the new table.  Otherwise we lost the CAS to another racing update;
+      // recompute from the new Value and try again.
+      if( V instanceof Prime )
+        return compute_impl(topmap,chm.copy_slot_and_check(topmap,kvs,idx,remap),key,fullhash,remap);
+    }
+  }
+
   // --- help_copy ---------------------------------------------------------
   // Help along an existing resize operation.  This is just a fast cut-out
   // wrapper, to encourage inlining for the fast no-copy-in-progress case.  We
@@ -700,7 +1010,8 @@ public class NonBlockingHashMap<TypeK, TypeV>
     // and another KVS becomes the top-level copy).
     Object[] topkvs = _kvs;
     CHM topchm = chm(topkvs);
-    if( topchm._newkvs == null ) return helper; // No copy in-progress
+    final Object[] newkvs = topchm._newkvs;
+    if( newkvs == null || newkvs == FROZEN ) return helper; // No copy in-progress
     topchm.help_copy_impl(this,topkvs,false);
     return helper;
   }
@@ -823,13 +1134,26 @@ public class NonBlockingHashMap<TypeK, TypeV>
           (q=_slots.estimate_get()) >= (sz<<1) ) // 1/2 of keys are dead?
         newsz = oldlen<<1;      // Double the existing size
 
-      // Do not shrink, ever
-      if( newsz < oldlen ) newsz = oldlen;
+      // Shrink only if few keys are live, and then to 8x the live keys - half
+      // the density of a fresh table, so the new table does not promptly
+      // grow back.  A table that briefly held millions of keys hands the
+      // memory back on the next copy after most of them are removed.
+      if( newsz < oldlen ) {    // Less than 25% live?
+        newsz = sz<<3;          // No overflow: sz < oldlen/4
+        if( newsz > oldlen ) newsz = oldlen; // Less than 12.5% live to shrink
+      }
 
       // Convert to power-of-2
       int log2;
       for( log2=MIN_SIZE_LOG; (1<<log2) < newsz; log2++ ) ; // Compute log2 of size
+      return resize_to(topmap,log2);
+    }
 
+    // --- resize_to ---------------------------------------------------------
+    // Start a table-copy into a new table of 1<<log2 K/V pairs, unless some
+    // other thread already started a copy; returns the new table either way.
+    private final Object[] resize_to( NonBlockingHashMap topmap, int log2 ) {
+      Object[] newkvs;
       // Now limit the number of threads actually allocating memory to a
       // handful - lest we have 750 threads all trying to allocate a giant
       // resized array.
@@ -971,6 +1295,8 @@ public class NonBlockingHashMap<TypeK, TypeV>
       // We're only here because the caller saw a Prime, which implies a
       // table-copy is in progress.
       assert newkvs != null;
+      // Or that the map is frozen, and the caller is a writer.
+      if( newkvs == FROZEN ) throw new IllegalStateException("frozen");
       if( copy_slot(topmap,idx,oldkvs,_newkvs) )   // Copy the desired slot
         copy_check_and_promote(topmap, oldkvs, 1); // Record the slot copied
       // Generically help along any copy (except if called recursively from a helper)
@@ -1076,26 +1402,125 @@ public class NonBlockingHashMap<TypeK, TypeV>
   } // End of CHM
 
 
+  // --- freeze --------------------------------------------------------------
+  // The compact read-only table of a frozen map, or null.  Published only
+  // after every Value is Prime'd; until then readers use the normal path,
+  // which unboxes.  All fields are final, so a racy read is safe.
+  private transient ReadOnlyTable _frozen;
+
+  /**
+   * Atomically make the map immutable.  Future calls to mutate will throw an
+   * {@link IllegalStateException}.  Mutator calls in other threads racing
+   * with this call either throw, or their update is visible in the frozen
+   * map.  Safe to call concurrently and repeatedly.
+   *
+   * <p>Once frozen, {@link #get} runs against a compact read-only copy of the
+   * table: no dead keys, no tombstones and no table-copy checks.  Useful for
+   * maps built in parallel and then only read.  A frozen map serializes as
+   * usual, and reads back (or clones) as a normal mutable map.
+   * @since 1.1.5
+   */
+  public void freeze() {
+    while( true ) {
+      // Stop the top table from ever copying: writers that check for a copy
+      // in progress find FROZEN instead, and a racing resize makes us retry.
+      final Object[] kvs = snapshot_kvs(); // Finish any copy in progress
+      final CHM chm = chm(kvs);
+      if( chm._newkvs != FROZEN && !chm.CAS_newkvs(FROZEN) )
+        continue;               // Lost to a resize; finish it and retry
+      // Box every Value, so no CAS on an old Value can succeed.  The writes
+      // that beat the boxing are in the frozen map; the rest will throw.
+      final int len = len(kvs);
+      for( int idx=0; idx<len; idx++ ) {
+        while( key(kvs,idx) == null ) // Stop fresh key claims, like copy_slot
+          CAS_key(kvs,idx,null,TOMBSTONE);
+        Object V = val(kvs,idx);
+        while( !(V instanceof Prime) ) {
+          if( CAS_val(kvs,idx,V,(V == null || V == TOMBSTONE) ? TOMBPRIME : new Prime(V)) )
+            break;
+          V = val(kvs,idx);
+        }
+      }
+      if( _kvs != kvs ) continue; // A racing clear() won; freeze its table
+      if( _frozen == null ) _frozen = frozen_table(kvs,_hs);
+      return;
+    }
+  }
+
+  /** @return true if {@link #freeze} has been called
+   *  @since 1.1.5 */
+  public boolean isFrozen() { return chm(_kvs)._newkvs == FROZEN; }
+
+  /** Returns an immutable copy of this map, with a much denser table and
+   *  faster lookups; see {@link ImmutableHashMap}.  The copy holds the
+   *  mappings an iteration over {@link #entrySet} sees, so it is exact if
+   *  the map is {@link #freeze frozen} or otherwise quiet.  A frozen map
+   *  shares its read-only table with the copy rather than building another.
+   *  The copy hashes and compares keys with this map's {@link HashStrategy}.
+   *  @return an immutable copy of this map
+   *  @since 1.1.5 */
+  public ImmutableHashMap<TypeK,TypeV> toImmutable() {
+    final ReadOnlyTable f = _frozen;
+    return f != null
+      ? new ImmutableHashMap<TypeK,TypeV>(f)
+      : new ImmutableHashMap<TypeK,TypeV>(this,_hs);
+  }
+
+  // The live pairs of a fully Prime'd table, as a read-only table.  Hashes
+  // memoized in the table are reused; the rest are computed.
+  private static ReadOnlyTable frozen_table( final Object[] kvs, final HashStrategy strategy ) {
+    int cnt = 0;
+    for( int i=0; i<len(kvs); i++ )
+      if( ((Prime)val(kvs,i))._V != TOMBSTONE ) cnt++;
+    final Object[] pairs = new Object[cnt<<1];
+    final int[] fullhashes = new int[cnt];
+    final int[] hs = hashes(kvs);
+    int n = 0;
+    for( int i=0; i<len(kvs); i++ ) {
+      final Object V = ((Prime)val(kvs,i))._V;
+      if( V == TOMBSTONE ) continue;
+      fullhashes[n] = hs[i];    // 0 if not memoized yet
+      pairs[(n<<1)  ] = key(kvs,i);
+      pairs[(n<<1)+1] = V;
+      n++;
+    }
+    return new ReadOnlyTable(pairs,fullhashes,strategy);
+  }
+
   // --- Snapshot ------------------------------------------------------------
+  // Return a clean view of the top-level K/V array, with no table-copy in
+  // progress.  This is the "linearization point" for an iteration: every key
+  // in this table will be visited, but keys added later might be skipped or
+  // even be added to a following table (also not iterated over).
+  private final Object[] snapshot_kvs() {
+    while( true ) {             // Verify no table-copy-in-progress
+      Object[] topkvs = _kvs;
+      CHM topchm = chm(topkvs);
+      final Object[] newkvs = topchm._newkvs;
+      if( newkvs == null || newkvs == FROZEN ) // No table-copy-in-progress
+        return topkvs;
+      // Table copy in-progress - so we cannot get a clean iteration.  We
+      // must help finish the table copy before we can start iterating.
+      topchm.help_copy_impl(this,topkvs,true);
+    }
+  }
+
+  // The Value for Key K found at slot idx of a snapshot, or null if K is not
+  // mapped.  The snapshot's own Value is current unless the slot has been
+  // (or is being) copied to a newer table - then it is Primed, or the table
+  // has moved on altogether - and only then do we pay for an official 'get'.
+  private final Object snapshot_val( final Object[] kvs, final int idx, final Object K ) {
+    final Object V = val(kvs,idx);
+    if( V instanceof Prime || _kvs != kvs ) return get(K);
+    return V == TOMBSTONE ? null : V;
+  }
+
   // The main class for iterating over the NBHM.  It "snapshots" a clean
   // view of the K/V array.
   private class SnapshotV implements Iterator<TypeV>, Enumeration<TypeV> {
     final Object[] _sskvs;
     public SnapshotV() {
-      while( true ) {           // Verify no table-copy-in-progress
-        Object[] topkvs = _kvs;
-        CHM topchm = chm(topkvs);
-        if( topchm._newkvs == null ) { // No table-copy-in-progress
-          // The "linearization point" for the iteration.  Every key in this
-          // table will be visited, but keys added later might be skipped or
-          // even be added to a following table (also not iterated over).
-          _sskvs = topkvs;
-          break;
-        }
-        // Table copy in-progress - so we cannot get a clean iteration.  We
-        // must help finish the table copy before we can start iterating.
-        topchm.help_copy_impl(NonBlockingHashMap.this,topkvs,true);
-      }
+      _sskvs = snapshot_kvs();
       // Warm-up the iterator
       next();
     }
@@ -1162,6 +1587,7 @@ public class NonBlockingHashMap<TypeK, TypeV>
       @Override public int     size    (          ) { return NonBlockingHashMap.this.size         ( ); }
       @Override public boolean contains( Object v ) { return NonBlockingHashMap.this.containsValue(v); }
       @Override public Iterator<TypeV> iterator()   { return new SnapshotV(); }
+      @Override public Spliterator<TypeV> spliterator() { return new SnapshotS<TypeV>(VALS); }
     };
   }
 
@@ -1202,6 +1628,7 @@ public class NonBlockingHashMap<TypeK, TypeV>
       @Override public boolean contains( Object k ) { return NonBlockingHashMap.this.containsKey(k); }
       @Override public boolean remove  ( Object k ) { return NonBlockingHashMap.this.remove  (k) != null; }
       @Override public Iterator<TypeK> iterator()   { return new SnapshotK(); }
+      @Override public Spliterator<TypeK> spliterator() { return new SnapshotS<TypeK>(KEYS); }
     };
   }
 
@@ -1263,13 +1690,278 @@ public class NonBlockingHashMap<TypeK, TypeV>
         return v.equals(e.getValue());
       }
       @Override public Iterator<Map.Entry<TypeK,TypeV>> iterator() { return new SnapshotE(); }
+      @Override public Spliterator<Map.Entry<TypeK,TypeV>> spliterator() { return new SnapshotS<Map.Entry<TypeK,TypeV>>(ENTS); }
     };
   }
 
+  // --- Spliterator --------------------------------------------------------
+  // A splittable walk over a snapshot, shared by all 3 views.  Splitting
+  // hands off the lower half of the remaining index range; the size estimate
+  // starts at size() and is halved with each split.  Values come straight
+  // out of the snapshot via snapshot_val, so no Prime or Tombstone leaks out.
+  private static final int KEYS=0, VALS=1, ENTS=2;
+  private class SnapshotS<T> implements Spliterator<T> {
+    final Object[] _sskvs;
+    final int _what;            // KEYS, VALS or ENTS
+    private int _idx, _fence;   // Slots [_idx,_fence) remain
+    private long _est;          // Estimated elements remaining
+    SnapshotS( int what ) {
+      this(snapshot_kvs(),what,0,-1,size());
+      _fence = len(_sskvs);
+    }
+    private SnapshotS( Object[] kvs, int what, int idx, int fence, long est ) {
+      _sskvs = kvs; _what = what; _idx = idx; _fence = fence; _est = est;
+    }
+    public boolean tryAdvance( Consumer<? super T> action ) {
+      if( action == null ) throw new NullPointerException();
+      while( _idx < _fence ) {
+        final int idx = _idx++;
+        final Object K = key(_sskvs,idx);
+        final Object V;
+        if( K != null && K != TOMBSTONE && (V=snapshot_val(_sskvs,idx,K)) != null ) {
+          action.accept(elem(K,(TypeV)V));
+          return true;
+        }
+      }
+      return false;
+    }
+    public void forEachRemaining( Consumer<? super T> action ) {
+      if( action == null ) throw new NullPointerException();
+      final int fence = _fence;
+      int idx = _idx;
+      _idx = fence;
+      for( ; idx < fence; idx++ ) {
+        final Object K = key(_sskvs,idx);
+        final Object V;
+        if( K != null && K != TOMBSTONE && (V=snapshot_val(_sskvs,idx,K)) != null )
+          action.accept(elem(K,(TypeV)V));
+      }
+    }
+    private T elem( Object K, TypeV V ) {
+      return (T)(_what==KEYS ? K : (_what==VALS ? V : new NBHMEntry((TypeK)K,V)));
+    }
+    public Spliterator<T> trySplit() {
+      final int lo = _idx, mid = (lo+_fence)>>>1;
+      if( mid <= lo ) return null;
+      _idx = mid;
+      return new SnapshotS<T>(_sskvs,_what,lo,mid,_est >>>= 1);
+    }
+    public long estimateSize() { return _est; }
+    // Values may repeat, so only keys and entries are DISTINCT
+    public int characteristics() {
+      return _what==VALS ? (CONCURRENT|NONNULL) : (CONCURRENT|NONNULL|DISTINCT);
+    }
+  }
+
+  // --- Bulk operations -----------------------------------------------------
+  // ConcurrentHashMap-style parallel forEach/search/reduce.  Each takes a
+  // snapshot of the K/V array exactly as the iterators do, then splits its
+  // index range into ForkJoin tasks.  Each task scans its range reading the
+  // Values straight out of the snapshot; only Primed slots need a full 'get'
+  // (see snapshot_val), so no Prime or Tombstone leaks out.
+
+  /** Performs the given action for each (key, value).
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel; {@code Long.MAX_VALUE}
+   *  runs it in the calling thread only
+   *  @param action the action */
+  public void forEach( long parallelismThreshold, BiConsumer<? super TypeK,? super TypeV> action ) {
+    if( action == null ) throw new NullPointerException();
+    bulk(parallelismThreshold, new BiFunction<TypeK,TypeV,Object>() {
+        public Object apply( TypeK k, TypeV v ) { action.accept(k,v); return null; }
+      }, null, null);
+  }
+
+  /** Performs the given action for each non-null transformation of each
+   *  (key, value).
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param transformer a function returning the transformation for an
+   *  element, or null if there is no transformation (in which case the
+   *  action is not applied)
+   *  @param action the action */
+  public <U> void forEach( long parallelismThreshold,
+                           BiFunction<? super TypeK,? super TypeV,? extends U> transformer,
+                           Consumer<? super U> action ) {
+    if( transformer == null || action == null ) throw new NullPointerException();
+    bulk(parallelismThreshold, new BiFunction<TypeK,TypeV,Object>() {
+        public Object apply( TypeK k, TypeV v ) {
+          U u = transformer.apply(k,v);
+          if( u != null ) action.accept(u);
+          return null;
+        }
+      }, null, null);
+  }
+
+  /** Performs the given action for each key.
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param action the action */
+  public void forEachKey( long parallelismThreshold, Consumer<? super TypeK> action ) {
+    if( action == null ) throw new NullPointerException();
+    bulk(parallelismThreshold, new BiFunction<TypeK,TypeV,Object>() {
+        public Object apply( TypeK k, TypeV v ) { action.accept(k); return null; }
+      }, null, null);
+  }
+
+  /** Performs the given action for each value.
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param action the action */
+  public void forEachValue( long parallelismThreshold, Consumer<? super TypeV> action ) {
+    if( action == null ) throw new NullPointerException();
+    bulk(parallelismThreshold, new BiFunction<TypeK,TypeV,Object>() {
+        public Object apply( TypeK k, TypeV v ) { action.accept(v); return null; }
+      }, null, null);
+  }
+
+  /** Returns a non-null result from applying the given search function on
+   *  each (key, value), or null if none.  Upon success, further element
+   *  processing is suppressed and the results of any other parallel
+   *  invocations of the search function are ignored.
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param searchFunction a function returning a non-null result on
+   *  success, else null
+   *  @return a non-null result from applying the given search function on
+   *  each (key, value), or null if none */
+  public <U> U search( long parallelismThreshold, BiFunction<? super TypeK,? super TypeV,? extends U> searchFunction ) {
+    if( searchFunction == null ) throw new NullPointerException();
+    final AtomicReference<U> found = new AtomicReference<U>();
+    bulk(parallelismThreshold, searchFunction, null, found);
+    return found.get();
+  }
+
+  /** Returns the result of accumulating the given transformation of all
+   *  (key, value) pairs using the given reducer to combine values, or null
+   *  if none.  This is the map-reduce of the bulk operations.
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param transformer a function returning the transformation for an
+   *  element, or null if there is no transformation (in which case it is
+   *  not combined)
+   *  @param reducer a commutative associative combining function
+   *  @return the result of accumulating the given transformation of all
+   *  (key, value) pairs */
+  public <U> U reduce( long parallelismThreshold,
+                       BiFunction<? super TypeK,? super TypeV,? extends U> transformer,
+                       BiFunction<? super U,? super U,? extends U> reducer ) {
+    if( transformer == null || reducer == null ) throw new NullPointerException();
+    return bulk(parallelismThreshold, transformer, reducer, null);
+  }
+
+  /** Returns the result of accumulating all keys using the given reducer to
+   *  combine values, or null if none.
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param reducer a commutative associative combining function
+   *  @return the result of accumulating all keys using the given reducer */
+  public TypeK reduceKeys( long parallelismThreshold, BiFunction<? super TypeK,? super TypeK,? extends TypeK> reducer ) {
+    if( reducer == null ) throw new NullPointerException();
+    return bulk(parallelismThreshold, new BiFunction<TypeK,TypeV,TypeK>() {
+        public TypeK apply( TypeK k, TypeV v ) { return k; }
+      }, reducer, null);
+  }
+
+  /** Returns the result of accumulating all values using the given reducer
+   *  to combine values, or null if none.
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param reducer a commutative associative combining function
+   *  @return the result of accumulating all values */
+  public TypeV reduceValues( long parallelismThreshold, BiFunction<? super TypeV,? super TypeV,? extends TypeV> reducer ) {
+    if( reducer == null ) throw new NullPointerException();
+    return bulk(parallelismThreshold, new BiFunction<TypeK,TypeV,TypeV>() {
+        public TypeV apply( TypeK k, TypeV v ) { return v; }
+      }, reducer, null);
+  }
+
+  /** Returns the result of accumulating the given transformation of all
+   *  values using the given reducer to combine values, or null if none.
+   *  @param parallelismThreshold the (estimated) number of elements needed
+   *  for this operation to be executed in parallel
+   *  @param transformer a function returning the transformation for an
+   *  element, or null if there is no transformation (in which case it is
+   *  not combined)
+   *  @param reducer a commutative associative combining function
+   *  @return the result of accumulating the given transformation of all
+   *  values */
+  public <U> U reduceValues( long parallelismThreshold,
+                             Function<? super TypeV,? extends U> transformer,
+                             BiFunction<? super U,? super U,? extends U> reducer ) {
+    if( transformer == null || reducer == null ) throw new NullPointerException();
+    return bulk(parallelismThreshold, new BiFunction<TypeK,TypeV,U>() {
+        public U apply( TypeK k, TypeV v ) { return transformer.apply(v); }
+      }, reducer, null);
+  }
+
+  // Run one bulk operation over a fresh snapshot.  'fcn' is applied to every
+  // live K/V pair; non-null results are either combined with 'reducer', or
+  // (when searching) published to 'found' which stops all the tasks.
+  private <U> U bulk( long threshold,
+                      BiFunction<? super TypeK,? super TypeV,? extends U> fcn,
+                      BiFunction<? super U,? super U,? extends U> reducer,
+                      AtomicReference<U> found ) {
+    final Object[] kvs = snapshot_kvs();
+    final int len = len(kvs);
+    // Slots scanned per task.  Small or below-threshold maps are scanned in
+    // the calling thread; otherwise aim for a few tasks per pool thread.
+    int leaf = len;
+    final long sz = size();
+    if( threshold < Long.MAX_VALUE && sz >= threshold ) {
+      long batches = Math.min(sz/Math.max(threshold,1), (long)ForkJoinPool.getCommonPoolParallelism()<<2);
+      if( batches > 1 ) leaf = Math.max((int)(len/batches),MIN_SIZE);
+    }
+    return new BulkTask<TypeK,TypeV,U>(this,kvs,0,len,leaf,fcn,reducer,found).invoke();
+  }
+
+  // A range [lo,hi) of slots in a snapshot.  Splits in half until the range
+  // is at most 'leaf' slots, then scans.  invoke() runs the top-level task in
+  // the calling thread, so an unsplit scan never touches the pool.
+  private static final class BulkTask<K,V,U> extends RecursiveTask<U> {
+    final NonBlockingHashMap<K,V> _nbhm;
+    final Object[] _kvs;
+    final int _lo, _hi, _leaf;
+    final BiFunction<? super K,? super V,? extends U> _fcn;
+    final BiFunction<? super U,? super U,? extends U> _reducer;
+    final AtomicReference<U> _found;
+    BulkTask( NonBlockingHashMap<K,V> nbhm, Object[] kvs, int lo, int hi, int leaf,
+              BiFunction<? super K,? super V,? extends U> fcn,
+              BiFunction<? super U,? super U,? extends U> reducer,
+              AtomicReference<U> found ) {
+      _nbhm = nbhm; _kvs = kvs; _lo = lo; _hi = hi; _leaf = leaf;
+      _fcn = fcn; _reducer = reducer; _found = found;
+    }
+    @Override protected U compute() {
+      if( _hi - _lo > _leaf ) { // Split?
+        final int mid = (_lo+_hi)>>>1;
+        BulkTask<K,V,U> left = new BulkTask<K,V,U>(_nbhm,_kvs,_lo,mid,_leaf,_fcn,_reducer,_found);
+        left.fork();
+        U r = new BulkTask<K,V,U>(_nbhm,_kvs,mid,_hi,_leaf,_fcn,_reducer,_found).compute();
+        U l = left.join();
+        if( _reducer == null ) return null;
+        return l == null ? r : (r == null ? l : _reducer.apply(l,r));
+      }
+      U res = null;
+      for( int i=_lo; i<_hi; i++ ) {
+        if( _found != null && _found.get() != null ) return null; // Somebody found it
+        final Object K = key(_kvs,i);
+        if( K == null || K == TOMBSTONE ) continue;
+        final Object V = _nbhm.snapshot_val(_kvs,i,K);
+        if( V == null ) continue;
+        final U u = _fcn.apply((K)K,(V)V);
+        if( u == null ) continue;
+        if( _found != null ) { _found.compareAndSet(null,u); return null; }
+        if( _reducer != null ) res = res == null ? u : _reducer.apply(res,u);
+      }
+      return res;
+    }
+  }
+
   // --- writeObject -------------------------------------------------------
   // Write a NBHM to a stream
   private void writeObject(java.io.ObjectOutputStream s) throws IOException  {
-    s.defaultWriteObject();     // Nothing to write
+    s.defaultWriteObject();     // Write the strategy
     for( Object K : keySet() ) {
       final Object V = get(K);  // Do an official 'get'
       s.writeObject(K);         // Write the <TypeK,TypeV> pair
@@ -1282,7 +1974,8 @@ public class NonBlockingHashMap<TypeK, TypeV>
   // --- readObject --------------------------------------------------------
   // Read a CHM from a stream
   private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException {
-    s.defaultReadObject();      // Read nothing
+    s.defaultReadObject();      // Read the strategy
+    if( _hs == null ) _hs = HashStrategy.SPREAD; // Stream from before strategies
     initialize(MIN_SIZE);
     for(;;) {
       final TypeK K = (TypeK) s.readObject();
@@ -9,6 +9,8 @@ import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import sun.misc.Unsafe;
 import java.lang.reflect.*;
 
@@ -967,22 +969,35 @@ public class NonBlockingHashMapLong<TypeV>
     
 
   // --- Snapshot ------------------------------------------------------------
+  // Return a clean top-level CHM, with no table-copy in progress.
+  private final CHM snapshot_chm() {
+    while( true ) {             // Verify no table-copy-in-progress
+      CHM topchm = _chm;
+      if( topchm._newchm == null ) // No table-copy-in-progress
+        return topchm;
+      // Table copy in-progress - so we cannot get a clean iteration.  We
+      // must help finish the table copy before we can start iterating.
+      topchm.help_copy_impl(true);
+    }
+  }
+
+  // The Value for the key at slot idx of a snapshot CHM, or null if it is
+  // not mapped.  Slot -1 is the NO_KEY side field.  Only a Primed slot, or a
+  // snapshot the table has since moved past, needs an official 'get'.
+  private final Object snapshot_val( final CHM chm, final int idx, final long K ) {
+    if( idx == -1 ) return get(NO_KEY);
+    final Object V = chm._vals[idx];
+    if( V instanceof Prime || _chm != chm ) return get(K);
+    return V == TOMBSTONE ? null : V;
+  }
+
   private class SnapshotV implements Iterator<TypeV>, Enumeration<TypeV> {
     final CHM _sschm;
     public SnapshotV() { 
-      CHM topchm;
-      while( true ) {           // Verify no table-copy-in-progress
-        topchm = _chm;
-        if( topchm._newchm == null ) // No table-copy-in-progress
-          break; 
-        // Table copy in-progress - so we cannot get a clean iteration.  We
-        // must help finish the table copy before we can start iterating.
-        topchm.help_copy_impl(true);
-      }
       // The "linearization point" for the iteration.  Every key in this table
       // will be visited, but keys added later might be skipped or even be
       // added to a following table (also not iterated over).
-      _sschm = topchm; 
+      _sschm = snapshot_chm(); 
       // Warm-up the iterator
       _idx = -1;
       next(); 
@@ -1011,9 +1026,10 @@ public class NonBlockingHashMapLong<TypeV>
         if( (_nextV=get(_nextK)) != null ) return _prevV;
       }
       while( _idx<length() ) {  // Scan array
-        _nextK = key(_idx++); // Get a key that definitely is in the set (for the moment!)
+        final int idx = _idx++;
+        _nextK = key(idx);      // Get a key that definitely is in the set (for the moment!)
         if( _nextK != NO_KEY && // Found something?
-            (_nextV=get(_nextK)) != null )
+            (_nextV=(TypeV)snapshot_val(_sschm,idx,_nextK)) != null )
           break;                // Got it!  _nextK is a valid Key
       }                         // Else keep scanning
       return _prevV;            // Return current value.
@@ -1052,6 +1068,7 @@ public class NonBlockingHashMapLong<TypeV>
       public int     size    (          ) { return NonBlockingHashMapLong.this.size    ( ); }
       public boolean contains( Object v ) { return NonBlockingHashMapLong.this.containsValue(v); }
       public Iterator<TypeV> iterator()   { return new SnapshotV(); }
+      public Spliterator<TypeV> spliterator() { return new SnapshotS<TypeV>(VALS); }
     };
   }
 
@@ -1103,10 +1120,105 @@ public class NonBlockingHashMapLong<TypeV>
       public boolean contains( Object k ) { return NonBlockingHashMapLong.this.containsKey(k); }
       public boolean remove  ( Object k ) { return NonBlockingHashMapLong.this.remove  (k) != null; }
       public IteratorLong iterator()    { return new IteratorLong(); }
+      public Spliterator<Long> spliterator() { return new SnapshotS<Long>(KEYS); }
     };
   }
 
 
+  // --- Primitive iteration -------------------------------------------------
+  // Visitors and a cursor that walk the snapshot's _keys/_vals directly: no
+  // auto-boxed keys, no Map.Entry objects, and no per-key 'get' except for
+  // the rare Primed slot of a table being copied.
+
+  /** An operation on a primitive {@code long} key and its value; the
+   *  non-auto-boxing counterpart of {@link java.util.function.BiConsumer}.
+   *  @since 1.1.5 */
+  public interface LongObjConsumer<V> {
+    /** Performs this operation on the given key and value. */
+    void accept( long key, V value );
+  }
+
+  /** Performs the given action for each mapping, without auto-boxing the
+   *  keys or creating {@link java.util.Map.Entry} objects.  Like the
+   *  iterators this is weakly consistent: every mapping present when the
+   *  call starts is visited, later changes may or may not be seen.
+   *  @param action the action to perform on each key and value */
+  public void forEachEntry( LongObjConsumer<? super TypeV> action ) {
+    if( action == null ) throw new NullPointerException();
+    final Cursor c = new Cursor();
+    while( c.advance() ) action.accept(c._key,c._val);
+  }
+
+  /** Performs the given action for each key, without auto-boxing.
+   *  @param action the action to perform on each key */
+  public void forEachKey( LongConsumer action ) {
+    if( action == null ) throw new NullPointerException();
+    final Cursor c = new Cursor();
+    while( c.advance() ) action.accept(c._key);
+  }
+
+  /** Returns a new {@link Cursor} positioned before the first mapping.
+   *  @return a cursor over this map */
+  public Cursor cursor() { return new Cursor(); }
+
+  /** A reusable, allocation-free walk over the mappings: call {@link
+   *  #advance} until it returns false, reading {@link #key} and {@link
+   *  #value} after each successful step.  {@link #reset} takes a fresh
+   *  snapshot so one Cursor can serve any number of full-map sweeps.  Not
+   *  thread-safe; use one Cursor per thread.  */
+  public class Cursor {
+    private CHM _sschm;
+    private int _idx;           // -1 for NO_KEY, then 0-keys.length
+    private long _key;
+    private TypeV _val;         // null before the first and after the last step
+    /** A new Cursor, positioned before the first mapping. */
+    public Cursor() { reset(); }
+    /** Re-snapshot the map and move back before the first mapping.
+     *  @return this cursor */
+    public Cursor reset() {
+      _sschm = snapshot_chm();
+      _idx = -1;
+      _val = null;
+      return this;
+    }
+    /** Step to the next mapping.
+     *  @return true if there is one, false if the walk is finished */
+    public boolean advance() {
+      final CHM chm = _sschm;
+      final long[] keys = chm._keys;
+      while( _idx < keys.length ) {
+        final int idx = _idx++;
+        final long K = idx == -1 ? NO_KEY : keys[idx];
+        if( idx != -1 && K == NO_KEY ) continue; // Empty slot
+        final Object V = snapshot_val(chm,idx,K);
+        if( V != null ) { _key = K; _val = (TypeV)V; return true; }
+      }
+      _val = null;
+      return false;
+    }
+    /** @return the key of the current mapping
+     *  @throws IllegalStateException if not positioned on a mapping */
+    public long key() {
+      if( _val == null ) throw new IllegalStateException();
+      return _key;
+    }
+    /** @return the value of the current mapping, as of the {@link #advance}
+     *  that found it
+     *  @throws IllegalStateException if not positioned on a mapping */
+    public TypeV value() {
+      if( _val == null ) throw new IllegalStateException();
+      return _val;
+    }
+    /** Remove the current mapping, if the key is still mapped to {@link
+     *  #value}.
+     *  @return true if the mapping was removed
+     *  @throws IllegalStateException if not positioned on a mapping */
+    public boolean remove() {
+      if( _val == null ) throw new IllegalStateException();
+      return NonBlockingHashMapLong.this.remove(_key,_val);
+    }
+  }
+
   // --- entrySet ------------------------------------------------------------
   // Warning: Each call to 'next' in this iterator constructs a new Long and a
   // new NBHMLEntry.
@@ -1164,9 +1276,68 @@ public class NonBlockingHashMapLong<TypeV>
         return v.equals(e.getValue());
       }
       public Iterator<Map.Entry<Long,TypeV>> iterator() { return new SnapshotE(); }
+      public Spliterator<Map.Entry<Long,TypeV>> spliterator() { return new SnapshotS<Map.Entry<Long,TypeV>>(ENTS); }
     };
   }
 
+  // --- Spliterator --------------------------------------------------------
+  // A splittable walk over a snapshot, shared by all 3 views.  Index -1 is
+  // the NO_KEY side slot; it stays with whichever half holds the start of
+  // the range.  Splitting hands off the lower half of the remaining range.
+  private static final int KEYS=0, VALS=1, ENTS=2;
+  private class SnapshotS<T> implements Spliterator<T> {
+    final CHM _sschm;
+    final int _what;            // KEYS, VALS or ENTS
+    private int _idx, _fence;   // Slots [_idx,_fence) remain
+    private long _est;          // Estimated elements remaining
+    SnapshotS( int what ) {
+      this(snapshot_chm(),what,-1,-1,size());
+      _fence = _sschm._keys.length;
+    }
+    private SnapshotS( CHM chm, int what, int idx, int fence, long est ) {
+      _sschm = chm; _what = what; _idx = idx; _fence = fence; _est = est;
+    }
+    public boolean tryAdvance( Consumer<? super T> action ) {
+      if( action == null ) throw new NullPointerException();
+      while( _idx < _fence ) {
+        final int idx = _idx++;
+        final long K = idx == -1 ? NO_KEY : _sschm._keys[idx];
+        final Object V;
+        if( (idx == -1 || K != NO_KEY) && (V=snapshot_val(_sschm,idx,K)) != null ) {
+          action.accept(elem(K,(TypeV)V));
+          return true;
+        }
+      }
+      return false;
+    }
+    public void forEachRemaining( Consumer<? super T> action ) {
+      if( action == null ) throw new NullPointerException();
+      final int fence = _fence;
+      int idx = _idx;
+      _idx = fence;
+      for( ; idx < fence; idx++ ) {
+        final long K = idx == -1 ? NO_KEY : _sschm._keys[idx];
+        final Object V;
+        if( (idx == -1 || K != NO_KEY) && (V=snapshot_val(_sschm,idx,K)) != null )
+          action.accept(elem(K,(TypeV)V));
+      }
+    }
+    private T elem( long K, TypeV V ) {
+      return (T)(_what==KEYS ? (Object)K : (_what==VALS ? V : new NBHMLEntry(K,V)));
+    }
+    public Spliterator<T> trySplit() {
+      final int lo = _idx, mid = (lo+_fence)>>1; // Signed: lo may be -1
+      if( mid <= lo ) return null;
+      _idx = mid;
+      return new SnapshotS<T>(_sschm,_what,lo,mid,_est >>>= 1);
+    }
+    public long estimateSize() { return _est; }
+    // Values may repeat, so only keys and entries are DISTINCT
+    public int characteristics() {
+      return _what==VALS ? (CONCURRENT|NONNULL) : (CONCURRENT|NONNULL|DISTINCT);
+    }
+  }
+
   // --- writeObject -------------------------------------------------------
   // Write a NBHML to a stream
   private void writeObject(java.io.ObjectOutputStream s) throws IOException  {
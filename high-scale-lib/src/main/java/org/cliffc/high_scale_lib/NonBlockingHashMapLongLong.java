@@ -0,0 +1,1088 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import sun.misc.Unsafe;
+import java.lang.reflect.*;
+
+/**
+ * A lock-free alternate implementation of {@link java.util.ConcurrentHashMap}
+ * with <strong>primitive long keys and primitive long values</strong>.  Keys
+ * and values live in parallel {@code long[]} arrays, so a {@code get} is two
+ * array loads with no pointer chase and no {@link Long} is ever allocated on
+ * the primitive paths.  All operations are non-blocking and multi-thread
+ * safe, including all update operations; resizing uses the same cooperative
+ * table-copy as {@link NonBlockingHashMapLong}.
+ *
+ * <p><strong>Value range.</strong> The table-copy needs to mark a value as
+ * "being copied" (the 'prime' bit) and needs room for a deleted-value
+ * TOMBSTONE, all inside the value word.  Two low bits of every value word are
+ * reserved for this, so values are limited to 62 bits: {@link #MIN_VALUE} to
+ * {@link #MAX_VALUE} inclusive.  Storing a value outside this range throws
+ * {@link IllegalArgumentException}.  In exchange {@link #NO_VALUE} (which is
+ * {@code Long.MIN_VALUE}) is never a legal value, and is returned by the
+ * primitive methods wherever {@link NonBlockingHashMapLong} would return
+ * {@code null}.
+ *
+ * <p>The primitive {@link #addAndGet} atomically adds to the value mapped
+ * for a key (inserting the key as-if mapped to 0 if absent), making the map
+ * usable as a large sparse array of counters.
+ *
+ * <p>This class also implements {@link ConcurrentMap} over <strong>auto-boxed
+ * </strong> keys and values, with the usual weakly consistent iterators.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+
+public class NonBlockingHashMapLongLong
+  extends AbstractMap<Long,Long>
+  implements ConcurrentMap<Long,Long>, Serializable {
+
+  private static final long serialVersionUID = 1234123412341234125L;
+
+  private static final int REPROBE_LIMIT=10; // Too many reprobes then force a table-resize
+
+  // --- Bits to allow Unsafe access to arrays
+  private static final Unsafe _unsafe = UtilUnsafe.getUnsafe();
+  private static final int _Lbase  = _unsafe.arrayBaseOffset(long[].class);
+  private static final int _Lscale = _unsafe.arrayIndexScale(long[].class);
+  private static long rawIndex(final long[] ary, final int idx) {
+    assert idx >= 0 && idx < ary.length;
+    return _Lbase + idx * _Lscale;
+  }
+
+  // --- Bits to allow Unsafe CAS'ing of the CHM field
+  private static final long _chm_offset;
+  private static final long _val_1_offset;
+  static {                      // <clinit>
+    Field f = null;
+    try { f = NonBlockingHashMapLongLong.class.getDeclaredField("_chm"); }
+    catch( java.lang.NoSuchFieldException e ) { throw new RuntimeException(e); }
+    _chm_offset = _unsafe.objectFieldOffset(f);
+
+    try { f = NonBlockingHashMapLongLong.class.getDeclaredField("_val_1"); }
+    catch( java.lang.NoSuchFieldException e ) { throw new RuntimeException(e); }
+    _val_1_offset = _unsafe.objectFieldOffset(f);
+  }
+  private final boolean CAS( final long offset, final Object old, final Object nnn ) {
+    return _unsafe.compareAndSwapObject(this, offset, old, nnn );
+  }
+  private final boolean CAS_val_1( final long old, final long nnn ) {
+    return _unsafe.compareAndSwapLong(this, _val_1_offset, old, nnn );
+  }
+
+  // --- The Hash Table --------------------
+  private transient CHM _chm;
+  // This next field holds the value for Key 0 - the special key value which
+  // is the initial array value, and also means: no-key-inserted-yet.
+  private transient volatile long _val_1; // Value for Key: NO_KEY
+
+  // Time since last resize
+  private transient long _last_resize_milli;
+
+  // Optimize for space: use a 1/2-sized table and allow more re-probes
+  private final boolean _opt_for_space;
+
+  // --- Minimum table size ----------------
+  // Pick size 16 K/V pairs, which turns into 16*2*8+2*16 = 288 bytes.
+  private static final int MIN_SIZE_LOG=4;             //
+  private static final int MIN_SIZE=(1<<MIN_SIZE_LOG); // Must be power of 2
+
+  // --- Value encoding ----------------------
+  // There is no spare Object to wrap a value in, so the Prime bit and the
+  // sentinels are encoded in the low 2 bits of the value word:
+  //   ...v01  - a live value v (62 bits, arithmetic-shifted down to decode)
+  //   ...v11  - a Prime'd live value v: copy to the new table in progress
+  //   ...010  - TOMBSTONE (2)
+  //   ...110  - TOMBPRIME (6)
+  //   ...000  - EMPTY (0, the initial array value) and the putIfMatch
+  //             expected-value sentinels, which never appear in the table.
+  // Flipping bit 1 toggles a live value between Prime'd and plain, so the
+  // copy loop can box and unbox with a single CAS just as in NBHM.
+
+  /** Smallest storable value: {@code -2^61}. */
+  public static final long MIN_VALUE = -(1L<<61);
+  /** Largest storable value: {@code 2^61-1}. */
+  public static final long MAX_VALUE =  (1L<<61)-1;
+  /** Returned by the primitive methods when there is no mapping; this is
+   *  {@code Long.MIN_VALUE}, which is never a storable value. */
+  public static final long NO_VALUE  = Long.MIN_VALUE;
+
+  // Never-written Value slot.  Value slots monotonically move from EMPTY to
+  // not-EMPTY.
+  private static final long EMPTY = 0L;
+  // This K/V pair has been deleted (but the Key slot is forever claimed).
+  // The same Key can be reinserted with a new value later.
+  private static final long TOMBSTONE = 2L;
+  // Prime'd version of TOMBSTONE.  This K/V pair was deleted, then a table
+  // resize started.  The K/V pair has been marked so that no new updates can
+  // happen to the old table (and since the K/V pair was deleted nothing was
+  // copied to the new table).
+  private static final long TOMBPRIME = 6L;
+  // No-Match-Old - putIfMatch does updates only if it matches the old value,
+  // and NO_MATCH_OLD basically counts as a wildcard match.
+  private static final long NO_MATCH_OLD = 4L;
+  // Match-Any-not-null - putIfMatch does updates only if it find a real old
+  // value.
+  private static final long MATCH_ANY = 8L;
+  // Add - putIfMatch adds the (boxed) putval to whatever is there, treating
+  // a missing value as zero.  Like NO_MATCH_OLD it always updates.
+  private static final long ADD = 12L;
+
+  private static boolean is_live ( final long V ) { return (V&3)==1; }
+  private static boolean is_prime( final long V ) { return (V&3)==3 || V == TOMBPRIME; }
+  private static boolean legal( final long v ) { return v >= MIN_VALUE && v <= MAX_VALUE; }
+  private static long box( final long v ) {
+    if( !legal(v) ) throw new IllegalArgumentException("value out of range: "+v);
+    return (v<<2)|1;
+  }
+  // Decode a table word; anything not live is reported as NO_VALUE
+  private static long unbox( final long V ) { return is_live(V) ? V>>2 : NO_VALUE; }
+  // The new table word for an ADD of boxed 'delta' onto old word 'V'
+  private static long add( final long V, final long delta ) {
+    final long sum = (is_live(V) ? V>>2 : 0) + (delta>>2);
+    if( !legal(sum) ) throw new ArithmeticException("value overflow: "+sum);
+    return (sum<<2)|1;
+  }
+  // True if an update expecting 'expVal' must not proceed when finding 'V'.
+  // Note that either V or expVal might be TOMBSTONE.  Also V can be EMPTY,
+  // if we've never inserted a value before.  expVal is EMPTY only if we are
+  // called from copy_slot.
+  private static boolean mismatch( final long V, final long expVal ) {
+    return
+      expVal != NO_MATCH_OLD && // Do we care about expected-Value at all?
+      expVal != ADD &&
+      V != expVal &&            // No instant match already?
+      (expVal != MATCH_ANY || V == TOMBSTONE || V == EMPTY) &&
+      !(V==EMPTY && expVal == TOMBSTONE); // Match on EMPTY/TOMBSTONE combo
+  }
+
+  // I exclude 1 long from the 2^64 possibilities, and test for it before
+  // entering the main array.  The NO_KEY value must be zero, the initial
+  // value set by Java before it hands me the array.
+  private static final long NO_KEY = 0L;
+
+  // --- dump ----------------------------------------------------------------
+  /** Verbose printout of table internals, useful for debugging.  */
+  public final void print() {
+    System.out.println("=========");
+    print_impl(-99,NO_KEY,_val_1);
+    _chm.print();
+    System.out.println("=========");
+  }
+  private static final void print_impl(final int i, final long K, final long V) {
+    String p = is_prime(V) ? "prime_" : "";
+    long V2 = V & ~2L;
+    String VS = (V == TOMBSTONE || V == TOMBPRIME) ? "tombstone" : (V == EMPTY ? "empty" : Long.toString(V2>>2));
+    System.out.println("["+i+"]=("+K+","+p+VS+")");
+  }
+
+  // --- reprobe_limit -----------------------------------------------------
+  // Heuristic to decide if we have reprobed toooo many times.  Running over
+  // the reprobe limit on a 'get' call acts as a 'miss'; on a 'put' call it
+  // can trigger a table resize.  Several places must have exact agreement on
+  // what the reprobe_limit is, so we share it here.
+  private static final int reprobe_limit( int len ) {
+    return REPROBE_LIMIT + (len>>2);
+  }
+
+  // --- NonBlockingHashMapLongLong ------------------------------------------
+  // Constructors
+  /** Create a new NonBlockingHashMapLongLong with default minimum size
+   *  (currently set to 16 K/V pairs). */
+  public NonBlockingHashMapLongLong( ) { this(MIN_SIZE,true); }
+
+  /** Create a new NonBlockingHashMapLongLong with initial room for the given
+   *  number of elements, thus avoiding internal resizing operations to reach
+   *  an appropriate size.  The initial size will be rounded up internally to
+   *  the next larger power of 2. */
+  public NonBlockingHashMapLongLong( final int initial_sz ) { this(initial_sz,true); }
+
+  /** Create a new NonBlockingHashMapLongLong, setting the space-for-speed
+   *  tradeoff.  {@code true} optimizes for space and is the default.  {@code
+   *  false} optimizes for speed and doubles space costs for roughly a 10%
+   *  speed improvement.  */
+  public NonBlockingHashMapLongLong( final boolean opt_for_space ) { this(1,opt_for_space); }
+
+  /** Create a new NonBlockingHashMapLongLong, setting both the initial size
+   *  and the space-for-speed tradeoff.  {@code true} optimizes for space and
+   *  is the default.  {@code false} optimizes for speed and doubles space
+   *  costs for roughly a 10% speed improvement.  */
+  public NonBlockingHashMapLongLong( final int initial_sz, final boolean opt_for_space ) {
+    _opt_for_space = opt_for_space;
+    initialize(initial_sz);
+  }
+  private final void initialize( final int initial_sz ) {
+    if( initial_sz < 0 ) throw new IllegalArgumentException();
+    int i;                      // Convert to next largest power-of-2
+    for( i=MIN_SIZE_LOG; (1<<i) < initial_sz; i++ ) ;
+    _chm = new CHM(this,new Counter(),i);
+    _val_1 = TOMBSTONE;         // Always as-if deleted
+    _last_resize_milli = System.currentTimeMillis();
+  }
+
+  // --- wrappers ------------------------------------------------------------
+
+  /** Returns the number of key-value mappings in this map.
+   *  @return the number of key-value mappings in this map */
+  public int     size       ( )                     { return (_val_1==TOMBSTONE?0:1) + _chm.size(); }
+  /** Tests if the key in the table.
+   * @return <tt>true</tt> if the key is in the table */
+  public boolean containsKey( long key )            { return get(key) != NO_VALUE; }
+
+  /** Maps the specified key to the specified value in the table.
+   *  @param key key with which the specified value is to be associated
+   *  @param val value to be associated with the specified key
+   *  @return the previous value associated with <tt>key</tt>, or
+   *          {@link #NO_VALUE} if there was no mapping for <tt>key</tt>
+   *  @throws IllegalArgumentException if the value is out of range */
+  public long    put        ( long key, long val  ) { return unbox(putIfMatch( key,   box(val),NO_MATCH_OLD)); }
+
+  /** Atomically, do a {@link #put} if-and-only-if the key is not mapped.
+   *  @return the previous value associated with the specified key,
+   *         or {@link #NO_VALUE} if there was no mapping for the key
+   *  @throws IllegalArgumentException if the value is out of range */
+  public long    putIfAbsent( long key, long val  ) { return unbox(putIfMatch( key,   box(val),TOMBSTONE   )); }
+
+  /** Removes the key (and its corresponding value) from this map.
+    * This method does nothing if the key is not in the map.
+    * @return the previous value associated with <tt>key</tt>, or
+    *         {@link #NO_VALUE} if there was no mapping for <tt>key</tt>*/
+  public long    remove     ( long key )            { return unbox(putIfMatch( key,  TOMBSTONE,NO_MATCH_OLD)); }
+
+  /** Atomically do a {@link #remove(long)} if-and-only-if the key is mapped
+   *  to the given value. */
+  public boolean remove     ( long key, long val  ) {
+    return legal(val) && putIfMatch( key, TOMBSTONE, box(val) ) == box(val);
+  }
+
+  /** Atomically do a <code>put(key,val)</code> if-and-only-if the key is
+   *  mapped to some value already.
+   *  @throws IllegalArgumentException if the value is out of range */
+  public long    replace    ( long key, long val  ) { return unbox(putIfMatch( key,   box(val),MATCH_ANY   )); }
+
+  /** Atomically do a <code>put(key,newValue)</code> if-and-only-if the key is
+   *  mapped to <code>oldValue</code>.
+   *  @throws IllegalArgumentException if the new value is out of range */
+  public boolean replace    ( long key, long oldValue, long newValue ) {
+    final long newV = box(newValue);
+    return legal(oldValue) && putIfMatch( key, newV, box(oldValue) ) == box(oldValue);
+  }
+
+  /** Atomically add {@code delta} to the value mapped for {@code key}.  An
+   *  absent key counts as mapped to 0, so the first call inserts {@code
+   *  delta}.
+   *  @return the updated value
+   *  @throws IllegalArgumentException if {@code delta} is out of range
+   *  @throws ArithmeticException if the result would be out of range; the
+   *          mapping is then left unchanged */
+  public long    addAndGet  ( long key, long delta ) {
+    final long old = unbox(putIfMatch( key, box(delta), ADD ));
+    return (old == NO_VALUE ? 0 : old) + delta;
+  }
+
+  // Returns the old table word: never a Prime, and TOMBSTONE for no-value.
+  private final long putIfMatch( long key, long newVal, long oldVal ) {
+    if( key == NO_KEY ) {
+      while( true ) {           // Spin until the CAS works or we mismatch
+        final long curVal = _val_1;
+        if( mismatch(curVal,oldVal) ) return curVal;
+        final long nnn = oldVal == ADD ? add(curVal,newVal) : newVal;
+        if( CAS_val_1(curVal,nnn) ) return curVal;
+      }
+    }
+    final long res = _chm.putIfMatch( key, newVal, oldVal );
+    assert !is_prime(res);
+    assert res != EMPTY;
+    return res;
+  }
+
+  /** Removes all of the mappings from this map. */
+  public void clear() {         // Smack a new empty table down
+    CHM newchm = new CHM(this,new Counter(),MIN_SIZE_LOG);
+    while( !CAS(_chm_offset,_chm,newchm) ) // Spin until the clear works
+      ;
+    _val_1 = TOMBSTONE;
+  }
+
+  /** Returns <tt>true</tt> if this Map maps one or more keys to the specified
+   *  value.  <em>Note</em>: This method requires a full internal traversal of the
+   *  hash table and is much slower than {@link #containsKey}.
+   *  @param val value whose presence in this map is to be tested
+   *  @return <tt>true</tt> if this Map maps one or more keys to the specified value */
+  public boolean containsValue( long val ) {
+    if( !legal(val) ) return false;
+    final SnapshotV ss = new SnapshotV();
+    while( ss.hasNext() )
+      if( ss.nextLong() == val )
+        return true;
+    return false;
+  }
+
+  // --- get -----------------------------------------------------------------
+  /** Returns the value to which the specified key is mapped, or {@link
+   *  #NO_VALUE} if this map contains no mapping for the key. */
+  public final long get( long key ) {
+    if( key == NO_KEY ) return unbox(_val_1);
+    final long V = _chm.get_impl(key);
+    assert !is_prime(V);        // Never return a Prime
+    return unbox(V);
+  }
+
+  /** Auto-boxing version of {@link #get(long)}. */
+  public Long    get    ( Object key              ) {
+    if( !(key instanceof Long) ) return null;
+    final long V = get(((Long)key).longValue());
+    return V == NO_VALUE ? null : V;
+  }
+  /** Auto-boxing version of {@link #remove(long)}. */
+  public Long    remove ( Object key              ) {
+    if( !(key instanceof Long) ) return null;
+    final long V = remove(((Long)key).longValue());
+    return V == NO_VALUE ? null : V;
+  }
+  /** Auto-boxing version of {@link #remove(long,long)}. */
+  public boolean remove ( Object key, Object val  ) {
+    return (key instanceof Long) && (val instanceof Long) && remove(((Long)key).longValue(), ((Long)val).longValue());
+  }
+  /** Auto-boxing version of {@link #containsKey(long)}. */
+  public boolean containsKey( Object key          ) { return (key instanceof Long) && containsKey(((Long)key).longValue()); }
+  /** Auto-boxing version of {@link #containsValue(long)}. */
+  public boolean containsValue( Object val        ) { return (val instanceof Long) && containsValue(((Long)val).longValue()); }
+  /** Auto-boxing version of {@link #put}. */
+  public Long    put    ( Long key, Long val      ) {
+    final long V = put(key.longValue(),val.longValue());
+    return V == NO_VALUE ? null : V;
+  }
+  /** Auto-boxing version of {@link #putIfAbsent}. */
+  public Long    putIfAbsent( Long key, Long val  ) {
+    final long V = putIfAbsent(key.longValue(),val.longValue());
+    return V == NO_VALUE ? null : V;
+  }
+  /** Auto-boxing version of {@link #replace}. */
+  public Long    replace( Long key, Long val      ) {
+    final long V = replace(key.longValue(),val.longValue());
+    return V == NO_VALUE ? null : V;
+  }
+  /** Auto-boxing version of {@link #replace}. */
+  public boolean replace( Long key, Long oldValue, Long newValue ) {
+    return replace(key.longValue(), oldValue.longValue(), newValue.longValue());
+  }
+
+  // --- help_copy -----------------------------------------------------------
+  // Help along an existing resize operation.  This is just a fast cut-out
+  // wrapper, to encourage inlining for the fast no-copy-in-progress case.  We
+  // always help the top-most table copy, even if there are nested table
+  // copies in progress.
+  private final void help_copy( ) {
+    // Read the top-level CHM only once.  We'll try to help this copy along,
+    // even if it gets promoted out from under us (i.e., the copy completes
+    // and another KVS becomes the top-level copy).
+    CHM topchm = _chm;
+    if( topchm._newchm == null ) return; // No copy in-progress
+    topchm.help_copy_impl(false);
+  }
+
+
+  // --- CHM -----------------------------------------------------------------
+  // The control structure for the NonBlockingHashMapLongLong
+  private static final class CHM implements Serializable {
+    // Back-pointer to top-level structure
+    final NonBlockingHashMapLongLong _nbhmll;
+
+    // Size in active K,V pairs
+    private final Counter _size;
+    public int size () { return (int)_size.get(); }
+
+    // Count of used slots, to tell when table is full of dead unusable slots
+    private final Counter _slots;
+    public int slots() { return (int)_slots.get(); }
+
+    // ---
+    // New mappings, used during resizing.
+    // The 'next' CHM - created during a resize operation.  This represents
+    // the new table being copied from the old one.  It's the volatile
+    // variable that is read as we cross from one table to the next, to get
+    // the required memory orderings.  It monotonically transits from null to
+    // set (once).
+    volatile CHM _newchm;
+    private static final AtomicReferenceFieldUpdater<CHM,CHM> _newchmUpdater =
+      AtomicReferenceFieldUpdater.newUpdater(CHM.class,CHM.class, "_newchm");
+    // Set the _newchm field if we can.  AtomicUpdaters do not fail spuriously.
+    boolean CAS_newchm( CHM newchm ) {
+      return _newchmUpdater.compareAndSet(this,null,newchm);
+    }
+    // Throttle the threads racing to allocate a new large table; see
+    // NonBlockingHashMapLong for the full story.
+    volatile long _resizers;    // count of threads attempting an initial resize
+    private static final AtomicLongFieldUpdater<CHM> _resizerUpdater =
+      AtomicLongFieldUpdater.newUpdater(CHM.class, "_resizers");
+
+    // --- key,val -------------------------------------------------------------
+    // Access K,V for a given idx
+    private final boolean CAS_key( int idx, long old, long key ) {
+      return _unsafe.compareAndSwapLong( _keys, rawIndex(_keys, idx), old, key );
+    }
+    private final boolean CAS_val( int idx, long old, long val ) {
+      return _unsafe.compareAndSwapLong( _vals, rawIndex(_vals, idx), old, val );
+    }
+
+    final long [] _keys;
+    final long [] _vals;
+
+    // Simple constructor
+    CHM( final NonBlockingHashMapLongLong nbhmll, Counter size, final int logsize ) {
+      _nbhmll = nbhmll;
+      _size = size;
+      _slots= new Counter();
+      _keys = new long[1<<logsize];
+      _vals = new long[1<<logsize];
+    }
+
+    // --- print innards
+    private final void print() {
+      for( int i=0; i<_keys.length; i++ ) {
+        long K = _keys[i];
+        if( K != NO_KEY )
+          print_impl(i,K,_vals[i]);
+      }
+      CHM newchm = _newchm;     // New table, if any
+      if( newchm != null ) {
+        System.out.println("----");
+        newchm.print();
+      }
+    }
+
+    // --- get_impl ----------------------------------------------------------
+    // Never returns a Prime.  Misses return EMPTY or TOMBSTONE.
+    private final long get_impl ( final long key ) {
+      final int len     = _keys.length;
+      int idx = (int)(key & (len-1)); // First key hash
+
+      // Main spin/reprobe loop, looking for a Key hit
+      int reprobe_cnt=0;
+      while( true ) {
+        final long K = _keys[idx]; // Get key   before volatile read, could be NO_KEY
+        final long V = _vals[idx]; // Get value before volatile read, could be EMPTY or Tombstone or Prime
+        if( K == NO_KEY ) return EMPTY; // A clear miss
+
+        // Key-compare
+        if( key == K ) {
+          // Key hit!  Check for no table-copy-in-progress
+          if( !is_prime(V) ) {  // No copy?
+            // We need a volatile-read between reading a newly inserted Value
+            // and returning the Value (mirrors the Object-valued maps).
+            final CHM newchm = _newchm; // VOLATILE READ before returning V
+            return V;
+          }
+          // Key hit - but slot is (possibly partially) copied to the new table.
+          // Finish the copy & retry in the new table.
+          return copy_slot_and_check(idx,true).get_impl(key); // Retry in the new table
+        }
+        // get and put must have the same key lookup logic!  But only 'put'
+        // needs to force a table-resize for a too-long key-reprobe sequence.
+        // Check for too-many-reprobes on get.
+        if( ++reprobe_cnt >= reprobe_limit(len) ) // too many probes
+          return _newchm == null // Table copy in progress?
+            ? EMPTY              // Nope!  A clear miss
+            : copy_slot_and_check(idx,true).get_impl(key); // Retry in the new table
+
+        idx = (idx+1)&(len-1);    // Reprobe by 1!  (could now prefetch)
+      }
+    }
+
+    // --- putIfMatch ---------------------------------------------------------
+    // Put, Remove, PutIfAbsent, Add, etc.  Return the old value.  If the
+    // returned value is equal to expVal (or expVal is NO_MATCH_OLD or ADD)
+    // then the put can be assumed to work (although might have been
+    // immediately overwritten).  Only the path through copy_slot passes in an
+    // expected value of EMPTY, and putIfMatch only returns EMPTY if passed in
+    // an expected EMPTY.
+    private final long putIfMatch( final long key, final long putval, final long expVal ) {
+      assert putval != EMPTY;
+      assert !is_prime(putval);
+      assert !is_prime(expVal);
+      final int len      = _keys.length;
+      int idx = (int)(key & (len-1)); // The first key
+
+      // ---
+      // Key-Claim stanza: spin till we can claim a Key (or force a resizing).
+      int reprobe_cnt=0;
+      long K = NO_KEY;
+      long V = EMPTY;
+      while( true ) {           // Spin till we get a Key slot
+        V = _vals[idx];         // Get old value
+        K = _keys[idx];         // Get current key
+        if( K == NO_KEY ) {     // Slot is free?
+          // Found an empty Key slot - which means this Key has never been in
+          // this table.  No need to put a Tombstone - the Key is not here!
+          if( putval == TOMBSTONE ) return putval; // Not-now & never-been in this table
+          // Claim the zero key-slot
+          if( CAS_key(idx, NO_KEY, key) ) { // Claim slot for Key
+            _slots.add(1);      // Raise key-slots-used count
+            break;              // Got it!
+          }
+          // CAS to claim the key-slot failed.  Keys never change once set, so
+          // re-reading recovers the witness.
+          K = _keys[idx];       // CAS failed, get updated value
+          assert K != NO_KEY ;  // If keys[idx] is NO_KEY, CAS shoulda worked
+        }
+        // Key slot was not null, there exists a Key here
+        if( K == key )
+          break;                // Got it!
+
+        // get and put must have the same key lookup logic!  Lest 'get' give
+        // up looking too soon.
+        if( ++reprobe_cnt >= reprobe_limit(len) ) {
+          // We simply must have a new table to do a 'put'.  At this point a
+          // 'get' will also go to the new table (if any).  We do not need
+          // to claim a key slot (indeed, we cannot find a free one to claim!).
+          final CHM newchm = resize();
+          if( expVal != EMPTY ) _nbhmll.help_copy(); // help along an existing copy
+          return newchm.putIfMatch(key,putval,expVal);
+        }
+
+        idx = (idx+1)&(len-1); // Reprobe!
+      } // End of spinning till we get a Key slot
+
+      // ---
+      // Found the proper Key slot, now update the matching Value slot.  We
+      // never put an EMPTY, so Value slots monotonically move from EMPTY to
+      // not-EMPTY (deleted Values use Tombstone).  Thus if 'V' is EMPTY we
+      // fail this fast cutout and fall into the check for table-full.
+      if( putval == V && expVal != ADD ) return V; // Fast cutout for no-change
+
+      // See if we want to move to a new table (to avoid high average re-probe
+      // counts).  We only check on the initial set of a Value from EMPTY to
+      // not-EMPTY (i.e., once per key-insert).
+      if( (V == EMPTY && tableFull(reprobe_cnt,len)) ||
+          // Or we found a Prime: resize is already in progress.  The resize
+          // call below will do a CAS on _newchm forcing the read.
+          is_prime(V) ) {
+        resize();               // Force the new table copy to start
+        return copy_slot_and_check(idx,expVal != EMPTY).putIfMatch(key,putval,expVal);
+      }
+
+      // ---
+      // We are finally prepared to update the existing table
+      while( true ) {
+        assert !is_prime(V);
+
+        // Must match old, and we do not?  Then bail out now.
+        if( mismatch(V,expVal) )
+          return V;               // Do not update!
+
+        // Actually change the Value in the Key,Value pair
+        final long newval = expVal == ADD ? add(V,putval) : putval;
+        if( CAS_val(idx, V, newval ) ) {
+          // CAS succeeded - we did the update!
+          // Both normal put's and table-copy calls putIfMatch, but table-copy
+          // does not (effectively) increase the number of live k/v pairs.
+          if( expVal != EMPTY ) {
+            // Adjust sizes - a striped counter
+            if(  (V == EMPTY || V == TOMBSTONE) && newval != TOMBSTONE ) _size.add( 1);
+            if( !(V == EMPTY || V == TOMBSTONE) && newval == TOMBSTONE ) _size.add(-1);
+          }
+          return (V==EMPTY && expVal!=EMPTY) ? TOMBSTONE : V;
+        }
+        // Else CAS failed
+        V = _vals[idx];         // Get new value
+        // If a Prime'd value got installed, we need to re-run the put on the
+        // new table.  Otherwise we lost the CAS to another racing put.
+        // Simply retry from the start.
+        if( is_prime(V) )
+          return copy_slot_and_check(idx,expVal != EMPTY).putIfMatch(key,putval,expVal);
+      }
+    }
+
+    // --- tableFull ---------------------------------------------------------
+    // Heuristic to decide if this table is too full, and we should start a
+    // new table.  The invariant is:
+    //   slots.estimate_sum >= max_reprobe_cnt >= reprobe_limit(len)
+    private final boolean tableFull( int reprobe_cnt, int len ) {
+      return
+        // Do the cheap check first: we allow some number of reprobes always
+        reprobe_cnt >= REPROBE_LIMIT &&
+        // More expensive check: see if the table is > 1/4 full.
+        _slots.estimate_get() >= reprobe_limit(len);
+    }
+
+    // --- resize ------------------------------------------------------------
+    // Resizing after too many probes.  "How Big???" heuristics are here.
+    // Callers will (not this routine) will 'help_copy' any in-progress copy.
+    // Since this routine has a fast cutout for copy-already-started, callers
+    // MUST 'help_copy' lest we have a path which forever runs through
+    // 'resize' only to discover a copy-in-progress which never progresses.
+    private final CHM resize() {
+      // Check for resize already in progress, probably triggered by another thread
+      CHM newchm = _newchm;     // VOLATILE READ
+      if( newchm != null )      // See if resize is already in progress
+        return newchm;          // Use the new table already
+
+      // No copy in-progress, so start one.  First up: compute new table size.
+      int oldlen = _keys.length; // Old count of K,V pairs allowed
+      int sz = size();          // Get current table count of active K,V pairs
+      int newsz = sz;           // First size estimate
+
+      // Heuristic to determine new size.  We expect plenty of dead-slots-with-keys
+      // and we need some decent padding to avoid endless reprobing.
+      if( _nbhmll._opt_for_space ) {
+        // This heuristic leads to a much denser table with a higher reprobe rate
+        if( sz >= (oldlen>>1) ) // If we are >50% full of keys then...
+          newsz = oldlen<<1;    // Double size
+      } else {
+        if( sz >= (oldlen>>2) ) { // If we are >25% full of keys then...
+          newsz = oldlen<<1;      // Double size
+          if( sz >= (oldlen>>1) ) // If we are >50% full of keys then...
+            newsz = oldlen<<2;    // Double double size
+        }
+      }
+
+      // Last (re)size operation was very recent?  Then double again; slows
+      // down resize operations for tables subject to a high key churn rate.
+      long tm = System.currentTimeMillis();
+      if( newsz <= oldlen &&    // New table would shrink or hold steady?
+          tm <= _nbhmll._last_resize_milli+10000 ) // Recent resize
+        newsz = oldlen<<1;      // Double the existing size
+
+      // Do not shrink, ever
+      if( newsz < oldlen ) newsz = oldlen;
+
+      // Convert to power-of-2
+      int log2;
+      for( log2=MIN_SIZE_LOG; (1<<log2) < newsz; log2++ ) ; // Compute log2 of size
+
+      // Now limit the number of threads actually allocating memory to a
+      // handful - lest we have 750 threads all trying to allocate a giant
+      // resized array.
+      long r = _resizers;
+      while( !_resizerUpdater.compareAndSet(this,r,r+1) )
+        r = _resizers;
+      // Size calculation: 2 longs (K+V) per table entry, plus a handful.
+      int megs = ((((1<<log2)<<1)+4)<<3/*word to bytes*/)>>20/*megs*/;
+      if( r >= 2 && megs > 0 ) { // Already 2 guys trying; wait and see
+        newchm = _newchm;        // Between dorking around, another thread did it
+        if( newchm != null )     // See if resize is already in progress
+          return newchm;         // Use the new table already
+        // For now, sleep a tad and see if the 2 guys already trying to make
+        // the table actually get around to making it happen.
+        try { Thread.sleep(8*megs); } catch( Exception e ) { }
+      }
+      // Last check, since the 'new' below is expensive and there is a chance
+      // that another thread slipped in a new thread while we ran the heuristic.
+      newchm = _newchm;
+      if( newchm != null )      // See if resize is already in progress
+        return newchm;          // Use the new table already
+
+      // New CHM - actually allocate the big arrays
+      newchm = new CHM(_nbhmll,_size,log2);
+
+      // Another check after the slow allocation
+      if( _newchm != null )     // See if resize is already in progress
+        return _newchm;         // Use the new table already
+
+      // The new table must be CAS'd in so only 1 winner amongst duplicate
+      // racing resizing threads.  Extra CHM's will be GC'd.
+      if( !CAS_newchm( newchm ) ) // NOW a resize-is-in-progress!
+        newchm = _newchm;       // CAS failed?  Reread new table
+      return newchm;
+    }
+
+
+    // The next part of the table to copy.  It monotonically transits from zero
+    // to _keys.length.  Visitors to the table can claim 'work chunks' by
+    // CAS'ing this field up, then copying the indicated indices from the old
+    // table to the new table.  Workers are not required to finish any chunk;
+    // the counter simply wraps and work is copied duplicately until somebody
+    // somewhere completes the count.
+    volatile long _copyIdx = 0;
+    static private final AtomicLongFieldUpdater<CHM> _copyIdxUpdater =
+      AtomicLongFieldUpdater.newUpdater(CHM.class, "_copyIdx");
+
+    // Work-done reporting.  Used to efficiently signal when we can move to
+    // the new table.  From 0 to len(oldkvs) refers to copying from the old
+    // table to the new.
+    volatile long _copyDone= 0;
+    static private final AtomicLongFieldUpdater<CHM> _copyDoneUpdater =
+      AtomicLongFieldUpdater.newUpdater(CHM.class, "_copyDone");
+
+    // --- help_copy_impl ----------------------------------------------------
+    // Help along an existing resize operation.  We hope its the top-level
+    // copy (it was when we started) but this CHM might have been promoted out
+    // of the top position.
+    private final void help_copy_impl( final boolean copy_all ) {
+      final CHM newchm = _newchm;
+      assert newchm != null;    // Already checked by caller
+      int oldlen = _keys.length; // Total amount to copy
+      final int MIN_COPY_WORK = Math.min(oldlen,1024); // Limit per-thread work
+
+      // ---
+      int panic_start = -1;
+      int copyidx=-9999;            // Fool javac to think it's initialized
+      while( _copyDone < oldlen ) { // Still needing to copy?
+        // Carve out a chunk of work.  The counter wraps around so every
+        // thread eventually tries to copy every slot repeatedly.  We "panic"
+        // if we have tried TWICE to copy every slot - and it still has not
+        // happened - and then do the copy work ourselves.
+        if( panic_start == -1 ) { // No panic?
+          copyidx = (int)_copyIdx;
+          while( copyidx < (oldlen<<1) && // 'panic' check
+                 !_copyIdxUpdater.compareAndSet(this,copyidx,copyidx+MIN_COPY_WORK) )
+            copyidx = (int)_copyIdx;     // Re-read
+          if( !(copyidx < (oldlen<<1)) ) // Panic!
+            panic_start = copyidx;       // Record where we started to panic-copy
+        }
+
+        // We now know what to copy.  Try to copy.
+        int workdone = 0;
+        for( int i=0; i<MIN_COPY_WORK; i++ )
+          if( copy_slot((copyidx+i)&(oldlen-1)) ) // Made an oldtable slot go dead?
+            workdone++;         // Yes!
+        if( workdone > 0 )      // Report work-done occasionally
+          copy_check_and_promote( workdone );// See if we can promote
+
+        copyidx += MIN_COPY_WORK;
+        if( !copy_all && panic_start == -1 ) // No panic?
+          return;               // Then done copying after doing MIN_COPY_WORK
+      }
+      // Extra promotion check, in case another thread finished all copying
+      // then got stalled before promoting.
+      copy_check_and_promote( 0 ); // See if we can promote
+    }
+
+
+    // --- copy_slot_and_check -----------------------------------------------
+    // Copy slot 'idx' from the old table to the new table.  If this thread
+    // confirmed the copy, update the counters and check for promotion.
+    //
+    // Returns the result of reading the volatile _newchm, mostly as a
+    // convenience to callers.
+    private final CHM copy_slot_and_check( int idx, boolean should_help ) {
+      // We're only here because the caller saw a Prime, which implies a
+      // table-copy is in progress.
+      assert _newchm != null;
+      if( copy_slot(idx) )      // Copy the desired slot
+        copy_check_and_promote(1); // Record the slot copied
+      // Generically help along any copy (except if called recursively from a helper)
+      if( should_help ) _nbhmll.help_copy();
+      return _newchm;
+    }
+
+    // --- copy_check_and_promote --------------------------------------------
+    private final void copy_check_and_promote( int workdone ) {
+      int oldlen = _keys.length;
+      // We made a slot unusable and so did some of the needed copy work
+      long copyDone = _copyDone;
+      long nowDone = copyDone+workdone;
+      assert nowDone <= oldlen;
+      if( workdone > 0 ) {
+        while( !_copyDoneUpdater.compareAndSet(this,copyDone,nowDone) ) {
+          copyDone = _copyDone;   // Reload, retry
+          nowDone = copyDone+workdone;
+          assert nowDone <= oldlen;
+        }
+      }
+
+      // Check for copy being ALL done, and promote.  Note that we might have
+      // nested in-progress copies and manage to finish a nested copy before
+      // finishing the top-level copy.  We only promote top-level copies.
+      if( nowDone == oldlen &&   // Ready to promote this table?
+          _nbhmll._chm == this && // Looking at the top-level table?
+          // Attempt to promote
+          _nbhmll.CAS(_chm_offset,this,_newchm) ) {
+        _nbhmll._last_resize_milli = System.currentTimeMillis();  // Record resize time for next check
+      }
+    }
+
+    // --- copy_slot ---------------------------------------------------------
+    // Copy one K/V pair from oldkvs[i] to newkvs.  Returns true if we can
+    // confirm that the new table guaranteed has a value for this old-table
+    // slot.  We need an accurate confirmed-copy count so that we know when we
+    // can promote (if we promote the new table too soon, other threads may
+    // 'miss' on values not-yet-copied from the old table).  We don't allow
+    // any direct updates on the new table, unless they first happened to the
+    // old table - so that any transition in the new table from EMPTY to
+    // not-EMPTY must have been from a copy_slot (or other old-table overwrite)
+    // and not from a thread directly writing in the new table.  Thus we can
+    // count EMPTY-to-not-EMPTY transitions in the new table.
+    private boolean copy_slot( int idx ) {
+      // Blindly set the key slot from NO_KEY to some key which hashes here,
+      // to eagerly stop fresh put's from inserting new values in the old
+      // table when the old table is mid-resize.  We don't need to act on the
+      // results here, because our correctness stems from prime'ing the Value
+      // field.  Slamming the Key field is a minor speed optimization.
+      long key;
+      while( (key=_keys[idx]) == NO_KEY )
+        CAS_key(idx, NO_KEY, (idx+_keys.length)/*a non-zero key which hashes here*/);
+
+      // ---
+      // Prevent new values from appearing in the old table.
+      // Prime what we see in the old table, to prevent further updates.
+      long oldval = _vals[idx]; // Read OLD table
+      while( !is_prime(oldval) ) {
+        final long box = (oldval == EMPTY || oldval == TOMBSTONE) ? TOMBPRIME : (oldval|2);
+        if( CAS_val(idx,oldval,box) ) { // CAS down a prime'd version of oldval
+          // If we made the Value slot hold a TOMBPRIME, then we both
+          // prevented further updates here but also the (absent) oldval is
+          // vaccuously available in the new table.  We return with true here:
+          // any thread looking for a value for this key can correctly go
+          // straight to the new table and skip looking in the old table.
+          if( box == TOMBPRIME )
+            return true;
+          // Otherwise we prime'd something, but it still needs to be
+          // copied into the new table.
+          oldval = box;         // Record updated oldval
+          break;                // Break loop; oldval is now prime'd by us
+        }
+        oldval = _vals[idx];    // Else try, try again
+      }
+      if( oldval == TOMBPRIME ) return false; // Copy already complete here!
+
+      // ---
+      // Copy the value into the new table, but only if we overwrite an EMPTY.
+      // If another value is already in the new table, then somebody else
+      // wrote something there and that write is happens-after any value that
+      // appears in the old table.
+      final long old_unboxed = oldval & ~2L;
+      assert is_live(old_unboxed);
+      boolean copied_into_new = (_newchm.putIfMatch(key, old_unboxed, EMPTY) == EMPTY);
+
+      // ---
+      // Finally, now that any old value is exposed in the new table, we can
+      // forever hide the old-table value by slapping a TOMBPRIME down.  This
+      // will stop other threads from uselessly attempting to copy this slot
+      // (i.e., it's a speed optimization not a correctness issue).
+      while( !CAS_val(idx,oldval,TOMBPRIME) )
+        oldval = _vals[idx];
+
+      return copied_into_new;
+    } // end copy_slot
+  } // End of CHM
+
+
+  // --- Snapshot ------------------------------------------------------------
+  private class SnapshotV implements Iterator<Long>, Enumeration<Long> {
+    final CHM _sschm;
+    public SnapshotV() {
+      CHM topchm;
+      while( true ) {           // Verify no table-copy-in-progress
+        topchm = _chm;
+        if( topchm._newchm == null ) // No table-copy-in-progress
+          break;
+        // Table copy in-progress - so we cannot get a clean iteration.  We
+        // must help finish the table copy before we can start iterating.
+        topchm.help_copy_impl(true);
+      }
+      // The "linearization point" for the iteration.  Every key in this table
+      // will be visited, but keys added later might be skipped or even be
+      // added to a following table (also not iterated over).
+      _sschm = topchm;
+      // Warm-up the iterator
+      _idx = -1;
+      nextLong();
+    }
+    int length() { return _sschm._keys.length; }
+    long key(final int idx) { return _sschm._keys[idx]; }
+    private int _idx;           // -1 for NO_KEY, 0-keys.length
+    private long _nextK, _prevK; // Last 2 keys found
+    private long _nextV, _prevV; // Last 2 values found; NO_VALUE for none
+    public boolean hasNext() { return _nextV != NO_VALUE; }
+    public long nextLong() {
+      // 'next' actually knows what the next value will be - it had to
+      // figure that out last go 'round lest 'hasNext' report true and
+      // some other thread deleted the last value.  Instead, 'next'
+      // spends all its effort finding the key that comes after the
+      // 'next' key.
+      if( _idx != -1 && _nextV == NO_VALUE ) throw new NoSuchElementException();
+      _prevK = _nextK;          // This will become the previous key
+      _prevV = _nextV;          // This will become the previous value
+      _nextV = NO_VALUE;        // We have no more next-key
+      // Attempt to set <_nextK,_nextV> to the next K,V pair.
+      // _nextV is the trigger: stop searching when it is != NO_VALUE
+      if( _idx == -1 ) {        // Check for NO_KEY
+        _idx = 0;               // Setup for next phase of search
+        _nextK = NO_KEY;
+        if( (_nextV=get(_nextK)) != NO_VALUE ) return _prevV;
+      }
+      while( _idx<length() ) {  // Scan array
+        _nextK = key(_idx++); // Get a key that definitely is in the set (for the moment!)
+        if( _nextK != NO_KEY && // Found something?
+            (_nextV=get(_nextK)) != NO_VALUE )
+          break;                // Got it!  _nextK is a valid Key
+      }                         // Else keep scanning
+      return _prevV;            // Return current value.
+    }
+    public Long next() { return nextLong(); }
+    public void remove() {
+      if( _prevV == NO_VALUE ) throw new IllegalStateException();
+      NonBlockingHashMapLongLong.this.remove( _prevK, _prevV );
+      _prevV = NO_VALUE;
+    }
+    public Long nextElement() { return next(); }
+    public boolean hasMoreElements() { return hasNext(); }
+  }
+
+  /** Returns an enumeration of the <strong>auto-boxed</strong> values in
+   *  this table.
+   *  @return an enumeration of the values in this table
+   *  @see #values()  */
+  public Enumeration<Long> elements() { return new SnapshotV(); }
+
+  // --- values --------------------------------------------------------------
+  /** Returns a {@link Collection} view of the <strong>auto-boxed</strong>
+   *  values contained in this map.  The collection is backed by the map, so
+   *  changes to the map are reflected in the collection, and vice-versa.  The
+   *  collection supports element removal but not the <tt>add</tt> or
+   *  <tt>addAll</tt> operations.
+   *
+   *  <p>The view's <tt>iterator</tt> is a "weakly consistent" iterator that
+   *  will never throw {@link ConcurrentModificationException}, and guarantees
+   *  to traverse elements as they existed upon construction of the iterator,
+   *  and may (but is not guaranteed to) reflect any modifications subsequent
+   *  to construction. */
+  public Collection<Long> values() {
+    return new AbstractCollection<Long>() {
+      public void    clear   (          ) {        NonBlockingHashMapLongLong.this.clear   ( ); }
+      public int     size    (          ) { return NonBlockingHashMapLongLong.this.size    ( ); }
+      public boolean contains( Object v ) { return NonBlockingHashMapLongLong.this.containsValue(v); }
+      public Iterator<Long> iterator()    { return new SnapshotV(); }
+    };
+  }
+
+  // --- keySet --------------------------------------------------------------
+  /** A class which implements the {@link Iterator} and {@link Enumeration}
+   *  interfaces, generified to the {@link Long} class and supporting a
+   *  <strong>non-auto-boxing</strong> {@link #nextLong} function.  The
+   *  {@link #value} of the key just returned is also available without
+   *  boxing.  */
+  public class IteratorLong implements Iterator<Long>, Enumeration<Long> {
+    private final SnapshotV _ss;
+    /** A new IteratorLong */
+    public IteratorLong() { _ss = new SnapshotV(); }
+    /** Remove last key returned by {@link #next} or {@link #nextLong}. */
+    public void remove() { _ss.remove(); }
+    /** <strong>Auto-box</strong> and return the next key. */
+    public Long next    () { _ss.nextLong(); return _ss._prevK; }
+    /** Return the next key as a primitive {@code long}. */
+    public long nextLong() { _ss.nextLong(); return _ss._prevK; }
+    /** Return the value of the last key returned, as seen when the iterator
+     *  reached it. */
+    public long value   () { return _ss._prevV; }
+    /** True if there are more keys to iterate over. */
+    public boolean hasNext() { return _ss.hasNext(); }
+    /** <strong>Auto-box</strong> and return the next key. */
+    public Long nextElement() { return next(); }
+    /** True if there are more keys to iterate over. */
+    public boolean hasMoreElements() { return hasNext(); }
+  }
+  /** Returns an enumeration of the <strong>auto-boxed</strong> keys in this table.
+   *  <strong>Warning:</strong> this version will auto-box all returned keys.
+   *  @return an enumeration of the auto-boxed keys in this table
+   *  @see #keySet()  */
+  public Enumeration<Long> keys() { return new IteratorLong(); }
+
+  /** Returns a {@link Set} view of the keys contained in this map; with care
+   *  the keys may be iterated over <strong>without auto-boxing</strong>.  The
+   *  set is backed by the map, so changes to the map are reflected in the
+   *  set, and vice-versa.  The set supports element removal but not the
+   *  <tt>add</tt> or <tt>addAll</tt> operations.
+   *
+   *  <p>The view's <tt>iterator</tt> is a "weakly consistent" iterator that
+   *  will never throw {@link ConcurrentModificationException}, and guarantees
+   *  to traverse elements as they existed upon construction of the iterator,
+   *  and may (but is not guaranteed to) reflect any modifications subsequent
+   *  to construction.  */
+  public Set<Long> keySet() {
+    return new AbstractSet<Long> () {
+      public void    clear   (          ) {        NonBlockingHashMapLongLong.this.clear   ( ); }
+      public int     size    (          ) { return NonBlockingHashMapLongLong.this.size    ( ); }
+      public boolean contains( Object k ) { return NonBlockingHashMapLongLong.this.containsKey(k); }
+      public boolean remove  ( Object k ) { return NonBlockingHashMapLongLong.this.remove  (k) != null; }
+      public IteratorLong iterator()    { return new IteratorLong(); }
+    };
+  }
+
+
+  // --- entrySet ------------------------------------------------------------
+  // Warning: Each call to 'next' in this iterator constructs two new Longs
+  // and a new NBHMLLEntry.
+  private class NBHMLLEntry extends AbstractEntry<Long,Long> {
+    NBHMLLEntry( final Long k, final Long v ) { super(k,v); }
+    public Long setValue(final Long val) {
+      if (val == null) throw new NullPointerException();
+      _val = val;
+      return put(_key, val);
+    }
+  }
+  private class SnapshotE implements Iterator<Map.Entry<Long,Long>> {
+    final SnapshotV _ss;
+    public SnapshotE() { _ss = new SnapshotV(); }
+    public void remove() { _ss.remove(); }
+    public Map.Entry<Long,Long> next() { _ss.nextLong(); return new NBHMLLEntry(_ss._prevK,_ss._prevV); }
+    public boolean hasNext() { return _ss.hasNext(); }
+  }
+
+  /** Returns a {@link Set} view of the mappings contained in this map.  The
+   *  set is backed by the map, so changes to the map are reflected in the
+   *  set, and vice-versa.  The set supports element removal but not the
+   *  <tt>add</tt> or <tt>addAll</tt> operations.
+   *
+   *  <p><strong>Warning:</strong> the iterator associated with this Set
+   *  auto-boxes both the key and the value and creates a {@link
+   *  java.util.Map.Entry} with each iteration.  Iterating with {@link
+   *  #keySet} and {@link IteratorLong#value} avoids all allocation.
+   */
+  public Set<Map.Entry<Long,Long>> entrySet() {
+    return new AbstractSet<Map.Entry<Long,Long>>() {
+      public void    clear   (          ) {        NonBlockingHashMapLongLong.this.clear( ); }
+      public int     size    (          ) { return NonBlockingHashMapLongLong.this.size ( ); }
+      public boolean remove( final Object o ) {
+        if (!(o instanceof Map.Entry)) return false;
+        final Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+        return NonBlockingHashMapLongLong.this.remove(e.getKey(), e.getValue());
+      }
+      public boolean contains(final Object o) {
+        if (!(o instanceof Map.Entry)) return false;
+        final Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+        final Long v = get(e.getKey());
+        return v != null && v.equals(e.getValue());
+      }
+      public Iterator<Map.Entry<Long,Long>> iterator() { return new SnapshotE(); }
+    };
+  }
+
+  // --- writeObject -------------------------------------------------------
+  // Write a NBHMLL to a stream
+  private void writeObject(java.io.ObjectOutputStream s) throws IOException  {
+    s.defaultWriteObject();     // Write nothing
+    final IteratorLong it = new IteratorLong();
+    while( it.hasNext() ) {
+      s.writeLong(it.nextLong()); // Write the <long,long> pair
+      s.writeLong(it.value());
+    }
+    s.writeLong(NO_KEY);        // Sentinel to indicate end-of-data
+    s.writeLong(NO_VALUE);
+  }
+
+  // --- readObject --------------------------------------------------------
+  // Read a CHM from a stream
+  private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException  {
+    s.defaultReadObject();      // Read nothing
+    initialize(MIN_SIZE);
+    for (;;) {
+      final long K = s.readLong();
+      final long V = s.readLong();
+      if( K == NO_KEY && V == NO_VALUE ) break;
+      put(K,V);                 // Insert with an offical put
+    }
+  }
+
+}  // End NonBlockingHashMapLongLong class
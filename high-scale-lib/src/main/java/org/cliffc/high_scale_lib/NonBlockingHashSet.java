@@ -51,6 +51,9 @@ public class NonBlockingHashSet<E> extends AbstractSet<E> implements Serializabl
   public void    clear      (                    ) { _map.clear(); }
 
   public Iterator<E>iterator(                    ) { return _map.keySet().iterator(); }
+  /** A splittable, weakly consistent walk over the elements; see
+   *  {@link NonBlockingHashMap#keySet}. */
+  public Spliterator<E> spliterator(             ) { return _map.keySet().spliterator(); }
 
   // ---
 
@@ -71,15 +74,13 @@ public class NonBlockingHashSet<E> extends AbstractSet<E> implements Serializabl
    * time; and after construction the Set is only read.  Making the Set
    * read-only will cause updates arriving after construction is supposedly
    * complete to throw an {@link IllegalStateException}.
+   *
+   * <p> Lookups on a read-only Set run against a compact copy of the table,
+   * faster than on a live Set; see {@link NonBlockingHashMap#freeze}.
    */
+  public void readOnly() { _map.freeze(); }
 
-  // (1) call _map's immutable() call
-  // (2) get snapshot
-  // (3) CAS down a local map, power-of-2 larger than _map.size()+1/8th
-  // (4) start @ random, visit all snapshot, insert live keys
-  // (5) CAS _map to null, needs happens-after (4)
-  // (6) if Set call sees _map is null, needs happens-after (4) for readers
-  public void readOnly() {
-    throw new RuntimeException("Unimplemented");
-  }
+  /** @return true if {@link #readOnly} has been called
+   *  @since 1.1.5 */
+  public boolean isReadOnly() { return _map.isFrozen(); }
 }
@@ -10,6 +10,7 @@ import java.lang.reflect.Field;
 import java.util.*;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
 import sun.misc.Unsafe;
 
 /**
@@ -1044,25 +1045,37 @@ public class NonBlockingIdentityHashMap<TypeK, TypeV>
 
 
   // --- Snapshot ------------------------------------------------------------
+  // Return a clean view of the top-level K/V array, with no table-copy in
+  // progress.  This is the "linearization point" for an iteration: every key
+  // in this table will be visited, but keys added later might be skipped or
+  // even be added to a following table (also not iterated over).
+  private final Object[] snapshot_kvs() {
+    while( true ) {             // Verify no table-copy-in-progress
+      Object[] topkvs = _kvs;
+      CHM topchm = chm(topkvs);
+      if( topchm._newkvs == null ) // No table-copy-in-progress
+        return topkvs;
+      // Table copy in-progress - so we cannot get a clean iteration.  We
+      // must help finish the table copy before we can start iterating.
+      topchm.help_copy_impl(this,topkvs,true);
+    }
+  }
+
+  // The Value for Key K found at slot idx of a snapshot, or null if K is not
+  // mapped.  Only a Primed slot, or a snapshot the table has since moved
+  // past, needs an official 'get'.
+  private final Object snapshot_val( final Object[] kvs, final int idx, final Object K ) {
+    final Object V = val(kvs,idx);
+    if( V instanceof Prime || _kvs != kvs ) return get(K);
+    return V == TOMBSTONE ? null : V;
+  }
+
   // The main class for iterating over the NBHM.  It "snapshots" a clean
   // view of the K/V array.
   private class SnapshotV implements Iterator<TypeV>, Enumeration<TypeV> {
     final Object[] _sskvs;
     public SnapshotV() {
-      while( true ) {           // Verify no table-copy-in-progress
-        Object[] topkvs = _kvs;
-        CHM topchm = chm(topkvs);
-        if( topchm._newkvs == null ) { // No table-copy-in-progress
-          // The "linearization point" for the iteration.  Every key in this
-          // table will be visited, but keys added later might be skipped or
-          // even be added to a following table (also not iterated over).
-          _sskvs = topkvs;
-          break;
-        }
-        // Table copy in-progress - so we cannot get a clean iteration.  We
-        // must help finish the table copy before we can start iterating.
-        topchm.help_copy_impl(NonBlockingIdentityHashMap.this,topkvs,true);
-      }
+      _sskvs = snapshot_kvs();
       // Warm-up the iterator
       next();
     }
@@ -1129,6 +1142,7 @@ public class NonBlockingIdentityHashMap<TypeK, TypeV>
       @Override public int     size    (          ) { return NonBlockingIdentityHashMap.this.size         ( ); }
       @Override public boolean contains( Object v ) { return NonBlockingIdentityHashMap.this.containsValue(v); }
       @Override public Iterator<TypeV> iterator()   { return new SnapshotV(); }
+      @Override public Spliterator<TypeV> spliterator() { return new SnapshotS<TypeV>(VALS); }
     };
   }
 
@@ -1169,6 +1183,7 @@ public class NonBlockingIdentityHashMap<TypeK, TypeV>
       @Override public boolean contains( Object k ) { return NonBlockingIdentityHashMap.this.containsKey(k); }
       @Override public boolean remove  ( Object k ) { return NonBlockingIdentityHashMap.this.remove  (k) != null; }
       @Override public Iterator<TypeK> iterator()   { return new SnapshotK(); }
+      @Override public Spliterator<TypeK> spliterator() { return new SnapshotS<TypeK>(KEYS); }
     };
   }
 
@@ -1230,9 +1245,66 @@ public class NonBlockingIdentityHashMap<TypeK, TypeV>
         return v.equals(e.getValue());
       }
       @Override public Iterator<Map.Entry<TypeK,TypeV>> iterator() { return new SnapshotE(); }
+      @Override public Spliterator<Map.Entry<TypeK,TypeV>> spliterator() { return new SnapshotS<Map.Entry<TypeK,TypeV>>(ENTS); }
     };
   }
 
+  // --- Spliterator --------------------------------------------------------
+  // A splittable walk over a snapshot, shared by all 3 views.  Splitting
+  // hands off the lower half of the remaining index range.
+  private static final int KEYS=0, VALS=1, ENTS=2;
+  private class SnapshotS<T> implements Spliterator<T> {
+    final Object[] _sskvs;
+    final int _what;            // KEYS, VALS or ENTS
+    private int _idx, _fence;   // Slots [_idx,_fence) remain
+    private long _est;          // Estimated elements remaining
+    SnapshotS( int what ) {
+      this(snapshot_kvs(),what,0,-1,size());
+      _fence = len(_sskvs);
+    }
+    private SnapshotS( Object[] kvs, int what, int idx, int fence, long est ) {
+      _sskvs = kvs; _what = what; _idx = idx; _fence = fence; _est = est;
+    }
+    public boolean tryAdvance( Consumer<? super T> action ) {
+      if( action == null ) throw new NullPointerException();
+      while( _idx < _fence ) {
+        final int idx = _idx++;
+        final Object K = key(_sskvs,idx);
+        final Object V;
+        if( K != null && K != TOMBSTONE && (V=snapshot_val(_sskvs,idx,K)) != null ) {
+          action.accept(elem(K,(TypeV)V));
+          return true;
+        }
+      }
+      return false;
+    }
+    public void forEachRemaining( Consumer<? super T> action ) {
+      if( action == null ) throw new NullPointerException();
+      final int fence = _fence;
+      int idx = _idx;
+      _idx = fence;
+      for( ; idx < fence; idx++ ) {
+        final Object K = key(_sskvs,idx);
+        final Object V;
+        if( K != null && K != TOMBSTONE && (V=snapshot_val(_sskvs,idx,K)) != null )
+          action.accept(elem(K,(TypeV)V));
+      }
+    }
+    private T elem( Object K, TypeV V ) {
+      return (T)(_what==KEYS ? K : (_what==VALS ? V : new NBHMEntry((TypeK)K,V)));
+    }
+    public Spliterator<T> trySplit() {
+      final int lo = _idx, mid = (lo+_fence)>>>1;
+      if( mid <= lo ) return null;
+      _idx = mid;
+      return new SnapshotS<T>(_sskvs,_what,lo,mid,_est >>>= 1);
+    }
+    public long estimateSize() { return _est; }
+    // Not DISTINCT: keys are compared by identity, so two keys (or entries)
+    // can still be equals() to each other.
+    public int characteristics() { return CONCURRENT|NONNULL; }
+  }
+
   // --- writeObject -------------------------------------------------------
   // Write a NBHM to a stream
   private void writeObject(java.io.ObjectOutputStream s) throws IOException  {
@@ -8,7 +8,10 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.*;
+import java.util.function.IntConsumer;
 import sun.misc.Unsafe;
 
 /**
@@ -63,8 +66,9 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
     _nbsi = new NBSI(63, new Counter(), this); // The initial 1-word set
   }
 
-  private NonBlockingSetInt(NonBlockingSetInt a, NonBlockingSetInt b) {
-    _nbsi = new NBSI(a._nbsi,b._nbsi,new Counter(),this);
+  // An empty bit-vector pre-sized to hold max_elem
+  private NonBlockingSetInt( final int max_elem ) {
+    _nbsi = new NBSI(max_elem, new Counter(), this);
   }
 
   /** 
@@ -134,6 +138,7 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
     NBSI cleared = new NBSI(63, new Counter(), this); // An empty initial NBSI
     while( !CAS_nbsi( _nbsi, cleared ) ) // Spin until clear works
       ;
+    _ranks = null;              // Block counts are all wrong now
   }
 
   public int sizeInBytes() { return _nbsi.sizeInBytes(); }
@@ -144,21 +149,378 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
    *
    *****************************************************************/
 
-  public NonBlockingSetInt intersect(final NonBlockingSetInt op) {
-    NonBlockingSetInt res = new NonBlockingSetInt(this,op);
-    res._nbsi.intersect(res._nbsi, this._nbsi, op._nbsi);
-    return res;
+  // All work a 64-bit logical word at a time, reading through any resize
+  // in progress.  Results are weakly consistent with concurrent updates to
+  // either operand.  Each operation is one pass over a range of words: read
+  // a word from each set, combine them, then merge the result into a
+  // destination set with CAS, clear it from one, or just count it.  Big
+  // passes split their word range into ForkJoin tasks, the same way
+  // NonBlockingHashMap's bulk operations split a snapshot; tasks touch
+  // disjoint words, except for the nested every-64th-bit words which are
+  // CAS'd like any other update.
+  private static final int AND=0, OR=1, ANDNOT=2, XOR=3; // Combine
+  private static final int MERGE=0, CLEAR=1, COUNT=2;    // Then do
+  private static long op( final int op, final long a, final long b ) {
+    switch( op ) {
+    case AND:    return a &  b;
+    case OR:     return a |  b;
+    case ANDNOT: return a & ~b;
+    default:     return a ^  b;
+    }
+  }
+
+  // Run one pass of 'this op that' over every word either set might hold a
+  // result in.  Returns the bits merged, cleared or counted.
+  private int pass( final long threshold, final NonBlockingSetInt that, final int op, final int how, final NonBlockingSetInt dst ) {
+    final NBSI x = _nbsi, y = that._nbsi;
+    final int len =             // Words holding any result
+      op == AND    ? Math.min(x.words(),y.words()) :
+      op == ANDNOT ? x.words() : Math.max(x.words(),y.words());
+    // Words scanned per task.  Small or below-threshold passes run in the
+    // calling thread; otherwise aim for a few tasks per pool thread.
+    int leaf = len;
+    if( threshold < Long.MAX_VALUE && len >= threshold ) {
+      long batches = Math.min(len/Math.max(threshold,1), (long)ForkJoinPool.getCommonPoolParallelism()<<2);
+      if( batches > 1 ) leaf = Math.max((int)(len/batches),64);
+    }
+    return new WordTask(x,y,op,how,dst,0,len,leaf).invoke();
+  }
+
+  // A range [lo,hi) of words.  Splits in half until the range is at most
+  // 'leaf' words, then scans.  invoke() runs the top-level task in the
+  // calling thread, so an unsplit pass never touches the pool.
+  private static final class WordTask extends RecursiveTask<Integer> {
+    final NBSI _x, _y;
+    final int _op, _how;
+    final NonBlockingSetInt _dst;
+    final int _lo, _hi, _leaf;
+    WordTask( NBSI x, NBSI y, int op, int how, NonBlockingSetInt dst, int lo, int hi, int leaf ) {
+      _x = x; _y = y; _op = op; _how = how; _dst = dst; _lo = lo; _hi = hi; _leaf = leaf;
+    }
+    @Override protected Integer compute() {
+      if( _hi - _lo > _leaf ) { // Split?
+        final int mid = (_lo+_hi)>>>1;
+        WordTask left = new WordTask(_x,_y,_op,_how,_dst,_lo,mid,_leaf);
+        left.fork();
+        final int r = new WordTask(_x,_y,_op,_how,_dst,mid,_hi,_leaf).compute();
+        return left.join()+r;
+      }
+      int cnt = 0;
+      for( int w=_lo; w<_hi; w++ ) {
+        final long bits = op(_op,_x.word(w),_y.word(w));
+        if( bits == 0 ) continue;
+        switch( _how ) {        // Re-read _nbsi: it changes across a resize
+        case MERGE: cnt += _dst._nbsi.or_word    (w,bits); break;
+        case CLEAR: cnt += _dst._nbsi.andnot_word(w,bits); break;
+        default:    cnt += Long.bitCount(bits);
+        }
+      }
+      return cnt;
+    }
   }
 
-  public NonBlockingSetInt union(final NonBlockingSetInt op) {
-    NonBlockingSetInt res = new NonBlockingSetInt(this,op);
-    res._nbsi.union(res._nbsi, this._nbsi, op._nbsi);
+  // A new set holding 'this op that'
+  private NonBlockingSetInt combine( final long threshold, final NonBlockingSetInt that, final int op ) {
+    final NonBlockingSetInt res = new NonBlockingSetInt((Math.max(_nbsi.words(),that._nbsi.words())<<6)-1);
+    pass(threshold,that,op,MERGE,res);
     return res;
   }
 
-//  public NonBlockingSetInt not(final NonBlockingSetInt op) {
-//
-//  }
+  /** @return a new set holding the elements in both this set and {@code op} */
+  public NonBlockingSetInt intersect(final NonBlockingSetInt op) { return combine(Long.MAX_VALUE,op,AND   ); }
+  /** @return a new set holding the elements in either this set or {@code op} */
+  public NonBlockingSetInt union    (final NonBlockingSetInt op) { return combine(Long.MAX_VALUE,op,OR    ); }
+  /** @return a new set holding the elements in this set but not in {@code op} */
+  public NonBlockingSetInt andNot   (final NonBlockingSetInt op) { return combine(Long.MAX_VALUE,op,ANDNOT); }
+  /** @return a new set holding the elements in exactly one of this set and {@code op} */
+  public NonBlockingSetInt xor      (final NonBlockingSetInt op) { return combine(Long.MAX_VALUE,op,XOR   ); }
+
+  /**
+   * Add every element of {@code op} to this set, in place.  Each word is
+   * merged with one CAS, rather than one per element.
+   * @return <tt>true</tt> if this set changed.
+   */
+  public boolean addAll   ( final NonBlockingSetInt op ) { return addAll   (Long.MAX_VALUE,op); }
+  /**
+   * Remove every element of {@code op} from this set, in place, a word at a
+   * time.
+   * @return <tt>true</tt> if this set changed.
+   */
+  public boolean removeAll( final NonBlockingSetInt op ) { return removeAll(Long.MAX_VALUE,op); }
+  /**
+   * Remove every element not in {@code op} from this set, in place, a word
+   * at a time.
+   * @return <tt>true</tt> if this set changed.
+   */
+  public boolean retainAll( final NonBlockingSetInt op ) { return retainAll(Long.MAX_VALUE,op); }
+
+  /**
+   * Size of the intersection of this set and {@code op}, computed without
+   * building it.
+   * @return count of elements in both sets.
+   */
+  public int intersectionCardinality( final NonBlockingSetInt op ) { return pass(Long.MAX_VALUE,op,AND,COUNT,null); }
+  /**
+   * Size of the union of this set and {@code op}, computed without building
+   * it.
+   * @return count of elements in either set.
+   */
+  public int unionCardinality       ( final NonBlockingSetInt op ) { return pass(Long.MAX_VALUE,op,OR ,COUNT,null); }
+
+  // --- Parallel versions.  Each takes a parallelismThreshold: the number of
+  // 64-bit words needed for the operation to be split into ForkJoin tasks
+  // on the common pool; Long.MAX_VALUE runs it in the calling thread only.
+
+  /** Parallel {@link #intersect(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the other set
+   *  @return a new set holding the elements in both sets */
+  public NonBlockingSetInt intersect( long parallelismThreshold, NonBlockingSetInt op ) { return combine(parallelismThreshold,op,AND   ); }
+  /** Parallel {@link #union(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the other set
+   *  @return a new set holding the elements in either set */
+  public NonBlockingSetInt union    ( long parallelismThreshold, NonBlockingSetInt op ) { return combine(parallelismThreshold,op,OR    ); }
+  /** Parallel {@link #andNot(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the other set
+   *  @return a new set holding the elements in this set but not in {@code op} */
+  public NonBlockingSetInt andNot   ( long parallelismThreshold, NonBlockingSetInt op ) { return combine(parallelismThreshold,op,ANDNOT); }
+  /** Parallel {@link #xor(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the other set
+   *  @return a new set holding the elements in exactly one of the sets */
+  public NonBlockingSetInt xor      ( long parallelismThreshold, NonBlockingSetInt op ) { return combine(parallelismThreshold,op,XOR   ); }
+
+  /** Parallel {@link #addAll(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the set to add
+   *  @return <tt>true</tt> if this set changed. */
+  public boolean addAll   ( long parallelismThreshold, NonBlockingSetInt op ) { return pass(parallelismThreshold,op,OR    ,MERGE,this) != 0; }
+  /** Parallel {@link #removeAll(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the set to remove
+   *  @return <tt>true</tt> if this set changed. */
+  public boolean removeAll( long parallelismThreshold, NonBlockingSetInt op ) { return pass(parallelismThreshold,op,AND   ,CLEAR,this) != 0; }
+  /** Parallel {@link #retainAll(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the set to retain
+   *  @return <tt>true</tt> if this set changed. */
+  public boolean retainAll( long parallelismThreshold, NonBlockingSetInt op ) { return pass(parallelismThreshold,op,ANDNOT,CLEAR,this) != 0; }
+
+  /** Parallel {@link #intersectionCardinality(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the other set
+   *  @return count of elements in both sets. */
+  public int intersectionCardinality( long parallelismThreshold, NonBlockingSetInt op ) { return pass(parallelismThreshold,op,AND,COUNT,null); }
+  /** Parallel {@link #unionCardinality(NonBlockingSetInt)}.
+   *  @param parallelismThreshold words needed to run in parallel
+   *  @param op the other set
+   *  @return count of elements in either set. */
+  public int unionCardinality       ( long parallelismThreshold, NonBlockingSetInt op ) { return pass(parallelismThreshold,op,OR ,COUNT,null); }
+
+  /**
+   * Returns the first element at or after {@code from}, or -1 if there is
+   * none.  Reads the set a 64-bit word at a time, so the cost is
+   * proportional to the words scanned rather than to the bits.
+   * @param from the first element to look at
+   * @return the next element, or -1
+   */
+  public int nextSetBit( final int from ) {
+    if( from < 0 ) throw new IllegalArgumentException(""+from);
+    return _nbsi.nextSetBit(from);
+  }
+
+  /**
+   * Returns the last element at or before {@code from}, or -1 if there is
+   * none.  Reads the set a 64-bit word at a time.
+   * @param from the first element to look at
+   * @return the previous element, or -1
+   */
+  public int previousSetBit( final int from ) {
+    if( from < 0 ) return -1;
+    final NBSI x = _nbsi;
+    int w = Math.min(from>>6,x.words()-1);
+    long bits = x.word(w);
+    if( w == from>>6 ) bits &= -1L>>>(63-(from&63));
+    while( bits == 0 ) {
+      if( --w < 0 ) return -1;
+      bits = x.word(w);
+    }
+    return (w<<6)+63-Long.numberOfLeadingZeros(bits);
+  }
+
+  /**
+   * Returns the first non-element at or after {@code from}.  Reads the set a
+   * 64-bit word at a time.
+   * @param from the first element to look at
+   * @return the next absent value, or -1 if every value from {@code from}
+   * to {@link Integer#MAX_VALUE} is in the set
+   */
+  public int nextClearBit( final int from ) {
+    if( from < 0 ) throw new IllegalArgumentException(""+from);
+    final NBSI x = _nbsi;
+    int w = from>>6;
+    long bits = ~x.word(w) & (-1L<<(from&63));
+    while( bits == 0 ) {
+      if( ++w == 1<<(31-6) ) return -1; // Ran off the end of the int space
+      bits = ~x.word(w);
+    }
+    return (w<<6)+Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * Add every value in {@code [from,to)} to the set, a word at a time with
+   * one CAS per word.
+   * @throws IllegalArgumentException if from is negative or to is less than from.
+   */
+  public void setRange( final int from, final int to ) { range(from,to,true); }
+  /**
+   * Remove every value in {@code [from,to)} from the set, a word at a time
+   * with one CAS per word.
+   * @throws IllegalArgumentException if from is negative or to is less than from.
+   */
+  public void clearRange( final int from, final int to ) { range(from,to,false); }
+
+  private void range( final int from, final int to, final boolean set ) {
+    if( from < 0 || to < from ) throw new IllegalArgumentException(from+","+to);
+    if( from == to ) return;
+    final int lo = from>>6, hi = (to-1)>>6;
+    for( int w=lo; w<=hi; w++ ) {
+      long mask = -1L;
+      if( w == lo ) mask &= -1L<<(from&63);
+      if( w == hi ) mask &= -1L>>>(63-((to-1)&63));
+      if( set ) _nbsi.or_word(w,mask); // Re-read _nbsi: it changes across a resize
+      else if( _nbsi.past_end(w) ) return;
+      else _nbsi.andnot_word(w,mask);
+    }
+  }
+
+  // --- Rank & select -------------------------------------------------------
+  // Counting set bits below some point is a popcount over every word below
+  // it.  To make that fast, the first rank-style query builds an index with
+  // the count of each 64K-element block.  Writers don't maintain it; they
+  // just mark the block dirty (-1), and the next query recounts it.  A query
+  // claims a dirty block by CAS'ing it to -2 before counting, and publishes
+  // the count with a CAS from -2; a write that lands meanwhile re-marks it
+  // -1 and the stale count is never published.
+  private static final int BLOCK_LOG = 16; // Elements per block, log2
+  private static final int BLOCK_WORDS = 1<<(BLOCK_LOG-6);
+  private transient volatile AtomicIntegerArray _ranks;
+
+  // Mark the block holding 'i' dirty.  Called after every successful write.
+  private void dirty( final int i ) {
+    final AtomicIntegerArray ranks = _ranks;
+    final int b = i>>>BLOCK_LOG;
+    if( ranks != null && b < ranks.length() && ranks.get(b) != -1 )
+      ranks.set(b,-1);
+  }
+
+  // The block-count index, built (all dirty) or grown as needed.  Callers
+  // must read _nbsi after this, so a clear() racing with the query drops
+  // the index rather than leaving stale counts in it.
+  private AtomicIntegerArray ranks() {
+    AtomicIntegerArray ranks = _ranks;
+    final int need = (_nbsi.words()+BLOCK_WORDS-1)/BLOCK_WORDS;
+    if( ranks == null || ranks.length() < need ) {
+      ranks = new AtomicIntegerArray(need);
+      for( int b=0; b<need; b++ ) ranks.set(b,-1);
+      _ranks = ranks;           // Racing builders are all dirty; any one will do
+    }
+    return ranks;
+  }
+
+  // Count of block 'b', from the index if clean
+  private static int block( final AtomicIntegerArray ranks, final NBSI x, final int b ) {
+    final int v = b < ranks.length() ? ranks.get(b) : -2;
+    if( v >= 0 ) return v;
+    final boolean claimed = v == -1 && ranks.compareAndSet(b,-1,-2);
+    int cnt = 0;
+    for( int w=b*BLOCK_WORDS; w<(b+1)*BLOCK_WORDS && !x.past_end(w); w++ )
+      cnt += Long.bitCount(x.word(w));
+    if( claimed ) ranks.compareAndSet(b,-2,cnt);
+    return cnt;
+  }
+
+  /**
+   * Count of elements in {@code [from,to)}.  Whole 64K-element blocks come
+   * from a lazily maintained index of per-block counts; only the ends and
+   * any blocks written since the last query are counted a word at a time.
+   * @return the number of elements at least from and less than to
+   * @throws IllegalArgumentException if from is negative or to is less than from.
+   */
+  public int countRange( final int from, final int to ) {
+    if( from < 0 || to < from ) throw new IllegalArgumentException(from+","+to);
+    final AtomicIntegerArray ranks = ranks();
+    final NBSI x = _nbsi;
+    final long end = Math.min((long)to,(long)x.words()<<6);
+    int cnt = 0;
+    long i = from;
+    while( i < end ) {
+      if( (i&((1<<BLOCK_LOG)-1)) == 0 && end-i >= 1<<BLOCK_LOG ) {
+        cnt += block(ranks,x,(int)(i>>BLOCK_LOG)); // Whole block
+        i += 1<<BLOCK_LOG;
+      } else {                  // Partial word
+        final int w = (int)(i>>6);
+        long bits = x.word(w) & (-1L<<(i&63));
+        final long next = (long)(w+1)<<6;
+        if( end < next ) bits &= -1L>>>(next-end);
+        cnt += Long.bitCount(bits);
+        i = next;
+      }
+    }
+    return cnt;
+  }
+
+  /**
+   * Count of elements less than {@code i}.
+   * @return the rank of i
+   * @throws IllegalArgumentException if i is negative.
+   */
+  public int rank( final int i ) { return countRange(0,i); }
+
+  /**
+   * The {@code k}th smallest element, counting from 0; the inverse of {@link
+   * #rank}.  Skips whole blocks using the per-block count index.
+   * @return the element, or -1 if the set has no more than k elements
+   * @throws IllegalArgumentException if k is negative.
+   */
+  public int select( int k ) {
+    if( k < 0 ) throw new IllegalArgumentException(""+k);
+    final AtomicIntegerArray ranks = ranks();
+    final NBSI x = _nbsi;
+    for( int b=0; !x.past_end(b*BLOCK_WORDS); b++ ) {
+      final int c = block(ranks,x,b);
+      if( k >= c ) { k -= c; continue; }
+      for( int w=b*BLOCK_WORDS; w<(b+1)*BLOCK_WORDS; w++ ) {
+        long bits = x.word(w);
+        final int bc = Long.bitCount(bits);
+        if( k >= bc ) { k -= bc; continue; }
+        while( k-- > 0 ) bits &= bits-1; // Drop the k lowest bits
+        return (w<<6)+Long.numberOfTrailingZeros(bits);
+      }                         // Block shrank under us: on to the next
+    }
+    return -1;
+  }
+
+  /**
+   * Apply {@code action} to every element, in increasing order, without
+   * autoboxing.  Reads each word once and jumps between set bits.  Elements
+   * added or removed concurrently may or may not be seen.  With a lambda,
+   * give the parameter an explicit type - {@code (int i) -> ...} - since
+   * {@link Iterable#forEach} also applies.
+   * @param action the action to apply to each element
+   */
+  public void forEach( final IntConsumer action ) {
+    final NBSI nbsi = _nbsi;
+    for( int w=0; !nbsi.past_end(w); w++ ) {
+      long bits = nbsi.word(w);
+      while( bits != 0 ) {
+        action.accept((w<<6)+Long.numberOfTrailingZeros(bits));
+        bits &= bits-1;         // Clear lowest set bit
+      }
+    }
+  }
 
   /** Verbose printout of internal structure for debugging. */
   public void print() { _nbsi.print(0); }
@@ -182,22 +544,14 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
       advance();
     }
 
+    // Word-at-a-time scan to the next set bit
     private void advance() {
-      while( true ) {
-        index++;                 // Next index
-        while( (index>>6) >= nbsi._bits.length ) { // Index out of range?
-          if( nbsi._new == null ) { // New table?
-            index = -2;          // No, so must be all done
-            return;             //
-          }
-          nbsi = nbsi._new; // Carry on, in the new table
-        }
-        if( nbsi.contains(index) ) return;
-      }
+      index = index == Integer.MAX_VALUE ? -1 : nbsi.nextSetBit(index+1);
+      if( index == -1 ) index = -2; // All done
     }
     @Override
     public int next() {
-      if( index == -1 ) throw new NoSuchElementException();
+      if( index < 0 ) throw new NoSuchElementException();
       prev = index;
       advance();
       return prev;
@@ -312,48 +666,17 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
       _sum_bits_length = _bits.length + (_nbsi64==null ? 0 : _nbsi64._sum_bits_length);
     }
 
-    /** built a new NBSI with buffers large enough to hold bitwise operations on the operands **/
-    private NBSI(NBSI a, NBSI b, Counter ctr, NonBlockingSetInt nonb) {
-      super();
-      _non_blocking_set_int = nonb;
-      _size = ctr;
-      _copyIdx  = ctr == null ? null : new AtomicInteger();
-      _copyDone = ctr == null ? null : new AtomicInteger();
-
-      if(!has_bits(a) && !has_bits(b)) {
-        _bits = null;
-        _nbsi64 = null;
-        _sum_bits_length = 0;
-        return;
-      }
-
-      // todo - clean this nastiness up
-      // essentially just safely creates new empty buffers for each of the recursive bitsets
-      if(!has_bits(a)) {
-        _bits = new long[b._bits.length];
-        _nbsi64 = new NBSI(null,b._nbsi64,null,null);
-      } else if(!has_bits(b)) {
-        _bits = new long[a._bits.length];
-        _nbsi64 = new NBSI(null,a._nbsi64,null,null);
-      } else {
-        int bit_length = a._bits.length > b._bits.length ? a._bits.length : b._bits.length;
-        _bits = new long[bit_length];
-        _nbsi64 = new NBSI(a._nbsi64,b._nbsi64,null,null);
-      }
-      _sum_bits_length = _bits.length + _nbsi64._sum_bits_length;
-    }
-
-    private static boolean has_bits(NBSI n) {
-      return n != null && n._bits != null;
-    }
-
     // Lower-case 'int' versions - no autoboxing, very fast.
     // 'i' is known positive.
     public boolean add( final int i ) {
       // Check for out-of-range for the current size bit vector.
       // If so we need to grow the bit vector.
+      // The nested every-64th-bit words are shared between old-range and
+      // new-range elements, so copy any old word first or the copy (a
+      // one-shot CAS from zero) would find the new word non-zero and drop it.
       if( (i>>6) >= _bits.length ) 
         return install_larger_new_bits(i). // Install larger pile-o-bits (duh)
+          help_copy_impl(i).               // Copy any shared nested word
           help_copy().add(i);              // Finally, add to the new table
 
       // Handle every 64th bit via using a nested array
@@ -374,12 +697,13 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
         if( (old & mask) != 0 ) return false; // Bit is already set?
       } while( !nbsi.CAS( j>>6, old, old | mask ) );
       _size.add(1);
+      _non_blocking_set_int.dirty(i);
       return true;
     }
 
     public boolean remove( final int i ) {
       if( (i>>6) >= _bits.length ) // Out of bounds?  Not in this array!
-        return _new==null ? false : help_copy().remove(i);
+        return _new==null ? false : help_copy_impl(i).help_copy().remove(i);
 
       // Handle every 64th bit via using a nested array
       NBSI nbsi = this;         // The bit array being added into
@@ -399,6 +723,7 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
         if( (old & mask) == 0 ) return false; // Bit is already clear?
       } while( !nbsi.CAS( j>>6, old, old & ~mask ) );
       _size.add(-1);
+      _non_blocking_set_int.dirty(i);
       return true;
     }
     
@@ -423,54 +748,95 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
       return (old & mask) != 0; 
     }
 
-    /**
-     * Bitwise operations which store the result in this instance.
-     * Assumes that this instance contains ample buffer space to store the largest
-     * buffer from each NBSI in the recursive bitmap.
-     *
-     * Also assumes that this method is called during the construction process of
-     * the bitset before the instance could be leaked to multiple threads.
-     ***/
-    public boolean intersect(NBSI dest, NBSI a, NBSI b) {
-      // terminate recursion if one bitset is missing data
-      // since that word should be left as 0L anyway
-      if(!has_bits(a) || !has_bits(b))
-        return true;
-      for(int i = 0; i < dest._bits.length; i++) {
-        long left   = a.safe_read_word(i,0L);
-        long right  = b.safe_read_word(i,0L);
-        dest._bits[i] = (left & right) & Long.MAX_VALUE; // mask sign bit
+    // Read logical word 'w' - elements w*64 thru w*64+63 - in one go.  Bit
+    // 63 of each word lives in the nested _nbsi64 set; fold it back in.
+    public long word( final int w ) {
+      if( w >= _bits.length )   // Out of bounds?  Not in this array!
+        return _new==null ? 0 : help_copy().word(w);
+      final long bits = _bits[w]; // Read old bits
+      if( bits < 0 )            // Not mutable?
+        // Not mutable: finish copy of word, and retry on copied word
+        return help_copy_impl(w<<6).help_copy().word(w);
+      return bits | (contains((w<<6)+63) ? mask(63) : 0);
+    }
+
+    // Atomically OR 'bits' into logical word 'w'.  Returns the count of bits
+    // newly set.
+    public int or_word( final int w, final long bits ) {
+      if( w >= _bits.length )
+        return install_larger_new_bits((w<<6)+63). // Install larger pile-o-bits
+          help_copy_impl((w<<6)+63).               // Copy any shared nested word
+          help_copy().or_word(w,bits);             // Finally, add to the new table
+      int cnt = 0;
+      final long lo = bits & Long.MAX_VALUE; // Bits 0-62 live in this word
+      if( lo != 0 ) {
+        long old;
+        do {
+          old = _bits[w];       // Read old bits
+          if( old < 0 )         // Not mutable?
+            // Not mutable: finish copy of word, and retry on copied word
+            return help_copy_impl(w<<6).help_copy().or_word(w,bits);
+          if( (old | lo) == old ) break; // Bits are already set?
+        } while( !CAS( w, old, old | lo ) );
+        cnt = Long.bitCount(lo & ~old);
+        if( cnt != 0 ) { _size.add(cnt); _non_blocking_set_int.dirty(w<<6); }
       }
-      // todo - recompute size
-      return intersect(dest._nbsi64, a._nbsi64, b._nbsi64);
-    }
-
-    public boolean union(NBSI dest, NBSI a, NBSI b) {
-      // terminate recursion if neiter bitset has data
-      if(!has_bits(a) && !has_bits(b))
-        return true;
-      if(has_bits(a) || has_bits(b)) {
-        for(int i = 0; i < dest._bits.length; i++) {
-          long left   = a.safe_read_word(i,0);
-          long right  = b.safe_read_word(i,0);
-          dest._bits[i] = (left | right) & Long.MAX_VALUE;
-        }
+      // Bit 63 lives in the nested array
+      if( bits < 0 && add((w<<6)+63) ) cnt++;
+      return cnt;
+    }
+
+    // Atomically clear 'bits' from logical word 'w'.  Returns the count of
+    // bits newly cleared.
+    public int andnot_word( final int w, final long bits ) {
+      if( w >= _bits.length )   // Out of bounds?  Not in this array!
+        return _new==null ? 0 : help_copy_impl((w<<6)+63).help_copy().andnot_word(w,bits);
+      int cnt = 0;
+      final long lo = bits & Long.MAX_VALUE; // Bits 0-62 live in this word
+      if( lo != 0 ) {
+        long old;
+        do {
+          old = _bits[w];       // Read old bits
+          if( old < 0 )         // Not mutable?
+            // Not mutable: finish copy of word, and retry on copied word
+            return help_copy_impl(w<<6).help_copy().andnot_word(w,bits);
+          if( (old & lo) == 0 ) break; // Bits are already clear?
+        } while( !CAS( w, old, old & ~lo ) );
+        cnt = Long.bitCount(old & lo);
+        if( cnt != 0 ) { _size.add(-cnt); _non_blocking_set_int.dirty(w<<6); }
       }
-      return union(dest._nbsi64, a._nbsi64, b._nbsi64);
+      // Bit 63 lives in the nested array
+      if( bits < 0 && remove((w<<6)+63) ) cnt++;
+      return cnt;
     }
 
-    /**************************************************************************/
+    // Length in words of this set, or of the newest resized copy
+    private int words( ) {
+      NBSI nbsi = this;
+      while( nbsi._new != null ) nbsi = nbsi._new;
+      return nbsi._bits.length;
+    }
 
-    private long safe_read_word(int i, long default_word) {
-      if(i >= _bits.length) {
-        // allow reading past the end of the buffer filling in a default word
-        return default_word;
+    // True if word 'w' is past the end of this set and any resized copy
+    private boolean past_end( final int w ) {
+      NBSI nbsi = this;
+      while( w >= nbsi._bits.length ) {
+        if( nbsi._new == null ) return true;
+        nbsi = nbsi._new;       // Carry on, in the new table
       }
-      long word = _bits[i];
-      if(word < 0) {
-        word = help_copy_impl(i).help_copy()._bits[i];
+      return false;
+    }
+
+    // First element at or after 'from', or -1.  Jumps between set bits a
+    // word at a time instead of probing each bit.
+    public int nextSetBit( final int from ) {
+      int w = from>>6;
+      long bits = word(w) & (-1L<<(from&63));
+      while( bits == 0 ) {
+        if( past_end(++w) ) return -1;
+        bits = word(w);
       }
-      return word;
+      return (w<<6)+Long.numberOfTrailingZeros(bits);
     }
 
     public int sizeInBytes() { return (int)_bits.length; }
@@ -537,10 +903,12 @@ public class NonBlockingSetInt extends AbstractSet<Integer> implements Serializa
       if( nnn == null ) return this; // Promoted already
       int j = i;                // The bit index being added
       while( (j&63) == 63 ) {   // Bit 64? (low 6 bits are all set)
+        if( old._nbsi64 == null ) return this; // Deeper than the old array: nothing to copy
         old = old._nbsi64;      // Recurse
         nnn = nnn._nbsi64;      // Recurse
         j = j>>6;               // Strip off low 6 bits (all set)
       }
+      if( (j>>6) >= old._bits.length ) return this; // Past the old array: nothing to copy
 
       // Transit from state 1: word is not immutable yet
       // Immutable is in bit 63, the sign bit.
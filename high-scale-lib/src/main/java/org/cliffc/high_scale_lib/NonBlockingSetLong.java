@@ -0,0 +1,507 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongConsumer;
+import sun.misc.Unsafe;
+
+/**
+ * A multi-threaded hash set of primitive {@code longs}, for sparse 64-bit
+ * ids that are too wide for {@link NonBlockingSetInt}.  All operations are
+ * non-blocking and multi-threaded safe.
+ *
+ * <p>The implementation is the key half of {@link NonBlockingHashMapLong}:
+ * an open-addressed table of {@code long} keys, claimed by CAS and never
+ * freed, with linear reprobing and the same reprobe limit.  There is no
+ * value array.  Instead each key slot carries 4 bits of state - live, dead,
+ * frozen and copied - packed 16 slots to a {@code long} and updated by CAS.
+ * {@link #add(long)} and {@link #remove(long)} flip the live bit of a slot.
+ * A resize freezes slots one at a time and copies the live keys into a new
+ * table, with the copy work spread over the writers just like in
+ * {@link NonBlockingHashMap}.  The key {@code 0} marks an empty slot, so it
+ * is kept on the side.
+ *
+ * <p><em>General note of caution:</em> The Set API allows the use of {@link
+ * Long} with silent autoboxing - which can be very expensive if many calls
+ * are being made.  The built-in API takes lower-case {@code longs} and is
+ * much more efficient.
+ *
+ * <p>Space: 8 bytes of key and 4 bits of state per slot.  A growing table
+ * doubles when 3/4 of its slots are claimed, so space is roughly 11 to 23
+ * bytes per element.  Removed keys leave dead slots behind until the next
+ * resize, so heavy add/remove churn settles at up to 34.  A set of boxed
+ * {@link Long}s in a {@link NonBlockingHashSet} takes 40 to 60.
+ *
+ * <p>Iteration is in hash order and weakly consistent.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public class NonBlockingSetLong extends AbstractSet<Long> implements Serializable {
+  private static final long serialVersionUID = 1234123412341234124L;
+  private static final Unsafe _unsafe = UtilUnsafe.getUnsafe();
+
+  private static final int REPROBE_LIMIT=10; // Too many reprobes then force a table-resize
+  private static final int MIN_SIZE_LOG=4;   // 16 slots: one word of state
+  private static final int MIN_SIZE=(1<<MIN_SIZE_LOG);
+  private static final int MIN_COPY_WORK=1024; // Slots copied per help_copy call
+
+  // Same reprobe limit as NonBlockingHashMapLong
+  private static final int reprobe_limit( int len ) {
+    return REPROBE_LIMIT + (len>>2);
+  }
+
+  // Spread the key bits: ids are often sequential or strided, and the table
+  // index is the low bits of the hash.  A 64-bit finalizer, so every key bit
+  // reaches the low bits.
+  private static final int hash( long h ) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return (int)(h ^ (h >>> 33));
+  }
+
+  // --- Bits to allow atomic update of the table
+  private static final long _tab_offset;
+  static {                      // <clinit>
+    Field f = null;
+    try {
+      f = NonBlockingSetLong.class.getDeclaredField("_tab");
+    } catch( java.lang.NoSuchFieldException e ) {
+    }
+    _tab_offset = _unsafe.objectFieldOffset(f);
+  }
+  private final boolean CAS_tab( Table old, Table nnn ) {
+    return _unsafe.compareAndSwapObject(this, _tab_offset, old, nnn );
+  }
+
+  // The top-level table, which changes during a resize event.
+  private transient volatile Table _tab;
+
+  /** Create a new empty set */
+  public NonBlockingSetLong( ) { this(MIN_SIZE); }
+
+  /** Create a new empty set, pre-sized to hold {@code initial_sz} elements
+   *  without resizing.
+   *  @param initial_sz the expected number of elements */
+  public NonBlockingSetLong( final int initial_sz ) {
+    if( initial_sz < 0 ) throw new IllegalArgumentException();
+    int i;                      // Convert to next largest power-of-2
+    for( i=MIN_SIZE_LOG; i<30 && (1L<<i) < ((long)initial_sz<<1); i++ ) ;
+    _tab = new Table(1<<i, new Counter(), new AtomicBoolean(), this);
+  }
+
+  /**
+   * Add {@code i} to the set.  Uppercase {@link Long} version of add,
+   * requires auto-unboxing.  When possible use the {@code long} version of
+   * {@link #add(long)} for efficiency.
+   * @return <tt>true</tt> if i was added to the set.
+   */
+  public boolean add( final Long i ) { return add(i.longValue()); }
+  /**
+   * Test if {@code o} is in the set.  Uppercase {@link Long} version of
+   * contains, requires a type-check and auto-unboxing.
+   * @return <tt>true</tt> if o was in the set.
+   */
+  public boolean contains( final Object o ) {
+    return o instanceof Long ? contains(((Long)o).longValue()) : false;
+  }
+  /**
+   * Remove {@code o} from the set.  Uppercase {@link Long} version of
+   * remove, requires a type-check and auto-unboxing.
+   * @return <tt>true</tt> if o was removed from the set.
+   */
+  public boolean remove( final Object o ) {
+    return o instanceof Long ? remove(((Long)o).longValue()) : false;
+  }
+
+  /**
+   * Add {@code i} to the set.  This is the lower-case '{@code long}' version
+   * of {@link #add} - no autoboxing.
+   * @return <tt>true</tt> if i was added to the set.
+   */
+  public boolean add( final long i ) {
+    final Table t = _tab;
+    final boolean res = i == 0 ? t.add_zero() : t.add(i);
+    if( t._new != null ) help_copy(); // Resize in progress: do some of it
+    return res;
+  }
+  /**
+   * Test if {@code i} is in the set.  This is the lower-case '{@code long}'
+   * version of {@link #contains} - no autoboxing.
+   * @return <tt>true</tt> if i was in the set.
+   */
+  public boolean contains( final long i ) {
+    final Table t = _tab;
+    return i == 0 ? t._zero.get() : t.contains(i);
+  }
+  /**
+   * Remove {@code i} from the set.  This is the lower-case '{@code long}'
+   * version of {@link #remove} - no autoboxing.
+   * @return <tt>true</tt> if i was removed from the set.
+   */
+  public boolean remove( final long i ) {
+    final Table t = _tab;
+    final boolean res = i == 0 ? t.remove_zero() : t.remove(i);
+    if( t._new != null ) help_copy();
+    return res;
+  }
+
+  /**
+   * Current count of elements in the set.  Due to concurrent racing updates,
+   * the size is only ever approximate.  Updates due to the calling thread are
+   * immediately visible to calling thread.
+   * @return count of elements.
+   */
+  public int size( ) { return (int)_tab._size.get(); }
+  /** Empty the set. */
+  public void clear( ) {
+    Table cleared = new Table(MIN_SIZE, new Counter(), new AtomicBoolean(), this);
+    while( !CAS_tab( _tab, cleared ) ) // Spin until clear works
+      ;
+  }
+
+  /** @return approximate bytes used by the table */
+  public long sizeInBytes( ) { return _tab.sizeInBytes(); }
+
+  // Help copy the top table into its successor
+  private void help_copy( ) {
+    final Table top = _tab;
+    if( top._new != null ) top.help_copy();
+  }
+
+  // The top table, after finishing any resize in progress; iteration walks
+  // it, like NonBlockingHashMap's snapshot does.
+  private Table snapshot( ) {
+    while( true ) {
+      final Table t = _tab;
+      if( t._new == null ) return t;
+      t.help_copy();
+    }
+  }
+
+  // --- Iteration -----------------------------------------------------------
+
+  /** Verbose printout of internal structure for debugging. */
+  public void print() { _tab.print(); }
+
+  /**
+   * Standard Java {@link Iterator}.  Not very efficient because it
+   * auto-boxes the returned values.
+   */
+  public Iterator<Long> iterator( ) { return new iter(); }
+
+  /** @return a primitive iterator over the set, in hash order. */
+  public LongIterator longIterator( ) { return new NBSLIterator(); }
+
+  /**
+   * Performs the given action for each element, in hash order, with no
+   * autoboxing.  Weakly consistent, like the iterators.
+   * @param action the action to be performed for each element
+   */
+  public void forEach( final LongConsumer action ) {
+    final Table t = snapshot();
+    if( t._zero.get() ) action.accept(0);
+    for( int i=0; i<t._keys.length; i++ )
+      if( t.live(i) ) action.accept(t.key(i));
+  }
+
+  private class NBSLIterator implements LongIterator {
+    final Table _t = snapshot();
+    int _idx = -1;              // Slot of the next element; -1 is key 0
+    long _prev;                 // Last element returned, for remove()
+    boolean _canRemove;
+    NBSLIterator() { if( !_t._zero.get() ) advance(); }
+    private void advance() {
+      while( ++_idx < _t._keys.length && !_t.live(_idx) ) ;
+    }
+    public boolean hasNext() { return _idx < _t._keys.length; }
+    public long next() {
+      if( _idx >= _t._keys.length ) throw new NoSuchElementException();
+      _prev = _idx == -1 ? 0 : _t.key(_idx);
+      _canRemove = true;
+      advance();
+      return _prev;
+    }
+    public void remove() {
+      if( !_canRemove ) throw new IllegalStateException();
+      NonBlockingSetLong.this.remove(_prev);
+      _canRemove = false;
+    }
+  }
+
+  private class iter implements Iterator<Long> {
+    final NBSLIterator _it = new NBSLIterator();
+    public boolean hasNext() { return _it.hasNext(); }
+    public Long next() { return _it.next(); }
+    public void remove() { _it.remove(); }
+  }
+
+  // --- writeObject -------------------------------------------------------
+  // Write a NBSL to a stream
+  private void writeObject(java.io.ObjectOutputStream s) throws IOException  {
+    s.defaultWriteObject();     // Nothing to write
+    for( LongIterator it = longIterator(); it.hasNext(); ) {
+      s.writeBoolean(true);     // Another element follows
+      s.writeLong(it.next());
+    }
+    s.writeBoolean(false);
+  }
+
+  // --- readObject --------------------------------------------------------
+  // Read a NBSL from a stream
+  private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException  {
+    s.defaultReadObject();      // Read nothing
+    _tab = new Table(MIN_SIZE, new Counter(), new AtomicBoolean(), this);
+    while( s.readBoolean() )
+      add(s.readLong());
+  }
+
+  // --- Table ---------------------------------------------------------------
+  // One generation of the hash table.  A key K is found in a table by
+  // probing from hash(K): an empty slot is a clear miss, and running over
+  // the reprobe limit means K can only be in the next table (if any).
+  //
+  // Slot states.  A claimed slot starts with no bits set; add sets LIVE and
+  // remove swaps it for DEAD, so a slot never returns to "untouched".  A
+  // resize sets FROZEN, after which the slot's LIVE bit never changes again
+  // in this table; writers that see FROZEN finish that slot's copy and retry
+  // in the new table.  COPIED is set once the key (if live) is in the new
+  // table, and counts the slot towards promoting the new table.
+  //
+  // The copy of a live key only succeeds on an untouched slot in the new
+  // table.  Writers only go to the new table after the old slot is COPIED,
+  // so a slow copier can never resurrect a key removed from the new table.
+  private static final int LIVE=1, DEAD=2, FROZEN=4, COPIED=8;
+
+  private static final class Table {
+    // Back pointer to the parent wrapper, for promotion
+    private final NonBlockingSetLong _set;
+
+    // Element count and the side flag for key 0; both shared by every table
+    // in a resize chain and replaced by clear().
+    private final Counter _size;
+    private final AtomicBoolean _zero;
+
+    // Key slots claimed in this table: the resize heuristic
+    private final Counter _slots = new Counter();
+
+    private final long _keys[];   // 0 is an empty slot
+    private final long _states[]; // 4 bits per slot, 16 slots per word
+
+    // --- Bits to allow Unsafe access to arrays
+    private static final int _Lbase  = _unsafe.arrayBaseOffset(long[].class);
+    private static final int _Lscale = _unsafe.arrayIndexScale(long[].class);
+    private static long rawIndex(final long[] ary, final int idx) {
+      assert idx >= 0 && idx < ary.length;
+      return _Lbase + idx * _Lscale;
+    }
+
+    // --- Resize
+    // The New Table, only set once to non-null during a resize.
+    // Must be atomically set.
+    private volatile Table _new;
+    private static final long _new_offset;
+    static {                      // <clinit>
+      Field f = null;
+      try {
+        f = Table.class.getDeclaredField("_new");
+      } catch( java.lang.NoSuchFieldException e ) {
+      }
+      _new_offset = _unsafe.objectFieldOffset(f);
+    }
+    private final boolean CAS_new( Table nnn ) {
+      return _unsafe.compareAndSwapObject(this, _new_offset, null, nnn );
+    }
+
+    private final AtomicInteger _copyIdx  = new AtomicInteger(); // Slots claimed for copying
+    private final AtomicInteger _copyDone = new AtomicInteger(); // Slots COPIED
+
+    Table( int len, Counter size, AtomicBoolean zero, NonBlockingSetLong set ) {
+      _keys   = new long[len];
+      _states = new long[len>>4];
+      _size = size;
+      _zero = zero;
+      _set  = set;
+    }
+
+    long sizeInBytes() { return ((long)_keys.length+_states.length)<<3; }
+
+    long key( int idx ) { return _unsafe.getLongVolatile(_keys, rawIndex(_keys,idx)); }
+    private boolean CAS_key( int idx, long old, long nnn ) {
+      return _unsafe.compareAndSwapLong(_keys, rawIndex(_keys,idx), old, nnn );
+    }
+    int state( int idx ) {
+      final long bits = _unsafe.getLongVolatile(_states, rawIndex(_states,idx>>4));
+      return (int)(bits>>>((idx&15)<<2)) & 15;
+    }
+    // CAS one slot's state.  Fails only if that slot changed; changes to the
+    // other 15 slots sharing the word are retried.
+    private boolean CAS_state( int idx, int old, int nnn ) {
+      final long raw = rawIndex(_states,idx>>4);
+      final int sh = (idx&15)<<2;
+      while( true ) {
+        final long bits = _unsafe.getLongVolatile(_states, raw);
+        if( ((int)(bits>>>sh) & 15) != old ) return false;
+        final long nbits = (bits & ~(15L<<sh)) | ((long)nnn<<sh);
+        if( _unsafe.compareAndSwapLong(_states, raw, bits, nbits) ) return true;
+      }
+    }
+
+    // Is the key in slot idx in the set?  A frozen slot is answered by the
+    // newer tables.  Used by iteration.
+    boolean live( int idx ) {
+      final long K = key(idx);
+      if( K == 0 ) return false;
+      final int s = state(idx);
+      return (s & FROZEN) == 0 ? (s & LIVE) != 0 : _set.contains(K);
+    }
+
+    // Slot holding K, claiming an empty one if 'claim'.  -1 if K is not in
+    // this table, -2 if the reprobe limit was hit.
+    private int slot( final long K, final boolean claim ) {
+      final int len = _keys.length;
+      int idx = hash(K) & (len-1);
+      int reprobe_cnt = 0;
+      while( true ) {
+        long k = key(idx);
+        if( k == 0 ) {
+          if( !claim ) return -1;   // A clear miss
+          if( CAS_key(idx,0,K) ) {  // Claim the slot
+            _slots.add(1);
+            if( _new == null && _slots.estimate_get() >= (len>>1)+(len>>2) )
+              resize(false);        // 3/4 full: start copying
+            return idx;
+          }
+          k = key(idx);             // Lost the race; who won?
+        }
+        if( k == K ) return idx;
+        if( ++reprobe_cnt >= reprobe_limit(len) ) return -2;
+        idx = (idx+1)&(len-1);      // Reprobe by 1!
+      }
+    }
+
+    boolean add( final long K ) {
+      final int idx = slot(K,true);
+      if( idx == -2 ) return resize(true).add(K); // Full: K can only go in the new table
+      while( true ) {
+        final int s = state(idx);
+        if( (s & FROZEN) != 0 ) { copy_slot(idx); return _new.add(K); }
+        if( (s & LIVE) != 0 ) return false;
+        if( CAS_state(idx,s,LIVE) ) { _size.add(1); return true; }
+      }
+    }
+
+    boolean remove( final long K ) {
+      final int idx = slot(K,false);
+      if( idx == -1 ) return false;
+      if( idx == -2 ) { final Table nnn = _new; return nnn != null && nnn.remove(K); }
+      while( true ) {
+        final int s = state(idx);
+        if( (s & FROZEN) != 0 ) { copy_slot(idx); return _new.remove(K); }
+        if( (s & LIVE) == 0 ) return false;
+        if( CAS_state(idx,s,DEAD) ) { _size.add(-1); return true; }
+      }
+    }
+
+    boolean contains( final long K ) {
+      final int idx = slot(K,false);
+      if( idx == -1 ) return false;
+      if( idx == -2 ) { final Table nnn = _new; return nnn != null && nnn.contains(K); }
+      final int s = state(idx);
+      if( (s & FROZEN) == 0 ) return (s & LIVE) != 0;
+      copy_slot(idx);           // Make sure the new table has it, then ask there
+      return _new.contains(K);
+    }
+
+    boolean add_zero() {
+      if( !_zero.compareAndSet(false,true) ) return false;
+      _size.add(1);
+      return true;
+    }
+    boolean remove_zero() {
+      if( !_zero.compareAndSet(true,false) ) return false;
+      _size.add(-1);
+      return true;
+    }
+
+    // --- resize ------------------------------------------------------------
+    // Make the new table, sized for the live elements at half full.  Dead
+    // slots are not copied, so a table mostly full of them can stay the same
+    // size or even shrink.  Running over the reprobe limit always grows: a
+    // copy into another table of the same size may well hit it again.
+    private Table resize( final boolean grow ) {
+      Table nnn = _new;
+      if( nnn != null ) return nnn;
+      final long sz = _size.estimate_get();
+      final long min = grow ? Math.max(sz<<1,(long)_keys.length<<1) : sz<<1;
+      int log;
+      for( log=MIN_SIZE_LOG; log<30 && (1L<<log) < min; log++ ) ;
+      nnn = new Table(1<<log,_size,_zero,_set);
+      if( CAS_new(nnn) ) return nnn;
+      return _new;              // Lost the race: use the winner's
+    }
+
+    // Freeze slot idx and make sure its key, if live, is in the new table.
+    // Returns once the slot is COPIED, by this thread or another.
+    void copy_slot( final int idx ) {
+      int s = state(idx);
+      while( (s & FROZEN) == 0 ) {
+        if( CAS_state(idx,s,s|FROZEN) ) { s |= FROZEN; break; }
+        s = state(idx);
+      }
+      if( (s & COPIED) != 0 ) return;
+      // Read the key after freezing: a key claimed later sees FROZEN and
+      // goes to the new table itself.
+      if( (s & LIVE) != 0 ) _new.copy_in(key(idx));
+      if( CAS_state(idx,s,s|COPIED) && _copyDone.incrementAndGet() == _keys.length )
+        promote();
+    }
+
+    // Insert a copied key, unless a writer has already touched it here.
+    private void copy_in( final long K ) {
+      final int idx = slot(K,true);
+      if( idx == -2 ) { resize(true).copy_in(K); return; }
+      while( true ) {
+        final int s = state(idx);
+        if( (s & FROZEN) != 0 ) { copy_slot(idx); _new.copy_in(K); return; }
+        if( s != 0 ) return;    // A writer got here first; it wins
+        if( CAS_state(idx,0,LIVE) ) return;
+      }
+    }
+
+    // Copy a chunk of this table.  Once every chunk is claimed, sweep the
+    // whole table to finish any slot a stalled thread left half-copied.
+    void help_copy() {
+      final int len = _keys.length;
+      final int work = Math.min(len,MIN_COPY_WORK);
+      final int idx = _copyIdx.get();
+      if( idx < len && _copyIdx.compareAndSet(idx,idx+work) ) {
+        for( int i=0; i<work; i++ ) copy_slot(idx+i);
+      } else if( idx >= len ) {
+        for( int i=0; i<len && _copyDone.get() < len; i++ ) copy_slot(i);
+      }
+      promote();
+    }
+
+    // Promote the new table once the copy is done.  Only the top table can
+    // be replaced; a nested table done early is promoted by the next
+    // help_copy once it is the top.
+    private void promote() {
+      if( _copyDone.get() == _keys.length ) _set.CAS_tab(this,_new);
+    }
+
+    void print() {
+      System.out.println("NBSL - _keys.len="+_keys.length+" size="+_size.estimate_get()+" slots="+_slots.estimate_get()+" copyDone="+_copyDone.get());
+      if( _new != null ) _new.print();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+
+/**
+ * A read-only open-addressed hash table, built once from distinct keys: the
+ * table behind an {@link ImmutableHashMap}, and behind a {@link
+ * NonBlockingHashMap} once it is {@link NonBlockingHashMap#freeze frozen}.
+ *
+ * <p>The table is 7/8 full and sized to the entry count, not to a power of
+ * 2.  Keys are placed Robin Hood style: an inserting key takes the slot of
+ * any key closer to its home slot, so every key ends up near home, and a miss
+ * stops as soon as it passes a key closer to home than itself.  Probing only
+ * reads a side array of full hashes until a hash matches; keys and values are
+ * interleaved so a hit then touches one more cache line.  All fields are
+ * final, so a table can be published with a racy write.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+final class ReadOnlyTable {
+  final Object[] _kv;           // {Key,Value} pairs
+  final int[] _hashes;          // Full hashes; 0 is an empty slot
+  final int _size;
+  final HashStrategy _hs;       // How keys hash and compare
+
+  // Build from {Key,Value} pairs with distinct keys.  'hashes' may hold the
+  // strategy's hash of each key, or 0 where it is not known; or be null.
+  ReadOnlyTable( final Object[] pairs, final int[] hashes, final HashStrategy hs ) {
+    if( hs == null ) throw new NullPointerException();
+    _hs = hs;
+    final int n = pairs.length>>1;
+    final int len = (int)Math.min(n + n/7L + 1, Integer.MAX_VALUE>>1); // 7/8ths full
+    _kv = new Object[len<<1];
+    _hashes = new int[len];
+    _size = n;
+    for( int i=0; i<n; i++ ) {
+      final Object K = pairs[i<<1];
+      final int h = hashes == null || hashes[i] == 0 ? hash(K) : nonzero(hashes[i]);
+      insert(K,pairs[(i<<1)+1],h);
+    }
+  }
+
+  // --- hash ----------------------------------------------------------------
+  // The strategy's hash, never returning the empty-slot 0
+  int hash( final Object key ) {
+    final HashStrategy hs = _hs;
+    return nonzero(hs == HashStrategy.SPREAD
+                   ? HashStrategy.spread(key.hashCode()) // The real hashCode call
+                   : hs.hash(key));
+  }
+  static int nonzero( final int h ) { return h == 0 ? 1 : h; }
+  private boolean keyeq( final Object key, final Object K ) {
+    final HashStrategy hs = _hs;
+    return K == key || (hs == HashStrategy.SPREAD ? key.equals(K) : hs.equal(key,K));
+  }
+  // Home slot of hash h: maps the hash evenly onto [0,len) with a multiply
+  // rather than a mask, so the table need not be a power of 2
+  private int home( int h ) { return (int)(((h & 0xFFFFFFFFL) * _hashes.length) >>> 32); }
+  // Distance of slot idx from the home slot of hash h, wrapping around
+  private int dist( int idx, int h ) {
+    final int d = idx - home(h);
+    return d < 0 ? d+_hashes.length : d;
+  }
+
+  private void insert( Object K, Object V, int h ) {
+    int idx = home(h);
+    int d = 0;
+    while( _hashes[idx] != 0 ) {
+      final int hd = dist(idx,_hashes[idx]);
+      if( hd < d ) {            // Resident is closer to home: take its slot
+        final Object K2 = _kv[idx<<1], V2 = _kv[(idx<<1)+1];
+        final int h2 = _hashes[idx];
+        _kv[idx<<1] = K; _kv[(idx<<1)+1] = V; _hashes[idx] = h;
+        K = K2; V = V2; h = h2; d = hd;
+      }
+      if( ++idx == _hashes.length ) idx = 0;
+      d++;
+    }
+    _kv[idx<<1] = K; _kv[(idx<<1)+1] = V; _hashes[idx] = h;
+  }
+
+  // --- lookups -------------------------------------------------------------
+  // Slot holding key, or -1
+  int slot( final Object key ) {
+    return slot(key,hash(key)); // throws NullPointerException if key is null
+  }
+  // As above, given the key's full hash, already made non-zero
+  int slot( final Object key, final int fullhash ) {
+    int idx = home(fullhash);
+    for( int d=0; ; d++ ) {
+      final int h = _hashes[idx];
+      if( h == fullhash ) {
+        final Object K = _kv[idx<<1];
+        if( keyeq(key,K) ) return idx;
+      } else if( h == 0 || dist(idx,h) < d ) {
+        return -1;              // Empty, or passed where key would be
+      }
+      if( ++idx == _hashes.length ) idx = 0;
+    }
+  }
+
+  // Value for key, or null.  The hash is the strategy's, maybe 0.
+  Object get( final Object key, final int fullhash ) {
+    final int idx = slot(key,nonzero(fullhash));
+    return idx < 0 ? null : _kv[(idx<<1)+1];
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * A reader-writer lock for read-mostly data, whose readers do not contend
+ * with each other.  {@link java.util.concurrent.locks.ReentrantReadWriteLock}
+ * keeps one shared count of readers, so every read lock and unlock is a CAS
+ * on the same cache line; with many cores taking the read lock at once, that
+ * line becomes the bottleneck even though no reader ever waits.  Here readers
+ * count themselves in and out on two {@link ConcurrentAutoTable}s, which
+ * stripe the counts across cache lines as contention demands.
+ *
+ * <p>A reader comes in with a masked add of 1 to one stripe of the "in"
+ * table, which succeeds only if that stripe does not have the writer bit set,
+ * and goes out with an add of 1 to the "out" table.  A writer first excludes
+ * other writers, then sets the writer bit in every stripe of the "in" table,
+ * and then waits for the readers already in to leave: when the two tables sum
+ * to the same count.  Both counts only ever grow, so no stripe goes negative
+ * under the writer bit.  Once the writer bit is set, new readers wait for the
+ * writer, so a steady stream of readers cannot starve a writer.
+ *
+ * <p>The price is paid by writers, which touch every stripe, and by memory:
+ * each table can grow to a few cache lines per CPU.  The lock is neither
+ * reentrant nor fair.  A thread holding the read lock must not take it again
+ * while a writer may be waiting, nor take the write lock; a thread holding the
+ * write lock must not take the read lock.  Waiting threads spin, then yield,
+ * then sleep briefly; there is no queue of waiters.  Neither lock supports
+ * {@link Condition}s.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+public class ScalableReadWriteLock implements ReadWriteLock {
+
+  // The writer bit, well above any count of readers
+  private static final long WRITER = 1L<<62;
+  // Spins before a waiter starts to sleep, and how long it sleeps
+  private static final int SPINS = 64;
+  private static final long SLEEP_NANOS = 1L<<14;
+
+  private final ConcurrentAutoTable _in  = new ConcurrentAutoTable(); // Readers in, and the writer bit
+  private final ConcurrentAutoTable _out = new ConcurrentAutoTable(); // Readers out
+  private final ReadLock  _rlock = new ReadLock ();
+  private final WriteLock _wlock = new WriteLock();
+
+  // The writer holding, or about to hold, the write lock
+  private volatile Thread _writer;
+  private static final AtomicReferenceFieldUpdater<ScalableReadWriteLock,Thread> _writerUpdater =
+    AtomicReferenceFieldUpdater.newUpdater(ScalableReadWriteLock.class,Thread.class, "_writer");
+
+  /** Create a new, unlocked, lock. */
+  public ScalableReadWriteLock() { }
+
+  // --- public interface ---
+
+  /** @return the lock for reading */
+  public Lock readLock () { return _rlock; }
+  /** @return the lock for writing */
+  public Lock writeLock() { return _wlock; }
+
+  /** @return true if some thread holds or is acquiring the write lock */
+  public boolean isWriteLocked() { return _writer != null; }
+
+  /** Count of readers holding the lock.  Readers come and go while the
+   *  count is taken, so it is only approximate.
+   *  @return the count of readers */
+  public long getReadLockCount() {
+    final long out = _out.sum_live(0); // Out before in, so never negative
+    return _in.sum_live(WRITER) - out;
+  }
+
+  /** @return the lock state, for debugging */
+  public String toString() {
+    final Thread w = _writer;
+    return super.toString()+"[readers = "+getReadLockCount()+
+      (w == null ? ", unlocked]" : ", writer = "+w.getName()+"]");
+  }
+
+  // --- Waiting -------------------------------------------------------------
+  // Wait a little: yield at first, then sleep.  Returns false if the
+  // deadline has passed; a negative 'nanos' means no deadline.
+  private static boolean backoff( int spins, long nanos, long deadline, boolean interruptible ) throws InterruptedException {
+    if( interruptible && Thread.interrupted() ) throw new InterruptedException();
+    if( nanos >= 0 && deadline - System.nanoTime() <= 0 ) return false;
+    if( spins < SPINS ) Thread.yield();
+    else LockSupport.parkNanos(SLEEP_NANOS);
+    return true;
+  }
+
+  // --- Readers -------------------------------------------------------------
+  // In: a masked add fails, leaving no count, while the writer bit is set
+  // in the stripe tried.  Out: a plain add to the other table.
+  private boolean acquire_read( long nanos, boolean interruptible ) throws InterruptedException {
+    final long deadline = nanos < 0 ? 0 : System.nanoTime()+nanos;
+    int spins=0;
+    while( (_in.add_if_mask(1,WRITER) & WRITER) != 0 )
+      if( !backoff(spins++,nanos,deadline,interruptible) )
+        return false;
+    return true;
+  }
+  private void release_read() { _out.add(1); }
+
+  // --- Writers -------------------------------------------------------------
+  // Claim _writer, set the writer bit everywhere, then wait for the readers
+  // in to match the readers out.  A reader that got in just before the bit
+  // was set may be resizing the "in" table; the new table lacks the bit, so
+  // its readers could slip past.  But that reader installs the new table
+  // before it leaves, and it cannot leave before the counts match; so the
+  // table is checked again once they match, and any new one gets the bit.
+  private boolean acquire_write( long nanos, boolean interruptible ) throws InterruptedException {
+    final Thread me = Thread.currentThread();
+    final long deadline = nanos < 0 ? 0 : System.nanoTime()+nanos;
+    int spins=0;
+    while( !_writerUpdater.compareAndSet(this,null,me) )
+      if( !backoff(spins++,nanos,deadline,interruptible) )
+        return false;
+    spins=0;
+    Object tab = null;
+    while( true ) {
+      final Object t = _in.table();
+      if( t != tab ) { _in.all_or(WRITER); tab = t; } // Bit in any new table
+      // Out before in: equal counts then mean no reader was in between
+      if( _out.sum_live(0) == _in.sum_live(WRITER) && _in.table() == tab )
+        return true;
+      boolean ok = false;
+      try { ok = backoff(spins++,nanos,deadline,interruptible); }
+      finally { if( !ok ) release_write(); } // Timed out or interrupted
+      if( !ok ) return false;
+    }
+  }
+  private void release_write() {
+    _in.all_and(~WRITER);       // Let readers in
+    _writer = null;             // Let writers in
+  }
+
+  // --- Lock views ----------------------------------------------------------
+  private final class ReadLock implements Lock {
+    public void lock() {
+      try { acquire_read(-1,false); }
+      catch( InterruptedException e ) { throw new Error(e); } // Not interruptible
+    }
+    public void lockInterruptibly() throws InterruptedException { acquire_read(-1,true); }
+    public boolean tryLock() {
+      return (_in.add_if_mask(1,WRITER) & WRITER) == 0;
+    }
+    public boolean tryLock( long time, TimeUnit unit ) throws InterruptedException {
+      return acquire_read(Math.max(0,unit.toNanos(time)),true);
+    }
+    public void unlock() { release_read(); }
+    public Condition newCondition() { throw new UnsupportedOperationException(); }
+    public String toString() { return ScalableReadWriteLock.this.toString()+".readLock"; }
+  }
+
+  private final class WriteLock implements Lock {
+    public void lock() {
+      try { acquire_write(-1,false); }
+      catch( InterruptedException e ) { throw new Error(e); } // Not interruptible
+    }
+    public void lockInterruptibly() throws InterruptedException { acquire_write(-1,true); }
+    public boolean tryLock() {
+      try { return acquire_write(0,false); }
+      catch( InterruptedException e ) { throw new Error(e); } // Not interruptible
+    }
+    public boolean tryLock( long time, TimeUnit unit ) throws InterruptedException {
+      return acquire_write(Math.max(0,unit.toNanos(time)),true);
+    }
+    public void unlock() {
+      if( _writer != Thread.currentThread() ) throw new IllegalMonitorStateException();
+      release_write();
+    }
+    public Condition newCondition() { throw new UnsupportedOperationException(); }
+    public String toString() { return ScalableReadWriteLock.this.toString()+".writeLock"; }
+  }
+}
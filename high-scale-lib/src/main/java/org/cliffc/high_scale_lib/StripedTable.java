@@ -0,0 +1,219 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib;
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongBinaryOperator;
+import sun.misc.Unsafe;
+
+/**
+ * The striped array of {@code longs} under {@link ConcurrentAutoTable},
+ * {@link ConcurrentAccumulatorTable} and {@link ConcurrentHistogram}.  Each
+ * stripe is a row of {@code width} slots; a thread updates the row picked by
+ * its probe, moves to another row when it loses a CAS, and doubles the table
+ * when it keeps losing.  A doubled table chains the old one behind it, since
+ * threads that read the owner's table before the resize may still update the
+ * old one; reads and drains walk the whole chain.
+ *
+ * <p>The owner keeps the current table in a volatile field and passes its
+ * field updater in on each update, so the table can install its own
+ * replacement.
+ *
+ * @since 1.1.5
+ * @author Cliff Click
+ */
+abstract class StripedTable<T extends StripedTable<T>> implements Serializable {
+
+  // Unsafe crud: get a function which will CAS arrays
+  private static final Unsafe _unsafe = UtilUnsafe.getUnsafe();
+  private static final int _Lbase  = _unsafe.arrayBaseOffset(long[].class);
+  private static final int _Lscale = _unsafe.arrayIndexScale(long[].class);
+  private static long rawIndex(long[] ary, int i) {
+    assert i >= 0 && i < ary.length;
+    return _Lbase + i * _Lscale;
+  }
+  final static boolean CAS( long[] A, int idx, long old, long nnn ) {
+    return _unsafe.compareAndSwapLong( A, rawIndex(A,idx), old, nnn );
+  }
+
+  // --- Per-thread probe ---------------------------------------------------
+  // Each thread picks its stripe with a random probe kept in the Thread
+  // itself: the same field java.util.concurrent's LongAdder uses, seeded by
+  // ThreadLocalRandom.  A thread that loses a CAS re-randomizes its probe and
+  // moves to another stripe, so two hot threads that collide split up again
+  // without doubling the whole table.  If the field is missing we fall back
+  // to the thread's identityHashCode, which is never re-randomized.
+  private static final long _probe_offset;
+  static {                      // <clinit>
+    long off = -1;
+    try { off = _unsafe.objectFieldOffset(Thread.class.getDeclaredField("threadLocalRandomProbe")); }
+    catch( Exception e ) { }    // Not this JVM; use the fallback
+    _probe_offset = off;
+  }
+  static int probe() {
+    final Thread t = Thread.currentThread();
+    if( _probe_offset == -1 ) {
+      int h = System.identityHashCode(t);
+      // You would think that System.identityHashCode on the current thread
+      // would be a good hash fcn, but actually on SunOS 5.8 it is pretty lousy
+      // in the low bits.
+      h ^= (h>>>20) ^ (h>>>12);   // Bit spreader, borrowed from Doug Lea
+      h ^= (h>>> 7) ^ (h>>> 4);
+      return h;
+    }
+    int p = _unsafe.getInt(t,_probe_offset);
+    if( p == 0 ) {              // First use by this thread?
+      ThreadLocalRandom.current(); // Seeds the probe
+      p = _unsafe.getInt(t,_probe_offset);
+    }
+    return p;
+  }
+  // Move the current thread to a new random stripe after a lost CAS
+  static int advance_probe( int p ) {
+    p ^= p << 13;               // xorshift
+    p ^= p >>> 17;
+    p ^= p << 5;
+    if( _probe_offset != -1 ) _unsafe.putInt(Thread.currentThread(),_probe_offset,p);
+    return p;
+  }
+
+  // Never stripe wider than needed to give every CPU a stripe of its own,
+  // with some slack for unlucky probes.
+  static final int MAX_STRIPES;
+  static {
+    int n = 4;
+    while( n < (Runtime.getRuntime().availableProcessors()<<1) ) n <<= 1;
+    MAX_STRIPES = n;
+  }
+  // Stripes sit at least a cache line apart: 16 longs, 128 bytes, since
+  // adjacent lines are often fetched in pairs.
+  static final int PAD=16;
+  static final int MAX_SPIN=2;
+
+  // --- Layout --------------------------------------------------------------
+  // Rows start _stride slots apart, with PAD-1 or more slots of padding
+  // between the end of one row and the start of the next, and a line of
+  // padding before the first so it does not share a line with the array
+  // header.  A single stripe is not padded at all: most tables are never
+  // contended.
+  final T _next;                // Older, smaller table; still summed
+  final long[] _t;
+  final int _mask;              // Stripe count-1; the count is a power of 2
+  final int _base;              // Slot of column 0 of stripe 0
+  final int _stride;            // Slots from one stripe to the next
+
+  volatile long _resizers;      // count of threads attempting a resize
+  @SuppressWarnings("rawtypes")
+  static private final AtomicLongFieldUpdater<StripedTable> _resizerUpdater =
+    AtomicLongFieldUpdater.newUpdater(StripedTable.class, "_resizers");
+
+  StripedTable( T next, int stripes, int width ) {
+    _next = next;
+    _mask = stripes-1;
+    _base = stripes == 1 ? 0 : PAD;
+    _stride = stripes == 1 ? width : (width+(PAD<<1)-2)/PAD*PAD;
+    _t = new long[_base + stripes*_stride];
+  }
+  // Column 0 of the stripe picked by 'probe'
+  final int idx( int probe ) { return _base + (probe & _mask)*_stride; }
+
+  // A table with twice the stripes, chained to this one
+  abstract T twice();
+
+  // --- Updates -------------------------------------------------------------
+  // Only add 'x' to column 'col' of some stripe, hinted at by 'probe', if
+  // bits under the mask are all zero.  The sum can overflow or 'x' can
+  // contain bits in the mask.  Value is CAS'd so no counts are lost.  The CAS
+  // is retried until it succeeds or bits are found under the mask; each
+  // failure moves the thread to another stripe.  Returned value is the old
+  // value - which WILL have zero under the mask on success and WILL NOT have
+  // zero under the mask for failure.
+  final <M> long add_if_mask( int col, long x, long mask, int probe, M master, AtomicReferenceFieldUpdater<M,T> up ) {
+    final long[] t = _t;
+    int idx = idx(probe)+col;
+    // Peel loop; try once fast
+    long old = t[idx];
+    if( CAS( t, idx, old&~mask, old+x ) ) return old; // Got it
+    if( (old&mask) != 0 ) return old; // Failed for bit-set under mask
+    // Try harder, on a fresh stripe each time
+    int cnt=0;
+    while( true ) {
+      probe = advance_probe(probe);
+      idx = idx(probe)+col;
+      old = t[idx];
+      if( (old&mask) != 0 ) return old; // Failed for bit-set under mask
+      if( CAS( t, idx, old, old+x ) ) break; // Got it!
+      cnt++;
+    }
+    if( cnt >= MAX_SPIN ) resize(master,up);
+    return old;
+  }
+
+  // Too much contention; double the stripes in an effort to reduce it
+  @SuppressWarnings("unchecked")
+  final <M> void resize( M master, AtomicReferenceFieldUpdater<M,T> up ) {
+    if( _mask+1 >= MAX_STRIPES ) return; // Wide enough already
+    long r = _resizers;
+    // Bill one word per stripe, not the padded size: the sleep threshold
+    // below is scaled to unpadded stripes, and PAD would trip it 16x sooner
+    int newbytes = ((_mask+1)<<1)<<3/*word to bytes*/;
+    while( !_resizerUpdater.compareAndSet(this,r,r+newbytes) )
+      r = _resizers;
+    r += newbytes;
+    if( up.get(master) != this ) return; // Already doubled, don't bother
+    if( (r>>17) != 0 ) {      // Already too much allocation attempts?
+      // TODO - use a wait with timeout, so we'll wakeup as soon as the new
+      // table is ready, or after the timeout in any case.  Annoyingly, this
+      // breaks the non-blocking property - so for now we just briefly sleep.
+      //synchronized( this ) { wait(8*megs); }         // Timeout - we always wakeup
+      try { Thread.sleep(r>>17); } catch( InterruptedException e ) { }
+      if( up.get(master) != this ) return;
+    }
+    // Take 1 stab at installing the new table.  If this fails, we assume
+    // some other thread already expanded it - so we do not need to retry
+    // until it succeeds.
+    up.compareAndSet(master,(T)this,twice());
+  }
+
+  // --- Reads ---------------------------------------------------------------
+  final long get_volatile( int i ) { return _unsafe.getLongVolatile(_t,rawIndex(_t,i)); }
+
+  // Atomically swap slot i to nnn, returning what was there
+  final long swap( int i, long nnn ) {
+    final long[] t = _t;
+    long old = t[i];
+    while( !CAS(t,i,old,nnn) )
+      old = t[i];
+    return old;
+  }
+
+  // Fold column 'col' of every stripe of this and older tables into acc
+  final long fold( int col, LongBinaryOperator op, long acc ) {
+    if( _next != null ) acc = _next.fold(col,op,acc);
+    final long[] t = _t;
+    for( int i=_base+col; i<t.length; i+=_stride )
+      acc = op.applyAsLong(acc,t[i]);
+    return acc;
+  }
+
+  // As fold, but atomically swapping each slot to nnn.  Stale tables may
+  // still take updates from threads that read the owner's table before a
+  // resize, so drain them too.
+  final long drain( int col, long nnn, LongBinaryOperator op, long acc ) {
+    if( _next != null ) acc = _next.drain(col,nnn,op,acc);
+    final long[] t = _t;
+    for( int i=_base+col; i<t.length; i+=_stride )
+      acc = op.applyAsLong(acc,swap(i,nnn));
+    return acc;
+  }
+
+  // Sum, for fold and drain
+  static final LongBinaryOperator SUM = new Sum();
+  private static final class Sum implements LongBinaryOperator {
+    public long applyAsLong( long a, long b ) { return a+b; }
+  }
+}
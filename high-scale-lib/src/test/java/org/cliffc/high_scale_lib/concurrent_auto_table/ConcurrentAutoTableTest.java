@@ -0,0 +1,177 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.concurrent_auto_table;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test ConcurrentAutoTable via JUnit
+public class ConcurrentAutoTableTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.concurrent_auto_table.ConcurrentAutoTableTest");
+  }
+
+  public void testBasic() {
+    Counter c = new Counter();
+    assertThat( c.get(), is(0L) );
+    c.increment();
+    c.add(10);
+    c.decrement();
+    assertThat( c.get(), is(10L) );
+    assertThat( c.internal_size(), is(1) ); // Uncontended: one stripe
+    c.set(-5);
+    assertThat( c.get(), is(-5L) );
+    assertThat( c.estimate_get(), is(-5L) );
+    assertThat( c.toString(), is("-5") );
+  }
+
+  // Many more threads than CPUs hammering one counter lose no counts, and
+  // the striping stays bounded
+  public void testConcurrent() throws InterruptedException {
+    final Counter c = new Counter();
+    final int THREADS = 32, N = 100000;
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<N; i++ ) c.increment();
+        for( int i=0; i<N; i+=2 ) c.add(-2);
+      } };
+      ts[t].start();
+    }
+    for( Thread t : ts ) t.join();
+    assertThat( c.get(), is(0L) );
+    final int sz = c.internal_size();
+    assertTrue( "stripes "+sz, sz >= 1 && sz <= Math.max(4,Integer.highestOneBit(Runtime.getRuntime().availableProcessors()<<1)<<1) );
+    assertThat( Integer.bitCount(sz), is(1) );
+    c.add(7);
+    assertThat( c.get(), is(7L) );
+  }
+
+  // Draining while others add loses and double-counts nothing
+  public void testSumThenReset() throws InterruptedException {
+    final Counter c = new Counter();
+    final int THREADS = 8, N = 200000;
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<N; i++ ) c.increment();
+      } };
+      ts[t].start();
+    }
+    long drained = 0;
+    for( Thread t : ts ) {
+      while( t.isAlive() ) { drained += c.sumThenReset(); Thread.yield(); }
+    }
+    drained += c.sumThenReset();
+    assertThat( drained, is((long)THREADS*N) );
+    assertThat( c.get(), is(0L) );
+    c.add(3);
+    assertThat( c.sumThenReset(), is(3L) );
+    assertThat( c.get(), is(0L) );
+  }
+
+  // Concurrent reservations never overlap, and all count in get()
+  public void testReserve() throws InterruptedException {
+    final Counter c = new Counter();
+    assertThat( c.getAndIncrement(), is(0L) );
+    assertThat( c.getAndIncrement(), is(1L) ); // One thread walks its lease in order
+    assertThat( c.addAndGet(5), is(7L) );
+    final int THREADS = 8, N = 20000;
+    final long[][] got = new long[THREADS][N];
+    final long[] sizes = new long[THREADS];
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        Random r = new Random(x);
+        for( int i=0; i<N; i++ ) {
+          // Mostly single values, some runs, a few bigger than a lease block
+          final long n = i%100 == 0 ? 1+r.nextInt(3000) : i%7 == 0 ? 1+r.nextInt(50) : 1;
+          got[x][i] = (c.getAndAdd(n)<<12) | n; // n < 4096
+          sizes[x] += n;
+        }
+      } };
+      ts[t].start();
+    }
+    for( Thread t : ts ) t.join();
+    TreeMap<Long,Long> ranges = new TreeMap<Long,Long>();
+    long total = 7;
+    for( int t=0; t<THREADS; t++ ) {
+      total += sizes[t];
+      for( long g : got[t] )
+        assertThat( ranges.put(g>>>12,g&4095), nullValue() );
+    }
+    long end = 7;               // The single-threaded values above were 0..6
+    for( Map.Entry<Long,Long> e : ranges.entrySet() ) {
+      assertTrue( "overlap at "+e.getKey(), e.getKey() >= end );
+      end = e.getKey()+e.getValue();
+    }
+    assertThat( c.get(), is(total) );
+    try { c.getAndAdd(-1); fail(); } catch( IllegalArgumentException e ) { }
+  }
+
+  // Peaks and troughs across many threads, and per-interval resets
+  public void testMaxMin() throws InterruptedException {
+    final ConcurrentMaxTable max = new ConcurrentMaxTable();
+    final ConcurrentMinTable min = new ConcurrentMinTable();
+    assertThat( max.get(), is(Long.MIN_VALUE) );
+    assertThat( min.get(), is(Long.MAX_VALUE) );
+    final int THREADS = 8, N = 100000;
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        Random r = new Random(x);
+        for( int i=0; i<N; i++ ) {
+          final long v = r.nextInt(1000000);
+          max.update(v);
+          min.update(v);
+        }
+        max.update(2000000+x);
+        min.update(-x);
+      } };
+      ts[t].start();
+    }
+    for( Thread t : ts ) t.join();
+    assertThat( max.get(), is(2000000L+THREADS-1) );
+    assertThat( min.get(), is(-(long)(THREADS-1)) );
+    assertThat( max.getThenReset(), is(2000000L+THREADS-1) );
+    assertThat( max.get(), is(Long.MIN_VALUE) );
+    max.update(5);
+    assertThat( max.get(), is(5L) );
+    min.reset();
+    assertThat( min.get(), is(Long.MAX_VALUE) );
+  }
+
+  // Any associative, commutative operator
+  public void testAccumulator() throws InterruptedException {
+    final ConcurrentAccumulatorTable or = new ConcurrentAccumulatorTable((a,b) -> a|b,0);
+    final ConcurrentAccumulatorTable sum = new ConcurrentAccumulatorTable(Long::sum,0);
+    final int THREADS = 8, N = 100000;
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<N; i++ ) sum.accumulate(1);
+        or.accumulate(1L<<(x*3));
+      } };
+      ts[t].start();
+    }
+    long drained = 0;
+    for( Thread t : ts ) {
+      while( t.isAlive() ) { drained += sum.getThenReset(); Thread.yield(); }
+    }
+    drained += sum.getThenReset();
+    assertThat( drained, is((long)THREADS*N) );
+    assertThat( or.get(), is(011111111L) ); // Octal: one bit per thread
+    assertThat( or.toString(), is(Long.toString(011111111L)) );
+    try { new ConcurrentAccumulatorTable(null,0); fail(); } catch( NullPointerException e ) { }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.concurrent_auto_table;
+import java.io.*;
+import java.util.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test ConcurrentHistogram via JUnit
+public class ConcurrentHistogramTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.concurrent_auto_table.ConcurrentHistogramTest");
+  }
+
+  // Every value lands in a bucket that holds it, and buckets are narrow
+  public void testBuckets() {
+    ConcurrentHistogram.Snapshot s = new ConcurrentHistogram().snapshot();
+    assertThat( s.buckets(), is(59*32) );
+    long prev = -1;
+    for( int i=0; i<s.buckets(); i++ ) {
+      assertThat( s.bucketLowest(i), is(prev+1) ); // Buckets tile the longs
+      prev = s.bucketHighest(i);
+      assertTrue( s.bucketHighest(i)-s.bucketLowest(i) <= s.bucketLowest(i)>>5 );
+    }
+    assertThat( prev, is(Long.MAX_VALUE) );
+    ConcurrentHistogram h = new ConcurrentHistogram();
+    Random r = new Random(42);
+    for( int i=0; i<1000; i++ ) {
+      final long v = (r.nextLong()>>>1)>>>r.nextInt(63);
+      h.record(v);
+      ConcurrentHistogram.Snapshot x = h.snapshotThenReset();
+      assertThat( x.count(), is(1L) );
+      assertTrue( x.min() <= v && v <= x.max() );
+    }
+  }
+
+  public void testPercentiles() {
+    ConcurrentHistogram h = new ConcurrentHistogram();
+    ConcurrentHistogram.Snapshot e = h.snapshot();
+    assertThat( e.count(), is(0L) );
+    assertThat( e.valueAtPercentile(99), is(0L) );
+    assertThat( e.max(), is(0L) );
+    for( long v=1; v<=10000; v++ )
+      h.record(v);
+    h.recordN(0,0);
+    ConcurrentHistogram.Snapshot s = h.snapshot();
+    assertThat( s.count(), is(10000L) );
+    assertThat( s.min(), is(1L) );
+    for( double p : new double[]{1,25,50,90,99,99.9,100} ) {
+      final long v = s.valueAtPercentile(p), exact = (long)Math.ceil(p*100);
+      assertTrue( p+": "+v, v >= exact && v <= exact+(exact>>5) );
+    }
+    assertTrue( Math.abs(s.mean()-5000.5) < 5000*0.03 );
+    assertThat( s.max(), is(s.valueAtPercentile(100)) );
+    try { s.valueAtPercentile(101); fail(); } catch( IllegalArgumentException x ) { }
+    try { h.record(-1);             fail(); } catch( IllegalArgumentException x ) { }
+    try { new ConcurrentHistogram(0); fail(); } catch( IllegalArgumentException x ) { }
+  }
+
+  // Snapshots merge across histograms, and must match in precision
+  public void testMerge() throws Exception {
+    ConcurrentHistogram a = new ConcurrentHistogram(), b = new ConcurrentHistogram();
+    a.recordN(20,3);
+    b.recordN(1000000,1);
+    ConcurrentHistogram.Snapshot m = a.snapshot().merge(b.snapshot());
+    assertThat( m.count(), is(4L) );
+    assertThat( m.valueAtPercentile(75), is(20L) ); // Small values are exact
+    assertTrue( m.max() >= 1000000 );
+    try { m.merge(new ConcurrentHistogram(3).snapshot()); fail(); } catch( IllegalArgumentException x ) { }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(m);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    ConcurrentHistogram.Snapshot m2 = (ConcurrentHistogram.Snapshot)in.readObject();
+    assertThat( m2.count(), is(4L) );
+    assertThat( m2.max(), is(m.max()) );
+  }
+
+  // Many recorders and an interval reader lose and double-count nothing
+  public void testConcurrent() throws InterruptedException {
+    final ConcurrentHistogram h = new ConcurrentHistogram();
+    final int THREADS = 8, N = 100000;
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<N; i++ ) h.record(x*1000+(i&15));
+      } };
+      ts[t].start();
+    }
+    ConcurrentHistogram.Snapshot all = h.snapshotThenReset();
+    for( Thread t : ts ) {
+      while( t.isAlive() ) { all = all.merge(h.snapshotThenReset()); Thread.yield(); }
+    }
+    all = all.merge(h.snapshotThenReset());
+    assertThat( all.count(), is((long)THREADS*N) );
+    assertThat( all.min(), is(0L) );
+    assertThat( h.snapshot().count(), is(0L) );
+    h.record(7);
+    h.reset();
+    assertThat( h.snapshot().count(), is(0L) );
+  }
+}
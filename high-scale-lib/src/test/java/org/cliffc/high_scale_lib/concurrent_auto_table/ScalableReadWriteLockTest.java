@@ -0,0 +1,106 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.concurrent_auto_table;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test ScalableReadWriteLock via JUnit
+public class ScalableReadWriteLockTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.concurrent_auto_table.ScalableReadWriteLockTest");
+  }
+
+  // Readers share, writers exclude, from a single thread's view
+  public void testBasic() throws InterruptedException {
+    final ScalableReadWriteLock rw = new ScalableReadWriteLock();
+    final Lock r = rw.readLock(), w = rw.writeLock();
+    r.lock();
+    assertTrue( r.tryLock() );  // Readers share
+    assertThat( rw.getReadLockCount(), is(2L) );
+    assertFalse( w.tryLock() ); // Readers in: no writer
+    assertFalse( w.tryLock(10,TimeUnit.MILLISECONDS) );
+    assertFalse( rw.isWriteLocked() ); // Failed writers back out
+    r.unlock();
+    r.unlock();
+    assertThat( rw.getReadLockCount(), is(0L) );
+    assertTrue( w.tryLock() );
+    assertTrue( rw.isWriteLocked() );
+    assertFalse( r.tryLock() ); // Writer in: no reader
+    assertFalse( r.tryLock(10,TimeUnit.MILLISECONDS) );
+    w.unlock();
+    assertFalse( rw.isWriteLocked() );
+    assertTrue( r.tryLock(10,TimeUnit.MILLISECONDS) );
+    r.unlock();
+    w.lockInterruptibly();
+    w.unlock();
+    try { w.unlock(); fail(); } catch( IllegalMonitorStateException e ) { }
+    try { r.newCondition(); fail(); } catch( UnsupportedOperationException e ) { }
+  }
+
+  // Only the owner can release the write lock; readers wait it out
+  public void testWriterBlocksReaders() throws InterruptedException {
+    final ScalableReadWriteLock rw = new ScalableReadWriteLock();
+    final AtomicBoolean in = new AtomicBoolean();
+    rw.writeLock().lock();
+    Thread t = new Thread() { public void run() {
+      try { rw.writeLock().unlock(); fail(); } catch( IllegalMonitorStateException e ) { }
+      rw.readLock().lock();
+      in.set(true);
+      rw.readLock().unlock();
+    } };
+    t.start();
+    Thread.sleep(50);
+    assertFalse( in.get() );
+    rw.writeLock().unlock();
+    t.join();
+    assertTrue( in.get() );
+  }
+
+  // Many readers and writers: a writer never overlaps anyone, and every
+  // update made under the write lock is seen
+  public void testExclusion() throws InterruptedException {
+    final ScalableReadWriteLock rw = new ScalableReadWriteLock();
+    final int THREADS = 16, N = 20000;
+    final long[] pair = new long[2]; // Equal whenever unlocked
+    final AtomicInteger writers = new AtomicInteger(), readers = new AtomicInteger();
+    final AtomicReference<String> err = new AtomicReference<String>();
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<N; i++ ) {
+          if( (i+x)%16 == 0 ) {
+            rw.writeLock().lock();
+            if( writers.incrementAndGet() != 1 || readers.get() != 0 ) err.set("writer overlap");
+            pair[0]++;
+            Thread.yield();
+            pair[1]++;
+            writers.decrementAndGet();
+            rw.writeLock().unlock();
+          } else {
+            rw.readLock().lock();
+            readers.incrementAndGet();
+            if( writers.get() != 0 ) err.set("reader overlaps writer");
+            if( pair[0] != pair[1] ) err.set("torn read "+pair[0]+" "+pair[1]);
+            readers.decrementAndGet();
+            rw.readLock().unlock();
+          }
+        }
+      } };
+      ts[t].start();
+    }
+    for( Thread t : ts ) t.join();
+    assertThat( err.get(), nullValue() );
+    assertThat( pair[0], is((long)THREADS*N/16) );
+    assertThat( pair[1], is(pair[0]) );
+    assertThat( rw.getReadLockCount(), is(0L) );
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_cache;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test NonBlockingCache via JUnit
+public class NonBlockingCacheTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_cache.NonBlockingCacheTest");
+  }
+
+  public void testBasic() {
+    NonBlockingCache<String,String> c = new NonBlockingCache<String,String>(100,0,null,true);
+    assertThat( c.get("k1"), nullValue() );
+    assertThat( c.put("k1","v1"), nullValue() );
+    assertThat( c.get("k1"), is("v1") );
+    assertThat( c.put("k1","v2"), is("v1") );
+    assertThat( c.putIfAbsent("k1","v3"), is("v2") );
+    assertThat( c.putIfAbsent("k2","v3"), nullValue() );
+    assertThat( c.size(), is(2) );
+    assertThat( c.remove("k1"), is("v2") );
+    assertThat( c.remove("k1"), nullValue() );
+    assertThat( c.size(), is(1) );
+    c.clear();
+    assertThat( c.size(), is(0) );
+    assertThat( c.hitCount(), is(1L) );
+    assertThat( c.missCount(), is(1L) );
+    try { c.put("k",null); fail(); } catch( NullPointerException e ) { }
+    try { new NonBlockingCache<String,String>(0); fail(); } catch( IllegalArgumentException e ) { }
+  }
+
+  // The entry bound holds, and CLOCK keeps recently read entries
+  public void testEviction() {
+    final int MAX = 100;
+    NonBlockingCache<Integer,Integer> c = new NonBlockingCache<Integer,Integer>(MAX,0,null,true);
+    for( int i=0; i<MAX; i++ )
+      c.put(i,i);
+    assertThat( c.size(), is(MAX) );
+    for( int i=0; i<10; i++ )   // Touch a few: they get a second chance
+      assertThat( c.get(i), is(i) );
+    for( int i=MAX; i<MAX+50; i++ )
+      c.put(i,i);
+    assertThat( c.size(), is(MAX) );
+    assertThat( c.evictionCount(), is(50L) );
+    for( int i=0; i<10; i++ )
+      assertThat( c.get(i), is(i) );
+    for( int i=MAX; i<MAX+50; i++ )
+      assertThat( c.get(i), is(i) );
+  }
+
+  public void testWeight() {
+    NonBlockingCache<String,String> c = new NonBlockingCache<String,String>(1000,100,(k,v) -> v.length(),false);
+    for( int i=0; i<100; i++ )
+      c.put("k"+i,"0123456789");
+    assertTrue( c.weight() <= 100 );
+    assertTrue( c.size() <= 10 );
+    assertThat( c.get("k99"), is("0123456789") );
+    c.remove("k99");
+    c.clear();
+    assertThat( c.weight(), is(0L) );
+  }
+
+  public void testLoader() {
+    NonBlockingCache<Integer,String> c = new NonBlockingCache<Integer,String>(10,0,null,true);
+    assertThat( c.get(1,k -> "v"+k), is("v1") );
+    assertThat( c.get(1,k -> "other"), is("v1") );
+    assertThat( c.loadCount(), is(1L) );
+    assertThat( c.get(2,k -> null), nullValue() );
+    assertThat( c.size(), is(1) );
+    try { c.get(3,k -> { throw new IllegalStateException(); }); fail(); } catch( IllegalStateException e ) { }
+    assertThat( c.size(), is(1) );
+    assertThat( c.get(3,k -> "v3"), is("v3") );
+  }
+
+  // Many threads missing on the same keys run each loader exactly once
+  public void testSingleFlight() throws Exception {
+    final NonBlockingCache<Integer,Integer> c = new NonBlockingCache<Integer,Integer>(1000,0,null,true);
+    final AtomicInteger calls = new AtomicInteger();
+    final int THREADS = 8, KEYS = 100;
+    final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+    ExecutorService ex = Executors.newFixedThreadPool(THREADS);
+    List<Future<Object>> fs = new ArrayList<Future<Object>>();
+    for( int t=0; t<THREADS; t++ )
+      fs.add(ex.submit(new Callable<Object>() {
+          public Object call() throws Exception {
+            barrier.await();
+            for( int k=0; k<KEYS; k++ )
+              assertThat( c.get(k,x -> { calls.incrementAndGet(); Thread.yield(); return x*2; }), is(k*2) );
+            return null;
+          }
+        }));
+    for( Future<Object> f : fs ) f.get();
+    ex.shutdown();
+    assertThat( calls.get(), is(KEYS) );
+    assertThat( c.loadCount(), is((long)KEYS) );
+  }
+
+  // Concurrent inserts over a small cache never lose the bound for long
+  public void testConcurrentInsert() throws Exception {
+    final int MAX = 256;
+    final NonBlockingCache<Integer,Integer> c = new NonBlockingCache<Integer,Integer>(MAX,0,null,true);
+    final int THREADS = 4;
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        Random r = new Random(x);
+        for( int i=0; i<100000; i++ ) {
+          int k = r.nextInt(4*MAX);
+          if( c.get(k) == null ) c.put(k,k);
+        }
+      } };
+    }
+    for( Thread t : ts ) t.start();
+    for( Thread t : ts ) t.join();
+    assertTrue( "size "+c.size(), c.size() <= MAX );
+    assertThat( c.hitCount()+c.missCount(), is(THREADS*100000L) );
+  }
+}
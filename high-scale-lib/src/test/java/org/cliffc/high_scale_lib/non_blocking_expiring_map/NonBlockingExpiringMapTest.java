@@ -0,0 +1,116 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_expiring_map;
+import java.util.concurrent.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test NonBlockingExpiringMap via JUnit
+public class NonBlockingExpiringMapTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_expiring_map.NonBlockingExpiringMapTest");
+  }
+
+  public void testBasic() {
+    NonBlockingExpiringMap<String,String> m = new NonBlockingExpiringMap<String,String>(1,TimeUnit.HOURS);
+    assertThat( m.get("k1"), nullValue() );
+    assertThat( m.put("k1","v1"), nullValue() );
+    assertThat( m.get("k1"), is("v1") );
+    assertThat( m.put("k1","v2"), is("v1") );
+    assertThat( m.putIfAbsent("k1","v3"), is("v2") );
+    assertThat( m.putIfAbsent("k2","v3"), nullValue() );
+    assertTrue( m.containsKey("k2") );
+    assertThat( m.size(), is(2) );
+    assertTrue( m.getExpiry("k1",TimeUnit.MINUTES) > 50 );
+    assertThat( m.getExpiry("k3",TimeUnit.MINUTES), is(-1L) );
+    assertThat( m.remove("k1"), is("v2") );
+    assertThat( m.remove("k1"), nullValue() );
+    m.clear();
+    assertThat( m.size(), is(0) );
+    try { m.put("k",null); fail(); } catch( NullPointerException e ) { }
+    try { new NonBlockingExpiringMap<String,String>(0,TimeUnit.SECONDS); fail(); } catch( IllegalArgumentException e ) { }
+  }
+
+  // Expired values are never returned, and writes reclaim them
+  public void testExpireAfterWrite() throws Exception {
+    NonBlockingExpiringMap<Integer,Integer> m = new NonBlockingExpiringMap<Integer,Integer>(50,TimeUnit.MILLISECONDS);
+    for( int i=0; i<1000; i++ )
+      m.put(i,i);
+    m.put(-1,-1,1,TimeUnit.HOURS);
+    assertThat( m.get(7), is(7) );
+    Thread.sleep(120);
+    for( int i=0; i<1000; i++ )
+      assertThat( m.get(i), nullValue() );
+    assertThat( m.get(-1), is(-1) );
+    assertThat( m.putIfAbsent(7,70), nullValue() ); // Expired counts as absent
+    assertThat( m.get(7), is(70) );
+    // Incremental reclaim from writes alone, with no cleanUp() call
+    m.put(-2,0);
+    for( int i=0; i<1000 && m.size() > 3; i++ )
+      m.put(-2,i);
+    assertThat( m.size(), is(3) );
+    m.cleanUp();
+    assertThat( m.size(), is(3) );
+  }
+
+  // A bulk load fills one bucket; once it expires, no single write pays
+  // for the whole bucket, yet writes alone still reclaim all of it
+  public void testBoundedWork() throws Exception {
+    NonBlockingExpiringMap<Integer,Integer> m = new NonBlockingExpiringMap<Integer,Integer>(200,TimeUnit.MILLISECONDS);
+    final int N = 20000;
+    for( int i=0; i<N; i++ )
+      m.put(i,i);
+    Thread.sleep(300);
+    m.put(-1,0);
+    int writes = 1, sz = m.size();
+    assertTrue( "one write reclaimed "+(N+1-sz), N+1-sz <= 64 );
+    while( sz > 1 ) {
+      m.put(-1,writes++);
+      final int nsz = m.size();
+      assertTrue( "one write reclaimed "+(sz-nsz), sz-nsz <= 64 );
+      sz = nsz;
+      assertTrue( "writes "+writes, writes < N );
+    }
+    assertThat( m.get(-1), is(writes-1) );
+  }
+
+  public void testExpireAfterAccess() throws Exception {
+    NonBlockingExpiringMap<String,String> m = new NonBlockingExpiringMap<String,String>(200,TimeUnit.MILLISECONDS,true);
+    m.put("hot","v");
+    m.put("cold","v");
+    for( int i=0; i<8; i++ ) {  // 400ms of reads keep "hot" alive
+      Thread.sleep(50);
+      assertThat( m.get("hot"), is("v") );
+    }
+    assertThat( m.get("cold"), nullValue() );
+    m.cleanUp();
+    assertThat( m.size(), is(1) );
+  }
+
+  // Racing writers and cleaners leave exactly the unexpired keys behind
+  public void testConcurrent() throws Exception {
+    final NonBlockingExpiringMap<Integer,Integer> m = new NonBlockingExpiringMap<Integer,Integer>(20,TimeUnit.MILLISECONDS);
+    final int THREADS = 4;
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<200000; i++ ) {
+          m.put(x*1000000+i,i);
+          if( (i&1023) == 0 ) m.cleanUp();
+        }
+      } };
+    }
+    for( Thread t : ts ) t.start();
+    for( Thread t : ts ) t.join();
+    m.put(-1,-1,1,TimeUnit.HOURS);
+    Thread.sleep(60);
+    m.cleanUp();
+    assertThat( m.size(), is(1) );
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_hashmap;
+import java.io.*;
+import java.util.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test ImmutableHashMap via JUnit
+public class ImmutableHashMapTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_hashmap.ImmutableHashMapTest");
+  }
+
+  public void testBasic() {
+    NonBlockingHashMap<String,String> nbhm = new NonBlockingHashMap<String,String>();
+    final int CNT = 10000;
+    for( int i=0; i<CNT; i++ )
+      nbhm.put("k"+i,"v"+i);
+    for( int i=0; i<CNT; i+=2 )
+      nbhm.remove("k"+i);
+    ImmutableHashMap<String,String> m = nbhm.toImmutable();
+    assertThat( m.size(), is(CNT/2) );
+    assertThat( (Map<String,String>)m, is((Map<String,String>)nbhm) );
+    assertThat( nbhm.equals(m), is(true) );
+    assertThat( m.hashCode(), is(nbhm.hashCode()) );
+    for( int i=0; i<CNT; i++ )
+      assertThat( m.get("k"+i), is((i&1) == 0 ? null : "v"+i) );
+    assertThat( m.getOrDefault("k0","d"), is("d") );
+    assertTrue ( m.containsKey("k1") );
+    assertFalse( m.containsKey("k2") );
+    assertTrue ( m.containsValue("v1") );
+    assertFalse( m.containsValue("v2") );
+    assertTrue ( m.keySet().contains("k3") );
+    assertTrue ( m.entrySet().contains(new AbstractMap.SimpleEntry<String,String>("k3","v3")) );
+    assertFalse( m.entrySet().contains(new AbstractMap.SimpleEntry<String,String>("k3","v4")) );
+    final int[] cnt = new int[1];
+    m.forEach((k,v) -> { assertThat( v, is("v"+k.substring(1)) ); cnt[0]++; });
+    assertThat( cnt[0], is(CNT/2) );
+    assertThat( new HashSet<String>(m.values()).size(), is(CNT/2) );
+    try { m.get(null); fail(); } catch( NullPointerException e ) { }
+    // A frozen map hands its own read-only table to the copy
+    nbhm.freeze();
+    ImmutableHashMap<String,String> f = nbhm.toImmutable();
+    assertThat( (Map<String,String>)f, is((Map<String,String>)m) );
+    for( int i=0; i<CNT; i++ )
+      assertThat( f.get("k"+i), is(nbhm.get("k"+i)) );
+  }
+
+  public void testReadOnly() {
+    Map<String,String> src = new HashMap<String,String>();
+    src.put("a","1");
+    ImmutableHashMap<String,String> m = new ImmutableHashMap<String,String>(src);
+    try { m.put("b","2");                fail(); } catch( UnsupportedOperationException e ) { }
+    try { m.remove("a");                 fail(); } catch( UnsupportedOperationException e ) { }
+    try { m.clear();                     fail(); } catch( UnsupportedOperationException e ) { }
+    try { m.putIfAbsent("b","2");        fail(); } catch( UnsupportedOperationException e ) { }
+    try { m.keySet().iterator().next(); m.keySet().iterator().remove(); fail(); } catch( UnsupportedOperationException e ) { } catch( IllegalStateException e ) { }
+    try { Iterator<String> it = m.values().iterator(); it.next(); it.remove(); fail(); } catch( UnsupportedOperationException e ) { }
+    assertThat( m.get("a"), is("1") );
+    src.put("b",null);
+    try { new ImmutableHashMap<String,String>(src); fail(); } catch( NullPointerException e ) { }
+    ImmutableHashMap<String,String> empty = new ImmutableHashMap<String,String>(new HashMap<String,String>());
+    assertTrue( empty.isEmpty() );
+    assertThat( empty.get("a"), nullValue() );
+    assertFalse( empty.entrySet().iterator().hasNext() );
+  }
+
+  // Keys that all collide still work, and misses stop early
+  public void testCollisions() {
+    Map<Integer,Integer> src = new HashMap<Integer,Integer>();
+    for( int i=0; i<500; i++ )
+      src.put(i*65536,i);      // Few distinct low hash bits
+    ImmutableHashMap<Integer,Integer> m = new ImmutableHashMap<Integer,Integer>(src);
+    for( int i=0; i<500; i++ ) {
+      assertThat( m.get(i*65536), is(i) );
+      assertThat( m.get(i*65536+1), nullValue() );
+    }
+  }
+
+  public void testSerial() throws Exception {
+    NonBlockingHashMap<String,Integer> nbhm = new NonBlockingHashMap<String,Integer>();
+    for( int i=0; i<1000; i++ )
+      nbhm.put("k"+i,i);
+    ImmutableHashMap<String,Integer> m = nbhm.toImmutable();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(m);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    ImmutableHashMap<String,Integer> m2 = (ImmutableHashMap<String,Integer>)in.readObject();
+    in.close();
+    assertThat( (Map<String,Integer>)m2, is((Map<String,Integer>)m) );
+    assertThat( m2.get("k999"), is(999) );
+  }
+}
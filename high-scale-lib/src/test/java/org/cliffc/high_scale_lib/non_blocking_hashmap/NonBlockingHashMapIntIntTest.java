@@ -0,0 +1,213 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_hashmap;
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test NonBlockingHashMapIntInt via JUnit
+public class NonBlockingHashMapIntIntTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_hashmap.NonBlockingHashMapIntIntTest");
+  }
+
+  private static final long NO_VALUE = NonBlockingHashMapIntInt.NO_VALUE;
+
+  private NonBlockingHashMapIntInt _nbhmii;
+  protected void setUp   () { _nbhmii = new NonBlockingHashMapIntInt(); }
+  protected void tearDown() { _nbhmii = null; }
+
+  // Test some basic stuff; add a few keys, remove a few keys
+  public void testBasic() {
+    assertTrue ( _nbhmii.isEmpty() );
+    assertThat ( _nbhmii.put(1,10), is(NO_VALUE) );
+    checkSizes (1);
+    assertThat ( _nbhmii.putIfAbsent(2,20), is(NO_VALUE) );
+    checkSizes (2);
+    assertTrue ( _nbhmii.containsKey(2) );
+    assertThat ( _nbhmii.put(1,11), is(10L) );
+    assertThat ( _nbhmii.put(2,21), is(20L) );
+    checkSizes (2);
+    assertThat ( _nbhmii.putIfAbsent(2,22), is(21L) );
+    assertThat ( _nbhmii.remove(1), is(11L) );
+    assertFalse( _nbhmii.containsKey(1) );
+    checkSizes (1);
+    assertThat ( _nbhmii.remove(1), is(NO_VALUE) );
+    assertFalse( _nbhmii.remove(2,20) );
+    assertTrue ( _nbhmii.remove(2,21) );
+    checkSizes (0);
+    assertThat ( _nbhmii.remove("k3"), nullValue() );
+    assertTrue ( _nbhmii.isEmpty() );
+
+    // Key 0 lives outside the table
+    assertThat ( _nbhmii.put(0,0), is(NO_VALUE) );
+    assertTrue ( _nbhmii.containsKey(0) );
+    assertThat ( _nbhmii.get(0), is(0L) );
+    checkSizes (1);
+    assertThat ( _nbhmii.remove(0), is(0L) );
+    assertFalse( _nbhmii.containsKey(0) );
+    checkSizes (0);
+
+    assertThat ( _nbhmii.replace(0,5), is(NO_VALUE) );
+    assertFalse( _nbhmii.containsKey(0) );
+    assertThat ( _nbhmii.put(0,5), is(NO_VALUE) );
+    assertThat ( _nbhmii.replace(0,6), is(5L) );
+    assertFalse( _nbhmii.replace(0,5,7) );
+    assertTrue ( _nbhmii.replace(0,6,7) );
+    assertThat ( _nbhmii.get(0), is(7L) );
+    assertThat ( _nbhmii.remove(0), is(7L) );
+    checkSizes (0);
+
+    assertThat ( _nbhmii.replace(1,1), is(NO_VALUE) );
+    assertFalse( _nbhmii.containsKey(1) );
+    assertThat ( _nbhmii.put(1,-1), is(NO_VALUE) );
+    assertThat ( _nbhmii.replace(1,-2), is(-1L) );
+    assertThat ( _nbhmii.get(1), is(-2L) );
+    assertThat ( _nbhmii.remove(1), is(-2L) );
+    checkSizes (0);
+  }
+
+  // Every int is a legal value; addAndGet wraps like AtomicInteger
+  public void testValueRange() {
+    _nbhmii.put(1,Integer.MAX_VALUE);
+    _nbhmii.put(2,Integer.MIN_VALUE);
+    _nbhmii.put(3,-1);
+    _nbhmii.put(0,Integer.MIN_VALUE);
+    assertThat( _nbhmii.get(1), is((long)Integer.MAX_VALUE) );
+    assertThat( _nbhmii.get(2), is((long)Integer.MIN_VALUE) );
+    assertThat( _nbhmii.get(3), is(-1L) );
+    assertThat( _nbhmii.get(0), is((long)Integer.MIN_VALUE) );
+    assertTrue ( _nbhmii.remove(3,-1) );
+    assertTrue ( _nbhmii.containsValue(Integer.MIN_VALUE) );
+    assertThat( _nbhmii.addAndGet(1,1), is(Integer.MIN_VALUE) );
+    assertThat( _nbhmii.addAndGet(0,-1), is(Integer.MAX_VALUE) );
+    assertThat( _nbhmii.get(Integer.valueOf(1)), is(Integer.MIN_VALUE) );
+  }
+
+  public void testAddAndGet() {
+    assertThat( _nbhmii.addAndGet(5,3), is(3) );
+    assertThat( _nbhmii.addAndGet(5,4), is(7) );
+    assertThat( _nbhmii.addAndGet(5,-7), is(0) );
+    assertTrue( _nbhmii.containsKey(5) );
+    assertThat( _nbhmii.addAndGet(0,-2), is(-2) );
+    assertThat( _nbhmii.addAndGet(0,2), is(0) );
+    checkSizes(2);
+    assertThat( _nbhmii.remove(5), is(0L) );
+    assertThat( _nbhmii.addAndGet(5,1), is(1) );
+    checkSizes(2);
+  }
+
+  // Check all iterators for correct size counts
+  private void checkSizes(int expectedSize) {
+    assertEquals( "size()", _nbhmii.size(), expectedSize );
+    Collection<Integer> vals = _nbhmii.values();
+    checkSizes("values()",vals.size(),vals.iterator(),expectedSize);
+    Set<Integer> keys = _nbhmii.keySet();
+    checkSizes("keySet()",keys.size(),keys.iterator(),expectedSize);
+    Set<Entry<Integer,Integer>> ents = _nbhmii.entrySet();
+    checkSizes("entrySet()",ents.size(),ents.iterator(),expectedSize);
+  }
+
+  // Check that the iterator iterates the correct number of times
+  private void checkSizes(String msg, int sz, Iterator it, int expectedSize) {
+    assertEquals( msg, expectedSize, sz );
+    int result = 0;
+    while (it.hasNext()) {
+      result++;
+      it.next();
+    }
+    assertEquals( msg, expectedSize, result );
+  }
+
+  public void testIteration() {
+    assertThat ( _nbhmii.put(1,100), is(NO_VALUE) );
+    assertThat ( _nbhmii.put(2,200), is(NO_VALUE) );
+
+    String str1 = "";
+    for( Map.Entry<Integer,Integer> e : _nbhmii.entrySet() )
+      str1 += e.getKey();
+    assertThat("found all entries",str1,anyOf(is("12"),is("21")));
+
+    long sum = 0;
+    NonBlockingHashMapIntInt.IteratorInt it = (NonBlockingHashMapIntInt.IteratorInt)_nbhmii.keySet().iterator();
+    while( it.hasNext() ) {
+      int k = it.nextInt();
+      assertThat( it.value(), is(k*100) );
+      sum += it.value();
+    }
+    assertThat("found all vals",sum,is(300L));
+    assertTrue ( _nbhmii.containsValue(200) );
+    assertTrue ( _nbhmii.values().contains(100) );
+
+    assertThat("toString works",_nbhmii.toString(), anyOf(is("{1=100, 2=200}"),is("{2=200, 1=100}")));
+  }
+
+  public void testIterationBig() {
+    final int CNT = 10000;
+    for( int i=0; i<CNT; i++ )
+      _nbhmii.put(i,i*3);
+    assertThat( _nbhmii.size(), is(CNT) );
+
+    int sz = 0;
+    long sum = 0;
+    for( int x : _nbhmii.keySet() ) {
+      sz++;
+      sum += x;
+      assertThat( _nbhmii.get(x), is(x*3L) );
+    }
+    assertThat("Found 10000 keys",sz,is(CNT));
+    assertThat("Found all keys",sum,is((long)CNT*(CNT-1)/2));
+
+    // Remove via the iterator
+    for( Iterator<Integer> it = _nbhmii.values().iterator(); it.hasNext(); )
+      if( (it.next()&1) == 1 ) it.remove();
+    assertThat( _nbhmii.size(), is(CNT/2) );
+  }
+
+  public void testSerial() throws Exception {
+    assertThat ( _nbhmii.put(0x12345678,1), is(NO_VALUE) );
+    assertThat ( _nbhmii.put(0x87654321,-2), is(NO_VALUE) );
+    assertThat ( _nbhmii.put(0,3), is(NO_VALUE) );
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(_nbhmii);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    NonBlockingHashMapIntInt nbhmii = (NonBlockingHashMapIntInt)in.readObject();
+    in.close();
+    assertEquals(_nbhmii,nbhmii);
+    assertThat(nbhmii.get(0x87654321),is(-2L));
+  }
+
+  // Concurrent counting across several table resizes: no increment may be
+  // lost while values are being copied to the new table.
+  public void testConcurrentAddAndGet() throws InterruptedException {
+    final NonBlockingHashMapIntInt nbhmii = new NonBlockingHashMapIntInt();
+    final int num_thrds = 4;
+    final int KEYS = 20000;
+    final int ROUNDS = 3;
+    Thread ts[] = new Thread[num_thrds];
+    for( int i=0; i<num_thrds; i++ ) {
+      final int x = i;
+      ts[i] = new Thread() { public void run() {
+        for( int r=0; r<ROUNDS; r++ )
+          for( int k=0; k<KEYS; k++ )
+            nbhmii.addAndGet((k+x*7919)%KEYS,1);
+      } };
+    }
+    for( int i=0; i<num_thrds; i++ ) ts[i].start();
+    for( int i=0; i<num_thrds; i++ ) ts[i].join();
+
+    assertThat( nbhmii.size(), is(KEYS) );
+    for( int k=0; k<KEYS; k++ )
+      assertThat( "key "+k, nbhmii.get(k), is((long)num_thrds*ROUNDS) );
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_hashmap;
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test NonBlockingHashMapInt via JUnit
+public class NonBlockingHashMapIntTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_hashmap.NonBlockingHashMapIntTest");
+  }
+
+  private NonBlockingHashMapInt<String> _nbhmi;
+  protected void setUp   () { _nbhmi = new NonBlockingHashMapInt<String>(); }
+  protected void tearDown() { _nbhmi = null; }
+
+  // Test some basic stuff; add a few keys, remove a few keys
+  public void testBasic() {
+    assertTrue ( _nbhmi.isEmpty() );
+    assertThat ( _nbhmi.put(1,"v1"), nullValue() );
+    checkSizes (1);
+    assertThat ( _nbhmi.putIfAbsent(2,"v2"), nullValue() );
+    checkSizes (2);
+    assertTrue ( _nbhmi.containsKey(2) );
+    assertThat ( _nbhmi.put(1,"v1a"), is("v1") );
+    assertThat ( _nbhmi.put(2,"v2a"), is("v2") );
+    checkSizes (2);
+    assertThat ( _nbhmi.putIfAbsent(2,"v2b"), is("v2a") );
+    assertThat ( _nbhmi.remove(1), is("v1a") );
+    assertFalse( _nbhmi.containsKey(1) );
+    checkSizes (1);
+    assertThat ( _nbhmi.remove(1), nullValue() );
+    assertThat ( _nbhmi.remove(2), is("v2a") );
+    checkSizes (0);
+    assertThat ( _nbhmi.remove(2), nullValue() );
+    assertThat ( _nbhmi.remove("k3"), nullValue() );
+    assertTrue ( _nbhmi.isEmpty() );
+
+    assertThat ( _nbhmi.put(0,"v0"), nullValue() );
+    assertTrue ( _nbhmi.containsKey(0) );
+    checkSizes (1);
+    assertThat ( _nbhmi.remove(0), is("v0") );
+    assertFalse( _nbhmi.containsKey(0) );
+    checkSizes (0);
+
+    assertThat ( _nbhmi.replace(0,"v0"), nullValue() );
+    assertFalse( _nbhmi.containsKey(0) );
+    assertThat ( _nbhmi.put(0,"v0"), nullValue() );
+    assertEquals(_nbhmi.replace(0,"v0a"), "v0" );
+    assertEquals(_nbhmi.get(0), "v0a" );
+    assertThat ( _nbhmi.remove(0), is("v0a") );
+    assertFalse( _nbhmi.containsKey(0) );
+    checkSizes (0);
+
+    assertThat ( _nbhmi.replace(1,"v1"), nullValue() );
+    assertFalse( _nbhmi.containsKey(1) );
+    assertThat ( _nbhmi.put(1,"v1"), nullValue() );
+    assertEquals(_nbhmi.replace(1,"v1a"), "v1" );
+    assertEquals(_nbhmi.get(1), "v1a" );
+    assertThat ( _nbhmi.remove(1), is("v1a") );
+    assertFalse( _nbhmi.containsKey(1) );
+    checkSizes (0);
+
+    // Simple insert of simple keys, with no reprobing on insert until the
+    // table gets full exactly.  Then do a 'get' on the totally full table.
+    NonBlockingHashMapInt<Object> map = new NonBlockingHashMapInt<Object>(32);
+    for( int i = 1; i < 32; i++ )
+      map.put(i, new Object());
+    map.get(33);  // this causes a NPE
+  }
+
+  // Check all iterators for correct size counts
+  private void checkSizes(int expectedSize) {
+    assertEquals( "size()", _nbhmi.size(), expectedSize );
+    Collection<String> vals = _nbhmi.values();
+    checkSizes("values()",vals.size(),vals.iterator(),expectedSize);
+    Set<Integer> keys = _nbhmi.keySet();
+    checkSizes("keySet()",keys.size(),keys.iterator(),expectedSize);
+    Set<Entry<Integer,String>> ents = _nbhmi.entrySet();
+    checkSizes("entrySet()",ents.size(),ents.iterator(),expectedSize);
+  }
+
+  // Check that the iterator iterates the correct number of times
+  private void checkSizes(String msg, int sz, Iterator it, int expectedSize) {
+    assertEquals( msg, expectedSize, sz );
+    int result = 0;
+    while (it.hasNext()) {
+      result++;
+      it.next();
+    }
+    assertEquals( msg, expectedSize, result );
+  }
+
+
+  public void testIterationBig2() {
+    final int CNT = 10000;
+    assertThat( _nbhmi.size(), is(0) );
+    final String v = "v";
+    for( int i=0; i<CNT; i++ ) {
+      _nbhmi.put(i,v);
+      String s = _nbhmi.get(i);
+      assertThat( s, is(v) );
+    }
+    assertThat( _nbhmi.size(), is(CNT) );
+  }
+
+
+  public void testIteration() {
+    assertTrue ( _nbhmi.isEmpty() );
+    assertThat ( _nbhmi.put(1,"v1"), nullValue() );
+    assertThat ( _nbhmi.put(2,"v2"), nullValue() );
+
+    String str1 = "";
+    for( Iterator<Map.Entry<Integer,String>> i = _nbhmi.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<Integer,String> e = i.next();
+      str1 += e.getKey();
+    }
+    assertThat("found all entries",str1,anyOf(is("12"),is("21")));
+
+    String str2 = "";
+    for( Iterator<Integer> i = _nbhmi.keySet().iterator(); i.hasNext(); ) {
+      Integer key = i.next();
+      str2 += key;
+    }
+    assertThat("found all keys",str2,anyOf(is("12"),is("21")));
+
+    String str3 = "";
+    for( Iterator<String> i = _nbhmi.values().iterator(); i.hasNext(); ) {
+      String val = i.next();
+      str3 += val;
+    }
+    assertThat("found all vals",str3,anyOf(is("v1v2"),is("v2v1")));
+
+    assertThat("toString works",_nbhmi.toString(), anyOf(is("{1=v1, 2=v2}"),is("{2=v2, 1=v1}")));
+  }
+
+  public void testSerial() {
+    assertTrue ( _nbhmi.isEmpty() );
+    assertThat ( _nbhmi.put(0x12345678,"v1"), nullValue() );
+    assertThat ( _nbhmi.put(0x87654321,"v2"), nullValue() );
+
+    // Serialize it out
+    try {
+      FileOutputStream fos = new FileOutputStream("NBHMI_test.txt");
+      ObjectOutputStream out = new ObjectOutputStream(fos);
+      out.writeObject(_nbhmi);
+      out.close();
+    } catch(IOException ex) {
+      ex.printStackTrace();
+    }
+
+    // Read it back
+    try {
+      File f = new File("NBHMI_test.txt");
+      FileInputStream fis = new FileInputStream(f);
+      ObjectInputStream in = new ObjectInputStream(fis);
+      NonBlockingHashMapInt nbhmi = (NonBlockingHashMapInt)in.readObject();
+      in.close();
+      assertEquals(_nbhmi.toString(),nbhmi.toString());
+      if( !f.delete() ) throw new IOException("delete failed");
+    } catch(IOException ex) {
+      ex.printStackTrace();
+    } catch(ClassNotFoundException ex) {
+      ex.printStackTrace();
+    }
+
+  }
+
+  public void testIterationBig() {
+    final int CNT = 10000;
+    assertThat( _nbhmi.size(), is(0) );
+    for( int i=0; i<CNT; i++ )
+      _nbhmi.put(i,"v"+i);
+    assertThat( _nbhmi.size(), is(CNT) );
+
+    int sz =0;
+    int sum = 0;
+    for( int x : _nbhmi.keySet() ) {
+      sz++;
+      sum += x;
+      assertTrue(x>=0 && x<=(CNT-1));
+    }
+    assertThat("Found 10000 ints",sz,is(CNT));
+    assertThat("Found all integers in list",sum,is(CNT*(CNT-1)/2));
+
+    assertThat( "can remove 3", _nbhmi.remove(3), is("v3") );
+    assertThat( "can remove 4", _nbhmi.remove(4), is("v4") );
+    sz =0;
+    sum = 0;
+    for( int x : _nbhmi.keySet() ) {
+      sz++;
+      sum += x;
+      assertTrue(x>=0 && x<=(CNT-1));
+      String v = _nbhmi.get(x);
+      assertThat("",v.charAt(0),is('v'));
+      assertThat("",x,is(Integer.parseInt(v.substring(1))));
+    }
+    assertThat("Found "+(CNT-2)+" ints",sz,is(CNT-2));
+    assertThat("Found all integers in list",sum,is(CNT*(CNT-1)/2 - (3+4)));
+  }
+
+  // Do some simple concurrent testing
+  public void testConcurrentSimple() throws InterruptedException {
+    final NonBlockingHashMapInt<String> nbhmi = new NonBlockingHashMapInt<String>();
+
+    // In 2 threads, add & remove even & odd elements concurrently
+    final int num_thrds = 2;
+    Thread ts[] = new Thread[num_thrds];
+    for( int i=1; i<num_thrds; i++ ) {
+      final int x = i;
+      ts[i] = new Thread() { public void run() { work_helper(nbhmi,x,num_thrds); } };
+    }
+    for( int i=1; i<num_thrds; i++ )
+      ts[i].start();
+    work_helper(nbhmi,0,num_thrds);
+    for( int i=1; i<num_thrds; i++ )
+      ts[i].join();
+
+    // In the end, all members should be removed
+    StringBuffer buf = new StringBuffer();
+    buf.append("Should be emptyset but has these elements: {");
+    boolean found = false;
+    for( int x : nbhmi.keySet() ) {
+      buf.append(" ").append(x);
+      found = true;
+    }
+    if( found ) System.out.println(buf+" }");
+    assertThat( "concurrent size=0", nbhmi.size(), is(0) );
+    for( int x : nbhmi.keySet() ) {
+      assertTrue("No elements so never get here",false);
+    }
+  }
+
+  // Key 0 lives outside the table, in a slot of its own; racing updates on
+  // it must be as atomic as on any other key
+  public void testConcurrentKeyZero() throws InterruptedException {
+    final NonBlockingHashMapInt<Integer> nbhmi = new NonBlockingHashMapInt<Integer>();
+    final int THREADS = 8, N = 20000;
+    final AtomicInteger owners = new AtomicInteger(), wins = new AtomicInteger();
+    final AtomicInteger errs = new AtomicInteger();
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final Integer me = -1-t;  // Never a count
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<N; i++ ) {
+          // Claim key 0 as a lock: at most one owner at a time
+          if( nbhmi.putIfAbsent(0,me) == null ) {
+            if( owners.incrementAndGet() != 1 ) errs.incrementAndGet();
+            owners.decrementAndGet();
+            if( !nbhmi.remove(0,me) ) errs.incrementAndGet();
+          }
+        }
+      } };
+      ts[t].start();
+    }
+    for( Thread t : ts ) t.join();
+    assertThat( errs.get(), is(0) );
+    assertFalse( nbhmi.containsKey(0) );
+    // Counting with replace: no increment is lost
+    nbhmi.put(0,Integer.valueOf(0));
+    for( int t=0; t<THREADS; t++ ) {
+      ts[t] = new Thread() { public void run() {
+        for( int i=0; i<N; i++ ) {
+          final Integer v = nbhmi.get(0);
+          if( nbhmi.replace(0,v,Integer.valueOf(v+1)) ) wins.incrementAndGet();
+        }
+      } };
+      ts[t].start();
+    }
+    for( Thread t : ts ) t.join();
+    assertThat( nbhmi.get(0), is(wins.get()) );
+  }
+
+  void work_helper(NonBlockingHashMapInt<String> nbhmi, int d, int num_thrds) {
+    String thrd = "T"+d;
+    final int ITERS = 20000;
+    for( int j=0; j<10; j++ ) {
+      //long start = System.nanoTime();
+      for( int i=d; i<ITERS; i+=num_thrds )
+        assertThat( "key "+i+" not in there, so putIfAbsent must work",
+                    nbhmi.putIfAbsent(i,thrd), is((String)null) );
+      for( int i=d; i<ITERS; i+=num_thrds )
+        assertTrue( nbhmi.remove(i,thrd) );
+      //double delta_nanos = System.nanoTime()-start;
+      //double delta_secs = delta_nanos/1000000000.0;
+      //double ops = ITERS*2;
+      //System.out.println("Thrd"+thrd+" "+(ops/delta_secs)+" ops/sec size="+nbhmi.size());
+    }
+  }
+
+
+  // --- Customer Test Case 1 ------------------------------------------------
+  public final void testNonBlockingHashMapSize() {
+    NonBlockingHashMapInt<String> items = new NonBlockingHashMapInt<String>();
+    items.put(Integer.valueOf(100), "100");
+    items.put(Integer.valueOf(101), "101");
+
+    assertEquals("keySet().size()", 2, items.keySet().size());
+    assertTrue("keySet().contains(100)", items.keySet().contains(Integer.valueOf(100)));
+    assertTrue("keySet().contains(101)", items.keySet().contains(Integer.valueOf(101)));
+
+    assertEquals("values().size()", 2, items.values().size());
+    assertTrue("values().contains(\"100\")", items.values().contains("100"));
+    assertTrue("values().contains(\"101\")", items.values().contains("101"));
+
+    assertEquals("entrySet().size()", 2, items.entrySet().size());
+    boolean found100 = false;
+    boolean found101 = false;
+    for (Entry<Integer, String> entry : items.entrySet()) {
+      if (entry.getKey().equals(Integer.valueOf(100))) {
+        assertEquals("entry[100].getValue()==\"100\"", "100", entry.getValue());
+        found100 = true;
+      } else if (entry.getKey().equals(Integer.valueOf(101))) {
+        assertEquals("entry[101].getValue()==\"101\"", "101", entry.getValue());
+        found101 = true;
+      }
+    }
+    assertTrue("entrySet().contains([100])", found100);
+    assertTrue("entrySet().contains([101])", found101);
+  }
+
+  // Negative keys mask down into the table like any other
+  public void testNegativeKeys() {
+    for( int i=1; i<=1000; i++ )
+      assertThat( _nbhmi.put(-i,"n"+i), nullValue() );
+    assertThat( _nbhmi.put(Integer.MIN_VALUE,"min"), nullValue() );
+    assertThat( _nbhmi.put(Integer.MAX_VALUE,"max"), nullValue() );
+    checkSizes(1002);
+    assertThat( _nbhmi.get(-500), is("n500") );
+    assertThat( _nbhmi.get(Integer.MIN_VALUE), is("min") );
+    assertThat( _nbhmi.remove(Integer.MAX_VALUE), is("max") );
+    assertFalse( _nbhmi.containsKey(500) );
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_hashmap;
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test NonBlockingHashMapLongLong via JUnit
+public class NonBlockingHashMapLongLongTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_hashmap.NonBlockingHashMapLongLongTest");
+  }
+
+  private static final long NO_VALUE = NonBlockingHashMapLongLong.NO_VALUE;
+
+  private NonBlockingHashMapLongLong _nbhmll;
+  protected void setUp   () { _nbhmll = new NonBlockingHashMapLongLong(); }
+  protected void tearDown() { _nbhmll = null; }
+
+  // Test some basic stuff; add a few keys, remove a few keys
+  public void testBasic() {
+    assertTrue ( _nbhmll.isEmpty() );
+    assertThat ( _nbhmll.put(1,10), is(NO_VALUE) );
+    checkSizes (1);
+    assertThat ( _nbhmll.putIfAbsent(2,20), is(NO_VALUE) );
+    checkSizes (2);
+    assertTrue ( _nbhmll.containsKey(2) );
+    assertThat ( _nbhmll.put(1,11), is(10L) );
+    assertThat ( _nbhmll.put(2,21), is(20L) );
+    checkSizes (2);
+    assertThat ( _nbhmll.putIfAbsent(2,22), is(21L) );
+    assertThat ( _nbhmll.remove(1), is(11L) );
+    assertFalse( _nbhmll.containsKey(1) );
+    checkSizes (1);
+    assertThat ( _nbhmll.remove(1), is(NO_VALUE) );
+    assertFalse( _nbhmll.remove(2,20) );
+    assertTrue ( _nbhmll.remove(2,21) );
+    checkSizes (0);
+    assertThat ( _nbhmll.remove("k3"), nullValue() );
+    assertTrue ( _nbhmll.isEmpty() );
+
+    // Key 0 lives outside the table
+    assertThat ( _nbhmll.put(0,0), is(NO_VALUE) );
+    assertTrue ( _nbhmll.containsKey(0) );
+    assertThat ( _nbhmll.get(0), is(0L) );
+    checkSizes (1);
+    assertThat ( _nbhmll.remove(0), is(0L) );
+    assertFalse( _nbhmll.containsKey(0) );
+    checkSizes (0);
+
+    assertThat ( _nbhmll.replace(0,5), is(NO_VALUE) );
+    assertFalse( _nbhmll.containsKey(0) );
+    assertThat ( _nbhmll.put(0,5), is(NO_VALUE) );
+    assertThat ( _nbhmll.replace(0,6), is(5L) );
+    assertFalse( _nbhmll.replace(0,5,7) );
+    assertTrue ( _nbhmll.replace(0,6,7) );
+    assertThat ( _nbhmll.get(0), is(7L) );
+    assertThat ( _nbhmll.remove(0), is(7L) );
+    checkSizes (0);
+
+    assertThat ( _nbhmll.replace(1,1), is(NO_VALUE) );
+    assertFalse( _nbhmll.containsKey(1) );
+    assertThat ( _nbhmll.put(1,-1), is(NO_VALUE) );
+    assertThat ( _nbhmll.replace(1,-2), is(-1L) );
+    assertThat ( _nbhmll.get(1), is(-2L) );
+    assertThat ( _nbhmll.remove(1), is(-2L) );
+    checkSizes (0);
+  }
+
+  public void testValueRange() {
+    long max = NonBlockingHashMapLongLong.MAX_VALUE;
+    long min = NonBlockingHashMapLongLong.MIN_VALUE;
+    _nbhmll.put(1,max);
+    _nbhmll.put(2,min);
+    _nbhmll.put(0,max);
+    assertThat( _nbhmll.get(1), is(max) );
+    assertThat( _nbhmll.get(2), is(min) );
+    assertThat( _nbhmll.get(0), is(max) );
+    try { _nbhmll.put(3,max+1); fail(); } catch( IllegalArgumentException e ) { }
+    try { _nbhmll.put(3,min-1); fail(); } catch( IllegalArgumentException e ) { }
+    try { _nbhmll.put(3,NO_VALUE); fail(); } catch( IllegalArgumentException e ) { }
+    assertFalse( _nbhmll.containsKey(3) );
+    assertFalse( _nbhmll.remove(1,NO_VALUE) );
+    assertFalse( _nbhmll.containsValue(NO_VALUE) );
+    // Overflow leaves the old value in place
+    try { _nbhmll.addAndGet(1,1); fail(); } catch( ArithmeticException e ) { }
+    try { _nbhmll.addAndGet(0,1); fail(); } catch( ArithmeticException e ) { }
+    assertThat( _nbhmll.get(1), is(max) );
+    assertThat( _nbhmll.get(0), is(max) );
+    assertThat( _nbhmll.addAndGet(2,max), is(-1L) );
+  }
+
+  public void testAddAndGet() {
+    assertThat( _nbhmll.addAndGet(5,3), is(3L) );
+    assertThat( _nbhmll.addAndGet(5,4), is(7L) );
+    assertThat( _nbhmll.addAndGet(5,-7), is(0L) );
+    assertTrue( _nbhmll.containsKey(5) );
+    assertThat( _nbhmll.addAndGet(0,-2), is(-2L) );
+    assertThat( _nbhmll.addAndGet(0,2), is(0L) );
+    checkSizes(2);
+    assertThat( _nbhmll.remove(5), is(0L) );
+    assertThat( _nbhmll.addAndGet(5,1), is(1L) );
+    checkSizes(2);
+  }
+
+  // Check all iterators for correct size counts
+  private void checkSizes(int expectedSize) {
+    assertEquals( "size()", _nbhmll.size(), expectedSize );
+    Collection<Long> vals = _nbhmll.values();
+    checkSizes("values()",vals.size(),vals.iterator(),expectedSize);
+    Set<Long> keys = _nbhmll.keySet();
+    checkSizes("keySet()",keys.size(),keys.iterator(),expectedSize);
+    Set<Entry<Long,Long>> ents = _nbhmll.entrySet();
+    checkSizes("entrySet()",ents.size(),ents.iterator(),expectedSize);
+  }
+
+  // Check that the iterator iterates the correct number of times
+  private void checkSizes(String msg, int sz, Iterator it, int expectedSize) {
+    assertEquals( msg, expectedSize, sz );
+    int result = 0;
+    while (it.hasNext()) {
+      result++;
+      it.next();
+    }
+    assertEquals( msg, expectedSize, result );
+  }
+
+  public void testIteration() {
+    assertThat ( _nbhmll.put(1,100), is(NO_VALUE) );
+    assertThat ( _nbhmll.put(2,200), is(NO_VALUE) );
+
+    String str1 = "";
+    for( Map.Entry<Long,Long> e : _nbhmll.entrySet() )
+      str1 += e.getKey();
+    assertThat("found all entries",str1,anyOf(is("12"),is("21")));
+
+    long sum = 0;
+    NonBlockingHashMapLongLong.IteratorLong it = (NonBlockingHashMapLongLong.IteratorLong)_nbhmll.keySet().iterator();
+    while( it.hasNext() ) {
+      long k = it.nextLong();
+      assertThat( it.value(), is(k*100) );
+      sum += it.value();
+    }
+    assertThat("found all vals",sum,is(300L));
+    assertTrue ( _nbhmll.containsValue(200L) );
+    assertTrue ( _nbhmll.values().contains(100L) );
+
+    assertThat("toString works",_nbhmll.toString(), anyOf(is("{1=100, 2=200}"),is("{2=200, 1=100}")));
+  }
+
+  public void testIterationBig() {
+    final int CNT = 10000;
+    for( int i=0; i<CNT; i++ )
+      _nbhmll.put(i,i*3);
+    assertThat( _nbhmll.size(), is(CNT) );
+
+    int sz = 0;
+    long sum = 0;
+    for( long x : _nbhmll.keySet() ) {
+      sz++;
+      sum += x;
+      assertThat( _nbhmll.get(x), is(x*3) );
+    }
+    assertThat("Found 10000 keys",sz,is(CNT));
+    assertThat("Found all keys",sum,is((long)CNT*(CNT-1)/2));
+
+    // Remove via the iterator
+    for( Iterator<Long> it = _nbhmll.values().iterator(); it.hasNext(); )
+      if( (it.next()&1) == 1 ) it.remove();
+    assertThat( _nbhmll.size(), is(CNT/2) );
+  }
+
+  public void testSerial() throws Exception {
+    assertThat ( _nbhmll.put(0x12345678L,1), is(NO_VALUE) );
+    assertThat ( _nbhmll.put(0x87654321L,-2), is(NO_VALUE) );
+    assertThat ( _nbhmll.put(0,3), is(NO_VALUE) );
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(_nbhmll);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    NonBlockingHashMapLongLong nbhmll = (NonBlockingHashMapLongLong)in.readObject();
+    in.close();
+    assertEquals(_nbhmll,nbhmll);
+    assertThat(nbhmll.get(0x87654321L),is(-2L));
+  }
+
+  // Concurrent counting across several table resizes: no increment may be
+  // lost while values are being copied to the new table.
+  public void testConcurrentAddAndGet() throws InterruptedException {
+    final NonBlockingHashMapLongLong nbhmll = new NonBlockingHashMapLongLong();
+    final int num_thrds = 4;
+    final int KEYS = 20000;
+    final int ROUNDS = 3;
+    Thread ts[] = new Thread[num_thrds];
+    for( int i=0; i<num_thrds; i++ ) {
+      final int x = i;
+      ts[i] = new Thread() { public void run() {
+        for( int r=0; r<ROUNDS; r++ )
+          for( int k=0; k<KEYS; k++ )
+            nbhmll.addAndGet((k+x*7919)%KEYS,1);
+      } };
+    }
+    for( int i=0; i<num_thrds; i++ ) ts[i].start();
+    for( int i=0; i<num_thrds; i++ ) ts[i].join();
+
+    assertThat( nbhmll.size(), is(KEYS) );
+    for( int k=0; k<KEYS; k++ )
+      assertThat( "key "+k, nbhmll.get(k), is((long)num_thrds*ROUNDS) );
+  }
+}
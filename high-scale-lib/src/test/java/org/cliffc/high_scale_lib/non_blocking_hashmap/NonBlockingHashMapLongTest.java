@@ -209,6 +209,66 @@ public class NonBlockingHashMapLongTest extends TestCase {
     assertThat("Found all integers in list",sum,is(CNT*(CNT-1)/2 - (3+4)));
   }
 
+  // Spliterators split by index range, including the side slot for key 0
+  public void testSpliterator() {
+    final int CNT = 10000;
+    for( int i=0; i<CNT; i++ )
+      _nbhml.put(i,"v"+i);
+    Spliterator<Long> sk = _nbhml.keySet().spliterator();
+    assertTrue( sk.hasCharacteristics(Spliterator.CONCURRENT) );
+    Spliterator<Long> lo = sk.trySplit();
+    assertThat( lo, notNullValue() );
+    final Set<Long> seen = new HashSet<Long>();
+    lo.forEachRemaining(k -> assertTrue(seen.add(k)));
+    while( sk.tryAdvance(k -> assertTrue(seen.add(k))) ) ;
+    assertThat( seen.size(), is(CNT) );
+    assertTrue( seen.contains(0L) );
+
+    assertThat( _nbhml.keySet().parallelStream().mapToLong(Long::longValue).sum(), is((long)CNT*(CNT-1)/2) );
+    assertThat( _nbhml.values().parallelStream().count(), is((long)CNT) );
+    assertTrue( _nbhml.entrySet().parallelStream().allMatch(e -> e.getValue().equals("v"+e.getKey())) );
+  }
+
+  // forEachEntry, forEachKey and the Cursor walk every mapping once,
+  // including key 0, and a Cursor can be reset for another sweep
+  public void testPrimitiveIteration() {
+    final int CNT = 10000;
+    for( int i=0; i<CNT; i++ )
+      _nbhml.put(i,"v"+i);
+    for( int i=1; i<CNT; i+=2 )
+      _nbhml.remove(i);
+    final long expsum = (long)(CNT/2)*(CNT-2)/2;
+
+    final long[] sum = new long[2];
+    _nbhml.forEachEntry((k,v) -> { assertThat(v,is("v"+k)); sum[0] += k; sum[1]++; });
+    assertThat( sum[0], is(expsum) );
+    assertThat( sum[1], is((long)CNT/2) );
+    sum[0] = 0;
+    _nbhml.forEachKey(k -> sum[0] += k);
+    assertThat( sum[0], is(expsum) );
+
+    NonBlockingHashMapLong<String>.Cursor c = _nbhml.cursor();
+    try { c.key(); fail(); } catch( IllegalStateException e ) { }
+    for( int pass=0; pass<2; pass++ ) {
+      long s = 0, n = 0;
+      while( c.advance() ) {
+        assertThat( c.value(), is("v"+c.key()) );
+        s += c.key(); n++;
+      }
+      assertThat( s, is(expsum) );
+      assertThat( n, is((long)CNT/2) );
+      assertFalse( c.advance() );
+      c.reset();
+    }
+
+    // Sweep-and-remove through the cursor
+    while( c.advance() )
+      if( c.key() % 4 == 0 ) assertTrue( c.remove() );
+    assertThat( _nbhml.size(), is(CNT/4) );
+    assertFalse( _nbhml.containsKey(0) );
+    assertTrue ( _nbhml.containsKey(2) );
+  }
+
   // Do some simple concurrent testing
   public void testConcurrentSimple() throws InterruptedException {
     final NonBlockingHashMapLong<String> nbhml = new NonBlockingHashMapLong<String>();
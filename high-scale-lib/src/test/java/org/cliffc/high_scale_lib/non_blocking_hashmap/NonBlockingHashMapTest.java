@@ -8,6 +8,8 @@ import java.io.*;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.BiConsumer;
 import junit.framework.TestCase;
 import org.cliffc.high_scale_lib.*;
 import static org.hamcrest.CoreMatchers.*;
@@ -629,6 +631,344 @@ public class NonBlockingHashMapTest extends TestCase {
     assertTrue( Test4.AE==null );
   }
 
+  // --- compute, computeIfAbsent, computeIfPresent, merge
+  public void testCompute() {
+    assertThat ( _nbhm.computeIfPresent("k1",(k,v) -> v+"x"), nullValue() );
+    assertFalse( _nbhm.containsKey("k1") );
+    assertThat ( _nbhm.computeIfAbsent("k1",k -> null), nullValue() );
+    assertFalse( _nbhm.containsKey("k1") );
+    assertThat ( _nbhm.compute("k1",(k,v) -> null), nullValue() );
+    checkSizes (0);
+
+    assertThat ( _nbhm.computeIfAbsent("k1",k -> k+"v"), is("k1v") );
+    assertThat ( _nbhm.computeIfAbsent("k1",k -> { throw new AssertionError("called on a present key"); }), is("k1v") );
+    checkSizes (1);
+    assertThat ( _nbhm.computeIfPresent("k1",(k,v) -> v+"x"), is("k1vx") );
+    assertThat ( _nbhm.compute("k1",(k,v) -> v+"y"), is("k1vxy") );
+    assertThat ( _nbhm.compute("k2",(k,v) -> v == null ? "new" : "old"), is("new") );
+    checkSizes (2);
+    assertThat ( _nbhm.merge("k2","a",(a,b) -> a+b), is("newa") );
+    assertThat ( _nbhm.merge("k3","a",(a,b) -> a+b), is("a") );
+    checkSizes (3);
+    assertThat ( _nbhm.merge("k3","a",(a,b) -> null), nullValue() );
+    assertThat ( _nbhm.computeIfPresent("k2",(k,v) -> null), nullValue() );
+    assertThat ( _nbhm.compute("k1",(k,v) -> null), nullValue() );
+    checkSizes (0);
+    assertTrue ( _nbhm.isEmpty() );
+
+    try { _nbhm.merge("k1",null,(a,b) -> a); fail(); } catch( NullPointerException e ) { }
+    try { _nbhm.compute(null,(k,v) -> v);    fail(); } catch( NullPointerException e ) { }
+  }
+
+  // Word-count style merges from several threads, across many table resizes
+  public void testConcurrentMerge() throws Exception {
+    final NonBlockingHashMap<Integer,Integer> nbhm = new NonBlockingHashMap<Integer,Integer>();
+    final int THREADS = 4, KEYS = 5000, ROUNDS = 4;
+    final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+    final ExecutorService ex = Executors.newFixedThreadPool(THREADS);
+    List<Future<Object>> fs = new ArrayList<Future<Object>>();
+    for( int t=0; t<THREADS; t++ )
+      fs.add(ex.submit(new Callable<Object>() {
+          public Object call() throws Exception {
+            barrier.await();
+            for( int r=0; r<ROUNDS; r++ )
+              for( int i=0; i<KEYS; i++ ) {
+                nbhm.merge(i,1,Integer::sum);
+                nbhm.compute(-1-i,(k,v) -> v == null ? 1 : v+1);
+                nbhm.computeIfAbsent(KEYS+i,k -> k);
+              }
+            return null;
+          }
+        }));
+    for( Future<Object> f : fs ) f.get();
+    ex.shutdown();
+    assertThat( nbhm.size(), is(3*KEYS) );
+    for( int i=0; i<KEYS; i++ ) {
+      assertThat( nbhm.get(i), is(THREADS*ROUNDS) );
+      assertThat( nbhm.get(-1-i), is(THREADS*ROUNDS) );
+      assertThat( nbhm.get(KEYS+i), is(KEYS+i) );
+    }
+  }
+
+  // Count of K/V slots in the top-level table, peeked at via reflection
+  private static int tableLen( NonBlockingHashMap<?,?> nbhm ) throws Exception {
+    java.lang.reflect.Field f = NonBlockingHashMap.class.getDeclaredField("_kvs");
+    f.setAccessible(true);
+    return (((Object[])f.get(nbhm)).length-2)>>1;
+  }
+
+  // compact() shrinks a drained table and keeps the live keys
+  public void testCompact() throws Exception {
+    final int CNT = 100000;
+    for( int i=0; i<CNT; i++ )
+      _nbhm.put("k"+i,"v"+i);
+    final int biglen = tableLen(_nbhm);
+    assertTrue( biglen >= CNT );
+    for( int i=100; i<CNT; i++ )
+      _nbhm.remove("k"+i);
+    _nbhm.compact();
+    assertThat( tableLen(_nbhm), is(512) ); // 4x the live keys, rounded up
+    assertThat( _nbhm.size(), is(100) );
+    for( int i=0; i<100; i++ )
+      assertThat( _nbhm.get("k"+i), is("v"+i) );
+    assertFalse( _nbhm.containsKey("k100") );
+    _nbhm.clear();
+    _nbhm.compact();            // Empty map: minimum size
+    assertThat( tableLen(_nbhm), is(8) );
+  }
+
+  // Churn through dead keys after a drain: the next resize shrinks
+  public void testAutoShrink() throws Exception {
+    final int CNT = 100000;
+    for( int i=0; i<CNT; i++ )
+      _nbhm.put("k"+i,"v"+i);
+    final int biglen = tableLen(_nbhm);
+    for( int i=10; i<CNT; i++ )
+      _nbhm.remove("k"+i);
+    // Pretend the last resize was long ago, so the anti-churn rule (which
+    // grows rapidly re-resizing tables) does not apply
+    java.lang.reflect.Field f = NonBlockingHashMap.class.getDeclaredField("_last_resize_milli");
+    f.setAccessible(true);
+    f.setLong(_nbhm,0);
+    for( int i=0; i<10*CNT && tableLen(_nbhm) == biglen; i++ ) {
+      _nbhm.put("x"+i,"y");
+      _nbhm.remove("x"+i);
+    }
+    assertTrue( tableLen(_nbhm) < biglen/8 );
+    assertThat( _nbhm.size(), is(10) );
+    for( int i=0; i<10; i++ )
+      assertThat( _nbhm.get("k"+i), is("v"+i) );
+  }
+
+  // Spliterators split by index range and visit every live entry once
+  public void testSpliterator() {
+    final int CNT = 10000;
+    for( int i=0; i<CNT; i++ )
+      _nbhm.put("k"+i,"v"+i);
+    for( int i=0; i<CNT; i+=5 )
+      _nbhm.remove("k"+i);
+    final int live = CNT-CNT/5;
+
+    Spliterator<String> sk = _nbhm.keySet().spliterator();
+    assertTrue( sk.hasCharacteristics(Spliterator.CONCURRENT) );
+    assertTrue( sk.hasCharacteristics(Spliterator.DISTINCT) );
+    assertFalse( _nbhm.values().spliterator().hasCharacteristics(Spliterator.DISTINCT) );
+    assertThat( sk.estimateSize(), is((long)live) );
+    Spliterator<String> lo = sk.trySplit();
+    assertThat( lo, notNullValue() );
+    assertThat( sk.estimateSize()+lo.estimateSize(), is((long)live) );
+    final Set<String> seen = new HashSet<String>();
+    while( lo.tryAdvance(k -> assertTrue(seen.add(k))) ) ;
+    sk.forEachRemaining(k -> assertTrue(seen.add(k)));
+    assertThat( seen.size(), is(live) );
+
+    assertThat( _nbhm.keySet().parallelStream().distinct().count(), is((long)live) );
+    assertThat( _nbhm.values().parallelStream().filter(v -> v.startsWith("v")).count(), is((long)live) );
+    assertTrue( _nbhm.entrySet().parallelStream().allMatch(e -> e.getValue().equals("v"+e.getKey().substring(1))) );
+    assertFalse( _nbhm.keySet().parallelStream().anyMatch(k -> k.equals("k5")) );
+  }
+
+  // Parallel forEach/search/reduce, both below and above the threshold
+  public void testBulkOps() {
+    final NonBlockingHashMap<Integer,Integer> nbhm = new NonBlockingHashMap<Integer,Integer>();
+    final int CNT = 20000;
+    for( int i=0; i<CNT; i++ )
+      nbhm.put(i,i*2);
+    for( int i=0; i<CNT; i+=4 )
+      nbhm.remove(i);           // Leave some tombstones behind
+    final int live = CNT-CNT/4;
+    long expkeys = 0;
+    for( int i=0; i<CNT; i++ )
+      if( (i&3) != 0 ) expkeys += i;
+
+    for( long threshold : new long[] { Long.MAX_VALUE, 1000, 1 } ) {
+      final AtomicLong sum = new AtomicLong();
+      final AtomicInteger cnt = new AtomicInteger();
+      nbhm.forEach(threshold,(k,v) -> { assertThat(v,is(k*2)); sum.addAndGet(k); cnt.incrementAndGet(); });
+      assertThat( cnt.get(), is(live) );
+      assertThat( sum.get(), is(expkeys) );
+
+      sum.set(0);
+      nbhm.forEachValue(threshold,v -> sum.addAndGet(v));
+      assertThat( sum.get(), is(expkeys*2) );
+      cnt.set(0);
+      nbhm.forEach(threshold,(k,v) -> (k&1)==0 ? k : null, k -> cnt.incrementAndGet());
+      assertThat( cnt.get(), is(CNT/4) );
+
+      assertThat( nbhm.reduceKeys(threshold,Math::max), is(CNT-1) );
+      assertThat( nbhm.reduceValues(threshold,Math::min), is(2) );
+      assertThat( nbhm.reduceValues(threshold,v -> (long)v,Long::sum), is(expkeys*2) );
+      assertThat( nbhm.reduce(threshold,(k,v) -> v-k,Integer::sum), is((int)expkeys) );
+      assertThat( nbhm.search(threshold,(k,v) -> k == 12345 ? v : null), is(24690) );
+      assertThat( nbhm.search(threshold,(k,v) -> k == 12344 ? v : null), nullValue() );
+    }
+    NonBlockingHashMap<Integer,Integer> empty = new NonBlockingHashMap<Integer,Integer>();
+    assertThat( empty.reduceKeys(1,Math::max), nullValue() );
+    try { nbhm.forEach(1,(BiConsumer<Integer,Integer>)null); fail(); } catch( NullPointerException e ) { }
+  }
+
+  // A frozen map reads the same, rejects every write, and clones mutable
+  public void testFreeze() {
+    final int CNT = 10000;
+    for( int i=0; i<CNT; i++ )
+      _nbhm.put("k"+i,"v"+i);
+    for( int i=0; i<CNT; i+=3 )
+      _nbhm.remove("k"+i);      // Leave tombstones behind
+    final int live = CNT-(CNT+2)/3;
+    assertFalse( _nbhm.isFrozen() );
+    _nbhm.freeze();
+    _nbhm.freeze();             // Idempotent
+    assertTrue ( _nbhm.isFrozen() );
+    assertThat ( _nbhm.size(), is(live) );
+    for( int i=0; i<CNT; i++ )
+      assertThat( _nbhm.get("k"+i), is(i%3 == 0 ? null : "v"+i) );
+    assertThat ( _nbhm.get("nope"), nullValue() );
+    assertThat ( _nbhm.keySet().size(), is(live) );
+    int cnt = 0;
+    for( String k : _nbhm.keySet() ) { assertThat( _nbhm.get(k), is("v"+k.substring(1)) ); cnt++; }
+    assertThat ( cnt, is(live) );
+    try { _nbhm.put("k1","x");           fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.put("new","x");          fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.putIfAbsent("k0","x");   fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.remove("k1");            fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.remove("nope");          fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.replace("k1","v1","x");  fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.computeIfAbsent("new",k -> "x"); fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.clear();                 fail(); } catch( IllegalStateException e ) { }
+    try { _nbhm.compact();               fail(); } catch( IllegalStateException e ) { }
+    assertThat ( _nbhm.get("k1"), is("v1") );
+    NonBlockingHashMap<String,String> c = (NonBlockingHashMap<String,String>)_nbhm.clone();
+    assertFalse( c.isFrozen() );
+    assertThat ( c.size(), is(live) );
+    assertThat ( c.put("k1","x"), is("v1") );
+  }
+
+  // Writers racing a freeze either throw, or their write is in the frozen map
+  public void testFreezeRace() throws Exception {
+    final NonBlockingHashMap<Integer,Integer> nbhm = new NonBlockingHashMap<Integer,Integer>();
+    final int THREADS = 4;
+    final int[] last = new int[THREADS];
+    final CyclicBarrier barrier = new CyclicBarrier(THREADS+1);
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        try { barrier.await(); } catch( Exception e ) { throw new RuntimeException(e); }
+        try {
+          for( int i=0; ; i++ ) {  // Keys x, x+T, ... each put once
+            nbhm.put(x+i*THREADS,i);
+            last[x] = i+1;
+          }
+        } catch( IllegalStateException e ) { }
+      } };
+      ts[t].start();
+    }
+    barrier.await();
+    Thread.sleep(20);
+    nbhm.freeze();
+    for( Thread t : ts ) t.join();
+    int sz = 0;
+    for( int t=0; t<THREADS; t++ ) {
+      for( int i=0; i<last[t]; i++ )
+        assertThat( nbhm.get(t+i*THREADS), is(i) );
+      // At most the one write that threw may have landed
+      assertThat( nbhm.get(t+(last[t]+1)*THREADS), nullValue() );
+      sz += nbhm.get(t+last[t]*THREADS) == null ? last[t] : last[t]+1;
+    }
+    assertThat( nbhm.size(), is(sz) );
+  }
+
+  // byte[] keys, compared by contents
+  private static class Bytes extends HashStrategy {
+    public int hash( Object k ) { return spread(Arrays.hashCode((byte[])k)); }
+    public boolean equal( Object key, Object k ) { return Arrays.equals((byte[])key,(byte[])k); }
+  }
+
+  // A user strategy is honoured by get, put, resize, freeze, copies and serialization
+  public void testHashStrategy() throws Exception {
+    NonBlockingHashMap<byte[],Integer> nbhm = new NonBlockingHashMap<byte[],Integer>(new Bytes());
+    for( int i=0; i<1000; i++ )
+      assertThat( nbhm.put(Integer.toString(i).getBytes(),i), nullValue() );
+    assertThat( nbhm.put("7".getBytes(),-7), is(7) ); // A fresh array is the same key
+    assertThat( nbhm.size(), is(1000) );
+    for( int i=0; i<1000; i++ )
+      assertThat( nbhm.get(Integer.toString(i).getBytes()), is(i == 7 ? -7 : i) );
+    assertThat( nbhm.remove("7".getBytes()), is(-7) );
+    assertThat( nbhm.get("7".getBytes()), nullValue() );
+    assertThat( nbhm.computeIfAbsent("7".getBytes(),k -> 7), is(7) );
+    ImmutableHashMap<byte[],Integer> imm = nbhm.toImmutable();
+    assertThat( imm.get("999".getBytes()), is(999) );
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(nbhm);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    NonBlockingHashMap<byte[],Integer> nbhm2 = (NonBlockingHashMap<byte[],Integer>)in.readObject();
+    in.close();
+    assertThat( nbhm2.get("42".getBytes()), is(42) );
+    nbhm.freeze();
+    assertThat( nbhm.get("42".getBytes()), is(42) );
+    assertThat( nbhm.get("1000".getBytes()), nullValue() );
+
+    // The built-in strategies all work as plain maps
+    for( HashStrategy hs : new HashStrategy[]{HashStrategy.PASS_THROUGH,HashStrategy.randomized()} ) {
+      NonBlockingHashMap<Integer,Integer> m = new NonBlockingHashMap<Integer,Integer>(hs);
+      for( int i=0; i<10000; i++ ) m.put(i,i);
+      for( int i=0; i<10000; i+=2 ) m.remove(i);
+      assertThat( m.size(), is(5000) );
+      for( int i=0; i<10000; i++ ) assertThat( m.get(i), is((i&1) == 0 ? null : i) );
+    }
+    try { new NonBlockingHashMap<String,String>(null); fail(); } catch( NullPointerException e ) { }
+  }
+
+  // Strings with equal hashCodes hash apart under a seeded strategy
+  public void testSeededStrategy() {
+    assertThat( "Aa".hashCode(), is("BB".hashCode()) );
+    HashStrategy s1 = HashStrategy.seeded(1), s2 = HashStrategy.seeded(2);
+    assertThat( s1.hash("Aa"), not(s1.hash("BB")) );
+    assertThat( s1.hash("AaAa"), is(HashStrategy.seeded(1).hash("AaAa")) );
+    assertThat( s1.hash("AaAa"), not(s2.hash("AaAa")) );
+    assertThat( s1.hash("Aa"), is(s1.hash(new StringBuilder("Aa"))) );
+    assertThat( HashStrategy.PASS_THROUGH.hash(12345), is(12345) );
+    assertThat( HashStrategy.SPREAD.hash("x"), is(HashStrategy.spread("x".hashCode())) );
+  }
+
+  // Raw array keys by contents, and probes by a range of a larger buffer
+  public void testArrayKeys() {
+    NonBlockingHashMap<byte[],Integer> bm = new NonBlockingHashMap<byte[],Integer>(HashStrategy.BYTES);
+    for( int i=0; i<1000; i++ )
+      bm.put(("key"+i).getBytes(),i);
+    final byte[] pkt = "GET key42 key999 key1000 HTTP".getBytes();
+    assertThat( bm.get(pkt,4,5), is(42) );
+    assertThat( bm.get(pkt,10,6), is(999) );
+    assertThat( bm.get(pkt,17,7), nullValue() );
+    assertThat( bm.get(pkt,4,4), is(4) );       // "key4"
+    assertThat( bm.get(pkt,0,0), nullValue() );
+    assertThat( bm.get("key7".getBytes()), is(7) );
+    try { bm.get(pkt,20,10); fail(); } catch( IndexOutOfBoundsException e ) { }
+    try { bm.get(pkt,-1,2);  fail(); } catch( IndexOutOfBoundsException e ) { }
+    try { bm.get("key1".toCharArray(),0,4); fail(); } catch( UnsupportedOperationException e ) { }
+    bm.freeze();
+    assertThat( bm.get(pkt,4,5), is(42) );
+
+    NonBlockingHashMap<char[],Integer> cm = new NonBlockingHashMap<char[],Integer>(HashStrategy.CHARS);
+    cm.put("abc".toCharArray(),1);
+    assertThat( cm.get("abc".toCharArray()), is(1) );
+    assertThat( cm.get("xabcx".toCharArray(),1,3), is(1) );
+    assertThat( cm.put("abc".toCharArray(),2), is(1) );
+    assertThat( cm.size(), is(1) );
+
+    NonBlockingHashMap<CharSequence,Integer> sm = new NonBlockingHashMap<CharSequence,Integer>(HashStrategy.CHAR_SEQUENCE);
+    for( int i=0; i<1000; i++ )
+      sm.put("s"+i,i);
+    assertThat( sm.get(new StringBuilder("s17")), is(17) );
+    assertThat( sm.get("[s123]".toCharArray(),1,4), is(123) );
+    assertThat( sm.put(new StringBuilder("s5"),-5), is(5) );
+    assertThat( sm.size(), is(1000) );
+    assertThat( HashStrategy.CHAR_SEQUENCE.hash(new StringBuilder("xyz")), is(HashStrategy.SPREAD.hash("xyz")) );
+    try { _nbhm.get("k".getBytes(),0,1); fail(); } catch( UnsupportedOperationException e ) { }
+  }
+
   // This test is a copy of the JCK test Hashtable2027, which is incorrect.
   // The test requires a particular order of values to appear in the esa
   // array - but this is not part of the spec.  A different implementation
@@ -0,0 +1,132 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_hashset;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test NonBlockingCompressedSetInt via JUnit
+public class NonBlockingCompressedSetIntTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_hashset.NonBlockingCompressedSetIntTest");
+  }
+
+  private NonBlockingCompressedSetInt _nbcsi;
+  protected void setUp   () { _nbcsi = new NonBlockingCompressedSetInt(); }
+  protected void tearDown() { _nbcsi = null; }
+
+  public void testBasic() {
+    assertTrue ( _nbcsi.isEmpty() );
+    assertTrue ( _nbcsi.add(1) );
+    assertFalse( _nbcsi.add(1) );
+    assertTrue ( _nbcsi.add(2000000000) );
+    assertThat ( _nbcsi.size(), is(2) );
+    assertTrue ( _nbcsi.contains(2000000000) );
+    assertFalse( _nbcsi.contains(2000000001) );
+    assertFalse( _nbcsi.contains(-1) );
+    assertTrue ( _nbcsi.sizeInBytes() < 100 ); // Sparse and wide stays small
+    assertThat ( _nbcsi.toString(), is("[1, 2000000000]") );
+    assertTrue ( _nbcsi.remove(1) );
+    assertFalse( _nbcsi.remove(1) );
+    assertTrue ( _nbcsi.remove(2000000000) );
+    assertTrue ( _nbcsi.isEmpty() );
+    assertThat ( _nbcsi.sizeInBytes(), is(0) );
+    try { _nbcsi.add(-1); fail(); } catch( IllegalArgumentException e ) { }
+  }
+
+  // Walk one chunk through every container kind and back, checking the
+  // contents against a TreeSet at each step
+  public void testContainers() {
+    TreeSet<Integer> ref = new TreeSet<Integer>();
+    Random r = new Random(42);
+    for( int i=0; i<3000; i++ ) { // Sparse: array
+      int x = 65536+r.nextInt(65536);
+      assertThat( _nbcsi.add(x), is(ref.add(x)) );
+    }
+    check(ref);
+    for( int i=0; i<5000; i++ ) { // Contiguous: runs
+      assertThat( _nbcsi.add(200000+i), is(ref.add(200000+i)) );
+    }
+    check(ref);
+    assertTrue( _nbcsi.sizeInBytes() < 8000 );
+    for( int i=0; i<20000; i++ ) { // Dense: bitmap
+      int x = 65536+r.nextInt(65536);
+      assertThat( _nbcsi.add(x), is(ref.add(x)) );
+    }
+    check(ref);
+    for( int i=0; i<65536; i+=3 ) { // Split runs apart
+      assertThat( _nbcsi.remove(196608+i), is(ref.remove(196608+i)) );
+    }
+    check(ref);
+    Iterator<Integer> it = ref.iterator(); // Thin the bitmap out to nothing
+    while( it.hasNext() ) {
+      int x = it.next();
+      if( x < 131072 ) { assertTrue( _nbcsi.remove(x) ); it.remove(); }
+    }
+    check(ref);
+    for( int x : ref )
+      assertTrue( _nbcsi.remove(x) );
+    assertTrue( _nbcsi.isEmpty() );
+    assertThat( _nbcsi.sizeInBytes(), is(0) );
+  }
+
+  private void check( TreeSet<Integer> ref ) {
+    assertThat( _nbcsi.size(), is(ref.size()) );
+    final List<Integer> seen = new ArrayList<Integer>();
+    _nbcsi.forEach((int i) -> seen.add(i));
+    assertThat( seen, is((List<Integer>)new ArrayList<Integer>(ref)) );
+    seen.clear();
+    for( IntIterator it = _nbcsi.intIterator(); it.hasNext(); )
+      seen.add(it.next());
+    assertThat( seen, is((List<Integer>)new ArrayList<Integer>(ref)) );
+    for( int x : ref )
+      assertTrue( _nbcsi.contains(x) );
+  }
+
+  public void testIteratorRemove() {
+    for( int i=0; i<100; i++ )
+      _nbcsi.add(i*1000);
+    for( Iterator<Integer> it = _nbcsi.iterator(); it.hasNext(); )
+      if( (it.next()/1000 & 1) == 1 ) it.remove();
+    assertThat( _nbcsi.size(), is(50) );
+    for( int i=0; i<100; i++ )
+      assertThat( _nbcsi.contains(i*1000), is((i&1) == 0) );
+    _nbcsi.clear();
+    assertTrue( _nbcsi.isEmpty() );
+  }
+
+  // Threads add and remove disjoint elements of the same dense chunks,
+  // forcing bitmap shrinks to race with writers.  Chunk 0 is covered too.
+  // Failures are counted rather than asserted, since an assert in another
+  // thread would not fail the test.
+  public void testConcurrent() throws InterruptedException {
+    final NonBlockingCompressedSetInt s = _nbcsi;
+    final int THREADS = 4, N = 1<<17;
+    final AtomicInteger errs = new AtomicInteger();
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        for( int j=0; j<5; j++ ) {
+          for( int i=x; i<N; i+=THREADS ) if( !s.add(i) ) errs.incrementAndGet();
+          for( int i=x; i<N; i+=THREADS ) if( !s.remove(i) ) errs.incrementAndGet();
+        }
+        for( int i=x; i<N; i+=THREADS ) if( (i&7) == 0 && !s.add(i) ) errs.incrementAndGet();
+      } };
+    }
+    for( Thread t : ts ) t.start();
+    for( Thread t : ts ) t.join();
+    assertThat( errs.get(), is(0) );
+    assertThat( s.size(), is(N/8) );
+    int cnt = 0;
+    for( IntIterator it = s.intIterator(); it.hasNext(); cnt++ )
+      assertThat( it.next()&7, is(0) );
+    assertThat( cnt, is(N/8) );
+  }
+}
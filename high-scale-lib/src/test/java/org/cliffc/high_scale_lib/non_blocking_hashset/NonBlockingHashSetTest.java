@@ -41,6 +41,29 @@ public class NonBlockingHashSetTest extends TestCase {
     assertTrue ( _nbhs.isEmpty() );
   }
 
+  public void testParallelStream() {
+    for( int i=0; i<5000; i++ )
+      _nbhs.add("k"+i);
+    assertThat( _nbhs.parallelStream().filter(s -> s.endsWith("7")).count(), is(500L) );
+    assertTrue( _nbhs.spliterator().hasCharacteristics(Spliterator.DISTINCT) );
+  }
+
+  public void testReadOnly() {
+    for( int i=0; i<1000; i++ )
+      _nbhs.add("k"+i);
+    _nbhs.remove("k7");
+    assertFalse( _nbhs.isReadOnly() );
+    _nbhs.readOnly();
+    assertTrue ( _nbhs.isReadOnly() );
+    checkSizes (999);
+    assertTrue ( _nbhs.contains("k8") );
+    assertFalse( _nbhs.contains("k7") );
+    try { _nbhs.add("k7");    fail(); } catch( IllegalStateException e ) { }
+    try { _nbhs.remove("k8"); fail(); } catch( IllegalStateException e ) { }
+    try { _nbhs.clear();      fail(); } catch( IllegalStateException e ) { }
+    assertTrue ( _nbhs.contains("k8") );
+  }
+
   // Check all iterators for correct size counts
   private void checkSizes(int expectedSize) {
     assertEquals( "size()", _nbhs.size(), expectedSize );
@@ -118,6 +118,209 @@ public class NonBlockingSetIntTest extends TestCase {
 
   }
 
+  // Word-at-a-time scans: nextSetBit, forEach and the iterators agree,
+  // including elements stored in the nested every-64th-bit sub-vectors
+  public void testNextSetBit() {
+    assertThat( _nbsi.nextSetBit(0), is(-1) );
+    final int[] elems = { 0, 5, 62, 63, 64, 127, 4095, 4096, 262143, 1000000 };
+    for( int e : elems )
+      assertTrue( _nbsi.add(e) );
+    int idx = 0;
+    for( int i=_nbsi.nextSetBit(0); i>=0; i=_nbsi.nextSetBit(i+1) )
+      assertThat( i, is(elems[idx++]) );
+    assertThat( idx, is(elems.length) );
+    assertThat( _nbsi.nextSetBit(6), is(62) );
+    assertThat( _nbsi.nextSetBit(128), is(4095) );
+    assertThat( _nbsi.nextSetBit(1000001), is(-1) );
+    assertThat( _nbsi.nextSetBit(Integer.MAX_VALUE), is(-1) );
+
+    final List<Integer> seen = new ArrayList<Integer>();
+    _nbsi.forEach((int i) -> seen.add(i));
+    assertThat( seen.size(), is(elems.length) );
+    for( int i=0; i<elems.length; i++ )
+      assertThat( seen.get(i), is(elems[i]) );
+
+    idx = 0;
+    for( IntIterator it = _nbsi.intIterator(); it.hasNext(); )
+      assertThat( it.next(), is(elems[idx++]) );
+    assertThat( idx, is(elems.length) );
+    Iterator<Integer> it = _nbsi.iterator();
+    it.next(); it.remove();
+    assertFalse( _nbsi.contains(0) );
+    assertThat( _nbsi.nextSetBit(0), is(5) );
+  }
+
+  // Set algebra against java.util.BitSet, on operands of different sizes
+  // (so different nesting depths) with elements in the nested sub-vectors
+  public void testSetAlgebra() {
+    final int[] maxs = { 10, 63, 64, 4095, 4096, 300000 };
+    Random r = new Random(7);
+    for( int ma : maxs ) for( int mb : maxs ) {
+      NonBlockingSetInt a = new NonBlockingSetInt(), b = new NonBlockingSetInt();
+      BitSet ba = new BitSet(), bb = new BitSet();
+      fill(a,ba,ma,r);
+      fill(b,bb,mb,r);
+      BitSet x;
+      x = (BitSet)ba.clone(); x.and(bb);    same(a.intersect(b),x);
+      assertThat( a.intersectionCardinality(b), is(x.cardinality()) );
+      x = (BitSet)ba.clone(); x.or(bb);     same(a.union(b),x);
+      assertThat( a.unionCardinality(b), is(x.cardinality()) );
+      x = (BitSet)ba.clone(); x.andNot(bb); same(a.andNot(b),x);
+      x = (BitSet)ba.clone(); x.xor(bb);    same(a.xor(b),x);
+      same(a,ba);               // Operands untouched
+      same(b,bb);
+
+      NonBlockingSetInt c = a.union(new NonBlockingSetInt());
+      x = (BitSet)ba.clone(); x.or(bb);
+      assertThat( c.addAll(b), is(!x.equals(ba)) );
+      same(c,x);
+      assertFalse( c.addAll(b) );
+      c = a.union(new NonBlockingSetInt());
+      x = (BitSet)ba.clone(); x.andNot(bb);
+      assertThat( c.removeAll(b), is(!x.equals(ba)) );
+      same(c,x);
+      c = a.union(new NonBlockingSetInt());
+      x = (BitSet)ba.clone(); x.and(bb);
+      assertThat( c.retainAll(b), is(!x.equals(ba)) );
+      same(c,x);
+    }
+  }
+
+  private static void fill( NonBlockingSetInt s, BitSet bs, int max, Random r ) {
+    for( int i=0; i<200; i++ ) {
+      int x = r.nextInt(max+1);
+      if( (i&3) == 0 ) x |= 63; // Land in the nested every-64th bits
+      if( x > max ) continue;
+      s.add(x);
+      bs.set(x);
+    }
+  }
+
+  private static void same( NonBlockingSetInt s, BitSet bs ) {
+    assertThat( s.size(), is(bs.cardinality()) );
+    int i = -1;
+    for( IntIterator it = s.intIterator(); it.hasNext(); ) {
+      i = bs.nextSetBit(i+1);
+      assertThat( it.next(), is(i) );
+    }
+    assertThat( bs.nextSetBit(i+1), is(-1) );
+  }
+
+  // Growing past the old table must not drop bits sharing a nested
+  // every-64th-bit word with the new element
+  public void testGrowNested() {
+    assertTrue( _nbsi.add(2559) );
+    assertTrue( _nbsi.add(63) );
+    assertTrue( _nbsi.contains(2559) ); // Drives the copy forward
+    assertTrue( _nbsi.contains(63) );
+    assertTrue( _nbsi.add(8191) );
+    assertTrue( _nbsi.add(4095) );
+    for( int i=0; i<100; i++ ) _nbsi.contains(i); // Finish the copies
+    assertTrue( _nbsi.contains(63) );
+    assertTrue( _nbsi.contains(4095) );
+    assertThat( _nbsi.size(), is(4) );
+  }
+
+  // In-place addAll from two threads into a shared set, racing a resize
+  public void testConcurrentAddAll() throws InterruptedException {
+    final NonBlockingSetInt dst = new NonBlockingSetInt();
+    final NonBlockingSetInt evens = new NonBlockingSetInt(), odds = new NonBlockingSetInt();
+    for( int i=0; i<100000; i++ ) ((i&1)==0 ? evens : odds).add(i);
+    Thread t1 = new Thread() { public void run() { dst.addAll(odds); } };
+    t1.start();
+    dst.addAll(evens);
+    t1.join();
+    assertThat( dst.size(), is(100000) );
+    assertThat( dst.nextSetBit(0), is(0) );
+    assertTrue( dst.retainAll(odds) );
+    assertThat( dst.size(), is(50000) );
+    assertThat( dst.intersectionCardinality(evens), is(0) );
+  }
+
+  // The parallel versions split big sets into ForkJoin tasks and must give
+  // the same answers as the sequential ones
+  public void testParallelSetAlgebra() {
+    NonBlockingSetInt a = new NonBlockingSetInt(), b = new NonBlockingSetInt();
+    BitSet ba = new BitSet(), bb = new BitSet();
+    Random r = new Random(11);
+    for( int i=0; i<200000; i++ ) {
+      int x = r.nextInt(1<<22), y = r.nextInt(3<<20) | (i&1)*63;
+      a.add(x); ba.set(x);
+      b.add(y); bb.set(y);
+    }
+    final long P = 1;           // Always split
+    BitSet x;
+    x = (BitSet)ba.clone(); x.and(bb);    same(a.intersect(P,b),x);
+    assertThat( a.intersectionCardinality(P,b), is(x.cardinality()) );
+    x = (BitSet)ba.clone(); x.or(bb);     same(a.union(P,b),x);
+    assertThat( a.unionCardinality(P,b), is(x.cardinality()) );
+    x = (BitSet)ba.clone(); x.andNot(bb); same(a.andNot(P,b),x);
+    x = (BitSet)ba.clone(); x.xor(bb);    same(a.xor(P,b),x);
+    x = (BitSet)bb.clone(); x.andNot(ba); same(b.andNot(P,a),x);
+
+    NonBlockingSetInt c = new NonBlockingSetInt();
+    assertTrue( c.addAll(P,b) ); // Grows 'c' from tasks running in parallel
+    same(c,bb);
+    assertTrue( c.addAll(P,a) );
+    x = (BitSet)ba.clone(); x.or(bb);     same(c,x);
+    assertTrue( c.removeAll(P,b) );
+    x.andNot(bb);                         same(c,x);
+    assertTrue( c.retainAll(P,a.intersect(b)) == !x.isEmpty() );
+    assertTrue( c.isEmpty() );
+  }
+
+  // rank/select/countRange against BitSet, before and after writes that
+  // dirty the block-count index
+  public void testRankSelect() {
+    BitSet bs = new BitSet();
+    Random r = new Random(3);
+    for( int i=0; i<50000; i++ ) {
+      int x = r.nextInt(1<<21);
+      _nbsi.add(x); bs.set(x);
+    }
+    for( int pass=0; pass<3; pass++ ) {
+      for( int t=0; t<200; t++ ) {
+        int a = r.nextInt(1<<22), b = a+r.nextInt(1<<18);
+        assertThat( _nbsi.countRange(a,b), is(bs.get(a,b).cardinality()) );
+        assertThat( _nbsi.rank(a), is(bs.get(0,a).cardinality()) );
+        int k = r.nextInt(bs.cardinality()+10);
+        int sel = -1;
+        for( int i=bs.nextSetBit(0), n=0; i>=0; i=bs.nextSetBit(i+1), n++ )
+          if( n == k ) { sel = i; break; }
+        assertThat( _nbsi.select(k), is(sel) );
+        if( sel >= 0 ) assertThat( _nbsi.rank(sel), is(k) );
+      }
+      for( int i=0; i<1000; i++ ) { // Dirty some blocks
+        int x = r.nextInt(1<<21);
+        if( (i&1) == 0 ) { _nbsi.add(x); bs.set(x); } else { _nbsi.remove(x); bs.clear(x); }
+      }
+    }
+    assertThat( _nbsi.countRange(0,Integer.MAX_VALUE), is(bs.cardinality()) );
+    _nbsi.clear();
+    assertThat( _nbsi.rank(1<<21), is(0) );
+    assertThat( _nbsi.select(0), is(-1) );
+  }
+
+  public void testRanges() {
+    BitSet bs = new BitSet();
+    _nbsi.setRange(10,1000);      bs.set(10,1000);
+    _nbsi.setRange(4000,4096);    bs.set(4000,4096);
+    _nbsi.setRange(70000,70001);  bs.set(70000,70001);
+    _nbsi.clearRange(63,128);     bs.clear(63,128);
+    _nbsi.clearRange(500,501);    bs.clear(500,501);
+    _nbsi.clearRange(1<<20,1<<21); // Past the end: nothing to do
+    same(_nbsi,bs);
+    for( int i : new int[]{ 0, 9, 10, 62, 63, 127, 128, 500, 999, 1000, 4095, 4096, 69999, 70000, 70001, 1<<20 } ) {
+      assertThat( "prev "+i, _nbsi.previousSetBit(i), is(bs.previousSetBit(i)) );
+      assertThat( "nextClear "+i, _nbsi.nextClearBit(i), is(bs.nextClearBit(i)) );
+      assertThat( "next "+i, _nbsi.nextSetBit(i), is(bs.nextSetBit(i)) );
+    }
+    assertThat( _nbsi.previousSetBit(-1), is(-1) );
+    assertThat( _nbsi.previousSetBit(9), is(-1) );
+    _nbsi.clearRange(0,Integer.MAX_VALUE);
+    assertTrue( _nbsi.isEmpty() );
+  }
+
   public void testSerial() {
     assertTrue ( _nbsi.isEmpty() );
     assertTrue ( _nbsi.add(1) );
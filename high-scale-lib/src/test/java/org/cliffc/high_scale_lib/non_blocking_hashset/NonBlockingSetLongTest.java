@@ -0,0 +1,149 @@
+/*
+ * Written by Cliff Click and released to the public domain, as explained at
+ * http://creativecommons.org/licenses/publicdomain
+ */
+
+package org.cliffc.high_scale_lib.non_blocking_hashset;
+import java.io.*;
+import java.util.*;
+import junit.framework.TestCase;
+import org.cliffc.high_scale_lib.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+// Test NonBlockingSetLong via JUnit
+public class NonBlockingSetLongTest extends TestCase {
+  public static void main(String args[]) {
+    org.junit.runner.JUnitCore.main("org.cliffc.high_scale_lib.non_blocking_hashset.NonBlockingSetLongTest");
+  }
+
+  private NonBlockingSetLong _nbsl;
+  protected void setUp   () { _nbsl = new NonBlockingSetLong(); }
+  protected void tearDown() { _nbsl = null; }
+
+  public void testBasic() {
+    assertTrue ( _nbsl.isEmpty() );
+    assertTrue ( _nbsl.add(1) );
+    assertFalse( _nbsl.add(1) );
+    assertTrue ( _nbsl.add(0) );   // The empty-slot key
+    assertFalse( _nbsl.add(0) );
+    assertTrue ( _nbsl.add(Long.MIN_VALUE) );
+    assertTrue ( _nbsl.add(Long.MAX_VALUE) );
+    assertTrue ( _nbsl.add(-1) );
+    assertThat ( _nbsl.size(), is(5) );
+    assertTrue ( _nbsl.contains(0) );
+    assertTrue ( _nbsl.contains(Long.MIN_VALUE) );
+    assertTrue ( _nbsl.contains((Object)(-1L)) );
+    assertFalse( _nbsl.contains(2) );
+    assertFalse( _nbsl.contains((Object)1) ); // An Integer is not a Long
+    assertTrue ( _nbsl.remove(0) );
+    assertFalse( _nbsl.remove(0) );
+    assertFalse( _nbsl.contains(0) );
+    assertTrue ( _nbsl.remove(1) );
+    assertFalse( _nbsl.remove(1) );
+    assertTrue ( _nbsl.add(1) );   // Re-add into a dead slot
+    assertThat ( _nbsl.size(), is(4) );
+    _nbsl.clear();
+    assertTrue ( _nbsl.isEmpty() );
+    assertFalse( _nbsl.contains(1) );
+  }
+
+  // Random adds and removes through many resizes, against a HashSet
+  public void testRandom() {
+    HashSet<Long> ref = new HashSet<Long>();
+    Random r = new Random(42);
+    for( int i=0; i<200000; i++ ) {
+      long x = r.nextInt(4) == 0 ? r.nextLong() : r.nextInt(50000); // Wide and narrow
+      if( r.nextInt(3) == 0 ) assertThat( _nbsl.remove(x), is(ref.remove(x)) );
+      else                    assertThat( _nbsl.add   (x), is(ref.add   (x)) );
+    }
+    check(ref);
+    for( Long x : ref ) assertTrue( _nbsl.contains(x.longValue()) );
+    for( int i=0; i<1000; i++ ) {
+      long x = r.nextLong();
+      assertThat( _nbsl.contains(x), is(ref.contains(x)) );
+    }
+  }
+
+  private void check( Set<Long> ref ) {
+    assertThat( _nbsl.size(), is(ref.size()) );
+    final HashSet<Long> seen = new HashSet<Long>();
+    _nbsl.forEach((long x) -> assertTrue( seen.add(x) ));
+    assertThat( seen, is(ref) );
+    seen.clear();
+    int cnt = 0;
+    for( LongIterator it = _nbsl.longIterator(); it.hasNext(); cnt++ )
+      seen.add(it.next());
+    assertThat( cnt, is(ref.size()) );
+    assertThat( seen, is(ref) );
+    assertThat( new HashSet<Long>(_nbsl), is(ref) );
+  }
+
+  // 8 byte keys at a load factor between 1/4 and 3/4
+  public void testSpace() {
+    for( int i=1; i<=1000000; i++ )
+      _nbsl.add(i*0x9E3779B97F4A7C15L);
+    assertThat( _nbsl.size(), is(1000000) );
+    long per = _nbsl.sizeInBytes()/_nbsl.size();
+    assertTrue( "bytes/element "+per, per >= 11 && per <= 34 );
+    // Churn through dead slots does not grow the table without bound
+    for( int i=1; i<=1000000; i++ ) {
+      assertTrue( _nbsl.remove(i*0x9E3779B97F4A7C15L) );
+      assertTrue( _nbsl.add(-i) );
+    }
+    assertThat( _nbsl.size(), is(1000000) );
+    assertTrue( _nbsl.sizeInBytes()/_nbsl.size() <= 34 );
+  }
+
+  public void testIteratorRemove() {
+    for( long i=0; i<100; i++ )
+      _nbsl.add(i<<40);
+    for( Iterator<Long> it = _nbsl.iterator(); it.hasNext(); )
+      if( ((it.next()>>40) & 1) == 1 ) it.remove();
+    assertThat( _nbsl.size(), is(50) );
+    for( long i=0; i<100; i++ )
+      assertThat( _nbsl.contains(i<<40), is((i&1) == 0) );
+    LongIterator it = _nbsl.longIterator();
+    while( it.hasNext() ) it.next();
+    try { it.next(); fail(); } catch( NoSuchElementException e ) { }
+  }
+
+  public void testSerial() throws Exception {
+    for( long i=-100; i<100; i++ )
+      _nbsl.add(i*1000000007L);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(_nbsl);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    NonBlockingSetLong nbsl = (NonBlockingSetLong)in.readObject();
+    in.close();
+    assertThat( nbsl.size(), is(200) );
+    assertThat( (Set<Long>)nbsl, is((Set<Long>)_nbsl) );
+  }
+
+  // Threads add and remove disjoint keys while the table resizes under them
+  public void testConcurrent() throws InterruptedException {
+    final NonBlockingSetLong s = _nbsl;
+    final int THREADS = 4, N = 1<<17;
+    Thread ts[] = new Thread[THREADS];
+    for( int t=0; t<THREADS; t++ ) {
+      final int x = t;
+      ts[t] = new Thread() { public void run() {
+        for( int j=0; j<5; j++ ) {
+          for( long i=x; i<N; i+=THREADS ) assertTrue( s.add(i<<20) );
+          for( long i=x; i<N; i+=THREADS ) assertTrue( s.contains(i<<20) );
+          for( long i=x; i<N; i+=THREADS ) assertTrue( s.remove(i<<20) );
+        }
+        for( long i=x; i<N; i+=THREADS ) if( (i&7) == 0 ) assertTrue( s.add(i<<20) );
+      } };
+    }
+    for( Thread t : ts ) t.start();
+    for( Thread t : ts ) t.join();
+    assertThat( s.size(), is(N/8) );
+    int cnt = 0;
+    for( LongIterator it = s.longIterator(); it.hasNext(); cnt++ )
+      assertThat( (it.next()>>20)&7, is(0L) );
+    assertThat( cnt, is(N/8) );
+  }
+}
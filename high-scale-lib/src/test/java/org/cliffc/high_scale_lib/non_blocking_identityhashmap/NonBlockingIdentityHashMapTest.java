@@ -235,6 +235,24 @@ public class NonBlockingIdentityHashMapTest extends TestCase {
     assertThat("Found all integers in list",sum,is(CNT*(CNT-1)/2 - (3+4)));
   }
 
+  // Spliterators split by index range; equal-but-not-identical keys are
+  // both visited, so the views do not claim DISTINCT
+  public void testSpliterator() {
+    final int CNT = 5000;
+    for( int i=0; i<CNT; i++ )
+      _nbhm.put(new String("k"+(i>>1)),"v"+i);
+    Spliterator<String> sk = _nbhm.keySet().spliterator();
+    assertFalse( sk.hasCharacteristics(Spliterator.DISTINCT) );
+    Spliterator<String> lo = sk.trySplit();
+    assertThat( lo, notNullValue() );
+    final int[] cnt = new int[1];
+    lo.forEachRemaining(k -> cnt[0]++);
+    sk.forEachRemaining(k -> cnt[0]++);
+    assertThat( cnt[0], is(CNT) );
+    assertThat( _nbhm.keySet().parallelStream().distinct().count(), is((long)CNT/2) );
+    assertThat( _nbhm.values().parallelStream().count(), is((long)CNT) );
+  }
+
   // Do some simple concurrent testing
   public void testConcurrentSimple() throws InterruptedException {
     final NonBlockingIdentityHashMap<String,String> nbhm = new NonBlockingIdentityHashMap<String,String>();